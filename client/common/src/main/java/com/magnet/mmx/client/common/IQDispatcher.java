@@ -0,0 +1,233 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.magnet.mmx.client.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.IQTypeFilter;
+import org.jivesoftware.smack.filter.OrFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.util.StringUtils;
+
+/**
+ * @hide
+ * The single IQ result dispatcher of a connection.  Instead of registering a
+ * packet listener per outstanding IQ, the pending requests are kept in a map
+ * keyed by the packet ID and one listener routes each result or error to its
+ * handler.  The timeouts of all pending requests are driven by one scheduler
+ * thread, so a request without a reply is always removed.
+ */
+class IQDispatcher implements PacketListener {
+  private final static String TAG = "IQDispatcher";
+
+  /**
+   * The handler of a reply to a pending IQ.
+   */
+  interface ReplyHandler {
+    /**
+     * The IQ result or error is received.
+     * @param iq
+     */
+    public void onReply(IQ iq);
+    /**
+     * No reply is received because of a timeout or the connection was closed.
+     * @param reason
+     */
+    public void onFailure(String reason);
+  }
+
+  private static class Pending {
+    private final ReplyHandler mHandler;
+    private final String[] mRepliers;
+    private volatile ScheduledFuture<?> mTimer;
+
+    public Pending(ReplyHandler handler, String[] repliers) {
+      mHandler = handler;
+      mRepliers = repliers;
+    }
+
+    // Same rules as Smack's IQReplyFilter: a reply to a request sent to the
+    // server may come from the server or from the user's own JID.
+    public boolean isFrom(String from) {
+      for (String replier : mRepliers) {
+        if (replier == null) {
+          if (from == null) {
+            return true;
+          }
+        } else if (replier.equalsIgnoreCase(from)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public void cancelTimer() {
+      ScheduledFuture<?> timer = mTimer;
+      if (timer != null) {
+        timer.cancel(false);
+      }
+    }
+  }
+
+  private final ConcurrentHashMap<String, Pending> mPending =
+      new ConcurrentHashMap<String, Pending>();
+  private final ScheduledThreadPoolExecutor mScheduler;
+
+  public IQDispatcher() {
+    mScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "MMX IQ Timer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    mScheduler.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Listen for the IQ results and errors on a new XMPP connection.
+   * @param xmppCon
+   */
+  void attach(XMPPConnection xmppCon) {
+    xmppCon.addPacketListener(this, new OrFilter(
+        new IQTypeFilter(IQ.Type.RESULT), new IQTypeFilter(IQ.Type.ERROR)));
+  }
+
+  /**
+   * Send an IQ request and route its reply to the handler.  If no reply is
+   * received within the timeout, the handler will be notified of the failure.
+   * @param xmppCon
+   * @param iq An IQ request with a unique packet ID.
+   * @param handler
+   * @param timeout The timeout in milliseconds.
+   * @throws NotConnectedException
+   */
+  void send(XMPPConnection xmppCon, IQ iq, ReplyHandler handler, long timeout)
+      throws NotConnectedException {
+    String id = iq.getPacketID();
+    String[] repliers;
+    if (iq.getTo() == null) {
+      String user = xmppCon.getUser();
+      repliers = new String[] { null, xmppCon.getServiceName(),
+          (user == null) ? null : StringUtils.parseBareAddress(user), user };
+    } else {
+      repliers = new String[] { iq.getTo() };
+    }
+    register(id, repliers, handler, timeout);
+    try {
+      xmppCon.sendPacket(iq);
+    } catch (NotConnectedException e) {
+      cancel(id);
+      throw e;
+    }
+  }
+
+  /**
+   * Wait for the reply to a request and start its timer.
+   * @param id The packet ID of the request.
+   * @param repliers The senders allowed to reply; null stands for the server.
+   * @param handler
+   * @param timeout The timeout in milliseconds.
+   */
+  void register(final String id, String[] repliers, ReplyHandler handler,
+                long timeout) {
+    final Pending pending = new Pending(handler, repliers);
+    mPending.put(id, pending);
+    pending.mTimer = mScheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (mPending.remove(id, pending)) {
+          pending.mHandler.onFailure("Response timed out");
+        }
+      }
+    }, timeout, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop waiting for the reply to a request without notifying its handler.
+   * @param id The packet ID of the request.
+   * @return true if the request was pending.
+   */
+  boolean cancel(String id) {
+    Pending pending = mPending.remove(id);
+    if (pending == null) {
+      return false;
+    }
+    pending.cancelTimer();
+    return true;
+  }
+
+  @Override
+  public void processPacket(Packet packet) {
+    String id = packet.getPacketID();
+    if (id == null) {
+      return;
+    }
+    Pending pending = mPending.get(id);
+    if (pending == null) {
+      return;
+    }
+    if (!pending.isFrom(packet.getFrom())) {
+      Log.w(TAG, "Ignoring IQ reply id="+id+" from unexpected sender "+
+          packet.getFrom());
+      return;
+    }
+    if (mPending.remove(id, pending)) {
+      pending.cancelTimer();
+      pending.mHandler.onReply((IQ) packet);
+    }
+  }
+
+  /**
+   * Fail all pending requests, e.g. when the connection is closed.
+   * @param reason
+   */
+  void failAll(String reason) {
+    for (Map.Entry<String, Pending> entry : mPending.entrySet()) {
+      Pending pending = entry.getValue();
+      if (mPending.remove(entry.getKey(), pending)) {
+        pending.cancelTimer();
+        pending.mHandler.onFailure(reason);
+      }
+    }
+  }
+
+  /**
+   * Get the number of requests waiting for a reply.
+   * @return
+   */
+  int getPendingCount() {
+    return mPending.size();
+  }
+
+  /**
+   * Fail all pending requests and stop the timer thread.
+   */
+  void shutdown() {
+    failAll("Connection has been terminated");
+    mScheduler.shutdownNow();
+  }
+}
@@ -0,0 +1,134 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.magnet.mmx.client.common;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.magnet.mmx.protocol.Constants;
+import com.magnet.mmx.protocol.MMXStatus;
+
+/**
+ * The result of an IQ request sent without blocking.  Many requests can be
+ * in flight at once; the caller collects each result with {@link #get()}.  An
+ * error from the server or a timeout is reported as an ExecutionException
+ * caused by an {@link MMXException}.
+ *
+ * @param <Result>
+ */
+public class IQFuture<Result> implements Future<Result>, IQListener<Result> {
+  private final CountDownLatch mDone = new CountDownLatch(1);
+  private boolean mCancelled;
+  private Result mResult;
+  private MMXException mError;
+  private IQDispatcher mDispatcher;
+  private String mId;
+
+  /**
+   * Set the pending request so that a cancellation stops waiting for its
+   * reply.
+   * @param dispatcher
+   * @param id The packet ID of the request.
+   */
+  synchronized void setPending(IQDispatcher dispatcher, String id) {
+    mDispatcher = dispatcher;
+    mId = id;
+  }
+
+  private synchronized boolean complete(Result result, MMXException error) {
+    if (mDone.getCount() == 0) {
+      return false;
+    }
+    mResult = result;
+    mError = error;
+    mDone.countDown();
+    return true;
+  }
+
+  private synchronized Result report() throws ExecutionException {
+    if (mCancelled) {
+      throw new CancellationException();
+    }
+    if (mError != null) {
+      throw new ExecutionException(mError.getMessage(), mError);
+    }
+    return mResult;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    IQDispatcher dispatcher;
+    String id;
+    synchronized(this) {
+      if (mDone.getCount() == 0) {
+        return false;
+      }
+      mCancelled = true;
+      mDone.countDown();
+      dispatcher = mDispatcher;
+      id = mId;
+    }
+    // The reply is no longer wanted; don't keep it in the dispatcher.
+    if (dispatcher != null) {
+      dispatcher.cancel(id);
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return mCancelled;
+  }
+
+  @Override
+  public boolean isDone() {
+    return mDone.getCount() == 0;
+  }
+
+  @Override
+  public Result get() throws InterruptedException, ExecutionException {
+    mDone.await();
+    return report();
+  }
+
+  @Override
+  public Result get(long timeout, TimeUnit unit) throws InterruptedException,
+      ExecutionException, TimeoutException {
+    if (!mDone.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return report();
+  }
+
+  @Override
+  public void onReceived(Result result) {
+    complete(result, null);
+  }
+
+  @Override
+  public void onError(String cmd, MMXStatus status) {
+    complete(null, new MMXException(status.getMessage(), status.getCode(), null));
+  }
+
+  @Override
+  public void onError(String xml) {
+    complete(null, new MMXException(xml, Constants.STATUS_CODE_500));
+  }
+}
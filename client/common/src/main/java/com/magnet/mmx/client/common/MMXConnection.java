@@ -86,6 +86,7 @@ public class MMXConnection implements ConnectionListener {
   private MMXMessageListener mMsgListener;
   private MMXQueue mQueue;
   private QueueExecutor mExecutor;
+  private IQDispatcher mIQDispatcher;
   private AnonyAccount mAnonyAcct;
   private String mPubSubServiceName;
   private String mAppId;
@@ -134,6 +135,7 @@ public class MMXConnection implements ConnectionListener {
     mQueue = queue;
     mExecutor = new QueueExecutor("CallbackThread", true);
     mExecutor.start();
+    mIQDispatcher = new IQDispatcher();
     mSettings = settings.clone();
     initId();
   }
@@ -146,6 +148,14 @@ public class MMXConnection implements ConnectionListener {
     return mExecutor;
   }
 
+  /**
+   * Retrieves the dispatcher of the IQ results for this connection.
+   * @return The IQ dispatcher.
+   */
+  IQDispatcher getIQDispatcher() {
+    return mIQDispatcher;
+  }
+
   /**
    * Retrieves the queue associated with this connection or null if not specified.
    * @return the queue associated with this connection or null of no queue
@@ -163,6 +173,7 @@ public class MMXConnection implements ConnectionListener {
 
     mExecutor.quit();
     mExecutor = null;
+    mIQDispatcher.shutdown();
     mSettings = null;
     mConListener = null;
     mMsgListener = null;
@@ -342,6 +353,7 @@ public class MMXConnection implements ConnectionListener {
     mCon = new MagnetXMPPConnection(config);
     mCon.setFromMode(FromMode.USER);
     mCon.addConnectionListener(this);
+    mIQDispatcher.attach(mCon);
 
     // add the packet listeners MMX payload message or error messages.
     MessageManager.getInstance(this).initPacketListener();
@@ -905,6 +917,7 @@ public class MMXConnection implements ConnectionListener {
 
   @Override
   public void connectionClosed() {
+    mIQDispatcher.failAll("Connection closed");
     if (mConListener != null) {
       mConListener.onConnectionClosed();
     }
@@ -912,6 +925,7 @@ public class MMXConnection implements ConnectionListener {
 
   @Override
   public void connectionClosedOnError(Exception cause) {
+    mIQDispatcher.failAll("Connection closed: "+cause.getMessage());
     if (mConListener != null) {
       mConListener.onConnectionFailed(cause);
     }
@@ -15,13 +15,9 @@
 
 package com.magnet.mmx.client.common;
 
-import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPConnection;
-import org.jivesoftware.smack.filter.IQReplyFilter;
-import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.packet.IQ;
-import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.provider.IQProvider;
 import org.jivesoftware.smack.provider.ProviderManager;
 import org.jivesoftware.smack.util.XmlStringBuilder;
@@ -58,6 +54,12 @@ import com.magnet.mmx.util.GsonData;
  *    myIQHandler.sendSetIQ(con, "create", myData, Result.class, listener);
  *    Result result = myIQHandler.getResult();
  * </pre>
+ * To pipeline many requests without blocking:
+ * <pre>
+ *    IQFuture<Result> future = myIQHandler.sendSetIQAsync(con, "create", myData, Result.class);
+ *    ...
+ *    Result result = future.get();
+ * </pre>
  *
  * @param <Request>
  * @param <Result>
@@ -311,9 +313,43 @@ abstract class MMXIQHandler<Request, Result>
     sendIQ(con, IQ.Type.GET, dst, cmd, rqt, resultClz, listener);
   }
 
-  // Send an IQ (either SET or GET) request to MMX and wait for a result.
-  protected void sendIQ(MMXConnection con, IQ.Type type, String dst, String cmd,
-                      Request rqt, final Class<Result> resultClz,
+  /**
+   * Send a request using SET-IQ to MMX without blocking.
+   * @param con
+   * @param cmd
+   * @param rqt
+   * @param resultClz
+   * @return A future for the result.
+   * @throws MMXException
+   */
+  public IQFuture<Result> sendSetIQAsync(MMXConnection con, String cmd,
+            Request rqt, Class<Result> resultClz) throws MMXException {
+    IQFuture<Result> future = new IQFuture<Result>();
+    sendIQ(con, IQ.Type.SET, null, cmd, rqt, resultClz, future);
+    return future;
+  }
+
+  /**
+   * Send a request using GET-IQ to MMX without blocking.
+   * @param con
+   * @param cmd
+   * @param rqt
+   * @param resultClz
+   * @return A future for the result.
+   * @throws MMXException
+   */
+  public IQFuture<Result> sendGetIQAsync(MMXConnection con, String cmd,
+            Request rqt, Class<Result> resultClz) throws MMXException {
+    IQFuture<Result> future = new IQFuture<Result>();
+    sendIQ(con, IQ.Type.GET, null, cmd, rqt, resultClz, future);
+    return future;
+  }
+
+  // Send an IQ (either SET or GET) request to MMX.  The reply is routed to the
+  // listener by the connection's IQ dispatcher.
+  protected void sendIQ(MMXConnection con, IQ.Type type, String dst,
+                      final String cmd, Request rqt,
+                      final Class<Result> resultClz,
                       final IQListener<Result> listener) throws MMXException {
     final XMPPConnection xmppCon = con.getXMPPConnection();
     if (xmppCon == null) {
@@ -323,14 +359,13 @@ abstract class MMXIQHandler<Request, Result>
       IQ iq = new MMXIQ(cmd, rqt, dst);
       iq.setPacketID(con.genId());
       iq.setType(type);
-      PacketFilter packetFilter = new IQReplyFilter(iq, xmppCon);
-      PacketListener packetListener = new PacketListener() {
+      if (listener == null) {
+        xmppCon.sendPacket(iq);
+        return;
+      }
+      IQDispatcher.ReplyHandler handler = new IQDispatcher.ReplyHandler() {
         @Override
-        public void processPacket(Packet packet) throws NotConnectedException {
-          if (listener == null) {
-            xmppCon.removePacketListener(this);
-            return;
-          }
+        public void onReply(IQ packet) {
           if (packet instanceof MMXIQHandler.MMXIQ) {
             MMXIQ iq = (MMXIQ) packet;
             if (GsonData.CONTENT_TYPE_JSON.equals(iq.getContentType())) {
@@ -342,17 +377,27 @@ abstract class MMXIQHandler<Request, Result>
                 listener.onReceived(res);
               }
             }
-          } else if (((IQ) packet).getType() == IQ.Type.ERROR) {
+          } else if (packet.getType() == IQ.Type.ERROR) {
             listener.onError(packet.toString());
           } else {
             listener.onError("Unsupported IQ extension: "+packet+
                              "\nForgot to register an IQ Provider?");
           }
-          xmppCon.removePacketListener(this);
+        }
+
+        @Override
+        public void onFailure(String reason) {
+          MMXStatus status = new MMXStatus();
+          status.setCode(Constants.STATUS_CODE_500);
+          status.setMessage(reason);
+          listener.onError(cmd, status);
         }
       };
-      xmppCon.addPacketListener(packetListener, packetFilter);
-      xmppCon.sendPacket(iq);
+      if (listener instanceof IQFuture) {
+        ((IQFuture<Result>) listener).setPending(con.getIQDispatcher(),
+            iq.getPacketID());
+      }
+      con.getIQDispatcher().send(xmppCon, iq, handler, TIMEOUT);
     } catch (NotConnectedException e) {
       throw new MMXException(e.getMessage(), e);
     }
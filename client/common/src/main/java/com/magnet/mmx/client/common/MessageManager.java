@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -67,10 +68,17 @@ import com.magnet.mmx.util.XIDUtil;
  */
 public class MessageManager {
   private static final String TAG = "MessageManager";
+  // Batched acks are off by default; servers that predate them reject them.
+  private final static int DEFAULT_MAX_ACKS = 1;
+  private final static long DEFAULT_ACK_LINGER = 0L;
   private int mAckErrors;
   private int mAckCounters;
   private MMXConnection mCon;
   private QueueExecutor mAckExecutor;
+  private final List<Packet> mPendingAcks = new ArrayList<Packet>();
+  private boolean mAckFlushPosted;
+  private int mMaxAcks = DEFAULT_MAX_ACKS;
+  private long mAckLinger = DEFAULT_ACK_LINGER;
   private final static Creator sCreator = new Creator() {
     @Override
     public Object newInstance(MMXConnection con) {
@@ -163,7 +171,7 @@ public class MessageManager {
 //        if (xmppmsg.getType() != Type.normal && ".".equals(xmppmsg.getBody())) {
         if (xmppmsg.getType() != Type.normal) {
           // Must run in a thread because IQ is a blocking call.
-          mAckExecutor.post(new SendAck(packet));
+          queueAck(packet);
         }
 
         if (orgMsgId != null) {
@@ -281,22 +289,85 @@ public class MessageManager {
     }
   }
 
+  // Coalesce the pending acks: wait until the batch is full or the linger
+  // time has elapsed, then send them in one IQ per receiver.
   private class SendAck implements Runnable {
-    private Packet mPacket;
+    @Override
+    public void run() {
+      List<Packet> packets;
+      synchronized(mPendingAcks) {
+        long deadline = System.currentTimeMillis() + mAckLinger;
+        long wait;
+        while (mPendingAcks.size() < mMaxAcks &&
+            (wait = deadline - System.currentTimeMillis()) > 0) {
+          try {
+            mPendingAcks.wait(wait);
+          } catch (InterruptedException e) {
+            break;
+          }
+        }
+        packets = new ArrayList<Packet>(mPendingAcks);
+        mPendingAcks.clear();
+        mAckFlushPosted = false;
+      }
 
-    public SendAck(Packet packet) {
-      mPacket = packet;
+      for (MsgAck ack : buildAcks(packets, mMaxAcks)) {
+        int size = (ack.getAcks() == null) ? 1 : ack.getAcks().size();
+        try {
+          MessageManager.this.mAckCounters += size;
+          MessageManager.this.sendAck(ack);
+        } catch (Throwable e) {
+          MessageManager.this.mAckErrors += size;
+          e.printStackTrace();
+        }
+      }
     }
+  }
 
-    @Override
-    public void run() {
-      try {
-        MessageManager.this.mAckCounters++;
-        MessageManager.this.sendAck(mPacket.getFrom(), mPacket.getTo(),
-                                     mPacket.getPacketID());
-      } catch (Throwable e) {
-        MessageManager.this.mAckErrors++;
-        e.printStackTrace();
+  /**
+   * Group the acks by receiver into IQ payloads of at most <code>maxAcks</code>
+   * messages each.  A group of one is a plain single ack.
+   * @param packets The received reliable messages to be acknowledged.
+   * @param maxAcks The maximum number of acks in one payload.
+   * @return The ack payloads in the order of the receivers.
+   */
+  static List<MsgAck> buildAcks(List<Packet> packets, int maxAcks) {
+    Map<String, List<MsgAck.Item>> batches =
+        new LinkedHashMap<String, List<MsgAck.Item>>();
+    for (Packet packet : packets) {
+      List<MsgAck.Item> items = batches.get(packet.getTo());
+      if (items == null) {
+        items = new ArrayList<MsgAck.Item>();
+        batches.put(packet.getTo(), items);
+      }
+      items.add(new MsgAck.Item(packet.getFrom(), packet.getPacketID()));
+    }
+    List<MsgAck> acks = new ArrayList<MsgAck>();
+    for (Map.Entry<String, List<MsgAck.Item>> batch : batches.entrySet()) {
+      List<MsgAck.Item> items = batch.getValue();
+      for (int i = 0; i < items.size(); i += maxAcks) {
+        List<MsgAck.Item> chunk = items.subList(i,
+            Math.min(i + maxAcks, items.size()));
+        if (chunk.size() == 1) {
+          MsgAck.Item item = chunk.get(0);
+          acks.add(new MsgAck(item.getFrom(), batch.getKey(), item.getMsgId()));
+        } else {
+          acks.add(new MsgAck(batch.getKey(),
+              new ArrayList<MsgAck.Item>(chunk)));
+        }
+      }
+    }
+    return acks;
+  }
+
+  private void queueAck(Packet packet) {
+    synchronized(mPendingAcks) {
+      mPendingAcks.add(packet);
+      if (!mAckFlushPosted) {
+        mAckFlushPosted = true;
+        mAckExecutor.post(new SendAck());
+      } else if (mPendingAcks.size() >= mMaxAcks) {
+        mPendingAcks.notify();
       }
     }
   }
@@ -587,8 +658,13 @@ public class MessageManager {
    * @throws MMXException
    */
   MMXStatus sendAck(String sender, String rcvr, String msgId) throws MMXException {
+    return sendAck(new MsgAck(sender, rcvr, msgId));
+  }
+
+  // Send a single or a batched ack; the server marks all messages in a batched
+  // ack as delivered in one update.
+  private MMXStatus sendAck(MsgAck ack) throws MMXException {
     try {
-      MsgAck ack = new MsgAck(sender, rcvr, msgId);
       AckMMXIQHandler iqHandler = new AckMMXIQHandler();
       iqHandler.sendSetIQ(mCon, Constants.MessageCommand.ack.toString(), ack,
           MMXStatus.class, iqHandler);
@@ -600,6 +676,24 @@ public class MessageManager {
     }
   }
 
+  /**
+   * @hide
+   * Set how acks for received reliable messages are coalesced.  The pending
+   * acks are sent when <code>maxAcks</code> are queued or after
+   * <code>linger</code> milliseconds, whichever comes first, and no IQ carries
+   * more than <code>maxAcks</code> acks.  By default <code>maxAcks</code> is 1
+   * and each ack is sent individually; only enable batching against a server
+   * that supports batched acks.
+   * @param maxAcks The maximum number of acks in one batch.
+   * @param linger The maximum time in milliseconds to hold an ack.
+   */
+  public void setAckBatching(int maxAcks, long linger) {
+    synchronized(mPendingAcks) {
+      mMaxAcks = Math.max(1, maxAcks);
+      mAckLinger = Math.max(0, linger);
+    }
+  }
+
   /**
    * @hide
    * Get the tags from a message.
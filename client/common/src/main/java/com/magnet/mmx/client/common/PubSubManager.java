@@ -1174,8 +1174,49 @@ public class PubSubManager {
     return doTags(PubSubCommand.removeTags, topic, tags);
   }
 
+  /**
+   * Add tags to a user or global topic without waiting for the result.  It
+   * allows many tag operations to be in flight at once.
+   * @param topic A topic object.
+   * @param tags A list of tags to be added.
+   * @return A future for the status.
+   * @throws MMXException
+   */
+  public IQFuture<MMXStatus> addTagsAsync(MMXTopic topic, List<String> tags)
+      throws MMXException {
+    PubSubIQHandler<TopicTags, MMXStatus> iqHandler =
+        new PubSubIQHandler<TopicTags, MMXStatus>();
+    return iqHandler.sendSetIQAsync(mCon, PubSubCommand.addTags.toString(),
+        toTopicTags(PubSubCommand.addTags, topic, tags), MMXStatus.class);
+  }
+
+  /**
+   * Remove tags from a user or global topic without waiting for the result.
+   * It allows many tag operations to be in flight at once.
+   * @param topic A topic object.
+   * @param tags A list of tags to be removed.
+   * @return A future for the status.
+   * @throws MMXException
+   */
+  public IQFuture<MMXStatus> removeTagsAsync(MMXTopic topic, List<String> tags)
+      throws MMXException {
+    PubSubIQHandler<TopicTags, MMXStatus> iqHandler =
+        new PubSubIQHandler<TopicTags, MMXStatus>();
+    return iqHandler.sendSetIQAsync(mCon, PubSubCommand.removeTags.toString(),
+        toTopicTags(PubSubCommand.removeTags, topic, tags), MMXStatus.class);
+  }
+
   private MMXStatus doTags(PubSubCommand cmd, MMXTopic topic,
       List<String> tags) throws TopicNotFoundException, MMXException {
+    TopicTags rqt = toTopicTags(cmd, topic, tags);
+    PubSubIQHandler<TopicTags, MMXStatus> iqHandler =
+        new PubSubIQHandler<TopicTags, MMXStatus>();
+    iqHandler.sendSetIQ(mCon, cmd.toString(), rqt, MMXStatus.class, iqHandler);
+    return iqHandler.getResult();
+  }
+
+  private TopicTags toTopicTags(PubSubCommand cmd, MMXTopic topic,
+      List<String> tags) throws MMXException {
     if (cmd == PubSubCommand.setTags) {
       if (tags == null) {
         tags = new ArrayList<String>(0);
@@ -1189,11 +1230,7 @@ public class PubSubManager {
     if (topic instanceof MMXPersonalTopic) {
       ((MMXPersonalTopic) topic).setUserId(mCon.getUserId());
     }
-    TopicTags rqt = new TopicTags(topic.getUserId(), topic.getName(), tags);
-    PubSubIQHandler<TopicTags, MMXStatus> iqHandler =
-        new PubSubIQHandler<TopicTags, MMXStatus>();
-    iqHandler.sendSetIQ(mCon, cmd.toString(), rqt, MMXStatus.class, iqHandler);
-    return iqHandler.getResult();
+    return new TopicTags(topic.getUserId(), topic.getName(), tags);
   }
 
   // Convert a nodeID into various topic object.
@@ -15,68 +15,215 @@
 
 package com.magnet.mmx.util;
 
-import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @hide
- * A thread with a queue.
+ * A thread with a queue.  Any threads can post tasks to the lock-free queue
+ * without blocking; the queue thread is the only consumer.  The queue thread
+ * parks when the queue is empty and is unparked by the next post.  The queue
+ * can be bounded with an {@link OverflowPolicy} deciding what happens to a
+ * task posted to a full queue.
  */
 public class QueueExecutor extends Thread {
-  private boolean mDone;
-  private Queue<Runnable> mQueue = new LinkedList<Runnable>();
-  
   /**
-   * Default constructor.
+   * What to do with a task posted to a full queue.  None of the policies
+   * block the posting thread on the queue.
+   */
+  public static enum OverflowPolicy {
+    /**
+     * Drop the posted task.
+     */
+    DISCARD_NEW,
+    /**
+     * Drop the oldest pending task and queue the posted task.
+     */
+    DISCARD_OLDEST,
+    /**
+     * Run the posted task in the posting thread.
+     */
+    CALLER_RUNS,
+  }
+
+  private volatile boolean mDone;
+  private volatile boolean mParked;
+  private final Queue<Runnable> mQueue = new ConcurrentLinkedQueue<Runnable>();
+  private final int mCapacity;
+  private final OverflowPolicy mPolicy;
+  private final AtomicInteger mDepth = new AtomicInteger();
+  private final AtomicInteger mMaxDepth = new AtomicInteger();
+  private final AtomicLong mPosted = new AtomicLong();
+  private final AtomicLong mRejected = new AtomicLong();
+  private volatile long mExecuted;
+
+  /**
+   * Default constructor of an unbounded queue.
    * @param name The thread name.
    * @param isDaemon true for a daemon thread.
    */
   public QueueExecutor(String name, boolean isDaemon) {
+    this(name, isDaemon, Integer.MAX_VALUE, OverflowPolicy.DISCARD_NEW);
+  }
+
+  /**
+   * Constructor of a bounded queue.
+   * @param name The thread name.
+   * @param isDaemon true for a daemon thread.
+   * @param capacity The maximum number of pending tasks.
+   * @param policy The policy for a task posted to a full queue.
+   */
+  public QueueExecutor(String name, boolean isDaemon, int capacity,
+                        OverflowPolicy policy) {
     super(name);
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    mCapacity = capacity;
+    mPolicy = policy;
     this.setDaemon(isDaemon);
   }
-  
+
   /**
-   * Post a task to the queue for execution.
+   * Post a task to the queue for execution.  An unbounded queue always
+   * accepts the task.  When a bounded queue is full, the task is handled by
+   * the overflow policy: {@link OverflowPolicy#DISCARD_NEW} drops the task and
+   * returns false, {@link OverflowPolicy#DISCARD_OLDEST} drops the oldest
+   * pending task instead, and {@link OverflowPolicy#CALLER_RUNS} runs the task
+   * before returning.  A caller of a DISCARD_NEW queue must check the return
+   * value if the task cannot be lost.
    * @param task
+   * @return false if the task is discarded; true if it is queued or run.
    */
-  public void post(Runnable task) {
-    synchronized(mQueue) {
-      mQueue.offer(task);
-      mQueue.notify();
+  public boolean post(Runnable task) {
+    mPosted.incrementAndGet();
+    int depth = mDepth.incrementAndGet();
+    if (depth > mCapacity) {
+      switch (mPolicy) {
+      case CALLER_RUNS:
+        mDepth.decrementAndGet();
+        mRejected.incrementAndGet();
+        task.run();
+        return true;
+      case DISCARD_OLDEST:
+        // The task replaces the discarded one.  If the queue thread has
+        // drained the queue meanwhile, the task is simply queued.
+        if (mQueue.poll() != null) {
+          mDepth.decrementAndGet();
+          mRejected.incrementAndGet();
+        }
+        break;
+      default:
+        mDepth.decrementAndGet();
+        mRejected.incrementAndGet();
+        return false;
+      }
     }
+    updateMaxDepth(Math.min(depth, mCapacity));
+    mQueue.offer(task);
+    signal();
+    return true;
   }
-  
+
+  private void updateMaxDepth(int depth) {
+    int max;
+    while (depth > (max = mMaxDepth.get())) {
+      if (mMaxDepth.compareAndSet(max, depth)) {
+        break;
+      }
+    }
+  }
+
+  // Only unpark the queue thread if it is parked or about to park.
+  private void signal() {
+    if (mParked) {
+      LockSupport.unpark(this);
+    }
+  }
+
   /**
    * Quit this thread.  Any pending tasks will be lost.
    */
   public void quit() {
-    synchronized(mQueue) {
-      mDone = true;
-      mQueue.notify();
-    }
+    mDone = true;
+    LockSupport.unpark(this);
   }
-  
+
+  /**
+   * Get the number of pending tasks.
+   * @return
+   */
+  public int getDepth() {
+    return Math.max(0, mDepth.get());
+  }
+
+  /**
+   * Get the maximum number of pending tasks seen.
+   * @return
+   */
+  public int getMaxDepth() {
+    return mMaxDepth.get();
+  }
+
+  /**
+   * Get the number of tasks posted, including the rejected tasks.
+   * @return
+   */
+  public long getPostedCount() {
+    return mPosted.get();
+  }
+
+  /**
+   * Get the number of tasks run by this thread.
+   * @return
+   */
+  public long getExecutedCount() {
+    return mExecuted;
+  }
+
+  /**
+   * Get the number of tasks discarded or run by the posting thread because
+   * the queue was full.
+   * @return
+   */
+  public long getRejectedCount() {
+    return mRejected.get();
+  }
+
+  @Override
+  public String toString() {
+    return getName()+": depth="+getDepth()+", maxDepth="+getMaxDepth()+
+        ", posted="+getPostedCount()+", executed="+getExecutedCount()+
+        ", rejected="+getRejectedCount();
+  }
+
   /**
    * The main loop.
    */
   @Override
   final public void run() {
     Runnable task;
-    do {
-      try {
-        while ((task = mQueue.poll()) != null) {
-          task.run();
-        }
-        synchronized(mQueue) {
-          if (mDone) {
-            return;
-          }
-          mQueue.wait();
+    while (!mDone) {
+      if ((task = mQueue.poll()) == null) {
+        // Announce the park before re-checking the queue so that a concurrent
+        // post either is seen here or sees mParked and unparks this thread.
+        mParked = true;
+        if (mQueue.isEmpty() && !mDone) {
+          LockSupport.park(this);
         }
+        mParked = false;
+        continue;
+      }
+      mDepth.decrementAndGet();
+      try {
+        task.run();
       } catch (Throwable e) {
         e.printStackTrace();
       }
-    } while (!mDone);
+      mExecuted++;
+    }
   }
 }
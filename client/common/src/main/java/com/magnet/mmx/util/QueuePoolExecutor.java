@@ -21,7 +21,8 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * @hide
- * A queue with a thread pool.
+ * A queue with a thread pool.  The queue is unbounded, so
+ * {@link #post(Runnable)} never rejects a task while the pool is running.
  */
 public class QueuePoolExecutor {
   private String mPrefix;
@@ -42,8 +43,12 @@ public class QueuePoolExecutor {
   public QueuePoolExecutor(String prefix, boolean isDaemon, int maxPoolSize) {
     mPrefix = prefix;
     mDaemon = isDaemon;
-    mExecutor = new ThreadPoolExecutor(1, maxPoolSize, 5L, TimeUnit.SECONDS,
-        new LinkedBlockingQueue<Runnable>(), new QueueThreadFactory());
+    // With an unbounded queue the pool never grows beyond the core size, so
+    // the core size is the max pool size and idle threads time out instead.
+    mExecutor = new ThreadPoolExecutor(maxPoolSize, maxPoolSize, 5L,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new QueueThreadFactory());
+    mExecutor.allowCoreThreadTimeOut(true);
   }
 
   public void post(Runnable task) {
@@ -0,0 +1,172 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.client;
+
+import com.magnet.mmx.util.QueueExecutor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueueExecutorTest {
+
+  @Test
+  public void testManyProducers() throws Exception {
+    final int producers = 4;
+    final int tasksPerProducer = 10000;
+    final QueueExecutor executor = new QueueExecutor("test-queue", true);
+    executor.start();
+    final AtomicInteger count = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(producers * tasksPerProducer);
+    final List<List<Integer>> orders = new ArrayList<List<Integer>>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < producers; p++) {
+      final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      orders.add(order);
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < tasksPerProducer; i++) {
+            final int seq = i;
+            executor.post(new Runnable() {
+              @Override
+              public void run() {
+                order.add(seq);
+                count.incrementAndGet();
+                done.countDown();
+              }
+            });
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue("Tasks not executed", done.await(10, TimeUnit.SECONDS));
+    assertEquals(producers * tasksPerProducer, count.get());
+    // Tasks from the same producer run in the posting order.
+    for (List<Integer> order : orders) {
+      for (int i = 0; i < tasksPerProducer; i++) {
+        assertEquals(i, order.get(i).intValue());
+      }
+    }
+    assertEquals(producers * tasksPerProducer, executor.getPostedCount());
+    assertEquals(0, executor.getRejectedCount());
+    executor.quit();
+  }
+
+  @Test
+  public void testDiscardNew() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    QueueExecutor executor = newBlockedExecutor(2, QueueExecutor.OverflowPolicy.DISCARD_NEW, release);
+    AtomicInteger count = new AtomicInteger();
+    assertTrue(executor.post(counter(count)));
+    assertTrue(executor.post(counter(count)));
+    assertFalse(executor.post(counter(count)));
+    assertEquals(1, executor.getRejectedCount());
+    assertEquals(2, executor.getMaxDepth());
+    release.countDown();
+    awaitIdle(executor, 3);
+    assertEquals(2, count.get());
+    executor.quit();
+  }
+
+  @Test
+  public void testDiscardOldest() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    QueueExecutor executor = newBlockedExecutor(1, QueueExecutor.OverflowPolicy.DISCARD_OLDEST, release);
+    final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    assertTrue(executor.post(recorder(ran, "first")));
+    assertTrue(executor.post(recorder(ran, "second")));
+    assertEquals(1, executor.getRejectedCount());
+    release.countDown();
+    awaitIdle(executor, 2);
+    assertEquals(Collections.singletonList("second"), ran);
+    executor.quit();
+  }
+
+  @Test
+  public void testCallerRuns() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    QueueExecutor executor = newBlockedExecutor(1, QueueExecutor.OverflowPolicy.CALLER_RUNS, release);
+    final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    assertTrue(executor.post(recorder(ran, "queued")));
+    assertTrue(executor.post(recorder(ran, Thread.currentThread().getName())));
+    assertEquals(Collections.singletonList(Thread.currentThread().getName()), ran);
+    release.countDown();
+    awaitIdle(executor, 2);
+    assertEquals(2, ran.size());
+    executor.quit();
+  }
+
+  // Start an executor whose thread is held by a task until released.
+  private QueueExecutor newBlockedExecutor(int capacity, QueueExecutor.OverflowPolicy policy,
+                                           final CountDownLatch release) throws Exception {
+    QueueExecutor executor = new QueueExecutor("test-queue", true, capacity, policy);
+    executor.start();
+    final CountDownLatch started = new CountDownLatch(1);
+    executor.post(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // Ignored.
+        }
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    return executor;
+  }
+
+  private void awaitIdle(QueueExecutor executor, long executed) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000L;
+    while (executor.getExecutedCount() < executed && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(executed, executor.getExecutedCount());
+    assertEquals(0, executor.getDepth());
+  }
+
+  private static Runnable counter(final AtomicInteger count) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        count.incrementAndGet();
+      }
+    };
+  }
+
+  private static Runnable recorder(final List<String> ran, final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        ran.add(name);
+      }
+    };
+  }
+}
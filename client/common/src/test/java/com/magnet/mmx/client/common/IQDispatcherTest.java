@@ -0,0 +1,186 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.client.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IQDispatcherTest {
+  private static final String SERVER = "mmx";
+  private static final long TIMEOUT = 10000L;
+
+  private IQDispatcher mDispatcher;
+
+  private static class RecordingHandler implements IQDispatcher.ReplyHandler {
+    private final List<IQ> mReplies = Collections.synchronizedList(new ArrayList<IQ>());
+    private final List<String> mFailures = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch mDone = new CountDownLatch(1);
+
+    @Override
+    public void onReply(IQ iq) {
+      mReplies.add(iq);
+      mDone.countDown();
+    }
+
+    @Override
+    public void onFailure(String reason) {
+      mFailures.add(reason);
+      mDone.countDown();
+    }
+  }
+
+  static IQ reply(String id, String from, IQ.Type type) {
+    IQ iq = new IQ() {
+      @Override
+      public CharSequence getChildElementXML() {
+        return null;
+      }
+    };
+    iq.setPacketID(id);
+    iq.setFrom(from);
+    iq.setType(type);
+    return iq;
+  }
+
+  @Before
+  public void setup() {
+    mDispatcher = new IQDispatcher();
+  }
+
+  @After
+  public void teardown() {
+    mDispatcher.shutdown();
+  }
+
+  @Test
+  public void testRouteById() {
+    RecordingHandler handler1 = new RecordingHandler();
+    RecordingHandler handler2 = new RecordingHandler();
+    mDispatcher.register("id1", new String[] { SERVER }, handler1, TIMEOUT);
+    mDispatcher.register("id2", new String[] { SERVER }, handler2, TIMEOUT);
+    assertEquals(2, mDispatcher.getPendingCount());
+
+    IQ result = reply("id2", SERVER, IQ.Type.RESULT);
+    mDispatcher.processPacket(result);
+    assertEquals(0, handler1.mReplies.size());
+    assertEquals(1, handler2.mReplies.size());
+    assertSame(result, handler2.mReplies.get(0));
+
+    IQ error = reply("id1", SERVER, IQ.Type.ERROR);
+    mDispatcher.processPacket(error);
+    assertEquals(1, handler1.mReplies.size());
+    assertSame(error, handler1.mReplies.get(0));
+    assertEquals(0, mDispatcher.getPendingCount());
+
+    // A duplicate or unknown reply is ignored.
+    mDispatcher.processPacket(reply("id2", SERVER, IQ.Type.RESULT));
+    mDispatcher.processPacket(reply("id3", SERVER, IQ.Type.RESULT));
+    assertEquals(1, handler2.mReplies.size());
+    assertEquals(0, handler2.mFailures.size());
+  }
+
+  @Test
+  public void testIgnoreUnexpectedSender() {
+    RecordingHandler handler = new RecordingHandler();
+    mDispatcher.register("id1", new String[] { null, SERVER, "user%app@mmx" },
+        handler, TIMEOUT);
+
+    mDispatcher.processPacket(reply("id1", "other%app@mmx", IQ.Type.RESULT));
+    assertEquals(0, handler.mReplies.size());
+    assertEquals(1, mDispatcher.getPendingCount());
+
+    // The sender check is case insensitive.
+    mDispatcher.processPacket(reply("id1", "USER%app@mmx", IQ.Type.RESULT));
+    assertEquals(1, handler.mReplies.size());
+    assertEquals(0, mDispatcher.getPendingCount());
+  }
+
+  @Test
+  public void testNullSenderIsTheServer() {
+    RecordingHandler handler = new RecordingHandler();
+    mDispatcher.register("id1", new String[] { "user%app@mmx/dev" }, handler, TIMEOUT);
+    mDispatcher.processPacket(reply("id1", null, IQ.Type.RESULT));
+    assertEquals(0, handler.mReplies.size());
+
+    mDispatcher.register("id2", new String[] { null, SERVER }, handler, TIMEOUT);
+    mDispatcher.processPacket(reply("id2", null, IQ.Type.RESULT));
+    assertEquals(1, handler.mReplies.size());
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    mDispatcher.register("id1", new String[] { SERVER }, handler, 50L);
+    assertTrue(handler.mDone.await(5, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList("Response timed out"), handler.mFailures);
+    assertEquals(0, mDispatcher.getPendingCount());
+
+    // A late reply is dropped.
+    mDispatcher.processPacket(reply("id1", SERVER, IQ.Type.RESULT));
+    assertEquals(0, handler.mReplies.size());
+  }
+
+  @Test
+  public void testReplyCancelsTimeout() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    mDispatcher.register("id1", new String[] { SERVER }, handler, 100L);
+    mDispatcher.processPacket(reply("id1", SERVER, IQ.Type.RESULT));
+    Thread.sleep(300L);
+    assertEquals(1, handler.mReplies.size());
+    assertEquals(0, handler.mFailures.size());
+  }
+
+  @Test
+  public void testFailAllOnDisconnect() {
+    RecordingHandler handler1 = new RecordingHandler();
+    RecordingHandler handler2 = new RecordingHandler();
+    mDispatcher.register("id1", new String[] { SERVER }, handler1, TIMEOUT);
+    mDispatcher.register("id2", new String[] { SERVER }, handler2, TIMEOUT);
+
+    mDispatcher.failAll("Connection closed");
+    assertEquals(Collections.singletonList("Connection closed"), handler1.mFailures);
+    assertEquals(Collections.singletonList("Connection closed"), handler2.mFailures);
+    assertEquals(0, mDispatcher.getPendingCount());
+
+    mDispatcher.processPacket(reply("id1", SERVER, IQ.Type.RESULT));
+    assertEquals(0, handler1.mReplies.size());
+  }
+
+  @Test
+  public void testCancel() {
+    RecordingHandler handler = new RecordingHandler();
+    mDispatcher.register("id1", new String[] { SERVER }, handler, TIMEOUT);
+    assertTrue(mDispatcher.cancel("id1"));
+    assertFalse(mDispatcher.cancel("id1"));
+    assertEquals(0, mDispatcher.getPendingCount());
+
+    mDispatcher.processPacket(reply("id1", SERVER, IQ.Type.RESULT));
+    assertEquals(0, handler.mReplies.size());
+    assertEquals(0, handler.mFailures.size());
+  }
+}
@@ -0,0 +1,127 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.client.common;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jivesoftware.smack.packet.IQ;
+import org.junit.Test;
+
+import com.magnet.mmx.protocol.MMXStatus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IQFutureTest {
+
+  @Test
+  public void testGetResult() throws Exception {
+    IQFuture<String> future = new IQFuture<String>();
+    assertFalse(future.isDone());
+    future.onReceived("result");
+    assertTrue(future.isDone());
+    assertEquals("result", future.get());
+    assertEquals("result", future.get(0, TimeUnit.MILLISECONDS));
+
+    // Only the first completion counts.
+    future.onError("<error/>");
+    assertEquals("result", future.get());
+    assertFalse(future.cancel(true));
+    assertFalse(future.isCancelled());
+  }
+
+  @Test
+  public void testGetError() throws Exception {
+    IQFuture<String> future = new IQFuture<String>();
+    MMXStatus status = new MMXStatus();
+    status.setCode(404);
+    status.setMessage("Not found");
+    future.onError("cmd", status);
+    try {
+      future.get();
+      fail("Expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof MMXException);
+      assertEquals(404, ((MMXException) e.getCause()).getCode());
+      assertEquals("Not found", e.getCause().getMessage());
+    }
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void testGetTimeout() throws Exception {
+    new IQFuture<String>().get(10, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testGetWaitsForResult() throws Exception {
+    final IQFuture<String> future = new IQFuture<String>();
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50L);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        future.onReceived("result");
+      }
+    }).start();
+    assertEquals("result", future.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCancelRemovesPending() throws Exception {
+    IQDispatcher dispatcher = new IQDispatcher();
+    try {
+      final IQFuture<String> future = new IQFuture<String>();
+      IQDispatcher.ReplyHandler handler = new IQDispatcher.ReplyHandler() {
+        @Override
+        public void onReply(IQ iq) {
+          future.onReceived("result");
+        }
+
+        @Override
+        public void onFailure(String reason) {
+          future.onError(reason);
+        }
+      };
+      dispatcher.register("id1", new String[] { "mmx" }, handler, 10000L);
+      future.setPending(dispatcher, "id1");
+      assertEquals(1, dispatcher.getPendingCount());
+
+      assertTrue(future.cancel(false));
+      assertTrue(future.isCancelled());
+      assertTrue(future.isDone());
+      assertEquals(0, dispatcher.getPendingCount());
+      assertFalse(future.cancel(false));
+
+      // A late reply doesn't complete the cancelled future.
+      dispatcher.processPacket(IQDispatcherTest.reply("id1", "mmx", IQ.Type.RESULT));
+      try {
+        future.get();
+        fail("Expected a CancellationException");
+      } catch (CancellationException e) {
+        // expected
+      }
+    } finally {
+      dispatcher.shutdown();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.client.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+import org.junit.Test;
+
+import com.magnet.mmx.protocol.MsgAck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MessageManagerAckTest {
+  private static final String RCVR1 = "rcvr1%app@mmx/dev1";
+  private static final String RCVR2 = "rcvr2%app@mmx/dev2";
+  private static final String SENDER = "sender%app@mmx/dev3";
+
+  private static Packet received(String to, String msgId) {
+    Message msg = new Message(to);
+    msg.setFrom(SENDER);
+    msg.setPacketID(msgId);
+    return msg;
+  }
+
+  @Test
+  public void testSingleAcksByDefault() {
+    List<Packet> packets = new ArrayList<Packet>();
+    packets.add(received(RCVR1, "m1"));
+    packets.add(received(RCVR1, "m2"));
+    List<MsgAck> acks = MessageManager.buildAcks(packets, 1);
+    assertEquals(2, acks.size());
+    assertNull(acks.get(0).getAcks());
+    assertEquals(SENDER, acks.get(0).getFrom());
+    assertEquals(RCVR1, acks.get(0).getTo());
+    assertEquals("m1", acks.get(0).getMsgId());
+    assertNull(acks.get(1).getAcks());
+    assertEquals("m2", acks.get(1).getMsgId());
+  }
+
+  @Test
+  public void testBatchesAreCappedPerReceiver() {
+    List<Packet> packets = new ArrayList<Packet>();
+    for (int i = 0; i < 7; i++) {
+      packets.add(received(RCVR1, "a" + i));
+    }
+    packets.add(received(RCVR2, "b0"));
+    List<MsgAck> acks = MessageManager.buildAcks(packets, 3);
+    assertEquals(4, acks.size());
+    assertEquals(3, acks.get(0).getAcks().size());
+    assertEquals("a0", acks.get(0).getAcks().get(0).getMsgId());
+    assertEquals(3, acks.get(1).getAcks().size());
+    assertEquals("a3", acks.get(1).getAcks().get(0).getMsgId());
+    // The remainder of one is sent as a plain single ack.
+    assertNull(acks.get(2).getAcks());
+    assertEquals("a6", acks.get(2).getMsgId());
+    assertEquals(RCVR1, acks.get(2).getTo());
+    assertNull(acks.get(3).getAcks());
+    assertEquals("b0", acks.get(3).getMsgId());
+    assertEquals(RCVR2, acks.get(3).getTo());
+  }
+}
@@ -15,6 +15,8 @@
 
 package com.magnet.mmx.protocol;
 
+import java.util.List;
+
 import com.google.gson.annotations.SerializedName;
 import com.magnet.mmx.util.JSONifiable;
 
@@ -22,16 +24,49 @@ import com.magnet.mmx.util.JSONifiable;
  * @hide
  * An ack payload for reliable message.  Upon receiving this payload, MMX server
  * changes the state of a message identified by <code>msgId</code> to 
- * {@link com.magnet.mmx.protocol.Constants.MessageState#DELIVERED}.
+ * {@link com.magnet.mmx.protocol.Constants.MessageState#DELIVERED}.  A batched
+ * ack carries many messages received by the same receiver in <code>acks</code>
+ * instead of <code>from</code> and <code>msgId</code>.
  */
 public class MsgAck extends JSONifiable {
+  /**
+   * @hide
+   * One acknowledged message in a batched ack.
+   */
+  public static class Item {
+    @SerializedName("from")
+    private String mFrom;
+    @SerializedName("msgId")
+    private String mMsgId;
+
+    /**
+     * Constructor of an ack item.
+     * @param from Full JID of the sender of the original message.
+     * @param msgId
+     */
+    public Item(String from, String msgId) {
+      mFrom = from;
+      mMsgId = msgId;
+    }
+
+    public String getFrom() {
+      return mFrom;
+    }
+
+    public String getMsgId() {
+      return mMsgId;
+    }
+  }
+
   @SerializedName("from")
   private String mFrom;
   @SerializedName("to")
   private String mTo;
   @SerializedName("msgId")
   private String mMsgId;
-  
+  @SerializedName("acks")
+  private List<Item> mAcks;
+
   /**
    * Constructor of a message ack.
    * @param from Full JID of the sender of the original message.
@@ -44,6 +79,16 @@ public class MsgAck extends JSONifiable {
     mMsgId = msgId;
   }
 
+  /**
+   * Constructor of a batched message ack.
+   * @param to Full JID of the message receiver (i.e. the current user.)
+   * @param acks The messages being acknowledged.
+   */
+  public MsgAck(String to, List<Item> acks) {
+    mTo = to;
+    mAcks = acks;
+  }
+
   /**
    * Get the sender of the original message.
    * @return
@@ -63,4 +108,12 @@ public class MsgAck extends JSONifiable {
   public String getMsgId() {
     return mMsgId;
   }
+
+  /**
+   * Get the acknowledged messages of a batched ack.
+   * @return null if this is a single message ack.
+   */
+  public List<Item> getAcks() {
+    return mAcks;
+  }
 }
@@ -1083,6 +1083,8 @@ public class TopicAction {
     private boolean mAscending;
     @SerializedName("maxItems")
     private int mMaxItems = -1;
+    @SerializedName("cursor")
+    private String mCursor;
 
     /**
      * Get an optional subscription ID.
@@ -1173,6 +1175,25 @@ public class TopicAction {
       mMaxItems = maxItems;
       return this;
     }
+
+    /**
+     * Get the cursor of the page to be fetched.
+     * @return The cursor from a previous fetch, or null for the first page.
+     */
+    public String getCursor() {
+      return mCursor;
+    }
+
+    /**
+     * Continue a previous fetch with the same options.  The next page contains
+     * the items published before the items already fetched.
+     * @param cursor The cursor from {@link FetchResponse#getNextCursor()}.
+     * @return This object.
+     */
+    public FetchOptions setCursor(String cursor) {
+      mCursor = cursor;
+      return this;
+    }
   }
 
   /**
@@ -1259,6 +1280,8 @@ public class TopicAction {
     private String mTopic;
     @SerializedName("items")
     private List<MMXPublishedItem> mItems;
+    @SerializedName("nextCursor")
+    private String mNextCursor;
 
     /**
      * @hide
@@ -1285,6 +1308,24 @@ public class TopicAction {
       return mItems;
     }
 
+    /**
+     * Get the cursor for fetching the next page of items.
+     * @return The cursor, or null if there are no more items.
+     */
+    public String getNextCursor() {
+      return mNextCursor;
+    }
+
+    /**
+     * @hide
+     * @param nextCursor
+     * @return This object.
+     */
+    public FetchResponse setNextCursor(String nextCursor) {
+      mNextCursor = nextCursor;
+      return this;
+    }
+
     public static FetchResponse fromJson(String json) {
       return GsonData.getGson().fromJson(json, FetchResponse.class);
     }
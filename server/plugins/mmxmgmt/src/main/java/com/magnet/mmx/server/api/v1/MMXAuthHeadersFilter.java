@@ -17,6 +17,7 @@ package com.magnet.mmx.server.api.v1;
 import com.google.common.base.Strings;
 import com.magnet.mmx.server.common.data.AppEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorCode;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.DBUtil;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
 import org.slf4j.Logger;
@@ -57,7 +58,7 @@ public class MMXAuthHeadersFilter implements ContainerRequestFilter {
       return;
     }
 
-    AppEntity appEntity = DBUtil.getAppDAO().getAppForAppKey(appId);
+    AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, DBUtil.getAppDAO());
     if (appEntity == null) {
       LOGGER.error("filter : appId={} not found", appId);
       Response response = RestUtils.buildInvalidHeaderResponse(ErrorCode.AUTH_BAD_APP_ID,
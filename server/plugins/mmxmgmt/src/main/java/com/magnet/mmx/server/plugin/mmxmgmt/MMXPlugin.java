@@ -17,12 +17,16 @@ package com.magnet.mmx.server.plugin.mmxmgmt;
 
 import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSConnectionPoolImpl;
 import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSFeedbackProcessExecutionManager;
+import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSSendEngine;
 import com.magnet.mmx.server.plugin.mmxmgmt.context.ContextDispatcherFactory;
 import com.magnet.mmx.server.plugin.mmxmgmt.context.GeoEventDispatcher;
 import com.magnet.mmx.server.plugin.mmxmgmt.context.IContextDispatcher;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageStateWriter;
 import com.magnet.mmx.server.plugin.mmxmgmt.handler.*;
 import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MMXMessageHandlingRule;
 import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MMXPacketInterceptor;
+import com.magnet.mmx.server.plugin.mmxmgmt.monitoring.RateLimiterService;
+import com.magnet.mmx.server.plugin.mmxmgmt.retention.MessageRetentionExecutionManager;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.*;
 import com.magnet.mmx.server.plugin.mmxmgmt.wakeup.*;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
@@ -43,6 +47,7 @@ import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.io.File;
 import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Plugin for custom IQ stanza for application registration and device
@@ -79,8 +84,8 @@ public class MMXPlugin implements Plugin, ClusterEventListener {
 
   private MMXPacketInterceptor mmxPacketInterceptor;
   private WakeupExecutionManager wakeupExecutionManager = null;
-  private TimeoutExecutionManager timeoutExecutionManager = null;
   private APNSFeedbackProcessExecutionManager apnsFeedbackProcessExecutionManager = null;
+  private MessageRetentionExecutionManager messageRetentionExecutionManager = null;
 
   private MMXAdminAPIServer adminAPIServer = null;
   private MMXPublicAPIServer publicAPIServer = null;
@@ -198,11 +203,15 @@ public class MMXPlugin implements Plugin, ClusterEventListener {
     iqRouter.removeHandler(mIQMsgAckNSHandler);
     InterceptorManager.getInstance().removeInterceptor(mmxPacketInterceptor);
     wakeupExecutionManager.stopWakeupExecution();
-    timeoutExecutionManager.stopTimeoutCheck();
 
     // shutdown geo event dispatcher
     contextDispatcher.shutdown();
 
+    // write the queued message records
+    MessageStateWriter.getInstance().shutdown(MMXServerConstants.MESSAGE_WRITER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    // send the queued APNS notifications and close the engine connections
+    APNSSendEngine.getInstance().stop(MMXServerConstants.APNS_ENGINE_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 
     //Teardown the APNS Connection pool
     APNSConnectionPoolImpl.teardown();
@@ -217,6 +226,12 @@ public class MMXPlugin implements Plugin, ClusterEventListener {
       Log.error("destroyPlugin : error unregistering mbean={}", MMXServerConstants.MMX_MBEAN_NAME);
     }
     apnsFeedbackProcessExecutionManager.stop();
+    if (messageRetentionExecutionManager != null) {
+      messageRetentionExecutionManager.stop();
+    }
+
+    // stop the remaining executors after all the producers have been stopped
+    MMXExecutors.shutdownAll(MMXServerConstants.EXECUTOR_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
     Log.info("App Management Plugin is destroyed");
   }
 
@@ -227,8 +242,8 @@ public class MMXPlugin implements Plugin, ClusterEventListener {
     final int initialDelay = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.WAKEUP_INITIAL_WAIT_KEY, MMXServerConstants.DEFAULT_WAKEUP_INITIAL_WAIT);
     try {
       startWakeupTask(frequency, initialDelay);
-      startTimeoutExecutionTask(frequency, initialDelay);
       startApnsFeedbackProcess();
+      startMessageRetentionProcess();
     } catch (Exception e) {
       Log.error("startSchedulededTasks : caught exception starting scheduled tasks", e);
     }
@@ -282,12 +297,6 @@ public class MMXPlugin implements Plugin, ClusterEventListener {
     }
   }
 
-  private void startTimeoutExecutionTask(int frequency, int initialDelay) {
-    Log.trace("startTimeoutExecutionTask : frequency={}, initialDelay={}", frequency, initialDelay);
-    timeoutExecutionManager = new TimeoutExecutionManagerImpl();
-    timeoutExecutionManager.startTimeoutCheck(initialDelay + 40, frequency);
-  }
-
   private void startApnsFeedbackProcess() {
     apnsFeedbackProcessExecutionManager = new APNSFeedbackProcessExecutionManager();
 
@@ -301,6 +310,19 @@ public class MMXPlugin implements Plugin, ClusterEventListener {
     apnsFeedbackProcessExecutionManager.start(apnsFeedBackProcessInitialDelayMinutes, apnsFeedBackProcessFrequencyMinutes);
   }
 
+  private void startMessageRetentionProcess() {
+    messageRetentionExecutionManager = new MessageRetentionExecutionManager();
+
+    int retentionInitialDelayMinutes = MMXConfiguration.getConfiguration().
+            getInt(MMXConfigKeys.RETENTION_INITIAL_DELAY_MINUTES, MMXServerConstants.DEFAULT_RETENTION_INITIAL_DELAY_MINUTES);
+    int retentionFrequencyMinutes = MMXConfiguration.getConfiguration().
+            getInt(MMXConfigKeys.RETENTION_FREQUENCY_MINUTES, MMXServerConstants.DEFAULT_RETENTION_FREQUENCY_MINUTES);
+    Log.trace("startMessageRetentionProcess starting task retentionInitialDelayMinutes={}, retentionFrequencyMinutes={}",
+            retentionInitialDelayMinutes, retentionFrequencyMinutes);
+
+    messageRetentionExecutionManager.start(retentionInitialDelayMinutes, retentionFrequencyMinutes);
+  }
+
   public void initializeAPNSConnectionPool() {
 
     MMXConfiguration configuration = MMXConfiguration.getConfiguration();
@@ -319,27 +341,32 @@ public class MMXPlugin implements Plugin, ClusterEventListener {
     config.setMinEvictableIdleTimeMillis(ttlForIdleObjectsInMinutes * 60 * 1000L);
 
     APNSConnectionPoolImpl.initialize(config);
+    APNSSendEngine.getInstance().start();
   }
 
   @Override
   public void joinedCluster() {
    Log.debug("joinedCluster : node has joined the cluster");
    startSchedulededTasks();
+   RateLimiterService.updateClusterShares();
   }
 
   @Override
   public void joinedCluster(byte[] bytes) {
     Log.debug("joinedCluster : id={}", bytes.toString());
+    RateLimiterService.updateClusterShares();
   }
 
   @Override
   public void leftCluster() {
     Log.debug("leftCluster : the node has left the cluster");
+    RateLimiterService.updateClusterShares();
   }
 
   @Override
   public void leftCluster(byte[] bytes) {
     Log.debug("leftCluster : id={} has left the cluster", bytes.toString());
+    RateLimiterService.updateClusterShares();
   }
 
   @Override
@@ -16,6 +16,7 @@ package com.magnet.mmx.server.plugin.mmxmgmt.api;
 
 import com.magnet.mmx.server.common.data.AppEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.ConnectionProvider;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
@@ -48,7 +49,7 @@ public class AbstractBaseResource {
       return buildAuthFailure(ErrorCode.AUTH_MISSING);
     }
 
-    AppEntity appEntity = appDAO.getAppForAppKey(appId);
+    AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
     if (appEntity == null) {
       return buildAuthFailure(ErrorCode.AUTH_BAD_APP_ID);
     }
@@ -62,7 +62,9 @@ public enum ErrorCode {
   APNS_PASSWORD_MISSING(51),
   TOPIC_PUBLISH_FORBIDDEN (52),
   TOPIC_ITEMS_BY_ID(53),
-  RATE_LIMIT_EXCEEDED((54))
+  RATE_LIMIT_EXCEEDED((54)),
+  GEO_INVALID_QUERY(55),
+  SEND_PUSH_JOB_REJECTED(56)
   ;
 
   private int code;
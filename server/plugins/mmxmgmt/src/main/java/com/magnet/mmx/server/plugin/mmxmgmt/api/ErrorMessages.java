@@ -31,6 +31,7 @@ public final class ErrorMessages {
   public static final String ERROR_GCM_PAYLOAD_SIZE = "Payload exceeds the maximum size allowed";
   public static final String ERROR_SEND_PING_INVALID_TARGET = "Request doesn't define valid targets";
   public static final String ERROR_SEND_PUSH_INVALID_TARGET = "Request doesn't define valid targets";
+  public static final String ERROR_SEND_PUSH_JOB_REJECTED = "Too many push jobs are queued, try again later";
   public static final String ERROR_SEND_MESSAGE_INVALID_USER_ID_DEVICE_ID = "Request doesn't contain a valid " +
       "user name/deviceId/target information";
   public static final String ERROR_UNDELIVERABLE_TOKEN = "Push service has reported token as being undeliverable";
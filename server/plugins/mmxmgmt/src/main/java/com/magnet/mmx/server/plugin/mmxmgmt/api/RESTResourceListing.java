@@ -17,6 +17,7 @@ package com.magnet.mmx.server.plugin.mmxmgmt.api;
 import com.magnet.mmx.server.api.v1.DevicesResource;
 import com.magnet.mmx.server.api.v1.MMXAuthHeadersFilter;
 import com.magnet.mmx.server.api.v1.RateLimitFilter;
+import com.magnet.mmx.server.plugin.mmxmgmt.api.geo.MMXGeoResource;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.message.MessageResource;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.push.PingMessageFunctionResource;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.push.PushMessageFunctionResource;
@@ -54,7 +55,8 @@ public final class RESTResourceListing {
        */
       DevicesResource.class.getName(),
       TopicResource.class.getName(),
-      MMXTopicSummaryResource.class.getName()
+      MMXTopicSummaryResource.class.getName(),
+      MMXGeoResource.class.getName()
   };
 
   public static String[] getResources() {
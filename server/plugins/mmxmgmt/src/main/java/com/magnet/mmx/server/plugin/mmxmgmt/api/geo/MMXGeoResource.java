@@ -0,0 +1,107 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.api.geo;
+
+import com.magnet.mmx.server.common.data.AppEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorCode;
+import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorResponse;
+import com.magnet.mmx.server.plugin.mmxmgmt.context.GeoLocationIndex;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Query the last known locations of the devices of an app.
+ */
+@Path("/geo")
+public class MMXGeoResource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MMXGeoResource.class);
+
+  @Context
+  private HttpServletRequest servletRequest;
+
+  /**
+   * Get the devices whose last known location is within a radius of a point, nearest first.
+   * @param latitude
+   * @param longitude
+   * @param radius radius in meters
+   * @param limit max number of devices
+   * @return
+   */
+  @GET
+  @Path("nearby")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getNearbyDevices(@QueryParam("lat") Double latitude,
+                                   @QueryParam("lng") Double longitude,
+                                   @QueryParam("radius") Double radius,
+                                   @QueryParam("limit") @DefaultValue("-1") int limit) {
+    AppEntity appEntity;
+    Object o = servletRequest.getAttribute(MMXServerConstants.MMX_APP_ENTITY_PROPERTY);
+    if (o instanceof AppEntity) {
+      appEntity = (AppEntity) o;
+    } else {
+      LOGGER.error("getNearbyDevices : appEntity is not set");
+      return Response
+          .status(Response.Status.INTERNAL_SERVER_ERROR)
+          .build();
+    }
+    String appId = appEntity.getAppId();
+    LOGGER.trace("getNearbyDevices : appId={}, lat={}, lng={}, radius={}", new Object[]{appId, latitude, longitude, radius});
+
+    if (latitude == null || longitude == null || Math.abs(latitude) > 90.0d || Math.abs(longitude) > 180.0d) {
+      throw badRequest("Invalid or missing lat and lng");
+    }
+    int maxRadius = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.GEO_INDEX_MAX_RADIUS_METERS,
+        MMXServerConstants.DEFAULT_GEO_INDEX_MAX_RADIUS_METERS);
+    if (radius == null || radius <= 0 || radius > maxRadius) {
+      throw badRequest("radius must be greater than 0 and at most " + maxRadius + " meters");
+    }
+    if (limit <= 0 || limit > MMXServerConstants.DEFAULT_GEO_NEARBY_LIMIT) {
+      limit = MMXServerConstants.DEFAULT_GEO_NEARBY_LIMIT;
+    }
+
+    List<GeoLocationIndex.NearbyLocation> found = GeoLocationIndex.getInstance()
+        .findNearby(appId, latitude, longitude, radius, limit);
+    List<NearbyDevice> devices = new ArrayList<NearbyDevice>(found.size());
+    for (GeoLocationIndex.NearbyLocation nearby : found) {
+      devices.add(NearbyDevice.from(nearby));
+    }
+    return Response
+        .status(Response.Status.OK)
+        .entity(devices)
+        .build();
+  }
+
+  private static WebApplicationException badRequest(String message) {
+    return new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+        .entity(new ErrorResponse(ErrorCode.GEO_INVALID_QUERY.getCode(), message))
+        .type(MediaType.APPLICATION_JSON).build());
+  }
+}
@@ -0,0 +1,97 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.api.geo;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.context.GeoLocationIndex;
+
+import java.util.Date;
+
+/**
+ * Device found by a nearby devices query.
+ */
+public class NearbyDevice {
+  private String userId;
+  private String deviceId;
+  private double latitude;
+  private double longitude;
+  private double distance;
+  private Date updated;
+
+  public String getUserId() {
+    return userId;
+  }
+
+  public void setUserId(String userId) {
+    this.userId = userId;
+  }
+
+  public String getDeviceId() {
+    return deviceId;
+  }
+
+  public void setDeviceId(String deviceId) {
+    this.deviceId = deviceId;
+  }
+
+  public double getLatitude() {
+    return latitude;
+  }
+
+  public void setLatitude(double latitude) {
+    this.latitude = latitude;
+  }
+
+  public double getLongitude() {
+    return longitude;
+  }
+
+  public void setLongitude(double longitude) {
+    this.longitude = longitude;
+  }
+
+  /**
+   * @return distance to the point of the query in meters
+   */
+  public double getDistance() {
+    return distance;
+  }
+
+  public void setDistance(double distance) {
+    this.distance = distance;
+  }
+
+  /**
+   * @return time the location was reported
+   */
+  public Date getUpdated() {
+    return updated;
+  }
+
+  public void setUpdated(Date updated) {
+    this.updated = updated;
+  }
+
+  public static NearbyDevice from(GeoLocationIndex.NearbyLocation nearby) {
+    GeoLocationIndex.Location location = nearby.getLocation();
+    NearbyDevice device = new NearbyDevice();
+    device.setUserId(location.getUserId());
+    device.setDeviceId(location.getDeviceId());
+    device.setLatitude(location.getLatitude());
+    device.setLongitude(location.getLongitude());
+    device.setDistance(nearby.getDistance());
+    device.setUpdated(new Date(location.getUpdated()));
+    return device;
+  }
+}
@@ -24,6 +24,7 @@ import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorResponse;
 import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSPingMessageSender;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceTargetResolver;
 import com.magnet.mmx.server.plugin.mmxmgmt.gcm.GCMPingMessageSender;
@@ -111,7 +112,7 @@ public class PingMessageFunctionResource extends AbstractBaseResource {
         response.setSentList(sent);
         response.setUnsentList(unsent);
       } else {
-        AppEntity appEntity = appDAO.getAppForAppKey(appId);
+        AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
         int sent = 0;
         int unsent = 0;
         int requested = 0;
@@ -0,0 +1,98 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.api.push;
+
+import com.magnet.mmx.protocol.PushType;
+import com.magnet.mmx.server.common.data.AppEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSPushMessageSender;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceTargetResolver;
+import com.magnet.mmx.server.plugin.mmxmgmt.gcm.GCMPushMessageSender;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.DeviceHolder;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushAPNSPayloadBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushGCMPayloadBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.PushJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Sends a push message to its targets one page of devices at a time and adds the counts of
+ * every page to the {@link PushJob}. The sent and unsent lists of a page are dropped once the
+ * page is counted so the memory used doesn't grow with the size of the audience.
+ */
+public class PushJobTask implements Runnable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PushJobTask.class);
+
+  private final PushJob job;
+  private final AppEntity appEntity;
+  private final Options options;
+  private final DeviceTargetResolver.DevicePager pager;
+  private final MMXPushAPNSPayloadBuilder apnsBuilder;
+  private final MMXPushGCMPayloadBuilder gcmBuilder;
+
+  public PushJobTask(PushJob job, AppEntity appEntity, Options options, DeviceTargetResolver.DevicePager pager,
+                     MMXPushAPNSPayloadBuilder apnsBuilder, MMXPushGCMPayloadBuilder gcmBuilder) {
+    this.job = job;
+    this.appEntity = appEntity;
+    this.options = options;
+    this.pager = pager;
+    this.apnsBuilder = apnsBuilder;
+    this.gcmBuilder = gcmBuilder;
+  }
+
+  @Override
+  public void run() {
+    APNSPushMessageSender apnsSender = null;
+    GCMPushMessageSender gcmSender = null;
+    while (pager.hasMore()) {
+      List<DeviceEntity> page = pager.nextPage();
+      int requested = pager.getLastPageRequested();
+      int sent = 0;
+      int unsent = 0;
+      int resolved = 0;
+      if (!page.isEmpty()) {
+        DeviceHolder holder = DeviceHolder.build(page);
+        List<DeviceEntity> iosDevices = holder.getDevices(PushType.APNS);
+        if (!iosDevices.isEmpty()) {
+          if (apnsSender == null) {
+            apnsSender = new APNSPushMessageSender(appEntity, options);
+          }
+          Count count = apnsSender.sendPush(iosDevices, apnsBuilder).getCount();
+          sent += count.getSent();
+          unsent += count.getUnsent();
+          resolved += count.getRequested();
+        }
+        List<DeviceEntity> androidDevices = holder.getDevices(PushType.GCM);
+        if (!androidDevices.isEmpty()) {
+          if (gcmSender == null) {
+            gcmSender = new GCMPushMessageSender(appEntity, options);
+          }
+          Count count = gcmSender.sendPush(androidDevices, gcmBuilder).getCount();
+          sent += count.getSent();
+          unsent += count.getUnsent();
+          resolved += count.getRequested();
+        }
+      }
+      // requested devices that were not found or have no push token type are not sent
+      unsent += Math.max(0, requested - resolved);
+      job.addPage(Math.max(requested, resolved), sent, unsent);
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("run : processed page of size={} for job={}", page.size(), job);
+      }
+    }
+  }
+}
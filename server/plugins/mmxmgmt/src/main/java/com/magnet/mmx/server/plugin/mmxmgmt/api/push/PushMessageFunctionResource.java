@@ -24,6 +24,7 @@ import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorResponse;
 import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSPushMessageSender;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceTargetResolver;
 import com.magnet.mmx.server.plugin.mmxmgmt.gcm.GCMPushMessageSender;
@@ -31,14 +32,21 @@ import com.magnet.mmx.server.plugin.mmxmgmt.push.DeviceHolder;
 import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushAPNSPayloadBuilder;
 import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushGCMPayloadBuilder;
 import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushHeader;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.PushIdGeneratorImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.PushJob;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.PushJobManager;
 import com.magnet.mmx.server.plugin.mmxmgmt.push.ResolutionException;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
@@ -49,6 +57,7 @@ import javax.ws.rs.core.Response;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -113,7 +122,7 @@ public class PushMessageFunctionResource extends AbstractBaseResource {
         response.setSentList(sent);
         response.setUnsentList(unsent);
       } else {
-        AppEntity appEntity = appDAO.getAppForAppKey(appId);
+        AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
         int sent = 0;
         int unsent = 0;
         int requested = 0;
@@ -169,6 +178,102 @@ public class PushMessageFunctionResource extends AbstractBaseResource {
     }
   }
 
+  /**
+   * Send the push message in the background. The targets are read and pushed one page of
+   * devices at a time and the response only contains the id of the job, which can be polled
+   * for the counts using {@link #getPushJob(HttpHeaders, String)}. Use this for large audiences.
+   */
+  @POST
+  @Path("jobs")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response sendPushMessageJob(@Context HttpHeaders headers, SendPushMessageRequest request) {
+    try {
+      AppDAO appDAO = new AppDAOImpl(getConnectionProvider());
+      AppEntityHolder appHolder = new AppEntityHolderImpl();
+      ErrorResponse authCheck = isAuthenticated(headers, appDAO, appHolder);
+      if (authCheck != null) {
+        return Response
+            .status(Response.Status.UNAUTHORIZED)
+            .entity(authCheck)
+            .build();
+      }
+      AppEntity appEntity = appHolder.getAppEntity();
+      String appId = appEntity.getAppId();
+      int pageSize = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.PUSH_JOB_PAGE_SIZE,
+          MMXServerConstants.DEFAULT_PUSH_JOB_PAGE_SIZE);
+
+      DeviceTargetResolver resolver = getDeviceTargetResolver();
+      DeviceTargetResolver.DevicePager pager = resolver.page(appId, request.getTarget(), pageSize);
+      PushJob job = new PushJob(new PushIdGeneratorImpl().generateId(appId, "pushjob"), appId);
+      PushJobTask task = new PushJobTask(job, appEntity, request.getOptions(), pager, builder(request),
+          gcmBuilder(request));
+      getPushJobManager().submit(job, task);
+      LOGGER.info("sendPushMessageJob : submitted push job={}", job);
+      return Response
+          .status(Response.Status.ACCEPTED)
+          .entity(SendPushJobResponse.from(job))
+          .build();
+    } catch (ResolutionException e) {
+      throw new WebApplicationException(
+          Response
+              .status(Response.Status.BAD_REQUEST)
+              .entity(new ErrorResponse(ErrorCode.SEND_PUSH_MESSAGE_BAD_REQUEST, ErrorMessages.ERROR_SEND_PUSH_INVALID_TARGET))
+              .build());
+    } catch (RejectedExecutionException e) {
+      throw new WebApplicationException(
+          Response
+              .status(Response.Status.SERVICE_UNAVAILABLE)
+              .entity(new ErrorResponse(ErrorCode.SEND_PUSH_JOB_REJECTED, ErrorMessages.ERROR_SEND_PUSH_JOB_REJECTED))
+              .build());
+    } catch (WebApplicationException e) {
+      throw e;
+    } catch (Throwable t) {
+      LOGGER.warn("Throwable during sendPushMessageJob", t);
+      throw new WebApplicationException(
+          Response
+              .status(Response.Status.INTERNAL_SERVER_ERROR)
+              .entity(new ErrorResponse(ErrorCode.SEND_PUSH_MESSAGE_ISE, t.getMessage()))
+              .build()
+      );
+    }
+  }
+
+  /**
+   * Get the state and counts of a push job started by this node.
+   */
+  @GET
+  @Path("jobs/{id}")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getPushJob(@Context HttpHeaders headers, @PathParam("id") String jobId) {
+    AppDAO appDAO = new AppDAOImpl(getConnectionProvider());
+    AppEntityHolder appHolder = new AppEntityHolderImpl();
+    ErrorResponse authCheck = isAuthenticated(headers, appDAO, appHolder);
+    if (authCheck != null) {
+      return Response
+          .status(Response.Status.UNAUTHORIZED)
+          .entity(authCheck)
+          .build();
+    }
+    PushJob job = getPushJobManager().getJob(appHolder.getAppEntity().getAppId(), jobId);
+    if (job == null) {
+      return Response
+          .status(Response.Status.NOT_FOUND)
+          .build();
+    }
+    return Response
+        .status(Response.Status.OK)
+        .entity(SendPushJobResponse.from(job))
+        .build();
+  }
+
+  protected PushJobManager getPushJobManager() {
+    return PushJobManager.getInstance();
+  }
+
+  protected DeviceTargetResolver getDeviceTargetResolver() {
+    return new DeviceTargetResolver();
+  }
 
   protected MMXPushAPNSPayloadBuilder builder(SendPushMessageRequest request) {
     MMXPushAPNSPayloadBuilder builder = new MMXPushAPNSPayloadBuilder();
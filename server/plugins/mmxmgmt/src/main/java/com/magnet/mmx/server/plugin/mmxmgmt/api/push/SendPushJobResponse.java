@@ -0,0 +1,73 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.api.push;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.push.PushJob;
+
+/**
+ * Response for a push message that is sent in the background. It contains the job id
+ * and the counts at the time of the request.
+ */
+public class SendPushJobResponse {
+
+  private String jobId;
+
+  private String state;
+
+  private Count count;
+
+  private String error;
+
+  public String getJobId() {
+    return jobId;
+  }
+
+  public void setJobId(String jobId) {
+    this.jobId = jobId;
+  }
+
+  public String getState() {
+    return state;
+  }
+
+  public void setState(String state) {
+    this.state = state;
+  }
+
+  public Count getCount() {
+    return count;
+  }
+
+  public void setCount(Count count) {
+    this.count = count;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public void setError(String error) {
+    this.error = error;
+  }
+
+  public static SendPushJobResponse from(PushJob job) {
+    SendPushJobResponse response = new SendPushJobResponse();
+    response.setJobId(job.getId());
+    response.setState(job.getState().name());
+    response.setCount(new Count(job.getRequested(), job.getSent(), job.getUnsent()));
+    response.setError(job.getError());
+    return response;
+  }
+}
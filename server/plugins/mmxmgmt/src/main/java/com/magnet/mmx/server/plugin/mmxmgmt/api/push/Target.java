@@ -15,6 +15,7 @@
 package com.magnet.mmx.server.plugin.mmxmgmt.api.push;
 
 import com.magnet.mmx.server.plugin.mmxmgmt.api.query.DeviceQuery;
+import com.magnet.mmx.server.plugin.mmxmgmt.api.query.GeoQuery;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.query.UserQuery;
 
 import java.util.ArrayList;
@@ -30,6 +31,8 @@ public class Target {
 
   private UserQuery userQuery;
 
+  private GeoQuery geoQuery;
+
   public UserQuery getUserQuery() {
     return userQuery;
   }
@@ -57,4 +60,17 @@ public class Target {
   public void setDeviceQuery(DeviceQuery deviceQuery) {
     this.deviceQuery = deviceQuery;
   }
+
+  public GeoQuery getGeoQuery() {
+    return geoQuery;
+  }
+
+  /**
+   * Restrict the target to the devices whose last known location is in the area of the query.
+   * The devices are further restricted by the deviceIds and the device query when they are set.
+   * @param geoQuery
+   */
+  public void setGeoQuery(GeoQuery geoQuery) {
+    this.geoQuery = geoQuery;
+  }
 }
@@ -0,0 +1,105 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.api.query;
+
+/**
+ * Geo query representation. The area is either a circle defined by latitude, longitude and
+ * radius or a bounding box defined by south, west, north and east. A box whose west longitude
+ * is greater than its east longitude crosses the antimeridian.
+ */
+public class GeoQuery {
+
+  private Double latitude;
+  private Double longitude;
+  /**
+   * radius in meters
+   */
+  private Double radius;
+
+  private Double south;
+  private Double west;
+  private Double north;
+  private Double east;
+
+  public Double getLatitude() {
+    return latitude;
+  }
+
+  public void setLatitude(Double latitude) {
+    this.latitude = latitude;
+  }
+
+  public Double getLongitude() {
+    return longitude;
+  }
+
+  public void setLongitude(Double longitude) {
+    this.longitude = longitude;
+  }
+
+  public Double getRadius() {
+    return radius;
+  }
+
+  public void setRadius(Double radius) {
+    this.radius = radius;
+  }
+
+  public Double getSouth() {
+    return south;
+  }
+
+  public void setSouth(Double south) {
+    this.south = south;
+  }
+
+  public Double getWest() {
+    return west;
+  }
+
+  public void setWest(Double west) {
+    this.west = west;
+  }
+
+  public Double getNorth() {
+    return north;
+  }
+
+  public void setNorth(Double north) {
+    this.north = north;
+  }
+
+  public Double getEast() {
+    return east;
+  }
+
+  public void setEast(Double east) {
+    this.east = east;
+  }
+
+  /**
+   * @return true if the circle is defined
+   */
+  public boolean isCircle() {
+    return latitude != null && longitude != null && radius != null;
+  }
+
+  /**
+   * @return true if the bounding box is defined
+   */
+  public boolean isBox() {
+    return south != null && west != null && north != null && east != null;
+  }
+}
@@ -22,6 +22,7 @@ import com.magnet.mmx.server.plugin.mmxmgmt.api.AbstractBaseResource;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorCode;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorMessages;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorResponse;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.TopicItemCursor;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.TopicItemEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.handler.MMXTopicManager;
 import com.magnet.mmx.server.plugin.mmxmgmt.message.MMXPubSubItem;
@@ -62,6 +63,7 @@ public class MMXTopicsItemsResource extends AbstractBaseResource {
   public static final String SORT_PARAM = "sort";
   public static final String SINCE_PARAM = "since";
   public static final String UNTIL_PARAM = "until";
+  public static final String CURSOR_PARAM = "cursor";
   public static final String ID_KEY = "id";
   private static final String DEFAULT_MAX_ITEMS = "200";
 
@@ -72,6 +74,7 @@ public class MMXTopicsItemsResource extends AbstractBaseResource {
                        @QueryParam(SORT_PARAM) String order,
                        @QueryParam(SINCE_PARAM) String since,
                        @QueryParam(UNTIL_PARAM) String until,
+                       @QueryParam(CURSOR_PARAM) String cursor,
                        @QueryParam(MMXServerConstants.SIZE_PARAM)
                        @DefaultValue(DEFAULT_MAX_ITEMS) int size) {
     ErrorResponse errorResponse = isAuthenticated(headers, DBUtil.getAppDAO());
@@ -122,24 +125,38 @@ public class MMXTopicsItemsResource extends AbstractBaseResource {
       order = MMXServerConstants.SORT_ORDER_ASCENDING;
     }
 
+    TopicItemCursor after;
+    try {
+      after = TopicItemCursor.parse(cursor);
+    } catch (IllegalArgumentException e) {
+      return new ErrorResponse(ErrorCode.ILLEGAL_ARGUMENT.getCode(),
+              "\"cursor\" param is not valid").toJaxRSResponse();
+    }
+
     String nodeId = TopicHelper.makeTopic(appId, null, topicName);
 
     LOGGER.trace("getItems : constructed nodeId={}", nodeId);
 
-    List<TopicItemEntity> topicItemEntities = null;
-
-    if(!hasSince && !hasUntil) {
-        topicItemEntities = getItems(nodeId, size, order);
-    } else if(hasSince && !hasUntil) {
-      topicItemEntities = getItemsSince(nodeId, size, dateSince);
+    // the items since a date are returned oldest first and the items until a date newest first
+    if(hasSince && !hasUntil) {
+      order = MMXServerConstants.SORT_ORDER_ASCENDING;
     } else if(!hasSince && hasUntil) {
-      topicItemEntities = getItemsUntil(nodeId, size, dateUntil);
-    } else if(hasSince && hasUntil) {
-      topicItemEntities = getItems(nodeId, size, dateSince, dateUntil, order);
+      order = MMXServerConstants.SORT_ORDER_DESCENDING;
+    }
+
+    // read one more item than requested to find out if there is a next page
+    List<TopicItemEntity> topicItemEntities = getItems(nodeId, size + 1, dateSince, dateUntil, order, after);
+    String nextCursor = null;
+    if (topicItemEntities.size() > size) {
+      topicItemEntities = topicItemEntities.subList(0, size);
+      if (size > 0) {
+        nextCursor = TopicItemCursor.from(topicItemEntities.get(size - 1)).toString();
+      }
     }
 
     List<MMXPubSubItem> items = getPublishedItems(appId, topicItemEntities);
     PubSubItemResult pubsubItemResult = getPubsubItemResult(nodeId, items);
+    pubsubItemResult.setNextCursor(nextCursor);
 
     return Response.status(Response.Status.OK).entity(pubsubItemResult).build();
   }
@@ -212,6 +229,14 @@ public class MMXTopicsItemsResource extends AbstractBaseResource {
                                               nodeId, maxItems, sinceDateStr, untilDateStr, order);
   }
 
+  public List<TopicItemEntity> getItems(String nodeId, int maxItems, Date since, Date until, String order,
+                                        TopicItemCursor after) {
+    String sinceDateStr = since != null ? StringUtils.dateToMillis(since) : null;
+    String untilDateStr = until != null ? StringUtils.dateToMillis(until) : null;
+    return DBUtil.getTopicItemDAO().getItems(MMXServerConstants.DEFAULT_PUBSUB_SERVICE_ID,
+                                              nodeId, maxItems, sinceDateStr, untilDateStr, order, after);
+  }
+
   private List<MMXPubSubItem> getPublishedItems(final String appId, List<TopicItemEntity> entityList) {
     Function<TopicItemEntity, MMXPubSubItem> entityToItem =
             new Function<TopicItemEntity, MMXPubSubItem>() {
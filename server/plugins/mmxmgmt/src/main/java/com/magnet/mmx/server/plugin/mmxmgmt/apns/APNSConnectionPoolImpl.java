@@ -20,6 +20,7 @@ import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAOImpl;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.ConnectionProvider;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
 import com.notnoop.apns.APNS;
+import com.notnoop.apns.ApnsDelegate;
 import com.notnoop.apns.ApnsService;
 import com.notnoop.apns.ApnsServiceBuilder;
 import com.notnoop.exceptions.InvalidSSLConfig;
@@ -214,6 +215,17 @@ public class APNSConnectionPoolImpl implements APNSConnectionPool {
 
     @Override
     public APNSConnection create(APNSConnectionKey key) throws Exception {
+      return create(key, new MMXAPNSDelegate(key));
+    }
+
+    /**
+     * Build and open a connection that reports the delivery callbacks to the supplied delegate.
+     * @param key
+     * @param delegate
+     * @return opened connection
+     * @throws Exception if the connection can't be built
+     */
+    APNSConnectionImpl create(APNSConnectionKey key, ApnsDelegate delegate) throws Exception {
       LOGGER.info("Building APNS Connection for appId:{} and production:{}", key.getAppId(), key.isProduction());
       AppEntity appEntity = getAppEntity(key.getAppId());
       boolean apnsCertProduction = key.isProduction();
@@ -254,7 +266,7 @@ public class APNSConnectionPoolImpl implements APNSConnectionPool {
         }
         builder.withAppleDestination(apnsCertProduction);
       }
-      builder.withDelegate(new MMXAPNSDelegate(key));
+      builder.withDelegate(delegate);
 
       ApnsService apnsService = builder.build();
       APNSConnectionImpl apnsConnection = new APNSConnectionImpl(apnsService, key);
@@ -109,6 +109,13 @@ public class APNSPushMessageSender {
             unsentCount++;
             continue;
           }
+          if (!APNSSendEngine.isValidDeviceToken(token)) {
+            // the send engine queues the notification so a bad token would only fail asynchronously
+            Unsent unsent = buildUnsent(deviceId, ErrorCode.APNS_INVALID_TOKEN.getCode(), ErrorMessages.ERROR_INVALID_DEVICE_TOKEN);
+            unsentList.add(unsent);
+            unsentCount++;
+            continue;
+          }
 
           String pushId = generator.generateId(appId, deviceId);
           String callBackURL = CallbackUrlUtil.buildCallBackURL(pushId);
@@ -119,6 +126,9 @@ public class APNSPushMessageSender {
             if (LOGGER.isTraceEnabled()) {
               LOGGER.trace("sendPush: deviceId:{} payload:{}", deviceId, payload);
             }
+            if (!APNSSendEngine.isValidPayload(payload)) {
+              throw new PayloadSizeException("Payload size exceeds allowed limit");
+            }
             if (hasOptions) {
               connection.send(token, payload, options.getTtl());
             } else {
@@ -191,15 +201,18 @@ public class APNSPushMessageSender {
     return unsent;
   }
 
+  /**
+   * Get the queued connection of the send engine. The notifications written to it are sent
+   * asynchronously and failures are reported to the engine listener.
+   */
   protected APNSConnection getConnection (String appId, boolean production) {
-    APNSConnectionPool connectionPool = APNSConnectionPoolImpl.getInstance();
-    APNSConnection connection = connectionPool.getConnection(appId, production);
-    return connection;
+    return APNSSendEngine.getInstance().getConnection(appId, production);
   }
 
 
+  /**
+   * The engine connections are long lived so there is nothing to return.
+   */
   protected void returnConnection (APNSConnection connection) {
-    APNSConnectionPool connectionPool = APNSConnectionPoolImpl.getInstance();
-    connectionPool.returnConnection(connection);
   }
 }
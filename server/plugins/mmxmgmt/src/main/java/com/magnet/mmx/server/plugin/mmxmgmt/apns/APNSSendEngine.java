@@ -0,0 +1,642 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.apns;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.magnet.mmx.protocol.PushType;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DevicePushTokenInvalidator;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.LatencyHistogram;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXExecutors;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import com.notnoop.apns.ApnsDelegateAdapter;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.internal.Utilities;
+import com.notnoop.exceptions.ApnsDeliveryErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * APNS send engine that keeps long lived connections per (appId, production) and queues the
+ * notifications into them instead of borrowing a pooled connection for every send.
+ * <p/>
+ * Every (appId, production) pair gets a channel with {@link MMXConfigKeys#APNS_ENGINE_CONNECTIONS_PER_APP}
+ * connections. Each connection has its own bounded queue which is drained by the shared
+ * "APNSSendExecutor" executor, so a connection is only ever written by one thread at a time.
+ * The channel is exposed as an {@link APNSConnection} whose send methods return as soon as the
+ * notification is queued. Notifications that can't be written or that are rejected by APNS are
+ * reported asynchronously to the {@link APNSSendListener}; the default listener invalidates the
+ * rejected device tokens using the {@link DevicePushTokenInvalidator}.
+ * Channels that haven't been used for {@link MMXConfigKeys#APNS_ENGINE_IDLE_MINUTES} are closed.
+ */
+public class APNSSendEngine {
+  private static final Logger LOGGER = LoggerFactory.getLogger(APNSSendEngine.class);
+  private static final String EXECUTOR_NAME = "APNSSendExecutor";
+  private static final int EXECUTOR_SIZE = 4;
+  /**
+   * Max notifications written by a drain task before it yields the executor thread
+   */
+  private static final int DRAIN_BATCH_SIZE = 500;
+  /**
+   * Max payload size accepted by APNS, same as the limit used by the payload builder.
+   */
+  public static final int MAX_PAYLOAD_BYTES = 2048;
+
+  private final ConcurrentHashMap<APNSConnectionPoolImpl.APNSConnectionKey, Channel> channels =
+      new ConcurrentHashMap<APNSConnectionPoolImpl.APNSConnectionKey, Channel>();
+  /**
+   * Locks used for opening the channel of a key.
+   */
+  private final ConcurrentHashMap<APNSConnectionPoolImpl.APNSConnectionKey, Object> openLocks =
+      new ConcurrentHashMap<APNSConnectionPoolImpl.APNSConnectionKey, Object>();
+  private final LatencyHistogram sendLatency = new LatencyHistogram();
+  private final AtomicLong sentCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private volatile APNSSendListener listener = new TokenInvalidatingListener();
+  private volatile boolean running = false;
+  private ScheduledExecutorService idleChecker;
+
+  protected APNSSendEngine() {
+  }
+
+  private static class EngineHolder {
+    private static final APNSSendEngine INSTANCE = new APNSSendEngine();
+  }
+
+  public static APNSSendEngine getInstance() {
+    return EngineHolder.INSTANCE;
+  }
+
+  /**
+   * Lifecycle method. Start the engine and the idle channel check.
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    int idleMinutes = getIdleMinutes();
+    idleChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("APNSSendEngineIdleChecker-%d").setDaemon(true).build());
+    idleChecker.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        closeIdleChannels();
+      }
+    }, idleMinutes, idleMinutes, TimeUnit.MINUTES);
+    running = true;
+    LOGGER.info("start : APNS send engine started with connectionsPerApp={}, queueCapacity={}",
+        getConnectionsPerApp(), getQueueCapacity());
+  }
+
+  /**
+   * Lifecycle method. Stop accepting notifications, wait for the queued notifications to be written
+   * and close all the connections. Notifications still queued after the timeout are reported to the
+   * listener as failed.
+   * @param timeout
+   * @param unit
+   */
+  public synchronized void stop(long timeout, TimeUnit unit) {
+    if (!running) {
+      return;
+    }
+    running = false;
+    idleChecker.shutdownNow();
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (getQueueDepth() > 0 && System.nanoTime() < deadline) {
+      try {
+        Thread.sleep(50L);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    int remaining = getQueueDepth();
+    if (remaining > 0) {
+      LOGGER.warn("stop : failing queued notifications={}", remaining);
+    }
+    for (APNSConnectionPoolImpl.APNSConnectionKey key : new ArrayList<APNSConnectionPoolImpl.APNSConnectionKey>(channels.keySet())) {
+      Channel channel = channels.remove(key);
+      if (channel != null) {
+        channel.close();
+      }
+    }
+    LOGGER.info("stop : APNS send engine stopped");
+  }
+
+  /**
+   * Get the queued connection for the supplied app. The connection is opened if needed.
+   * @param appId
+   * @param production
+   * @return connection or null if the connection couldn't be opened
+   * @throws IllegalStateException if the engine hasn't been started
+   */
+  public APNSConnection getConnection(String appId, boolean production) {
+    if (!running) {
+      throw new IllegalStateException("APNS send engine not started");
+    }
+    APNSConnectionPoolImpl.APNSConnectionKey key = new APNSConnectionPoolImpl.APNSConnectionKey(appId, production);
+    Channel channel = channels.get(key);
+    if (channel == null) {
+      synchronized (getOpenLock(key)) {
+        channel = channels.get(key);
+        if (channel == null) {
+          channel = openChannel(key);
+          if (channel == null) {
+            return null;
+          }
+          channels.put(key, channel);
+        }
+      }
+    }
+    channel.lastUsed = System.currentTimeMillis();
+    return channel;
+  }
+
+  private Object getOpenLock(APNSConnectionPoolImpl.APNSConnectionKey key) {
+    Object lock = openLocks.get(key);
+    if (lock == null) {
+      lock = new Object();
+      Object existing = openLocks.putIfAbsent(key, lock);
+      if (existing != null) {
+        lock = existing;
+      }
+    }
+    return lock;
+  }
+
+  /**
+   * Close the connections for the supplied app. Used when the certificate of the app changes.
+   * Notifications queued on the closed connections are reported to the listener as failed.
+   * @param appId
+   * @param production
+   */
+  public void remove(String appId, boolean production) {
+    Channel channel = channels.remove(new APNSConnectionPoolImpl.APNSConnectionKey(appId, production));
+    if (channel != null) {
+      LOGGER.info("remove : closing APNS connections for appId={}, production={}", appId, production);
+      channel.close();
+    }
+  }
+
+  /**
+   * Check if a device token can be sent to APNS. The token must be an even number of hex digits;
+   * spaces are ignored.
+   * @param deviceToken
+   * @return true if the token is valid
+   */
+  public static boolean isValidDeviceToken(String deviceToken) {
+    if (deviceToken == null) {
+      return false;
+    }
+    int digits = 0;
+    for (int i = 0; i < deviceToken.length(); i++) {
+      char c = deviceToken.charAt(i);
+      if (Character.digit(c, 16) >= 0) {
+        digits++;
+      } else if (c != ' ') {
+        return false;
+      }
+    }
+    return digits > 0 && digits % 2 == 0;
+  }
+
+  /**
+   * Check if a payload is within the size limit of APNS.
+   * @param payload
+   * @return true if the payload is valid
+   */
+  public static boolean isValidPayload(String payload) {
+    return payload != null && Utilities.toUTF8Bytes(payload).length <= MAX_PAYLOAD_BYTES;
+  }
+
+  public void setListener(APNSSendListener listener) {
+    this.listener = listener;
+  }
+
+  public int getQueueDepth() {
+    int depth = 0;
+    for (Channel channel : channels.values()) {
+      depth += channel.getQueueDepth();
+    }
+    return depth;
+  }
+
+  public int getChannelCount() {
+    return channels.size();
+  }
+
+  /**
+   * @return time between queueing a notification and writing it to the connection
+   */
+  public LatencyHistogram getSendLatency() {
+    return sendLatency;
+  }
+
+  public long getSentCount() {
+    return sentCount.get();
+  }
+
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Get a summary of the engine followed by one line per open channel.
+   * @return list of summaries
+   */
+  public List<String> getStats() {
+    List<String> stats = new ArrayList<String>(channels.size() + 1);
+    stats.add(String.format("channels=%d queued=%d sent=%d failed=%d rejected=%d latency[%s]",
+        channels.size(), getQueueDepth(), getSentCount(), getFailedCount(), getRejectedCount(), sendLatency));
+    for (Channel channel : channels.values()) {
+      stats.add(channel.toString());
+    }
+    Collections.sort(stats.subList(1, stats.size()));
+    return stats;
+  }
+
+  /**
+   * Open the connections for a channel.
+   * @param key
+   * @return the channel or null if a connection couldn't be opened.
+   */
+  private Channel openChannel(APNSConnectionPoolImpl.APNSConnectionKey key) {
+    int count = getConnectionsPerApp();
+    int capacity = getQueueCapacity();
+    EngineDelegate delegate = new EngineDelegate(key);
+    List<APNSConnection> connections = new ArrayList<APNSConnection>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        connections.add(openConnection(key, delegate));
+      }
+    } catch (Exception e) {
+      LOGGER.warn("openChannel : couldn't open APNS connection for key={}", key, e);
+      for (APNSConnection connection : connections) {
+        closeConnection(connection);
+      }
+      return null;
+    }
+    Channel channel = new Channel(key, connections, capacity);
+    LOGGER.info("openChannel : opened APNS channel={}", channel);
+    return channel;
+  }
+
+  /**
+   * Open a connection that reports the delivery failures to the supplied delegate.
+   */
+  protected APNSConnection openConnection(APNSConnectionPoolImpl.APNSConnectionKey key, EngineDelegate delegate) throws Exception {
+    APNSConnectionPoolImpl.APNSConnectionKeyedPooledObjectFactory factory =
+        new APNSConnectionPoolImpl.APNSConnectionKeyedPooledObjectFactory(new OpenFireDBConnectionProvider());
+    return factory.create(key, delegate);
+  }
+
+  protected void closeConnection(APNSConnection connection) {
+    if (connection instanceof APNSConnectionImpl) {
+      try {
+        ((APNSConnectionImpl) connection).close();
+      } catch (RuntimeException e) {
+        LOGGER.warn("closeConnection : exception closing APNS connection for appId={}", connection.getAppId(), e);
+      }
+    }
+  }
+
+  protected Executor getExecutor() {
+    return MMXExecutors.getOrCreate(EXECUTOR_NAME, EXECUTOR_SIZE);
+  }
+
+  private void closeIdleChannels() {
+    long idleMillis = TimeUnit.MINUTES.toMillis(getIdleMinutes());
+    long now = System.currentTimeMillis();
+    for (Map.Entry<APNSConnectionPoolImpl.APNSConnectionKey, Channel> entry : channels.entrySet()) {
+      Channel channel = entry.getValue();
+      if (now - channel.lastUsed > idleMillis && channel.getQueueDepth() == 0 && channels.remove(entry.getKey(), channel)) {
+        LOGGER.info("closeIdleChannels : closing idle APNS channel={}", channel);
+        channel.close();
+      }
+    }
+  }
+
+  private void reportFailure(final APNSConnectionPoolImpl.APNSConnectionKey key, final String deviceToken,
+                             final APNSSendListener.FailureReason reason, final Throwable cause) {
+    failedCount.incrementAndGet();
+    final APNSSendListener current = listener;
+    if (current == null) {
+      return;
+    }
+    getExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          current.sendFailed(key.getAppId(), key.isProduction(), deviceToken, reason, cause);
+        } catch (RuntimeException e) {
+          LOGGER.warn("reportFailure : listener failed for key={}, reason={}", new Object[]{key, reason, e});
+        }
+      }
+    });
+  }
+
+  private static int getConnectionsPerApp() {
+    int count = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.APNS_ENGINE_CONNECTIONS_PER_APP,
+        MMXServerConstants.DEFAULT_APNS_ENGINE_CONNECTIONS_PER_APP);
+    return Math.max(1, count);
+  }
+
+  private static int getQueueCapacity() {
+    int capacity = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.APNS_ENGINE_QUEUE_CAPACITY,
+        MMXServerConstants.DEFAULT_APNS_ENGINE_QUEUE_CAPACITY);
+    return Math.max(1, capacity);
+  }
+
+  private static int getIdleMinutes() {
+    int minutes = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.APNS_ENGINE_IDLE_MINUTES,
+        MMXServerConstants.DEFAULT_APNS_ENGINE_IDLE_MINUTES);
+    return Math.max(1, minutes);
+  }
+
+  /**
+   * Notification waiting to be written.
+   */
+  private static final class PendingNotification {
+    private final String deviceToken;
+    private final String payload;
+    private final Integer ttl;
+    private final long queuedAt = System.nanoTime();
+
+    private PendingNotification(String deviceToken, String payload, Integer ttl) {
+      this.deviceToken = deviceToken;
+      this.payload = payload;
+      this.ttl = ttl;
+    }
+  }
+
+  /**
+   * All the connections of an (appId, production) pair.
+   */
+  private class Channel implements APNSConnection {
+    private final APNSConnectionPoolImpl.APNSConnectionKey key;
+    private final Lane[] lanes;
+    private final AtomicInteger nextLane = new AtomicInteger();
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile boolean closed = false;
+
+    private Channel(APNSConnectionPoolImpl.APNSConnectionKey key, List<APNSConnection> connections, int capacity) {
+      this.key = key;
+      this.lanes = new Lane[connections.size()];
+      for (int i = 0; i < lanes.length; i++) {
+        lanes[i] = new Lane(this, connections.get(i), capacity);
+      }
+    }
+
+    @Override
+    public void send(String deviceToken, String payload) throws APNSConnectionException {
+      send(deviceToken, payload, null);
+    }
+
+    /**
+     * Queue a notification. The token and the payload are validated here because the failures
+     * of the queued notifications are only reported asynchronously. A channel that was closed
+     * after it was handed out (idle or certificate change) forwards to the current channel.
+     */
+    @Override
+    public void send(String deviceToken, String payload, Integer ttl) throws APNSConnectionException {
+      if (!running) {
+        rejectedCount.incrementAndGet();
+        throw new APNSConnectionException("APNS connection for " + key + " is closed");
+      }
+      if (!isValidDeviceToken(deviceToken)) {
+        rejectedCount.incrementAndGet();
+        throw new APNSConnectionException("Invalid APNS device token for " + key);
+      }
+      if (!isValidPayload(payload)) {
+        rejectedCount.incrementAndGet();
+        throw new APNSConnectionException("APNS payload for " + key + " exceeds " + MAX_PAYLOAD_BYTES + " bytes");
+      }
+      if (closed) {
+        APNSConnection current = getConnection(key.getAppId(), key.isProduction());
+        if (current == null || current == this) {
+          rejectedCount.incrementAndGet();
+          throw new APNSConnectionException("APNS connection for " + key + " is closed");
+        }
+        current.send(deviceToken, payload, ttl);
+        return;
+      }
+      PendingNotification notification = new PendingNotification(deviceToken, payload, ttl);
+      int start = (nextLane.getAndIncrement() & Integer.MAX_VALUE) % lanes.length;
+      for (int i = 0; i < lanes.length; i++) {
+        if (lanes[(start + i) % lanes.length].offer(notification)) {
+          lastUsed = System.currentTimeMillis();
+          return;
+        }
+      }
+      rejectedCount.incrementAndGet();
+      throw new APNSConnectionException("APNS send queue for " + key + " is full");
+    }
+
+    @Override
+    public String getAppId() {
+      return key.getAppId();
+    }
+
+    @Override
+    public boolean isApnsProductionCert() {
+      return key.isProduction();
+    }
+
+    /**
+     * Every connection receives its own feedback, so the tokens of all the lanes are merged.
+     */
+    @Override
+    public List<String> getInactiveDeviceTokens() {
+      Set<String> tokens = new LinkedHashSet<String>();
+      for (Lane lane : lanes) {
+        List<String> laneTokens = lane.connection.getInactiveDeviceTokens();
+        if (laneTokens != null) {
+          tokens.addAll(laneTokens);
+        }
+      }
+      return new ArrayList<String>(tokens);
+    }
+
+    private int getQueueDepth() {
+      int depth = 0;
+      for (Lane lane : lanes) {
+        depth += lane.queue.size();
+      }
+      return depth;
+    }
+
+    private void close() {
+      closed = true;
+      for (Lane lane : lanes) {
+        lane.close();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return key.getAppId() + " production=" + key.isProduction() + " connections=" + lanes.length +
+          " queued=" + getQueueDepth() + " closed=" + closed;
+    }
+  }
+
+  /**
+   * A single connection and its queue. The queue is drained by at most one executor thread at a time.
+   */
+  private class Lane implements Runnable {
+    private final Channel channel;
+    private final APNSConnection connection;
+    private final LinkedBlockingQueue<PendingNotification> queue;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    private Lane(Channel channel, APNSConnection connection, int capacity) {
+      this.channel = channel;
+      this.connection = connection;
+      this.queue = new LinkedBlockingQueue<PendingNotification>(capacity);
+    }
+
+    private boolean offer(PendingNotification notification) {
+      if (!queue.offer(notification)) {
+        return false;
+      }
+      schedule();
+      return true;
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          getExecutor().execute(this);
+        } catch (RuntimeException e) {
+          scheduled.set(false);
+          LOGGER.warn("schedule : couldn't schedule the drain task for key={}", channel.key, e);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        PendingNotification notification;
+        int written = 0;
+        while (written < DRAIN_BATCH_SIZE && (notification = queue.poll()) != null) {
+          write(notification);
+          written++;
+        }
+      } finally {
+        scheduled.set(false);
+      }
+      if (!queue.isEmpty()) {
+        schedule();
+      }
+    }
+
+    private void write(PendingNotification notification) {
+      if (closed) {
+        reportFailure(channel.key, notification.deviceToken, APNSSendListener.FailureReason.CONNECTION_ERROR, null);
+        return;
+      }
+      try {
+        connection.send(notification.deviceToken, notification.payload, notification.ttl);
+        sentCount.incrementAndGet();
+        sendLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - notification.queuedAt));
+      } catch (RuntimeException e) {
+        LOGGER.warn("write : failed to write notification for key={}", channel.key, e);
+        reportFailure(channel.key, notification.deviceToken, APNSSendListener.FailureReason.CONNECTION_ERROR, e);
+      }
+    }
+
+    /**
+     * Close the connection and report the notifications that are still queued as failed.
+     */
+    private void close() {
+      closed = true;
+      PendingNotification notification;
+      while ((notification = queue.poll()) != null) {
+        reportFailure(channel.key, notification.deviceToken, APNSSendListener.FailureReason.CONNECTION_ERROR, null);
+      }
+      closeConnection(connection);
+    }
+  }
+
+  /**
+   * Receives the delivery callbacks of the APNS library for a channel.
+   */
+  protected class EngineDelegate extends ApnsDelegateAdapter {
+    private final APNSConnectionPoolImpl.APNSConnectionKey key;
+
+    protected EngineDelegate(APNSConnectionPoolImpl.APNSConnectionKey key) {
+      this.key = key;
+    }
+
+    @Override
+    public void messageSendFailed(ApnsNotification message, Throwable e) {
+      String deviceToken = message != null ? Utilities.encodeHex(message.getDeviceToken()) : null;
+      APNSSendListener.FailureReason reason = APNSSendListener.FailureReason.CONNECTION_ERROR;
+      if (e instanceof ApnsDeliveryErrorException) {
+        DeliveryError error = ((ApnsDeliveryErrorException) e).getDeliveryError();
+        reason = error == DeliveryError.INVALID_TOKEN ? APNSSendListener.FailureReason.INVALID_TOKEN :
+            APNSSendListener.FailureReason.DELIVERY_ERROR;
+      }
+      LOGGER.info("messageSendFailed : APNS delivery failed for key={}, reason={}", key, reason);
+      reportFailure(key, deviceToken, reason, e);
+    }
+  }
+
+  /**
+   * Default listener that invalidates the tokens rejected by APNS.
+   */
+  public static class TokenInvalidatingListener implements APNSSendListener {
+    @Override
+    public void sendFailed(String appId, boolean production, String deviceToken, FailureReason reason, Throwable cause) {
+      if (deviceToken == null) {
+        return;
+      }
+      if (reason == FailureReason.INVALID_TOKEN) {
+        getInvalidator().invalidateToken(appId, PushType.APNS, deviceToken);
+      } else {
+        LOGGER.debug("sendFailed : not invalidating token={} for appId={}, reason={}", new Object[]{deviceToken, appId, reason});
+      }
+    }
+
+    protected DevicePushTokenInvalidator getInvalidator() {
+      return new DevicePushTokenInvalidator();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.apns;
+
+/**
+ * Callback used by the {@link APNSSendEngine} to report the notifications that couldn't be
+ * delivered. The callbacks are made on the engine threads after the send call has returned.
+ */
+public interface APNSSendListener {
+
+  /**
+   * Reasons for a failed notification.
+   */
+  public enum FailureReason {
+    /**
+     * The notification couldn't be written to the APNS connection.
+     */
+    CONNECTION_ERROR,
+    /**
+     * APNS rejected the notification because the device token is invalid.
+     */
+    INVALID_TOKEN,
+    /**
+     * APNS rejected the notification for a reason other than an invalid token.
+     */
+    DELIVERY_ERROR
+  }
+
+  /**
+   * Called when a notification couldn't be delivered.
+   * @param appId
+   * @param production true if the production APNS endpoint was used
+   * @param deviceToken device token of the notification
+   * @param reason
+   * @param cause exception reported by the APNS library; can be null
+   */
+  public void sendFailed(String appId, boolean production, String deviceToken, FailureReason reason, Throwable cause);
+}
@@ -24,6 +24,7 @@ import com.magnet.mmx.server.plugin.mmxmgmt.util.JIDUtil;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXExecutors;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
 import com.magnet.mmx.util.GsonData;
 import com.magnet.mmx.util.TopicHelper;
 import org.dom4j.Attribute;
@@ -32,7 +33,6 @@ import org.jivesoftware.openfire.PacketRouter;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.component.ComponentEventListener;
 import org.jivesoftware.openfire.component.InternalComponentManager;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.IQ;
@@ -42,8 +42,16 @@ import org.xmpp.packet.Message;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches the geo locations published by the devices to the registered external geo
+ * components. Pending events are kept in a bounded queue that holds the latest location of
+ * each device: a location published while the previous location of the same device is still
+ * queued replaces it. When the queue is full the {@link OverflowPolicy} decides which event is
+ * dropped. Worker threads drain the queue in batches and send each batch as one message to
+ * an external component.
+ */
 public class GeoEventDispatcher implements IContextDispatcher {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(GeoEventDispatcher.class);
@@ -66,11 +74,52 @@ public class GeoEventDispatcher implements IContextDispatcher {
   public static final String GEOHASH = "geohash";
   public static final String PROTOCOL_XMPP = "PROTOCOL_XMPP";
 
+  /**
+   * What to do with a new event when the queue is full
+   */
+  public enum OverflowPolicy {
+    /**
+     * Drop the oldest queued event and queue the new one
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new event
+     */
+    DROP_NEWEST;
+
+    public static OverflowPolicy fromString(String value, OverflowPolicy defaultValue) {
+      if (value == null || value.isEmpty()) {
+        return defaultValue;
+      }
+      try {
+        return OverflowPolicy.valueOf(value.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        LOGGER.warn("fromString : unknown overflow policy={}, using={}", value, defaultValue);
+        return defaultValue;
+      }
+    }
+  }
 
   // <iq id='5VJ3b-87' to='pubsub.login1s-macbook-pro-3.local' from='test%kv7i6cj1sd0@login1s-macbook-pro-3.local/5reb0zs53pkf1lx770vnlz60mokzknhtzq4g' type='set'><pubsub xmlns="http://jabber.org/protocol/pubsub"><publish node='/kv7i6cj1sd0/test/com.magnet.geoloc'><item id='lw3wY4Z8TaeyBWezAqNiCA-3'><mmx xmlns='com.magnet:msg:payload'><payload ctype='application/json' mtype='geoloc' chunk='0/50/50' stamp='2015-02-25T04:49:56.477Z'>{&quot;accuracy&quot;:2397,&quot;lat&quot;:37.034985,&quot;lng&quot;:-122.02842}</payload></mmx></item></publish></pubsub></iq>
-  // TODO create a thread pool to take care of the dispatch
   private final ExecutorService executors = MMXExecutors.getOrCreate(POOL_NAME, POOL_SIZE);
-  private final BlockingQueue<IQ> eventQueue = new LinkedBlockingDeque<IQ>();
+  /**
+   * Latest pending event of each device keyed by the full JID of the device
+   */
+  private final ConcurrentMap<String, IQ> pendingEvents = new ConcurrentHashMap<String, IQ>();
+  /**
+   * Devices with a pending event in the order their events were queued
+   */
+  private final Queue<String> pendingDevices = new ConcurrentLinkedQueue<String>();
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicLong dispatchedCount = new AtomicLong();
+
+  private final int queueCapacity;
+  private final int batchSize;
+  private final long lingerMillis;
+  private final OverflowPolicy overflowPolicy;
+  private volatile boolean running = true;
 
   private static final ThreadLocal<GeoHashEncoderDecoder> localGeoEndocoder = new ThreadLocal<GeoHashEncoderDecoder>();
 
@@ -78,6 +127,25 @@ public class GeoEventDispatcher implements IContextDispatcher {
   private final AtomicInteger hits = new AtomicInteger();
 
   public GeoEventDispatcher() {
+    this(MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.GEO_EVENT_QUEUE_CAPACITY,
+            MMXServerConstants.DEFAULT_GEO_EVENT_QUEUE_CAPACITY),
+        MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.GEO_EVENT_BATCH_SIZE,
+            MMXServerConstants.DEFAULT_GEO_EVENT_BATCH_SIZE),
+        MMXConfiguration.getConfiguration().getLong(MMXConfigKeys.GEO_EVENT_LINGER_MILLIS,
+            MMXServerConstants.DEFAULT_GEO_EVENT_LINGER_MILLIS),
+        OverflowPolicy.fromString(MMXConfiguration.getConfiguration().getString(MMXConfigKeys.GEO_EVENT_OVERFLOW_POLICY,
+            MMXServerConstants.DEFAULT_GEO_EVENT_OVERFLOW_POLICY), OverflowPolicy.DROP_OLDEST),
+        POOL_SIZE);
+  }
+
+  GeoEventDispatcher(int queueCapacity, int batchSize, long lingerMillis, OverflowPolicy overflowPolicy,
+                     int workers) {
+    this.queueCapacity = Math.max(1, queueCapacity);
+    this.batchSize = Math.max(1, batchSize);
+    this.lingerMillis = Math.max(1L, lingerMillis);
+    this.overflowPolicy = overflowPolicy;
+    LOGGER.info("Creating geo event dispatcher with queueCapacity:{} batchSize:{} overflowPolicy:{}",
+        new Object[]{this.queueCapacity, this.batchSize, overflowPolicy});
 
     if (InternalComponentManager.getInstance() != null) {
       InternalComponentManager.getInstance().addListener(new ComponentEventListener() {
@@ -97,12 +165,13 @@ public class GeoEventDispatcher implements IContextDispatcher {
       });
     }
     // start the consumer threads
-    for (int i = 0; i < POOL_SIZE; i++) {
+    for (int i = 0; i < workers; i++) {
       executors.execute(new DispatchHandler());
     }
   }
 
   public void shutdown() {
+    running = false;
     executors.shutdown();
     try {
       executors.awaitTermination(10, TimeUnit.SECONDS);
@@ -151,12 +220,76 @@ public class GeoEventDispatcher implements IContextDispatcher {
     }
   }
 
+  /**
+   * Queue a geo event. This never blocks; the event replaces the pending event of the same
+   * device, if any, and the overflow policy is applied when the queue is full.
+   * @param iq pubsub publish IQ of the geo location
+   */
   public void dispatchToExternalService(final IQ iq) {
-    try {
-      eventQueue.put(iq);
-    } catch (InterruptedException e) {
-      LOGGER.error("unexpected thread interrupted while putting geo event into queue", e);
+    if (iq.getFrom() == null) {
+      LOGGER.debug("dispatchToExternalService : ignoring geo event without sender");
+      return;
+    }
+    String device = iq.getFrom().toString();
+    if (pendingEvents.put(device, iq) != null) {
+      // the queued event of the device now carries the latest location
+      coalescedCount.incrementAndGet();
+      return;
+    }
+    if (queueDepth.incrementAndGet() > queueCapacity) {
+      if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+        if (pendingEvents.remove(device, iq)) {
+          queueDepth.decrementAndGet();
+          droppedCount.incrementAndGet();
+          return;
+        }
+        // a newer location of the device has replaced this one in the meantime; keep it
+      } else {
+        String oldest = pendingDevices.poll();
+        if (oldest != null && pendingEvents.remove(oldest) != null) {
+          queueDepth.decrementAndGet();
+          droppedCount.incrementAndGet();
+        }
+      }
+    }
+    pendingDevices.offer(device);
+  }
+
+  /**
+   * Remove up to max pending events from the queue.
+   * @param max
+   * @return the events, oldest first
+   */
+  List<IQ> drain(int max) {
+    List<IQ> batch = new ArrayList<IQ>(Math.min(max, queueDepth.get() + 1));
+    while (batch.size() < max) {
+      String device = pendingDevices.poll();
+      if (device == null) {
+        break;
+      }
+      IQ iq = pendingEvents.remove(device);
+      if (iq != null) {
+        queueDepth.decrementAndGet();
+        batch.add(iq);
+      }
     }
+    return batch;
+  }
+
+  public int getQueueDepth() {
+    return Math.max(0, queueDepth.get());
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  public long getDispatchedCount() {
+    return dispatchedCount.get();
   }
 
   private class DispatchHandler implements Runnable {
@@ -165,12 +298,19 @@ public class GeoEventDispatcher implements IContextDispatcher {
       // create geohash encoder for the thread.
       localGeoEndocoder.set(GeohashEncoderDecoderFactory.createEncoderDecoder());
 
-      // wait for event to dispatch
       try {
-        while (true) {
-          final IQ iq = eventQueue.take();
-          routeGeoEvent(iq);
-          Thread.sleep(50);   // sleep sometimes
+        while (running) {
+          List<IQ> batch = drain(batchSize);
+          if (batch.isEmpty()) {
+            // wait for events to accumulate
+            Thread.sleep(lingerMillis);
+            continue;
+          }
+          try {
+            routeGeoEvents(batch);
+          } catch (Exception e) {
+            LOGGER.error("run : failed to dispatch batch of size={}", batch.size(), e);
+          }
         }
       } catch (InterruptedException e) {
         LOGGER.error("unexpected thread interrupted while taking geo event from queue", e);
@@ -179,6 +319,26 @@ public class GeoEventDispatcher implements IContextDispatcher {
   }
 
   public void routeGeoEvent(final IQ geoIQ) {
+    routeGeoEvents(Collections.singletonList(geoIQ));
+  }
+
+  /**
+   * Send a batch of geo events as one message to one of the registered external components.
+   * @param geoIQs
+   */
+  public void routeGeoEvents(final List<IQ> geoIQs) {
+    List<Map<String, String>> events = new ArrayList<Map<String, String>>(geoIQs.size());
+    String lastId = null;
+    for (IQ geoIQ : geoIQs) {
+      Map<String, String> geoValues = getGeoValues(geoIQ);
+      if (geoValues != null) {
+        events.add(geoValues);
+        lastId = geoIQ.getID();
+      }
+    }
+    if (events.isEmpty()) {
+      return;
+    }
     if (componentJids.isEmpty()) {
       // nothing to do
       LOGGER.debug("no external component registered for geo event");
@@ -186,22 +346,69 @@ public class GeoEventDispatcher implements IContextDispatcher {
     }
     String geoService = selectGeoService();
     if (geoService != null && geoService.length() > 0) {
-      Message geoMessage = buildGeoMessageFromPubSubIQ(geoIQ);
-      if (geoMessage != null) {
-        geoMessage.setTo(geoService);
-        // TODO create a new message ID?
-        geoMessage.setID(geoIQ.getID());
-        LOGGER.debug("Sending geo event to external component: " + geoService);
-        // start attaching the pieces
-        PacketRouter router = XMPPServer.getInstance().getPacketRouter();
-        router.route(geoMessage);
-      }
+      Message geoMessage = buildGeoMessage(events, lastId);
+      geoMessage.setTo(geoService);
+      LOGGER.debug("routeGeoEvents : sending events={} to external component={}", events.size(), geoService);
+      PacketRouter router = XMPPServer.getInstance().getPacketRouter();
+      router.route(geoMessage);
+      dispatchedCount.addAndGet(events.size());
+    }
+  }
+
+  /**
+   * Add the location of a processed geo event to the {@link GeoLocationIndex}. This is done when
+   * the event is intercepted rather than when it is dispatched, so that an event dropped from the
+   * dispatch queue doesn't leave a stale location in the index.
+   * @param geoIQ
+   */
+  public static void indexLocation(final IQ geoIQ) {
+    Map<String, String> geoValues = getGeoValues(geoIQ);
+    if (geoValues == null) {
+      return;
+    }
+    String lat = geoValues.get(LAT);
+    String lng = geoValues.get(LONG);
+    if (lat != null && lng != null) {
+      GeoLocationIndex.getInstance().update(geoValues.get(APP_ID), geoValues.get(USER_ID),
+          geoValues.get(DEVICE_ID), Double.parseDouble(lat), Double.parseDouble(lng));
     }
   }
 
   static Message buildGeoMessageFromPubSubIQ(final IQ geoIQ) {
-    Message geoMessage = null;
-    if (IQ.Type.set == geoIQ.getType() && geoIQ.getTo().toString().startsWith("pubsub")) {
+    Map<String, String> geoValues = getGeoValues(geoIQ);
+    return geoValues == null ? null : buildGeoMessage(Collections.singletonList(geoValues), geoIQ.getID());
+  }
+
+  /**
+   * Build the message for the external component. The message has a context element for every
+   * geo event. The body has the JSON object of the event, or a JSON array of the objects when
+   * there is more than one event.
+   * @param events values of the geo events
+   * @param id message id
+   * @return the message
+   */
+  static Message buildGeoMessage(final List<Map<String, String>> events, String id) {
+    Message geoMessage = new Message();
+    geoMessage.setType(Message.Type.chat);
+    geoMessage.setID(id);
+    String geoJson = null;
+    for (Map<String, String> geoValues : events) {
+      geoJson = GsonData.getGson().toJson(geoValues);
+      Element geoElement = geoMessage.addChildElement(Constants.MMX_ELEMENT, Constants.MMX_NS_CONTEXT);
+      geoElement.addAttribute(Constants.MMX_ATTR_MTYPE, Constants.MMX_MTYPE_GEOLOC);
+      geoElement.setText(geoJson);
+    }
+    geoMessage.setBody(events.size() == 1 ? geoJson : GsonData.getGson().toJson(events));
+    return geoMessage;
+  }
+
+  /**
+   * Get the values sent to the external component for a geo event.
+   * @param geoIQ
+   * @return the values or null if the IQ is not a valid geo event
+   */
+  private static Map<String, String> getGeoValues(final IQ geoIQ) {
+    if (IQ.Type.set == geoIQ.getType() && geoIQ.getTo() != null && geoIQ.getTo().toString().startsWith("pubsub")) {
       // find 'geoloc'
       Element element = geoIQ.getChildElement();
       Element action = element.element("publish");
@@ -209,8 +416,6 @@ public class GeoEventDispatcher implements IContextDispatcher {
         String nodeID = action.attributeValue("node");
         if (nodeID != null && nodeID.endsWith(TopicHelper.TOPIC_GEOLOC)) {
           // Entity publishes an item
-          geoMessage = new Message();
-          geoMessage.setType(Message.Type.chat);
           Map<String, String> geoValues = new HashMap<String, String>();
           JID from = geoIQ.getFrom();
           String appId = JIDUtil.getAppId(from);
@@ -244,19 +449,12 @@ public class GeoEventDispatcher implements IContextDispatcher {
                 geoValues.put(LAT, geoLoc.getLat().toString());
                 // calculate geohash
                 GeoPoint point = new GeoPointDefaultImpl(geoLoc.getLat(), geoLoc.getLng());
-                geoValues.put(GEOHASH, localGeoEndocoder.get().encodePoint(point));
+                geoValues.put(GEOHASH, getGeoEncoder().encodePoint(point));
               }
               if (geoLoc.getAlt() != null) {
                 geoValues.put(ALTITUDE, Integer.toString((int)geoLoc.getAlt().floatValue()));
               }
-              Element geoElement = geoMessage.addChildElement(Constants.MMX_ELEMENT, Constants.MMX_NS_CONTEXT);
-              geoElement.addAttribute(Constants.MMX_ATTR_MTYPE, Constants.MMX_MTYPE_GEOLOC);
-              JSONObject geoJson = new JSONObject(geoValues);
-              geoElement.setText(geoJson.toString());
-              geoMessage.setBody(geoJson.toString());
-
-              return geoMessage;
-
+              return geoValues;
             }
           }
         }
@@ -265,6 +463,15 @@ public class GeoEventDispatcher implements IContextDispatcher {
     return null;
   }
 
+  private static GeoHashEncoderDecoder getGeoEncoder() {
+    GeoHashEncoderDecoder encoder = localGeoEndocoder.get();
+    if (encoder == null) {
+      encoder = GeohashEncoderDecoderFactory.createEncoderDecoder();
+      localGeoEndocoder.set(encoder);
+    }
+    return encoder;
+  }
+
   private String selectGeoService() {
     // dequeue and add it to the end of the queue for round-robin every 30 hits or so
     synchronized (componentJids) {
@@ -0,0 +1,704 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.context;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.magnet.ext.geo.BoundingBox;
+import com.magnet.ext.geo.GeoHashEncoderDecoder;
+import com.magnet.ext.geo.GeoPointDefaultImpl;
+import com.magnet.ext.geo.GeohashEncoderDecoderFactory;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In memory index of the last known location of every device, used for finding the devices
+ * near a point without a round trip to an external geo service. The locations of an app are
+ * kept sorted by their 12 character geohash; a radius query picks a geohash precision whose
+ * cells are at least as large as the radius, expands the cell of the point to the neighbor
+ * cells covering the bounding box of the circle and scans the locations under each cell prefix.
+ * Locations that haven't been updated for {@link MMXConfigKeys#GEO_INDEX_TTL_MINUTES} are
+ * ignored by the queries and removed by a periodic sweep.
+ * <p/>
+ * The locations are backed by the items of the geoloc pubsub nodes, which are persisted like any
+ * other published item. The locations of an app are loaded from the persisted items on first use
+ * on every cluster node, and each new location is applied on every node of the cluster.
+ */
+public class GeoLocationIndex {
+  private static final Logger LOGGER = LoggerFactory.getLogger(GeoLocationIndex.class);
+  private static final int HASH_LEN = 12;
+  private static final double EARTH_RADIUS_METERS = 6371008.8d;
+  private static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180.0d;
+
+  private static final Comparator<NearbyLocation> BY_DISTANCE = new Comparator<NearbyLocation>() {
+    @Override
+    public int compare(NearbyLocation o1, NearbyLocation o2) {
+      return Double.compare(o1.getDistance(), o2.getDistance());
+    }
+  };
+
+  private final ConcurrentMap<String, AppLocations> appLocations = new ConcurrentHashMap<String, AppLocations>();
+  /**
+   * Apps whose persisted locations have been loaded
+   */
+  private final Set<String> loadedApps = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private static final GeoHashEncoderDecoder encoder = GeohashEncoderDecoderFactory.createEncoderDecoder();
+  private final long ttlMillis;
+  private final Loader loader;
+
+  /**
+   * Loads the persisted locations of an app.
+   */
+  public interface Loader {
+    /**
+     * @param appId
+     * @param since only the locations updated at or after this time in milliseconds are needed
+     * @return the locations; a device may have more than one, the latest one is kept
+     */
+    List<Location> load(String appId, long since);
+  }
+
+  private GeoLocationIndex() {
+    this(TimeUnit.MINUTES.toMillis(MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.GEO_INDEX_TTL_MINUTES,
+        MMXServerConstants.DEFAULT_GEO_INDEX_TTL_MINUTES)),
+        new GeoLocationLoader(new OpenFireDBConnectionProvider(), MMXServerConstants.DEFAULT_PUBSUB_SERVICE_ID));
+    long sweepMillis = Math.max(TimeUnit.MINUTES.toMillis(1), ttlMillis / 4);
+    ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("GeoLocationIndexSweeper-%d").setDaemon(true).build());
+    sweeper.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          int removed = removeExpired();
+          LOGGER.debug("run : removed expired locations={}", removed);
+        } catch (Throwable t) {
+          LOGGER.error("run : failed to remove expired locations", t);
+        }
+      }
+    }, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+  }
+
+  GeoLocationIndex(long ttlMillis) {
+    this(ttlMillis, null);
+  }
+
+  GeoLocationIndex(long ttlMillis, Loader loader) {
+    this.ttlMillis = Math.max(1L, ttlMillis);
+    this.loader = loader;
+    LOGGER.info("Creating geo location index with ttlMillis:{}", this.ttlMillis);
+  }
+
+  private static class IndexHolder {
+    private static final GeoLocationIndex INSTANCE = new GeoLocationIndex();
+  }
+
+  /**
+   * Get the singleton instance of the geo location index.
+   * @return
+   */
+  public static GeoLocationIndex getInstance() {
+    return IndexHolder.INSTANCE;
+  }
+
+  /**
+   * Set the last known location of a device on all the cluster nodes.
+   * @param appId
+   * @param userId
+   * @param deviceId
+   * @param latitude
+   * @param longitude
+   */
+  public void update(String appId, String userId, String deviceId, double latitude, double longitude) {
+    long updated = System.currentTimeMillis();
+    if (updateLocal(appId, userId, deviceId, latitude, longitude, updated)) {
+      broadcast(new LocationUpdateTask(appId, userId, deviceId, latitude, longitude, updated));
+    }
+  }
+
+  /**
+   * Remove the location of a device on all the cluster nodes.
+   * @param appId
+   * @param deviceId
+   */
+  public void remove(String appId, String deviceId) {
+    removeLocal(appId, deviceId);
+    broadcast(new LocationUpdateTask(appId, deviceId));
+  }
+
+  /**
+   * @return true if the location is valid
+   */
+  boolean updateLocal(String appId, String userId, String deviceId, double latitude, double longitude,
+                      long updated) {
+    Location location = createLocation(appId, userId, deviceId, latitude, longitude, updated);
+    if (location == null) {
+      return false;
+    }
+    getOrCreateAppLocations(appId).put(location);
+    return true;
+  }
+
+  void removeLocal(String appId, String deviceId) {
+    AppLocations locations = appLocations.get(appId);
+    if (locations != null) {
+      locations.remove(deviceId);
+    }
+  }
+
+  /**
+   * Create a location.
+   * @return the location or null if the ids are missing or the coordinates are out of range
+   */
+  static Location createLocation(String appId, String userId, String deviceId, double latitude, double longitude,
+                                 long updated) {
+    if (appId == null || deviceId == null || Double.isNaN(latitude) || Double.isNaN(longitude) ||
+        Math.abs(latitude) > 90.0d || Math.abs(longitude) > 180.0d) {
+      LOGGER.debug("createLocation : ignoring location appId={}, deviceId={}", appId, deviceId);
+      return null;
+    }
+    String geohash = encoder.encodePoint(new GeoPointDefaultImpl(latitude, longitude));
+    return new Location(appId, userId, deviceId, latitude, longitude, geohash, updated);
+  }
+
+  private AppLocations getOrCreateAppLocations(String appId) {
+    AppLocations locations = appLocations.get(appId);
+    if (locations == null) {
+      AppLocations created = new AppLocations();
+      locations = appLocations.putIfAbsent(appId, created);
+      if (locations == null) {
+        locations = created;
+      }
+    }
+    return locations;
+  }
+
+  /**
+   * Get the locations of an app for a query, loading the persisted locations of the app on first
+   * use.
+   * @param appId
+   * @return the locations or null if the app has none
+   */
+  private AppLocations getAppLocations(String appId) {
+    if (loader != null && loadedApps.add(appId)) {
+      try {
+        List<Location> loaded = loader.load(appId, System.currentTimeMillis() - ttlMillis);
+        if (!loaded.isEmpty()) {
+          AppLocations locations = getOrCreateAppLocations(appId);
+          for (Location location : loaded) {
+            locations.put(location);
+          }
+        }
+        LOGGER.debug("getAppLocations : appId={}, loaded={}", appId, loaded.size());
+      } catch (Exception e) {
+        // try again on the next query
+        loadedApps.remove(appId);
+        LOGGER.error("getAppLocations : failed to load the locations of appId={}", appId, e);
+      }
+    }
+    return appLocations.get(appId);
+  }
+
+  /**
+   * Get the last known location of a device.
+   * @param appId
+   * @param deviceId
+   * @return location or null if the location is unknown or expired
+   */
+  public Location getLocation(String appId, String deviceId) {
+    AppLocations locations = getAppLocations(appId);
+    if (locations == null) {
+      return null;
+    }
+    Location location = locations.byDevice.get(deviceId);
+    return location == null || isExpired(location, System.currentTimeMillis()) ? null : location;
+  }
+
+  /**
+   * Find the devices of an app whose last known location is within a radius of a point.
+   * @param appId
+   * @param latitude
+   * @param longitude
+   * @param radiusMeters
+   * @param limit max number of devices; the nearest devices are returned
+   * @return the devices ordered by their distance to the point
+   */
+  public List<NearbyLocation> findNearby(String appId, double latitude, double longitude, double radiusMeters,
+                                         int limit) {
+    AppLocations locations = getAppLocations(appId);
+    if (locations == null || limit <= 0) {
+      return Collections.emptyList();
+    }
+    long now = System.currentTimeMillis();
+    List<NearbyLocation> result = new ArrayList<NearbyLocation>();
+    for (String cell : getCoveringCells(latitude, longitude, radiusMeters)) {
+      for (Location location : locations.inCell(cell)) {
+        if (isExpired(location, now)) {
+          continue;
+        }
+        double distance = distance(latitude, longitude, location.getLatitude(), location.getLongitude());
+        if (distance <= radiusMeters) {
+          result.add(new NearbyLocation(location, distance));
+        }
+      }
+    }
+    Collections.sort(result, BY_DISTANCE);
+    if (result.size() > limit) {
+      result = new ArrayList<NearbyLocation>(result.subList(0, limit));
+    }
+    LOGGER.trace("findNearby : appId={}, radius={}, found={}", new Object[]{appId, radiusMeters, result.size()});
+    return result;
+  }
+
+  /**
+   * Find the devices of an app whose last known location is within a radius of a point.
+   * @param appId
+   * @param latitude
+   * @param longitude
+   * @param radiusMeters
+   * @return the sorted deviceIds
+   */
+  public List<String> findDeviceIds(String appId, double latitude, double longitude, double radiusMeters) {
+    List<NearbyLocation> found = findNearby(appId, latitude, longitude, radiusMeters, Integer.MAX_VALUE);
+    List<String> deviceIds = new ArrayList<String>(found.size());
+    for (NearbyLocation nearby : found) {
+      deviceIds.add(nearby.getLocation().getDeviceId());
+    }
+    Collections.sort(deviceIds);
+    return deviceIds;
+  }
+
+  /**
+   * Find the devices of an app whose last known location is inside a bounding box. A box whose
+   * west longitude is greater than its east longitude crosses the antimeridian.
+   * @param appId
+   * @param box box with the south west corner as point1 and the north east corner as point2
+   * @return the sorted deviceIds
+   */
+  public List<String> findDeviceIds(String appId, BoundingBox box) {
+    AppLocations locations = getAppLocations(appId);
+    if (locations == null) {
+      return Collections.emptyList();
+    }
+    double minLat = Math.min(box.point1().latitude(), box.point2().latitude());
+    double maxLat = Math.max(box.point1().latitude(), box.point2().latitude());
+    double west = box.point1().longitude();
+    double east = box.point2().longitude();
+    if (east < west) {
+      east += 360.0d;
+    }
+    long now = System.currentTimeMillis();
+    List<String> deviceIds = new ArrayList<String>();
+    for (String cell : getCoveringCells(minLat, maxLat, west, east)) {
+      for (Location location : locations.inCell(cell)) {
+        if (isExpired(location, now) || location.getLatitude() < minLat || location.getLatitude() > maxLat) {
+          continue;
+        }
+        double lon = location.getLongitude() < west ? location.getLongitude() + 360.0d : location.getLongitude();
+        if (lon <= east) {
+          deviceIds.add(location.getDeviceId());
+        }
+      }
+    }
+    Collections.sort(deviceIds);
+    LOGGER.trace("findDeviceIds : appId={}, box={}, found={}", new Object[]{appId, box, deviceIds.size()});
+    return deviceIds;
+  }
+
+  /**
+   * Get the geohash cells that cover the bounding box of a circle.
+   * @param latitude
+   * @param longitude
+   * @param radiusMeters
+   * @return the geohash prefixes of the cells
+   */
+  Set<String> getCoveringCells(double latitude, double longitude, double radiusMeters) {
+    double latDelta = Math.min(180.0d, radiusMeters / METERS_PER_DEGREE);
+    double cosLat = Math.cos(Math.toRadians(Math.min(89.0d, Math.abs(latitude) + latDelta)));
+    double lonDelta = Math.min(180.0d, radiusMeters / (METERS_PER_DEGREE * cosLat));
+    return getCoveringCells(Math.max(-90.0d, latitude - latDelta), Math.min(90.0d, latitude + latDelta),
+        longitude - lonDelta, longitude + lonDelta);
+  }
+
+  /**
+   * Get the geohash cells that cover a bounding box. The precision is the largest one whose cells
+   * are at least half as high and half as wide as the box, so a box is covered by the cell of
+   * its center and the neighbor cells.
+   * @param minLat
+   * @param maxLat
+   * @param minLon west longitude
+   * @param maxLon east longitude; may exceed 180 for a box crossing the antimeridian
+   * @return the geohash prefixes of the cells
+   */
+  Set<String> getCoveringCells(double minLat, double maxLat, double minLon, double maxLon) {
+    double latDelta = (maxLat - minLat) / 2;
+    double lonDelta = Math.min(180.0d, (maxLon - minLon) / 2);
+    int precision = 1;
+    while (precision < HASH_LEN && getCellHeight(precision + 1) >= latDelta && getCellWidth(precision + 1) >= lonDelta) {
+      precision++;
+    }
+    double cellHeight = getCellHeight(precision);
+    double cellWidth = getCellWidth(precision);
+    Set<String> cells = new TreeSet<String>();
+    for (double lat = minLat; ; lat = Math.min(maxLat, lat + cellHeight)) {
+      for (double lon = minLon; ; lon = Math.min(maxLon, lon + cellWidth)) {
+        cells.add(encoder.encodePoint(new GeoPointDefaultImpl(lat, wrapLongitude(lon))).substring(0, precision));
+        if (lon >= maxLon) {
+          break;
+        }
+      }
+      if (lat >= maxLat) {
+        break;
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Remove the locations that haven't been updated within the TTL.
+   * @return number of locations removed
+   */
+  public int removeExpired() {
+    long now = System.currentTimeMillis();
+    int removed = 0;
+    for (Map.Entry<String, AppLocations> entry : appLocations.entrySet()) {
+      AppLocations locations = entry.getValue();
+      for (Location location : locations.byDevice.values()) {
+        if (isExpired(location, now) && locations.remove(location)) {
+          removed++;
+        }
+      }
+      if (locations.byDevice.isEmpty()) {
+        appLocations.remove(entry.getKey(), locations);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Drop all the locations on this node; they are loaded again on the next query.
+   */
+  public void clear() {
+    loadedApps.clear();
+    appLocations.clear();
+  }
+
+  public long getSize() {
+    long size = 0;
+    for (AppLocations locations : appLocations.values()) {
+      size += locations.byDevice.size();
+    }
+    return size;
+  }
+
+  private void broadcast(ClusterTask task) {
+    try {
+      if (ClusterManager.isClusteringEnabled()) {
+        CacheFactory.doClusterTask(task);
+      }
+    } catch (Exception e) {
+      LOGGER.warn("broadcast : failed to send geo location task={} to the cluster", task, e);
+    }
+  }
+
+  private boolean isExpired(Location location, long now) {
+    return now - location.getUpdated() > ttlMillis;
+  }
+
+  private static double getCellHeight(int precision) {
+    return 180.0d / (1L << (precision * 5 / 2));
+  }
+
+  private static double getCellWidth(int precision) {
+    return 360.0d / (1L << ((precision * 5 + 1) / 2));
+  }
+
+  private static double wrapLongitude(double longitude) {
+    if (longitude >= 180.0d) {
+      return longitude - 360.0d;
+    }
+    if (longitude < -180.0d) {
+      return longitude + 360.0d;
+    }
+    return longitude;
+  }
+
+  /**
+   * Great circle distance in meters.
+   */
+  static double distance(double lat1, double lon1, double lat2, double lon2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLon = Math.toRadians(lon2 - lon1);
+    double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+        Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+    return 2 * EARTH_RADIUS_METERS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+  }
+
+  /**
+   * Locations of the devices of an app by device and by geohash.
+   */
+  private static class AppLocations {
+    private final ConcurrentMap<String, Location> byDevice = new ConcurrentHashMap<String, Location>();
+    /**
+     * Keyed by the geohash followed by the deviceId
+     */
+    private final ConcurrentNavigableMap<String, Location> byCell = new ConcurrentSkipListMap<String, Location>();
+
+    /**
+     * Set the location of a device unless a newer location is known.
+     */
+    synchronized void put(Location location) {
+      Location old = byDevice.get(location.getDeviceId());
+      if (old != null) {
+        if (old.getUpdated() > location.getUpdated()) {
+          return;
+        }
+        byCell.remove(old.getCellKey());
+      }
+      byDevice.put(location.getDeviceId(), location);
+      byCell.put(location.getCellKey(), location);
+    }
+
+    synchronized void remove(String deviceId) {
+      Location old = byDevice.remove(deviceId);
+      if (old != null) {
+        byCell.remove(old.getCellKey());
+      }
+    }
+
+    synchronized boolean remove(Location location) {
+      if (byDevice.remove(location.getDeviceId(), location)) {
+        byCell.remove(location.getCellKey());
+        return true;
+      }
+      return false;
+    }
+
+    Iterable<Location> inCell(String cell) {
+      return byCell.subMap(cell, true, cell + Character.MAX_VALUE, false).values();
+    }
+  }
+
+  /**
+   * Last known location of a device.
+   */
+  public static class Location {
+    private final String appId;
+    private final String userId;
+    private final String deviceId;
+    private final double latitude;
+    private final double longitude;
+    private final String geohash;
+    private final long updated;
+
+    Location(String appId, String userId, String deviceId, double latitude, double longitude, String geohash,
+             long updated) {
+      this.appId = appId;
+      this.userId = userId;
+      this.deviceId = deviceId;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.geohash = geohash;
+      this.updated = updated;
+    }
+
+    public String getAppId() {
+      return appId;
+    }
+
+    public String getUserId() {
+      return userId;
+    }
+
+    public String getDeviceId() {
+      return deviceId;
+    }
+
+    public double getLatitude() {
+      return latitude;
+    }
+
+    public double getLongitude() {
+      return longitude;
+    }
+
+    public String getGeohash() {
+      return geohash;
+    }
+
+    /**
+     * @return time of the last update in milliseconds
+     */
+    public long getUpdated() {
+      return updated;
+    }
+
+    private String getCellKey() {
+      return geohash + deviceId;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("Location{");
+      sb.append("appId='").append(appId).append('\'');
+      sb.append(", deviceId='").append(deviceId).append('\'');
+      sb.append(", geohash='").append(geohash).append('\'');
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Location found by a radius query with its distance to the point.
+   */
+  public static class NearbyLocation {
+    private final Location location;
+    private final double distance;
+
+    NearbyLocation(Location location, double distance) {
+      this.location = location;
+      this.distance = distance;
+    }
+
+    public Location getLocation() {
+      return location;
+    }
+
+    /**
+     * @return distance in meters
+     */
+    public double getDistance() {
+      return distance;
+    }
+  }
+
+  /**
+   * Cluster task that applies a location update or removal on the other cluster nodes.
+   */
+  public static class LocationUpdateTask implements ClusterTask {
+    private boolean removed;
+    private String appId;
+    private String userId;
+    private String deviceId;
+    private double latitude;
+    private double longitude;
+    private long updated;
+
+    /**
+     * Required for deserialization.
+     */
+    public LocationUpdateTask() {
+    }
+
+    private LocationUpdateTask(String appId, String userId, String deviceId, double latitude, double longitude,
+                               long updated) {
+      this.appId = appId;
+      this.userId = userId;
+      this.deviceId = deviceId;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.updated = updated;
+    }
+
+    private LocationUpdateTask(String appId, String deviceId) {
+      this.removed = true;
+      this.appId = appId;
+      this.deviceId = deviceId;
+    }
+
+    @Override
+    public Object getResult() {
+      return null;
+    }
+
+    @Override
+    public void run() {
+      GeoLocationIndex index = GeoLocationIndex.getInstance();
+      if (removed) {
+        index.removeLocal(appId, deviceId);
+      } else {
+        index.updateLocal(appId, userId, deviceId, latitude, longitude, updated);
+      }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      util.writeBoolean(out, removed);
+      util.writeSafeUTF(out, appId);
+      util.writeSafeUTF(out, deviceId);
+      if (!removed) {
+        util.writeBoolean(out, userId != null);
+        if (userId != null) {
+          util.writeSafeUTF(out, userId);
+        }
+        util.writeLong(out, Double.doubleToLongBits(latitude));
+        util.writeLong(out, Double.doubleToLongBits(longitude));
+        util.writeLong(out, updated);
+      }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      removed = util.readBoolean(in);
+      appId = util.readSafeUTF(in);
+      deviceId = util.readSafeUTF(in);
+      if (!removed) {
+        if (util.readBoolean(in)) {
+          userId = util.readSafeUTF(in);
+        }
+        latitude = Double.longBitsToDouble(util.readLong(in));
+        longitude = Double.longBitsToDouble(util.readLong(in));
+        updated = util.readLong(in);
+      }
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("LocationUpdateTask{");
+      sb.append("removed=").append(removed);
+      sb.append(", appId='").append(appId).append('\'');
+      sb.append(", deviceId='").append(deviceId).append('\'');
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+}
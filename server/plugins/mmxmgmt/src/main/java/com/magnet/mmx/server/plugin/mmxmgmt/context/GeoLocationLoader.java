@@ -0,0 +1,110 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.context;
+
+import com.magnet.mmx.protocol.Constants;
+import com.magnet.mmx.protocol.GeoLoc;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.CloseUtil;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.ConnectionProvider;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.JIDUtil;
+import com.magnet.mmx.util.GsonData;
+import com.magnet.mmx.util.TopicHelper;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.jivesoftware.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Loads the last known locations of the devices of an app from the persisted items of the geoloc
+ * pubsub nodes of its users. The publisher of an item is the full JID of the device.
+ */
+public class GeoLocationLoader implements GeoLocationIndex.Loader {
+  private static final Logger LOGGER = LoggerFactory.getLogger(GeoLocationLoader.class);
+  private static final String LOAD_LOCATIONS = "SELECT jid,creationDate,payload FROM ofPubsubItem " +
+      "WHERE serviceID = ? AND nodeID LIKE ? AND creationDate >= ? ORDER BY creationDate";
+
+  private final ConnectionProvider provider;
+  private final String serviceId;
+
+  public GeoLocationLoader(ConnectionProvider provider, String serviceId) {
+    this.provider = provider;
+    this.serviceId = serviceId;
+  }
+
+  @Override
+  public List<GeoLocationIndex.Location> load(String appId, long since) {
+    List<GeoLocationIndex.Location> locations = new ArrayList<GeoLocationIndex.Location>();
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(LOAD_LOCATIONS);
+      pstmt.setString(1, serviceId);
+      pstmt.setString(2, TopicHelper.TOPIC_DELIM + appId + TopicHelper.TOPIC_DELIM + "%" +
+          TopicHelper.TOPIC_DELIM + TopicHelper.TOPIC_GEOLOC);
+      pstmt.setString(3, StringUtils.dateToMillis(new Date(Math.max(0L, since))));
+      rs = pstmt.executeQuery();
+      while (rs.next()) {
+        GeoLocationIndex.Location location = toLocation(appId, rs.getString(1), rs.getString(2), rs.getString(3));
+        if (location != null) {
+          locations.add(location);
+        }
+      }
+    } catch (SQLException e) {
+      LOGGER.error("load : caught exception appId={}", appId, e);
+      throw new RuntimeException(e);
+    } finally {
+      CloseUtil.close(LOGGER, rs, pstmt, con);
+    }
+    return locations;
+  }
+
+  /**
+   * @return the location or null if the item isn't a valid location of a device of the app
+   */
+  private GeoLocationIndex.Location toLocation(String appId, String publisher, String creationDate,
+                                               String payloadXML) {
+    try {
+      JID jid = new JID(publisher);
+      if (!appId.equals(JIDUtil.getAppId(jid)) || jid.getResource() == null || payloadXML == null) {
+        return null;
+      }
+      Element payload = DocumentHelper.parseText(payloadXML).getRootElement().element(Constants.MMX_PAYLOAD);
+      if (payload == null) {
+        return null;
+      }
+      GeoLoc geoLoc = GsonData.getGson().fromJson(payload.getTextTrim(), GeoLoc.class);
+      if (geoLoc == null || geoLoc.getLat() == null || geoLoc.getLng() == null) {
+        return null;
+      }
+      return GeoLocationIndex.createLocation(appId, JIDUtil.getUserId(jid), jid.getResource(),
+          geoLoc.getLat(), geoLoc.getLng(), Long.parseLong(creationDate.trim()));
+    } catch (Exception e) {
+      LOGGER.debug("toLocation : ignoring item of publisher={}", publisher, e);
+      return null;
+    }
+  }
+}
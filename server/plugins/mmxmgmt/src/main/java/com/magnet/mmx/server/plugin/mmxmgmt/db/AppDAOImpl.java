@@ -190,6 +190,7 @@ public class AppDAOImpl implements AppDAO {
         pstmt.setInt(17, 0);
       }
       pstmt.executeUpdate();
+      AppEntityCache.getInstance().invalidate(appId);
 
       rs = pstmt.getGeneratedKeys();
       Integer id = null;
@@ -232,6 +233,7 @@ public class AppDAOImpl implements AppDAO {
       pstmt = con.prepareStatement(DELETE_APP_BY_ID);
       pstmt.setString(1, id);
       pstmt.executeUpdate();
+      AppEntityCache.getInstance().invalidate(id);
       pstmt.close();
     } catch (SQLException sqle) {
       LOGGER.error(sqle.getMessage(), sqle);
@@ -361,6 +363,7 @@ public class AppDAOImpl implements AppDAO {
       pstmt.setString(2, appId);
       LOGGER.trace("updateAPNsCertificate :appId={}, certificate={} ", new Object[]{appId, Base64.encodeBytes(certificate)});
       int count = pstmt.executeUpdate();
+      AppEntityCache.getInstance().invalidate(appId);
       pstmt.close();
       con.close();
     } catch (SQLException e) {
@@ -389,6 +392,7 @@ public class AppDAOImpl implements AppDAO {
 
       LOGGER.trace("updateAPNsCertificateAndPassword :appId={}, certificate={} ", new Object[]{appId, Base64.encodeBytes(certificate)});
       int count = pstmt.executeUpdate();
+      AppEntityCache.getInstance().invalidate(appId);
       pstmt.close();
       con.close();
     } catch (SQLException e) {
@@ -409,6 +413,7 @@ public class AppDAOImpl implements AppDAO {
       pstmt.setString(1, appId);
       LOGGER.trace("clearAPNsCertificate :appId={}, statement={}", new Object[]{appId,  pstmt});
       int count = pstmt.executeUpdate();
+      AppEntityCache.getInstance().invalidate(appId);
       pstmt.close();
       con.close();
     } catch (SQLException e) {
@@ -429,6 +434,7 @@ public class AppDAOImpl implements AppDAO {
       pstmt.setString(1, appId);
       LOGGER.trace("clearAPNsCertificate :appId={}, statement={}", new Object[]{appId,  pstmt});
       int count = pstmt.executeUpdate();
+      AppEntityCache.getInstance().invalidate(appId);
       pstmt.close();
       con.close();
     } catch (SQLException e) {
@@ -591,6 +597,7 @@ public class AppDAOImpl implements AppDAO {
       pstmt.setTimestamp(ind++, new Timestamp(new java.util.Date().getTime()));
       pstmt.setString(ind++, appId);
       int updatedCount = pstmt.executeUpdate();
+      AppEntityCache.getInstance().invalidate(appId);
       pstmt.close();
 
       if (updatedCount != 1) {
@@ -0,0 +1,198 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.magnet.mmx.server.common.data.AppEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of mmxApp rows used by the REST authentication and the message routing path.
+ * Apps are cached by appId, including the appIds that don't exist. All writes to mmxApp done
+ * through AppDAOImpl invalidate the app on this node and, when clustering is enabled, on every
+ * other node in the cluster.
+ */
+public class AppEntityCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AppEntityCache.class);
+
+  private final Cache<String, Optional<AppEntity>> appCache;
+
+  private AppEntityCache() {
+    MMXConfiguration configuration = MMXConfiguration.getConfiguration();
+    int maxSize = configuration.getInt(MMXConfigKeys.APP_CACHE_MAX_SIZE, MMXServerConstants.DEFAULT_APP_CACHE_MAX_SIZE);
+    int ttlMinutes = configuration.getInt(MMXConfigKeys.APP_CACHE_TTL_MINUTES, MMXServerConstants.DEFAULT_APP_CACHE_TTL_MINUTES);
+    LOGGER.info("Creating app cache with maxSize:{} ttlMinutes:{}", maxSize, ttlMinutes);
+    appCache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Cache holder
+   */
+  private static class CacheHolder {
+    private static final AppEntityCache INSTANCE = new AppEntityCache();
+  }
+
+  /**
+   * Get the singleton instance of the app cache.
+   * @return
+   */
+  public static AppEntityCache getInstance() {
+    return CacheHolder.INSTANCE;
+  }
+
+  /**
+   * Get the app identified by appId.
+   * @param appId
+   * @param appDAO DAO used for loading the app if it isn't in the cache
+   * @return AppEntity or null if no such app exists
+   */
+  public AppEntity getApp(final String appId, final AppDAO appDAO) {
+    if (appId == null) {
+      return null;
+    }
+    try {
+      Optional<AppEntity> app = appCache.get(appId, new Callable<Optional<AppEntity>>() {
+        @Override
+        public Optional<AppEntity> call() throws Exception {
+          return Optional.fromNullable(appDAO.getAppForAppKey(appId));
+        }
+      });
+      return app.orNull();
+    } catch (ExecutionException e) {
+      throw new DbInteractionException(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw new DbInteractionException(e.getCause());
+    }
+  }
+
+  /**
+   * Get the app identified by appId using the default AppDAO.
+   * @param appId
+   * @return AppEntity or null if no such app exists
+   */
+  public AppEntity getApp(String appId) {
+    return getApp(appId, new AppDAOImpl(new OpenFireDBConnectionProvider()));
+  }
+
+  /**
+   * Invalidate the cached app on all the cluster nodes.
+   * @param appId
+   */
+  public void invalidate(String appId) {
+    if (appId == null) {
+      return;
+    }
+    invalidateLocal(appId);
+    broadcast(new InvalidationTask(appId));
+  }
+
+  void invalidateLocal(String appId) {
+    LOGGER.trace("invalidateLocal : appId={}", appId);
+    appCache.invalidate(appId);
+  }
+
+  /**
+   * Drop all cached entries on this node.
+   */
+  public void clear() {
+    appCache.invalidateAll();
+  }
+
+  public long getHitCount() {
+    return appCache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return appCache.stats().missCount();
+  }
+
+  public long getSize() {
+    return appCache.size();
+  }
+
+  private void broadcast(ClusterTask task) {
+    try {
+      if (ClusterManager.isClusteringEnabled()) {
+        CacheFactory.doClusterTask(task);
+      }
+    } catch (Exception e) {
+      LOGGER.warn("broadcast : failed to send app cache invalidation task={} to the cluster", task, e);
+    }
+  }
+
+  /**
+   * Cluster task that invalidates an app on the other cluster nodes.
+   */
+  public static class InvalidationTask implements ClusterTask {
+    private String appId;
+
+    public InvalidationTask() {
+    }
+
+    private InvalidationTask(String appId) {
+      this.appId = appId;
+    }
+
+    @Override
+    public Object getResult() {
+      return null;
+    }
+
+    @Override
+    public void run() {
+      AppEntityCache.getInstance().invalidateLocal(appId);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      ExternalizableUtil.getInstance().writeSafeUTF(out, appId);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      appId = ExternalizableUtil.getInstance().readSafeUTF(in);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("InvalidationTask{");
+      sb.append("appId='").append(appId).append('\'');
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+}
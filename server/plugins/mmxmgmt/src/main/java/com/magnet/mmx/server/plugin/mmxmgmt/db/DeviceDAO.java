@@ -145,6 +145,23 @@ public interface DeviceDAO {
 
   public List<DeviceEntity> getDevices(QueryBuilderResult query);
 
+  /**
+   * Get a page of the devices matching a built query using the device id as the key.
+   * The query must have been built without sort and pagination information.
+   * @param query query built using the DeviceQueryBuilder
+   * @param afterId only devices with mmxDevice.id greater than this value are returned
+   * @param pageSize max number of devices to return
+   * @return List<DeviceEntity> ordered by mmxDevice.id; can be empty but not null
+   */
+  public List<DeviceEntity> getDevices(QueryBuilderResult query, int afterId, int pageSize);
+
+  /**
+   * Get the deviceIds of the devices matching a built query.
+   * @param query query built using the DeviceQueryBuilder
+   * @return List<String> of deviceIds; can be empty but not null
+   */
+  public List<String> getDeviceIds(QueryBuilderResult query);
+
   /**
    * Change the push status to invalid for the resource identified by the passed in params.
    * @param appId
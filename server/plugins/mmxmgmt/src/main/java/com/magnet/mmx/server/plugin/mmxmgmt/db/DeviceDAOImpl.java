@@ -84,6 +84,8 @@ public class DeviceDAOImpl implements DeviceDAO {
   private static final String QUERY_USING_APPID_AND_ID_LIST = "SELECT " + DEVICE_COLUMN_STRING  + " FROM mmxDevice " +
       "WHERE appId=? AND status = ? AND deviceId IN (%s)";
 
+  private static final String KEYSET_PAGE_FRAGMENT = " AND mmxDevice.id > ? ORDER BY mmxDevice.id LIMIT ?";
+
   private ConnectionProvider provider;
 
   public DeviceDAOImpl(ConnectionProvider provider) {
@@ -173,6 +175,8 @@ public class DeviceDAOImpl implements DeviceDAO {
       rs.close();
       pstmt.close();
       con.close();
+      DeviceEntityCache.getInstance().invalidateDevice(appId, request.getDevId());
+      DeviceEntityCache.getInstance().invalidateUser(appId, ownerId);
       return rv;
     } catch (SQLException sqle) {
       LOGGER.warn("SQL Exception in creating the device record", sqle);
@@ -319,6 +323,8 @@ public class DeviceDAOImpl implements DeviceDAO {
       int count = pstmt.executeUpdate();
       pstmt.close();
       con.close();
+      DeviceEntityCache.getInstance().invalidateDevice(appId, deviceId);
+      DeviceEntityCache.getInstance().invalidateUser(appId, ownerId);
       return count;
     } catch (SQLException sqle) {
       LOGGER.warn("SQL Exception in creating the device record", sqle);
@@ -341,6 +347,7 @@ public class DeviceDAOImpl implements DeviceDAO {
       int count = pstmt.executeUpdate();
       pstmt.close();
       con.close();
+      DeviceEntityCache.getInstance().invalidateDevice(null, deviceId);
       return count;
     } catch (SQLException sqle) {
       LOGGER.warn("SQL Exception in creating the device record", sqle);
@@ -730,6 +737,67 @@ public class DeviceDAOImpl implements DeviceDAO {
     return deviceList;
   }
 
+  @Override
+  public List<DeviceEntity> getDevices(QueryBuilderResult query, int afterId, int pageSize) {
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    List<DeviceEntity> deviceList = new ArrayList<DeviceEntity>(pageSize);
+    String sql = query.getQuery() + KEYSET_PAGE_FRAGMENT;
+    try {
+      con = provider.getConnection();
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Executing built query:{} afterId:{}", sql, afterId);
+      }
+      pstmt = con.prepareStatement(sql);
+      int index = 1;
+      for (QueryParam param : query.getParamList()) {
+        QueryParam.setParameterValue(param, index++, pstmt);
+      }
+      pstmt.setInt(index++, afterId);
+      pstmt.setInt(index, pageSize);
+      rs = pstmt.executeQuery();
+      while(rs.next()) {
+        deviceList.add(new DeviceEntity.DeviceEntityBuilder().build(rs));
+      }
+    } catch (Exception e){
+      LOGGER.error("Exception in retrieving device page using query builder result:{}", query, e);
+      throw new DbInteractionException(e);
+    } finally {
+      CloseUtil.close(LOGGER, rs, pstmt, con);
+    }
+    return deviceList;
+  }
+
+  @Override
+  public List<String> getDeviceIds(QueryBuilderResult query) {
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    List<String> deviceIds = new ArrayList<String>();
+    try {
+      con = provider.getConnection();
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Executing built query for deviceIds:{}", query.getQuery());
+      }
+      pstmt = con.prepareStatement(query.getQuery());
+      int index = 1;
+      for (QueryParam param : query.getParamList()) {
+        QueryParam.setParameterValue(param, index++, pstmt);
+      }
+      rs = pstmt.executeQuery();
+      while(rs.next()) {
+        deviceIds.add(rs.getString("deviceId"));
+      }
+    } catch (Exception e){
+      LOGGER.error("Exception in retrieving deviceIds using query builder result:{}", query, e);
+      throw new DbInteractionException(e);
+    } finally {
+      CloseUtil.close(LOGGER, rs, pstmt, con);
+    }
+    return deviceIds;
+  }
+
   @Override
   public int getActiveDevicesForApp(String appId) {
     final String statementStr = "select count(*) from mmxDevice where appId = ? AND status = ?";
@@ -772,6 +840,7 @@ public class DeviceDAOImpl implements DeviceDAO {
       pstmt.execute();
       pstmt.close();
       con.close();
+      DeviceEntityCache.getInstance().invalidateToken(appId, token);
     } catch (SQLException sqle) {
       LOGGER.warn("SQL Exception invalidateToken", sqle);
       throw new DbInteractionException(sqle);
@@ -809,6 +878,7 @@ public class DeviceDAOImpl implements DeviceDAO {
       pstmt.execute();
       pstmt.close();
       con.close();
+      DeviceEntityCache.getInstance().invalidateDevice(appId, deviceId);
     } catch (SQLException sqle) {
       LOGGER.warn("SQL Exception invalidateToken", sqle);
       throw new DbInteractionException(sqle);
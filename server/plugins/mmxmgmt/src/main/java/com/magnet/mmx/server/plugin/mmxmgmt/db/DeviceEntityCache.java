@@ -0,0 +1,415 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of mmxDevice rows used by the message routing path.
+ * Devices are cached by (appId, deviceId) and the active devices of a user are
+ * cached by (appId, userId). All writes to mmxDevice done through DeviceDAOImpl
+ * invalidate the affected entries on this node and, when clustering is enabled,
+ * on every other node in the cluster.
+ */
+public class DeviceEntityCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DeviceEntityCache.class);
+
+  private final Cache<DeviceKey, Optional<DeviceEntity>> deviceCache;
+  private final Cache<UserKey, List<DeviceEntity>> userDeviceCache;
+
+  private DeviceEntityCache() {
+    this(MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.DEVICE_CACHE_MAX_SIZE,
+            MMXServerConstants.DEFAULT_DEVICE_CACHE_MAX_SIZE),
+        MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.DEVICE_CACHE_TTL_MINUTES,
+            MMXServerConstants.DEFAULT_DEVICE_CACHE_TTL_MINUTES),
+        Ticker.systemTicker());
+  }
+
+  /**
+   * Constructor used by the singleton and by unit tests that control the clock.
+   * @param maxSize
+   * @param ttlMinutes
+   * @param ticker
+   */
+  DeviceEntityCache(int maxSize, int ttlMinutes, Ticker ticker) {
+    LOGGER.info("Creating device cache with maxSize:{} ttlMinutes:{}", maxSize, ttlMinutes);
+    deviceCache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+    userDeviceCache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Cache holder
+   */
+  private static class CacheHolder {
+    private static final DeviceEntityCache INSTANCE = new DeviceEntityCache();
+  }
+
+  /**
+   * Get the singleton instance of the device cache.
+   * @return
+   */
+  public static DeviceEntityCache getInstance() {
+    return CacheHolder.INSTANCE;
+  }
+
+  /**
+   * Get the device identified by appId and deviceId irrespective of its status.
+   * @param appId
+   * @param deviceId
+   * @param deviceDAO DAO used for loading the device if it isn't in the cache
+   * @return DeviceEntity or null if no such device exists
+   * @throws SQLException if the device couldn't be loaded from the database
+   */
+  public DeviceEntity getDevice(final String appId, final String deviceId, final DeviceDAO deviceDAO) throws SQLException {
+    DeviceKey key = new DeviceKey(appId, deviceId);
+    try {
+      Optional<DeviceEntity> device = deviceCache.get(key, new Callable<Optional<DeviceEntity>>() {
+        @Override
+        public Optional<DeviceEntity> call() throws Exception {
+          try {
+            return Optional.of(deviceDAO.getDevice(appId, deviceId));
+          } catch (DeviceNotFoundException e) {
+            return Optional.absent();
+          }
+        }
+      });
+      return device.orNull();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      }
+      throw new DbInteractionException(cause);
+    } catch (UncheckedExecutionException e) {
+      throw new DbInteractionException(e.getCause());
+    }
+  }
+
+  /**
+   * Get the active devices for the user identified by appId and userId.
+   * @param appId
+   * @param userId
+   * @param deviceDAO DAO used for loading the devices if they aren't in the cache
+   * @return unmodifiable list of devices. can be empty but not null
+   */
+  public List<DeviceEntity> getActiveDevices(final String appId, final String userId, final DeviceDAO deviceDAO) {
+    UserKey key = new UserKey(appId, userId);
+    try {
+      return userDeviceCache.get(key, new Callable<List<DeviceEntity>>() {
+        @Override
+        public List<DeviceEntity> call() throws Exception {
+          return Collections.unmodifiableList(deviceDAO.getDevices(appId, userId, DeviceStatus.ACTIVE));
+        }
+      });
+    } catch (ExecutionException e) {
+      throw new DbInteractionException(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      throw new DbInteractionException(e.getCause());
+    }
+  }
+
+  /**
+   * Invalidate the cached entries for the device on all the cluster nodes.
+   * @param appId appId of the device. If null entries for the deviceId in all apps are invalidated.
+   * @param deviceId
+   */
+  public void invalidateDevice(String appId, String deviceId) {
+    invalidateDeviceLocal(appId, deviceId);
+    broadcast(new InvalidationTask(InvalidationType.DEVICE, appId, deviceId));
+  }
+
+  /**
+   * Invalidate the cached active device list for the user on all the cluster nodes.
+   * @param appId
+   * @param userId
+   */
+  public void invalidateUser(String appId, String userId) {
+    if (userId == null) {
+      return;
+    }
+    invalidateUserLocal(appId, userId);
+    broadcast(new InvalidationTask(InvalidationType.USER, appId, userId));
+  }
+
+  /**
+   * Invalidate the cached entries for devices using the supplied push token on all the cluster nodes.
+   * @param appId
+   * @param token
+   */
+  public void invalidateToken(String appId, String token) {
+    if (token == null) {
+      return;
+    }
+    invalidateTokenLocal(appId, token);
+    broadcast(new InvalidationTask(InvalidationType.TOKEN, appId, token));
+  }
+
+  void invalidateDeviceLocal(String appId, String deviceId) {
+    LOGGER.trace("invalidateDeviceLocal : appId={}, deviceId={}", appId, deviceId);
+    if (appId != null) {
+      deviceCache.invalidate(new DeviceKey(appId, deviceId));
+    } else {
+      Iterator<DeviceKey> keys = deviceCache.asMap().keySet().iterator();
+      while (keys.hasNext()) {
+        if (keys.next().deviceId.equals(deviceId)) {
+          keys.remove();
+        }
+      }
+    }
+    Iterator<Map.Entry<UserKey, List<DeviceEntity>>> entries = userDeviceCache.asMap().entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<UserKey, List<DeviceEntity>> entry = entries.next();
+      if (appId != null && !appId.equals(entry.getKey().appId)) {
+        continue;
+      }
+      for (DeviceEntity device : entry.getValue()) {
+        if (deviceId.equals(device.getDeviceId())) {
+          entries.remove();
+          break;
+        }
+      }
+    }
+  }
+
+  void invalidateUserLocal(String appId, String userId) {
+    LOGGER.trace("invalidateUserLocal : appId={}, userId={}", appId, userId);
+    userDeviceCache.invalidate(new UserKey(appId, userId));
+  }
+
+  void invalidateTokenLocal(String appId, String token) {
+    LOGGER.trace("invalidateTokenLocal : appId={}", appId);
+    List<String> deviceIds = new ArrayList<String>();
+    for (Map.Entry<DeviceKey, Optional<DeviceEntity>> entry : deviceCache.asMap().entrySet()) {
+      DeviceEntity device = entry.getValue().orNull();
+      if (device != null && appId.equals(device.getAppId()) && token.equals(device.getClientToken())) {
+        deviceIds.add(device.getDeviceId());
+      }
+    }
+    for (Map.Entry<UserKey, List<DeviceEntity>> entry : userDeviceCache.asMap().entrySet()) {
+      if (!appId.equals(entry.getKey().appId)) {
+        continue;
+      }
+      for (DeviceEntity device : entry.getValue()) {
+        if (token.equals(device.getClientToken())) {
+          deviceIds.add(device.getDeviceId());
+        }
+      }
+    }
+    for (String deviceId : deviceIds) {
+      invalidateDeviceLocal(appId, deviceId);
+    }
+  }
+
+  /**
+   * Drop all cached entries on this node.
+   */
+  public void clear() {
+    deviceCache.invalidateAll();
+    userDeviceCache.invalidateAll();
+  }
+
+  public long getHitCount() {
+    return deviceCache.stats().hitCount() + userDeviceCache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return deviceCache.stats().missCount() + userDeviceCache.stats().missCount();
+  }
+
+  public long getEvictionCount() {
+    return deviceCache.stats().evictionCount() + userDeviceCache.stats().evictionCount();
+  }
+
+  public long getSize() {
+    return deviceCache.size() + userDeviceCache.size();
+  }
+
+  private void broadcast(ClusterTask task) {
+    try {
+      if (ClusterManager.isClusteringEnabled()) {
+        CacheFactory.doClusterTask(task);
+      }
+    } catch (Exception e) {
+      LOGGER.warn("broadcast : failed to send device cache invalidation task={} to the cluster", task, e);
+    }
+  }
+
+  private static final class DeviceKey {
+    private final String appId;
+    private final String deviceId;
+
+    private DeviceKey(String appId, String deviceId) {
+      this.appId = appId;
+      this.deviceId = deviceId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      DeviceKey deviceKey = (DeviceKey) o;
+
+      if (!appId.equals(deviceKey.appId)) return false;
+      return deviceId.equals(deviceKey.deviceId);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = appId.hashCode();
+      result = 31 * result + deviceId.hashCode();
+      return result;
+    }
+  }
+
+  private static final class UserKey {
+    private final String appId;
+    private final String userId;
+
+    private UserKey(String appId, String userId) {
+      this.appId = appId;
+      this.userId = userId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      UserKey userKey = (UserKey) o;
+
+      if (!appId.equals(userKey.appId)) return false;
+      return userId.equals(userKey.userId);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = appId.hashCode();
+      result = 31 * result + userId.hashCode();
+      return result;
+    }
+  }
+
+  private enum InvalidationType {
+    DEVICE,
+    USER,
+    TOKEN
+  }
+
+  /**
+   * Cluster task that invalidates the device cache entries on the other cluster nodes.
+   */
+  public static class InvalidationTask implements ClusterTask {
+    private InvalidationType type;
+    private String appId;
+    private String value;
+
+    public InvalidationTask() {
+    }
+
+    private InvalidationTask(InvalidationType type, String appId, String value) {
+      this.type = type;
+      this.appId = appId;
+      this.value = value;
+    }
+
+    @Override
+    public Object getResult() {
+      return null;
+    }
+
+    @Override
+    public void run() {
+      DeviceEntityCache cache = DeviceEntityCache.getInstance();
+      switch (type) {
+        case DEVICE:
+          cache.invalidateDeviceLocal(appId, value);
+          break;
+        case USER:
+          cache.invalidateUserLocal(appId, value);
+          break;
+        case TOKEN:
+          cache.invalidateTokenLocal(appId, value);
+          break;
+      }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      util.writeSafeUTF(out, type.name());
+      util.writeBoolean(out, appId != null);
+      if (appId != null) {
+        util.writeSafeUTF(out, appId);
+      }
+      util.writeSafeUTF(out, value);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      type = InvalidationType.valueOf(util.readSafeUTF(in));
+      if (util.readBoolean(in)) {
+        appId = util.readSafeUTF(in);
+      }
+      value = util.readSafeUTF(in);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("InvalidationTask{");
+      sb.append("type=").append(type);
+      sb.append(", appId='").append(appId).append('\'');
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+}
@@ -103,7 +103,22 @@ public class DeviceQueryBuilder {
     return buildQuery(query, appId, null, null);
   }
 
+  /**
+   * Build a query that only selects the deviceId column of the matching devices.
+   * @param query
+   * @param appId
+   * @return
+   */
+  public QueryBuilderResult buildDeviceIdQuery(DeviceQuery query, String appId) {
+    return buildQuery(query, appId, null, null, COL_DEVICE_ID);
+  }
+
   public QueryBuilderResult buildQuery(DeviceQuery query, String appId, PaginationInfo paginationInfo, SortInfo sortInfo) {
+    return buildQuery(query, appId, paginationInfo, sortInfo, STAR);
+  }
+
+  private QueryBuilderResult buildQuery(DeviceQuery query, String appId, PaginationInfo paginationInfo,
+                                        SortInfo sortInfo, String column) {
 
     Operator operator = query.getOperator();
     if (operator == null) {
@@ -187,7 +202,7 @@ public class DeviceQueryBuilder {
         .append(DISTINCT)
         .append(SPACE)
         .append(BASE_TABLE_NAME).append(DOT)
-        .append(STAR)
+        .append(column)
         .append(SPACE)
         .append(FROM)
         .append(SPACE)
@@ -14,21 +14,42 @@
  */
 package com.magnet.mmx.server.plugin.mmxmgmt.db;
 
+import com.magnet.ext.geo.BoundingBoxFactory;
+import com.magnet.ext.geo.GeoPointFactory;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.push.Target;
+import com.magnet.mmx.server.plugin.mmxmgmt.api.query.GeoQuery;
+import com.magnet.mmx.server.plugin.mmxmgmt.context.GeoLocationIndex;
 import com.magnet.mmx.server.plugin.mmxmgmt.push.ResolutionException;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Resolves Device Entity targets
  */
 public class DeviceTargetResolver implements TargetResolver<DeviceEntity> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DeviceTargetResolver.class);
+  private static final int GEO_LOOKUP_CHUNK_SIZE = 1000;
 
   @Override
   public List<DeviceEntity> resolve(String appId, Target target) throws ResolutionException {
     if (target == null) {
       throw new ResolutionException("no valid targets defined");
     }
+    if (target.getGeoQuery() != null) {
+      DevicePager pager = new DevicePager(appId, resolveGeoTarget(appId, target), null, GEO_LOOKUP_CHUNK_SIZE);
+      List<DeviceEntity> devices = new ArrayList<DeviceEntity>();
+      while (pager.hasMore()) {
+        devices.addAll(pager.nextPage());
+      }
+      return devices;
+    }
     List<String> deviceIds = target.getDeviceIds();
     if (deviceIds != null && !deviceIds.isEmpty()) {
       DeviceDAO dao = getDeviceDAO();
@@ -44,6 +65,129 @@ public class DeviceTargetResolver implements TargetResolver<DeviceEntity> {
     }
   }
 
+  /**
+   * Build a pager that resolves the target one page at a time. The target is validated and the
+   * device query is built before this method returns; the devices are only read by
+   * {@link DevicePager#nextPage()}. A geo target is resolved to its deviceIds before this method
+   * returns.
+   * @param appId
+   * @param target
+   * @param pageSize max number of devices in a page
+   * @return pager
+   * @throws ResolutionException if the target is invalid
+   */
+  public DevicePager page(String appId, Target target, int pageSize) throws ResolutionException {
+    if (target == null) {
+      throw new ResolutionException("no valid targets defined");
+    }
+    if (target.getGeoQuery() != null) {
+      return new DevicePager(appId, resolveGeoTarget(appId, target), null, pageSize);
+    }
+    List<String> deviceIds = target.getDeviceIds();
+    if (deviceIds != null && !deviceIds.isEmpty()) {
+      return new DevicePager(appId, deviceIds, null, pageSize);
+    } else if (target.getDeviceQuery() != null) {
+      DeviceQueryBuilder builder = new DeviceQueryBuilder();
+      QueryBuilderResult query = builder.buildQuery(target.getDeviceQuery(), appId);
+      return new DevicePager(appId, null, query, pageSize);
+    } else {
+      throw new ResolutionException("no valid targets defined");
+    }
+  }
+
+
+  /**
+   * Get the deviceIds of a geo target from the {@link GeoLocationIndex}. When the target also has
+   * deviceIds or a device query, the result is the intersection of the sorted deviceIds of each
+   * part; the device query only reads the deviceIds of the matching devices.
+   * @param appId
+   * @param target target with a geo query
+   * @return sorted deviceIds
+   * @throws ResolutionException if the geo query doesn't define a valid area
+   */
+  List<String> resolveGeoTarget(String appId, Target target) throws ResolutionException {
+    GeoQuery geoQuery = target.getGeoQuery();
+    List<String> result;
+    if (geoQuery.isCircle()) {
+      if (!isLatitude(geoQuery.getLatitude()) || !isLongitude(geoQuery.getLongitude())) {
+        throw new ResolutionException("geo query latitude must be within [-90, 90] and longitude within [-180, 180]");
+      }
+      int maxRadius = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.GEO_INDEX_MAX_RADIUS_METERS,
+          MMXServerConstants.DEFAULT_GEO_INDEX_MAX_RADIUS_METERS);
+      if (!(geoQuery.getRadius() > 0) || geoQuery.getRadius() > maxRadius) {
+        throw new ResolutionException("geo query radius must be greater than 0 and at most " + maxRadius + " meters");
+      }
+      result = getGeoLocationIndex().findDeviceIds(appId, geoQuery.getLatitude(), geoQuery.getLongitude(),
+          geoQuery.getRadius());
+    } else if (geoQuery.isBox()) {
+      if (!isLatitude(geoQuery.getSouth()) || !isLatitude(geoQuery.getNorth()) ||
+          !isLongitude(geoQuery.getWest()) || !isLongitude(geoQuery.getEast())) {
+        throw new ResolutionException("geo query south and north must be within [-90, 90] and west and east within [-180, 180]");
+      }
+      if (geoQuery.getSouth() > geoQuery.getNorth()) {
+        throw new ResolutionException("geo query south must not be greater than north");
+      }
+      result = getGeoLocationIndex().findDeviceIds(appId, BoundingBoxFactory.createBoundingBox(
+          GeoPointFactory.createGeoPoint(geoQuery.getSouth(), geoQuery.getWest()),
+          GeoPointFactory.createGeoPoint(geoQuery.getNorth(), geoQuery.getEast())));
+    } else {
+      throw new ResolutionException("geo query needs either latitude, longitude and radius or south, west, north and east");
+    }
+    List<String> deviceIds = target.getDeviceIds();
+    if (!result.isEmpty() && deviceIds != null && !deviceIds.isEmpty()) {
+      List<String> sorted = new ArrayList<String>(deviceIds);
+      Collections.sort(sorted);
+      result = intersect(result, sorted);
+    }
+    if (!result.isEmpty() && target.getDeviceQuery() != null) {
+      QueryBuilderResult query = new DeviceQueryBuilder().buildDeviceIdQuery(target.getDeviceQuery(), appId);
+      List<String> queried = getDeviceDAO().getDeviceIds(query);
+      Collections.sort(queried);
+      result = intersect(result, queried);
+    }
+    LOGGER.debug("resolveGeoTarget : appId={}, devices={}", appId, result.size());
+    return result;
+  }
+
+  private static boolean isLatitude(Double value) {
+    return value != null && value >= -90.0d && value <= 90.0d;
+  }
+
+  private static boolean isLongitude(Double value) {
+    return value != null && value >= -180.0d && value <= 180.0d;
+  }
+
+  /**
+   * Intersect two sorted lists of deviceIds.
+   * @param first
+   * @param second
+   * @return sorted deviceIds that are in both lists, without duplicates
+   */
+  static List<String> intersect(List<String> first, List<String> second) {
+    List<String> result = new ArrayList<String>(Math.min(first.size(), second.size()));
+    int i = 0;
+    int j = 0;
+    while (i < first.size() && j < second.size()) {
+      int cmp = first.get(i).compareTo(second.get(j));
+      if (cmp < 0) {
+        i++;
+      } else if (cmp > 0) {
+        j++;
+      } else {
+        String deviceId = first.get(i);
+        if (result.isEmpty() || !result.get(result.size() - 1).equals(deviceId)) {
+          result.add(deviceId);
+        }
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  protected GeoLocationIndex getGeoLocationIndex() {
+    return GeoLocationIndex.getInstance();
+  }
 
   protected DeviceDAO getDeviceDAO() {
     DeviceDAO dao = new DeviceDAOImpl(getConnectionProvider());
@@ -55,4 +199,68 @@ public class DeviceTargetResolver implements TargetResolver<DeviceEntity> {
     ConnectionProvider provider = new OpenFireDBConnectionProvider();
     return provider;
   }
+
+  /**
+   * Reads the devices of a target a page at a time. Explicit device ids are looked up in chunks
+   * of the page size and device queries are paged using mmxDevice.id as the key, so only one
+   * page of devices is held in memory.
+   */
+  public class DevicePager {
+    private final String appId;
+    private final List<String> deviceIds;
+    private final QueryBuilderResult query;
+    private final int pageSize;
+    private int position = 0;
+    private int lastId = 0;
+    private int lastRequested = 0;
+    private boolean done = false;
+
+    private DevicePager(String appId, List<String> deviceIds, QueryBuilderResult query, int pageSize) {
+      this.appId = appId;
+      this.deviceIds = deviceIds;
+      this.query = query;
+      this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * @return true if there may be more devices to read
+     */
+    public boolean hasMore() {
+      return !done;
+    }
+
+    /**
+     * Get the next page of active devices.
+     * @return list of devices; empty if there are no more devices
+     */
+    public List<DeviceEntity> nextPage() {
+      if (done) {
+        return Collections.emptyList();
+      }
+      List<DeviceEntity> page;
+      if (deviceIds != null) {
+        int end = Math.min(position + pageSize, deviceIds.size());
+        page = getDeviceDAO().getDevices(appId, deviceIds.subList(position, end), DeviceStatus.ACTIVE);
+        lastRequested = end - position;
+        position = end;
+        done = position >= deviceIds.size();
+      } else {
+        page = getDeviceDAO().getDevices(query, lastId, pageSize);
+        if (!page.isEmpty()) {
+          lastId = page.get(page.size() - 1).getId();
+        }
+        lastRequested = page.size();
+        done = page.size() < pageSize;
+      }
+      return page;
+    }
+
+    /**
+     * @return number of device ids requested by the last page for explicit device ids or the
+     * number of devices found by the last page for device queries.
+     */
+    public int getLastPageRequested() {
+      return lastRequested;
+    }
+  }
 }
@@ -37,6 +37,14 @@ public interface MessageDAO {
    */
   public void persist(MessageEntity entity) throws DbInteractionException;
 
+  /**
+   * Persist a list of message entities using a single JDBC batch. If the entity has
+   * queuedAtUTC set it is used as the queued time, otherwise the current time is used.
+   * @param entities
+   * @throws DbInteractionException
+   */
+  public void persist(List<MessageEntity> entities) throws DbInteractionException;
+
   /**
    * Get a list of messages with provided state value
    *
@@ -55,15 +63,39 @@ public interface MessageDAO {
   public void updateMessageState(String messageId, String deviceId, MessageEntity.MessageState state) throws DbInteractionException;
 
   /**
-   * Purge messages that have been delivered.
+   * Purge messages in DELIVERED or RECEIVED state that were queued between start (inclusive)
+   * and end (exclusive).
    *
    * @param start
    * @param end
-   * @return the count of messages delivered.
+   * @return the count of messages purged.
    * @throws DbInteractionException
    */
   public int purgeDeliveredMessages(Date start, Date end) throws DbInteractionException;
 
+  /**
+   * Delete at most maxCount messages in one of the supplied states that were queued before
+   * the supplied time. Callers purge large backlogs by calling this repeatedly until it returns
+   * less than maxCount so that every delete statement is short.
+   *
+   * @param states
+   * @param olderThanUTC time in number of "seconds" since epoch
+   * @param maxCount maximum number of rows deleted by this call
+   * @return the count of messages purged.
+   * @throws DbInteractionException
+   */
+  public int purgeMessages(List<MessageEntity.MessageState> states, long olderThanUTC, int maxCount) throws DbInteractionException;
+
+  /**
+   * Delete at most maxCount receipt messages that were queued before the supplied time.
+   *
+   * @param olderThanUTC time in number of "seconds" since epoch
+   * @param maxCount maximum number of rows deleted by this call
+   * @return the count of receipts purged.
+   * @throws DbInteractionException
+   */
+  public int purgeReceipts(long olderThanUTC, int maxCount) throws DbInteractionException;
+
   /**
    * Get a list of messages for retry processing.
    * @param timeSinceLastWakeup - number of seconds that must was elapsed since the last wakeup and the message
@@ -82,6 +114,15 @@ public interface MessageDAO {
    */
   public void messageReceived(String messageId, String receivedByDeviceId);
 
+  /**
+   * Mark the messages identified by the messageId and deviceId of the supplied entities as RECEIVED
+   * using a single JDBC batch. If the entity has deliveryAckAtUTC set it is used as the acknowledged
+   * time, otherwise the current time is used.
+   * @param receipts
+   * @throws DbInteractionException
+   */
+  public void messagesReceived(List<MessageEntity> receipts) throws DbInteractionException;
+
   /**
    * Mark a message identified the passed in parameters as DELIVERED.
    * @param appId
@@ -91,6 +132,16 @@ public interface MessageDAO {
    */
   public int messageDelivered(String appId, String deviceId, String messageId);
 
+  /**
+   * Mark the messages identified by the passed in message ids as DELIVERED using a single
+   * batch update.
+   * @param appId
+   * @param deviceId
+   * @param messageIds
+   * @return int number of messages updated.
+   */
+  public int messagesDelivered(String appId, String deviceId, List<String> messageIds);
+
   /**
    * Search messages for a specific appId using the search option, searchValue.
    * Order the results using the sortOption. Paginate results using supplied pagination
@@ -131,6 +182,33 @@ public interface MessageDAO {
    */
   public int messageTimeout(long utcTime, int timeoutMinutes);
 
+  /**
+   * Mark the messages identified by the messageId and deviceId of the supplied entities as timed out
+   * if they are still in WAKEUP_SENT state, using a single JDBC batch.
+   * @param messages
+   * @return number of messages that were marked as timed out
+   * @throws DbInteractionException
+   */
+  public int messagesTimedOut(List<MessageEntity> messages) throws DbInteractionException;
+
+  /**
+   * Get the messages that are in WAKEUP_SENT state along with the count and the time of the last
+   * wakeup notification sent for each of them.
+   * @return list of messages; empty list if there are none
+   * @throws DbInteractionException
+   */
+  public List<WakeupSentMessage> getWakeupSentMessages() throws DbInteractionException;
+
+  /**
+   * Get the messages identified by the messageId and deviceId of the supplied entities
+   * that are in the supplied state.
+   * @param state
+   * @param messages
+   * @return the subset of the supplied messages that are in the state
+   * @throws DbInteractionException
+   */
+  public List<MessageEntity> getMessagesInState(MessageEntity.MessageState state, List<MessageEntity> messages) throws DbInteractionException;
+
   /**
    * Update the message identified by the message and deviceId to set its state to WAKEUP_SENT.
    * @param messageId
@@ -139,6 +217,14 @@ public interface MessageDAO {
    */
   public void wakeupSent(String messageId, String deviceId) throws DbInteractionException;
 
+  /**
+   * Set the state of the messages identified by the messageId and deviceId of the supplied entities
+   * to WAKEUP_SENT using a single JDBC batch.
+   * @param messages
+   * @throws DbInteractionException
+   */
+  public void wakeupSent(List<MessageEntity> messages) throws DbInteractionException;
+
   /**
    * Get a message entity using the messageId and deviceId
    * @param messageId
@@ -156,6 +242,15 @@ public interface MessageDAO {
    */
   public List<MessageEntity> getMessages(String appId, String messageId);
 
+  /**
+   * Get the messages for the supplied appId and messageIds.
+   * @param appId
+   * @param messageIds
+   * @return map of messageId to its messages ordered by deviceId; messageIds that don't exist
+   * are not in the map
+   */
+  public Map<String, List<MessageEntity>> getMessages(String appId, List<String> messageIds);
+
 
   /**
    * Update messages in WAKEUP_SENT or WAKEUP_REQUIRED state to PENDING using the supplied
@@ -61,7 +61,31 @@ public class MessageDAOImpl implements MessageDAO {
       "AND count(w.messageId) < ?";
 
   private static final String ME_QUERY_FOR_TIMEOUT = "UPDATE mmxMessage set state = ? WHERE state = ? AND dateAcknowledgedUTC IS NULL AND " +
-      "            (? - dateQueuedUTC > ?)";
+      "            dateQueuedUTC < ?";
+
+  private static final String ME_UPDATE_MARK_AS_TIMED_OUT = "UPDATE mmxMessage SET state = ? WHERE messageId = ? AND deviceId = ? " +
+      "AND state = ? AND dateAcknowledgedUTC IS NULL";
+
+  private static final String ME_QUERY_WAKEUP_SENT = "SELECT m.messageId, m.deviceId, m.appId, m.dateQueuedUTC, " +
+      "MAX(w.dateSentUTC), COUNT(w.id) FROM mmxMessage m LEFT JOIN mmxWakeupQueue w ON w.messageId = m.messageId " +
+      "AND w.deviceId = m.deviceId AND w.dateSentUTC IS NOT NULL WHERE m.state = ? AND m.dateAcknowledgedUTC IS NULL " +
+      "GROUP BY m.messageId, m.deviceId";
+
+  private static final String ME_QUERY_IN_STATE = "SELECT messageId, deviceId, appId FROM mmxMessage WHERE state = ? " +
+      "AND messageId IN ( %s )";
+
+  /**
+   * Limit the number of arguments in the IN clause because some DBMS cannot handle more than 255.
+   */
+  private static final int IN_CLAUSE_CHUNK_SIZE = 128;
+
+  private static final String ME_PURGE_BY_STATE = "DELETE FROM mmxMessage WHERE state IN ( %s ) AND dateQueuedUTC >= ? " +
+      "AND dateQueuedUTC < ? LIMIT ?";
+
+  private static final String ME_PURGE_RECEIPTS = "DELETE FROM mmxMessage WHERE state = ? AND messageType = ? AND " +
+      "dateQueuedUTC < ? LIMIT ?";
+
+  private static final int PURGE_CHUNK_SIZE = 1000;
 
   private static final String ME_QUERY_BY_MESSAGE_ID_AND_DEVICE_ID = "SELECT id, messageId, deviceId, fromJID, toJID, dateQueuedUTC, state, " +
       "appId, dateAcknowledgedUTC, sourceMessageId, messageType FROM mmxMessage WHERE messageId = ? AND deviceId = ? ";
@@ -69,6 +93,10 @@ public class MessageDAOImpl implements MessageDAO {
   private static final String ME_QUERY_BY_MESSAGE_ID_AND_APP_ID = "SELECT id, messageId, deviceId, fromJID, toJID, dateQueuedUTC, state, " +
       "appId, dateAcknowledgedUTC, sourceMessageId, messageType FROM mmxMessage WHERE appId = ? AND messageId = ? ORDER BY deviceId";
 
+  private static final String ME_QUERY_BY_MESSAGE_IDS_AND_APP_ID = "SELECT id, messageId, deviceId, fromJID, toJID, dateQueuedUTC, state, " +
+      "appId, dateAcknowledgedUTC, sourceMessageId, messageType FROM mmxMessage WHERE appId = ? AND messageId IN ( %s ) " +
+      "ORDER BY messageId, deviceId";
+
   private static final String ME_UPDATE_STATE_AFTER_TOKEN_INVALIDATION_QUERY = " UPDATE mmxMessage m, mmxWakeupQueue w " +
       "SET m.state = ? WHERE m.messageId = w.messageId AND m.deviceId = w.deviceId AND " +
       "(m.state = 'WAKEUP_REQUIRED' OR m.state = 'WAKEUP_SENT') AND w.appId = ? AND  w.tokenType = ? AND " +
@@ -95,26 +123,10 @@ public class MessageDAOImpl implements MessageDAO {
     try {
       con = provider.getConnection();
       pstmt = con.prepareStatement(ME_INSERT_QUERY, PreparedStatement.RETURN_GENERATED_KEYS);
-      pstmt.setString(1, entity.getMessageId());
-      pstmt.setString(2, entity.getFrom());
-      pstmt.setString(3, entity.getTo());
       long dateQueuedUTC = new Date().getTime()/1000L;
-      pstmt.setLong(4, dateQueuedUTC);
-      pstmt.setString(5, entity.getState().toString());
-      pstmt.setString(6, entity.getAppId());
-      pstmt.setString(7, entity.getDeviceId());
-      String sourceMessageId = entity.getSourceMessageId();
-      if (sourceMessageId != null) {
-        pstmt.setString(8, sourceMessageId);
-      } else {
-        pstmt.setNull(8, Types.VARCHAR);
-      }
-      MessageEntity.MessageType type = entity.getType();
-      if (type == null) {
-        type = MessageEntity.MessageType.REGULAR;
-      }
-      pstmt.setString(9, type.name());
+      setInsertParameters(pstmt, entity, dateQueuedUTC);
       pstmt.executeUpdate();
+      MessageStateCache.getInstance().invalidate(entity.getMessageId());
       rs = pstmt.getGeneratedKeys();
 
       if (rs.next()) {
@@ -131,6 +143,84 @@ public class MessageDAOImpl implements MessageDAO {
     }
   }
 
+  @Override
+  public void persist(List<MessageEntity> entities) throws DbInteractionException {
+    if (entities == null || entities.isEmpty()) {
+      return;
+    }
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    boolean autoCommit = true;
+    try {
+      con = provider.getConnection();
+      autoCommit = con.getAutoCommit();
+      con.setAutoCommit(false);
+      pstmt = con.prepareStatement(ME_INSERT_QUERY);
+      long now = new Date().getTime()/1000L;
+      for (MessageEntity entity : entities) {
+        Long queuedAtUTC = entity.getQueuedAtUTC();
+        setInsertParameters(pstmt, entity, queuedAtUTC != null ? queuedAtUTC.longValue() : now);
+        pstmt.addBatch();
+      }
+      pstmt.executeBatch();
+      con.commit();
+      for (MessageEntity entity : entities) {
+        MessageStateCache.getInstance().invalidate(entity.getMessageId());
+      }
+    } catch (SQLException sqle) {
+      LOGGER.warn("persist : SQL Exception in batch insert of {} message records", entities.size(), sqle);
+      rollback(con);
+      throw new DbInteractionException(sqle);
+    } finally {
+      resetAutoCommit(con, autoCommit);
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
+
+  /**
+   * Set the parameters for the ME_INSERT_QUERY
+   */
+  private static void setInsertParameters(PreparedStatement pstmt, MessageEntity entity, long dateQueuedUTC) throws SQLException {
+    pstmt.setString(1, entity.getMessageId());
+    pstmt.setString(2, entity.getFrom());
+    pstmt.setString(3, entity.getTo());
+    pstmt.setLong(4, dateQueuedUTC);
+    pstmt.setString(5, entity.getState().toString());
+    pstmt.setString(6, entity.getAppId());
+    pstmt.setString(7, entity.getDeviceId());
+    String sourceMessageId = entity.getSourceMessageId();
+    if (sourceMessageId != null) {
+      pstmt.setString(8, sourceMessageId);
+    } else {
+      pstmt.setNull(8, Types.VARCHAR);
+    }
+    MessageEntity.MessageType type = entity.getType();
+    if (type == null) {
+      type = MessageEntity.MessageType.REGULAR;
+    }
+    pstmt.setString(9, type.name());
+  }
+
+  private static void rollback(Connection con) {
+    if (con != null) {
+      try {
+        con.rollback();
+      } catch (SQLException e) {
+        LOGGER.warn("rollback : failed to rollback", e);
+      }
+    }
+  }
+
+  private static void resetAutoCommit(Connection con, boolean autoCommit) {
+    if (con != null) {
+      try {
+        con.setAutoCommit(autoCommit);
+      } catch (SQLException e) {
+        LOGGER.warn("resetAutoCommit : failed to reset autoCommit", e);
+      }
+    }
+  }
+
   @Override
   public List<MessageEntity> getMessages(MessageEntity.MessageState state) throws DbInteractionException {
     Connection con = null;
@@ -171,6 +261,7 @@ public class MessageDAOImpl implements MessageDAO {
       pstmt.setString(3, messageId);
       pstmt.setString(4, receivedByDeviceId);
       pstmt.executeUpdate();
+      MessageStateCache.getInstance().updateState(messageId, receivedByDeviceId, MessageEntity.MessageState.RECEIVED, null);
       pstmt.close();
       con.close();
     } catch (SQLException sqle) {
@@ -181,6 +272,41 @@ public class MessageDAOImpl implements MessageDAO {
     }
   }
 
+  @Override
+  public void messagesReceived(List<MessageEntity> receipts) throws DbInteractionException {
+    if (receipts == null || receipts.isEmpty()) {
+      return;
+    }
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    boolean autoCommit = true;
+    try {
+      con = provider.getConnection();
+      autoCommit = con.getAutoCommit();
+      con.setAutoCommit(false);
+      pstmt = con.prepareStatement(ME_UPDATE_MARK_AS_RECEIVED);
+      long now = new Date().getTime()/1000L;
+      for (MessageEntity receipt : receipts) {
+        Long ackAtUTC = receipt.getDeliveryAckAtUTC();
+        pstmt.setString(1, MessageEntity.MessageState.RECEIVED.name());
+        pstmt.setLong(2, ackAtUTC != null ? ackAtUTC.longValue() : now);
+        pstmt.setString(3, receipt.getMessageId());
+        pstmt.setString(4, receipt.getDeviceId());
+        pstmt.addBatch();
+      }
+      pstmt.executeBatch();
+      con.commit();
+      MessageStateCache.getInstance().updateState(receipts, MessageEntity.MessageState.RECEIVED, null);
+    } catch (SQLException sqle) {
+      LOGGER.warn("messagesReceived : SQL Exception in batch update of {} message records", receipts.size(), sqle);
+      rollback(con);
+      throw new DbInteractionException(sqle);
+    } finally {
+      resetAutoCommit(con, autoCommit);
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
+
   @Override
   public void updateMessageState(String messageId, String deviceId, MessageEntity.MessageState state) throws
       DbInteractionException {
@@ -193,6 +319,7 @@ public class MessageDAOImpl implements MessageDAO {
       pstmt.setString(2, messageId);
       pstmt.setString(3, deviceId);
       pstmt.executeUpdate();
+      MessageStateCache.getInstance().updateState(messageId, deviceId, state, null);
       pstmt.close();
       con.close();
     } catch (SQLException sqle) {
@@ -218,6 +345,8 @@ public class MessageDAOImpl implements MessageDAO {
       pstmt.executeUpdate();
       pstmt.close();
       con.close();
+      MessageStateCache.getInstance().updateState(messageId, deviceId, MessageEntity.MessageState.WAKEUP_SENT,
+          EnumSet.of(MessageEntity.MessageState.WAKEUP_REQUIRED));
     } catch (SQLException e) {
       LOGGER.warn("SQL Exception in wakeupSent", e);
       throw new DbInteractionException(e);
@@ -227,6 +356,164 @@ public class MessageDAOImpl implements MessageDAO {
 
   }
 
+  @Override
+  public void wakeupSent(List<MessageEntity> messages) throws DbInteractionException {
+    if (messages == null || messages.isEmpty()) {
+      return;
+    }
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(ME_UPDATE_MARK_AS_WAKEUP_SENT);
+      for (MessageEntity message : messages) {
+        pstmt.setString(1, MessageEntity.MessageState.WAKEUP_SENT.name());
+        pstmt.setString(2, message.getMessageId());
+        pstmt.setString(3, message.getDeviceId());
+        pstmt.setString(4, MessageEntity.MessageState.WAKEUP_REQUIRED.name());
+        pstmt.addBatch();
+      }
+      pstmt.executeBatch();
+      pstmt.close();
+      con.close();
+      MessageStateCache.getInstance().updateState(messages, MessageEntity.MessageState.WAKEUP_SENT,
+          EnumSet.of(MessageEntity.MessageState.WAKEUP_REQUIRED));
+    } catch (SQLException e) {
+      LOGGER.warn("wakeupSent : SQL Exception in batch update of {} message records", messages.size(), e);
+      throw new DbInteractionException(e);
+    } finally {
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
+
+  @Override
+  public int messagesTimedOut(List<MessageEntity> messages) throws DbInteractionException {
+    if (messages == null || messages.isEmpty()) {
+      return 0;
+    }
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(ME_UPDATE_MARK_AS_TIMED_OUT);
+      for (MessageEntity message : messages) {
+        pstmt.setString(1, MessageEntity.MessageState.WAKEUP_TIMEDOUT.name());
+        pstmt.setString(2, message.getMessageId());
+        pstmt.setString(3, message.getDeviceId());
+        pstmt.setString(4, MessageEntity.MessageState.WAKEUP_SENT.name());
+        pstmt.addBatch();
+      }
+      int[] counts = pstmt.executeBatch();
+      pstmt.close();
+      con.close();
+      MessageStateCache.getInstance().updateState(messages, MessageEntity.MessageState.WAKEUP_TIMEDOUT,
+          EnumSet.of(MessageEntity.MessageState.WAKEUP_SENT));
+      int total = 0;
+      for (int count : counts) {
+        if (count > 0) {
+          total += count;
+        }
+      }
+      return total;
+    } catch (SQLException e) {
+      LOGGER.warn("messagesTimedOut : SQL Exception in batch update of {} message records", messages.size(), e);
+      throw new DbInteractionException(e);
+    } finally {
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
+
+  @Override
+  public List<WakeupSentMessage> getWakeupSentMessages() throws DbInteractionException {
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    List<WakeupSentMessage> returnList = new ArrayList<WakeupSentMessage>();
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(ME_QUERY_WAKEUP_SENT);
+      pstmt.setString(1, MessageEntity.MessageState.WAKEUP_SENT.name());
+      rs = pstmt.executeQuery();
+      while (rs.next()) {
+        WakeupSentMessage message = new WakeupSentMessage();
+        message.setMessageId(rs.getString(1));
+        message.setDeviceId(rs.getString(2));
+        message.setAppId(rs.getString(3));
+        message.setQueuedAtUTC(rs.getLong(4));
+        message.setLastWakeupSentUTC(rs.getLong(5));
+        message.setWakeupCount(rs.getInt(6));
+        returnList.add(message);
+      }
+      rs.close();
+      pstmt.close();
+      con.close();
+    } catch (SQLException e) {
+      LOGGER.warn("SQL Exception in getWakeupSentMessages", e);
+      throw new DbInteractionException(e);
+    } finally {
+      CloseUtil.close(LOGGER, rs, pstmt, con);
+    }
+    return returnList;
+  }
+
+  @Override
+  public List<MessageEntity> getMessagesInState(MessageEntity.MessageState state, List<MessageEntity> messages) throws DbInteractionException {
+    List<MessageEntity> returnList = new ArrayList<MessageEntity>();
+    if (messages == null || messages.isEmpty()) {
+      return returnList;
+    }
+    Set<String> requested = new HashSet<String>(messages.size());
+    for (MessageEntity message : messages) {
+      requested.add(message.getMessageId() + "|" + message.getDeviceId());
+    }
+    List<String> messageIds = new ArrayList<String>(new LinkedHashSet<String>(getMessageIds(messages)));
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    try {
+      con = provider.getConnection();
+      for (int start = 0; start < messageIds.size(); start += IN_CLAUSE_CHUNK_SIZE) {
+        List<String> chunk = messageIds.subList(start, Math.min(start + IN_CLAUSE_CHUNK_SIZE, messageIds.size()));
+        pstmt = con.prepareStatement(String.format(ME_QUERY_IN_STATE, SqlUtil.getQs(chunk.size())));
+        pstmt.setString(1, state.name());
+        int index = 2;
+        for (String messageId : chunk) {
+          pstmt.setString(index++, messageId);
+        }
+        rs = pstmt.executeQuery();
+        while (rs.next()) {
+          String messageId = rs.getString(1);
+          String deviceId = rs.getString(2);
+          if (requested.contains(messageId + "|" + deviceId)) {
+            MessageEntity entity = new MessageEntity();
+            entity.setMessageId(messageId);
+            entity.setDeviceId(deviceId);
+            entity.setAppId(rs.getString(3));
+            entity.setState(state);
+            returnList.add(entity);
+          }
+        }
+        rs.close();
+        pstmt.close();
+      }
+      con.close();
+    } catch (SQLException e) {
+      LOGGER.warn("SQL Exception in getMessagesInState", e);
+      throw new DbInteractionException(e);
+    } finally {
+      CloseUtil.close(LOGGER, rs, pstmt, con);
+    }
+    return returnList;
+  }
+
+  private static List<String> getMessageIds(List<MessageEntity> messages) {
+    List<String> messageIds = new ArrayList<String>(messages.size());
+    for (MessageEntity message : messages) {
+      messageIds.add(message.getMessageId());
+    }
+    return messageIds;
+  }
+
   @Override
   public MessageEntity get(String messageId, String deviceId) throws DbInteractionException {
     Connection con = null;
@@ -269,6 +556,8 @@ public class MessageDAOImpl implements MessageDAO {
       int count = pstmt.executeUpdate();
       pstmt.close();
       con.close();
+      MessageStateCache.getInstance().updateState(messageId, deviceId, MessageEntity.MessageState.DELIVERED,
+          MessageStateCache.except(MessageEntity.MessageState.RECEIVED));
       return count;
     } catch (SQLException e) {
       LOGGER.warn("SQL Exception in messageDelivered", e);
@@ -278,9 +567,126 @@ public class MessageDAOImpl implements MessageDAO {
     }
   }
 
+  @Override
+  public int messagesDelivered(String appId, String deviceId, List<String> messageIds) throws DbInteractionException {
+    if (messageIds == null || messageIds.isEmpty()) {
+      return 0;
+    }
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    boolean autoCommit = true;
+    try {
+      con = provider.getConnection();
+      autoCommit = con.getAutoCommit();
+      con.setAutoCommit(false);
+      pstmt = con.prepareStatement(ME_UPDATE_MARK_AS_DELIVERED);
+      for (String messageId : messageIds) {
+        pstmt.setString(1, MessageEntity.MessageState.DELIVERED.name());
+        pstmt.setString(2, messageId);
+        pstmt.setString(3, deviceId);
+        pstmt.setString(4, appId);
+        pstmt.setString(5, MessageEntity.MessageState.RECEIVED.name());
+        pstmt.addBatch();
+      }
+      LOGGER.trace("messagesDelivered : appId={}, deviceId={}, count={}", new Object[]{appId, deviceId, messageIds.size()});
+      int[] counts = pstmt.executeBatch();
+      con.commit();
+      int count = 0;
+      for (int c : counts) {
+        if (c > 0) {
+          count += c;
+        } else if (c == Statement.SUCCESS_NO_INFO) {
+          // the driver executed the update but doesn't report the row count
+          count++;
+        }
+      }
+      MessageStateCache cache = MessageStateCache.getInstance();
+      for (String messageId : messageIds) {
+        cache.updateState(messageId, deviceId, MessageEntity.MessageState.DELIVERED,
+            MessageStateCache.except(MessageEntity.MessageState.RECEIVED));
+      }
+      return count;
+    } catch (SQLException e) {
+      LOGGER.warn("messagesDelivered : SQL Exception in batch update of {} message records", messageIds.size(), e);
+      rollback(con);
+      throw new DbInteractionException(e);
+    } finally {
+      resetAutoCommit(con, autoCommit);
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
+
   @Override
   public int purgeDeliveredMessages(Date start, Date end) throws DbInteractionException {
-    return 0;
+    List<MessageEntity.MessageState> states = Arrays.asList(MessageEntity.MessageState.DELIVERED,
+        MessageEntity.MessageState.RECEIVED);
+    long startUTC = start.getTime() / 1000L;
+    long endUTC = end.getTime() / 1000L;
+    int total = 0;
+    int count;
+    do {
+      count = purgeMessages(states, startUTC, endUTC, PURGE_CHUNK_SIZE);
+      total += count;
+    } while (count == PURGE_CHUNK_SIZE);
+    return total;
+  }
+
+  @Override
+  public int purgeMessages(List<MessageEntity.MessageState> states, long olderThanUTC, int maxCount) throws DbInteractionException {
+    return purgeMessages(states, 0L, olderThanUTC, maxCount);
+  }
+
+  private int purgeMessages(List<MessageEntity.MessageState> states, long startUTC, long endUTC, int maxCount) {
+    if (states == null || states.isEmpty()) {
+      return 0;
+    }
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(String.format(ME_PURGE_BY_STATE, SqlUtil.getQs(states.size())));
+      int index = 1;
+      for (MessageEntity.MessageState state : states) {
+        pstmt.setString(index++, state.name());
+      }
+      pstmt.setLong(index++, startUTC);
+      pstmt.setLong(index++, endUTC);
+      pstmt.setInt(index, maxCount);
+      int count = pstmt.executeUpdate();
+      pstmt.close();
+      con.close();
+      LOGGER.trace("purgeMessages : states={}, endUTC={}, count={}", new Object[]{states, endUTC, count});
+      return count;
+    } catch (SQLException e) {
+      LOGGER.warn("SQL Exception in purgeMessages", e);
+      throw new DbInteractionException(e);
+    } finally {
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
+
+  @Override
+  public int purgeReceipts(long olderThanUTC, int maxCount) throws DbInteractionException {
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(ME_PURGE_RECEIPTS);
+      pstmt.setString(1, MessageEntity.MessageState.DELIVERY_ATTEMPTED.name());
+      pstmt.setString(2, MessageEntity.MessageType.RECEIPT.name());
+      pstmt.setLong(3, olderThanUTC);
+      pstmt.setInt(4, maxCount);
+      int count = pstmt.executeUpdate();
+      pstmt.close();
+      con.close();
+      LOGGER.trace("purgeReceipts : olderThanUTC={}, count={}", olderThanUTC, count);
+      return count;
+    } catch (SQLException e) {
+      LOGGER.warn("SQL Exception in purgeReceipts", e);
+      throw new DbInteractionException(e);
+    } finally {
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
   }
 
   @Override
@@ -340,6 +746,48 @@ public class MessageDAOImpl implements MessageDAO {
     return returnList;
   }
 
+  @Override
+  public Map<String, List<MessageEntity>> getMessages(String appId, List<String> messageIds) {
+    Map<String, List<MessageEntity>> returnMap = new HashMap<String, List<MessageEntity>>(messageIds.size());
+    if (messageIds.isEmpty()) {
+      return returnMap;
+    }
+    List<String> uniqueIds = new ArrayList<String>(new LinkedHashSet<String>(messageIds));
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    try {
+      con = provider.getConnection();
+      for (int start = 0; start < uniqueIds.size(); start += IN_CLAUSE_CHUNK_SIZE) {
+        List<String> chunk = uniqueIds.subList(start, Math.min(start + IN_CLAUSE_CHUNK_SIZE, uniqueIds.size()));
+        pstmt = con.prepareStatement(String.format(ME_QUERY_BY_MESSAGE_IDS_AND_APP_ID, SqlUtil.getQs(chunk.size())));
+        pstmt.setString(1, appId);
+        int index = 2;
+        for (String messageId : chunk) {
+          pstmt.setString(index++, messageId);
+        }
+        rs = pstmt.executeQuery();
+        while (rs.next()) {
+          MessageEntity pae = new MessageEntity.MessageEntityBuilder().build(rs);
+          List<MessageEntity> list = returnMap.get(pae.getMessageId());
+          if (list == null) {
+            list = new ArrayList<MessageEntity>();
+            returnMap.put(pae.getMessageId(), list);
+          }
+          list.add(pae);
+        }
+        rs.close();
+        pstmt.close();
+      }
+    } catch (SQLException e) {
+      LOGGER.error(e.getMessage(), e);
+      throw new DbInteractionException(e);
+    } finally {
+      CloseUtil.close(LOGGER, rs, pstmt, con);
+    }
+    return returnMap;
+  }
+
   @Override
   public SearchResult<MessageEntity> searchMessages(String appId, MessageSearchOption searchOption, String searchValue, MessageSortOption sortOption, PaginationInfo info) {
     ValueHolder holder = new ValueHolder();
@@ -458,9 +906,11 @@ public class MessageDAOImpl implements MessageDAO {
       pstmt = con.prepareStatement(ME_QUERY_FOR_TIMEOUT);
       pstmt.setString(1, MessageEntity.MessageState.WAKEUP_TIMEDOUT.name());
       pstmt.setString(2, MessageEntity.MessageState.WAKEUP_SENT.name());
-      pstmt.setLong(3, utcTime);
-      pstmt.setInt(4, timeoutMinutes * 60);
+      pstmt.setLong(3, utcTime - timeoutMinutes * 60L);
       int rowCount = pstmt.executeUpdate();
+      if (rowCount > 0) {
+        MessageStateCache.getInstance().clear();
+      }
       pstmt.close();
       con.close();
       return rowCount;
@@ -644,6 +1094,9 @@ public class MessageDAOImpl implements MessageDAO {
       pstmt.setString(3, type.name());
       pstmt.setString(4, token);
       int count = pstmt.executeUpdate();
+      if (count > 0) {
+        MessageStateCache.getInstance().clear();
+      }
       pstmt.close();
       con.close();
       return count;
@@ -668,6 +1121,9 @@ public class MessageDAOImpl implements MessageDAO {
       pstmt.setString(3, messageId);
       pstmt.setString(4, appId);
       int count = pstmt.executeUpdate();
+      if (count > 0) {
+        MessageStateCache.getInstance().invalidate(messageId);
+      }
       pstmt.close();
       con.close();
       return count;
@@ -0,0 +1,254 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Short lived cache of the mmxMessage rows of a message, used for answering message state queries.
+ * Messages are cached by messageId including the messageIds that don't exist. State changes done
+ * through MessageDAOImpl on this node update the cached rows in place and inserts invalidate the
+ * message, so repeated polls for the same messages are served from memory. State changes done by
+ * other cluster nodes are picked up when the entry expires after
+ * {@link MMXConfigKeys#MESSAGE_STATE_CACHE_TTL_SECONDS}.
+ * <p>
+ * Every change bumps a generation counter of the message before the cache is touched. A load only
+ * keeps its result in the cache if the generation of the message didn't change while it was
+ * loading, so a load that races an insert or a state change can't cache the rows it read before
+ * the change.
+ * </p>
+ */
+public class MessageStateCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MessageStateCache.class);
+
+  private static final int GENERATION_STRIPES = 64;
+
+  private final Cache<String, CachedMessage> messageCache;
+  private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+  private MessageStateCache() {
+    MMXConfiguration configuration = MMXConfiguration.getConfiguration();
+    int maxSize = configuration.getInt(MMXConfigKeys.MESSAGE_STATE_CACHE_MAX_SIZE,
+        MMXServerConstants.DEFAULT_MESSAGE_STATE_CACHE_MAX_SIZE);
+    int ttlSeconds = configuration.getInt(MMXConfigKeys.MESSAGE_STATE_CACHE_TTL_SECONDS,
+        MMXServerConstants.DEFAULT_MESSAGE_STATE_CACHE_TTL_SECONDS);
+    LOGGER.info("Creating message state cache with maxSize:{} ttlSeconds:{}", maxSize, ttlSeconds);
+    messageCache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Cache holder
+   */
+  private static class CacheHolder {
+    private static final MessageStateCache INSTANCE = new MessageStateCache();
+  }
+
+  /**
+   * Get the singleton instance of the message state cache.
+   * @return
+   */
+  public static MessageStateCache getInstance() {
+    return CacheHolder.INSTANCE;
+  }
+
+  /**
+   * Get the rows of the supplied messages. Messages that aren't cached are loaded using
+   * {@link MessageDAO#getMessages(String, List)}.
+   * @param appId
+   * @param messageIds
+   * @param messageDAO DAO used for loading the messages that aren't in the cache
+   * @return map of messageId to its rows in the order of the supplied messageIds; the list
+   * is empty for messages that don't exist. The lists must not be modified.
+   */
+  public Map<String, List<MessageEntity>> getMessages(String appId, List<String> messageIds, MessageDAO messageDAO) {
+    Map<String, List<MessageEntity>> result = new LinkedHashMap<String, List<MessageEntity>>(messageIds.size());
+    List<String> missing = new ArrayList<String>();
+    for (String messageId : messageIds) {
+      CachedMessage cached = messageCache.getIfPresent(messageId);
+      if (cached != null && cached.appId.equals(appId)) {
+        result.put(messageId, cached.rows);
+      } else {
+        result.put(messageId, null);
+        missing.add(messageId);
+      }
+    }
+    if (!missing.isEmpty()) {
+      LOGGER.trace("getMessages : loading appId={}, count={}", appId, missing.size());
+      long[] loadGenerations = new long[missing.size()];
+      for (int i = 0; i < loadGenerations.length; i++) {
+        loadGenerations[i] = generations.get(stripe(missing.get(i)));
+      }
+      Map<String, List<MessageEntity>> loaded = messageDAO.getMessages(appId, missing);
+      for (int i = 0; i < loadGenerations.length; i++) {
+        String messageId = missing.get(i);
+        List<MessageEntity> rows = loaded.get(messageId);
+        rows = rows == null ? Collections.<MessageEntity>emptyList() : Collections.unmodifiableList(rows);
+        cacheLoaded(messageId, new CachedMessage(appId, rows), loadGenerations[i]);
+        result.put(messageId, rows);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Cache the loaded rows unless the message has changed since the load started. The generation is
+   * checked again after the put so that a change that happens in between either sees the entry or
+   * removes it.
+   */
+  private void cacheLoaded(String messageId, CachedMessage message, long loadGeneration) {
+    int stripe = stripe(messageId);
+    if (generations.get(stripe) != loadGeneration) {
+      LOGGER.trace("cacheLoaded : messageId={} changed while loading, not caching", messageId);
+      return;
+    }
+    messageCache.put(messageId, message);
+    if (generations.get(stripe) != loadGeneration) {
+      messageCache.asMap().remove(messageId, message);
+    }
+  }
+
+  /**
+   * Set the state of the cached row for the message and device.
+   * @param messageId
+   * @param deviceId
+   * @param state new state
+   * @param fromStates the row is only updated if it is in one of these states; null for any state
+   */
+  void updateState(String messageId, String deviceId, MessageEntity.MessageState state,
+                   Set<MessageEntity.MessageState> fromStates) {
+    if (messageId == null) {
+      return;
+    }
+    changed(messageId);
+    CachedMessage cached = messageCache.getIfPresent(messageId);
+    if (cached == null) {
+      return;
+    }
+    List<MessageEntity> rows = new ArrayList<MessageEntity>(cached.rows.size());
+    boolean changed = false;
+    for (MessageEntity row : cached.rows) {
+      if (row.getDeviceId().equals(deviceId) && row.getState() != state &&
+          (fromStates == null || fromStates.contains(row.getState()))) {
+        row = copy(row);
+        row.setState(state);
+        changed = true;
+      }
+      rows.add(row);
+    }
+    if (changed) {
+      LOGGER.trace("updateState : messageId={}, deviceId={}, state={}", new Object[]{messageId, deviceId, state});
+      // entries that have been replaced or invalidated in the meantime are left alone
+      messageCache.asMap().replace(messageId, cached, new CachedMessage(cached.appId, Collections.unmodifiableList(rows)));
+    }
+  }
+
+  void updateState(List<MessageEntity> messages, MessageEntity.MessageState state,
+                   Set<MessageEntity.MessageState> fromStates) {
+    for (MessageEntity message : messages) {
+      updateState(message.getMessageId(), message.getDeviceId(), state, fromStates);
+    }
+  }
+
+  /**
+   * Drop the cached rows of a message.
+   * @param messageId
+   */
+  public void invalidate(String messageId) {
+    if (messageId != null) {
+      changed(messageId);
+      messageCache.invalidate(messageId);
+    }
+  }
+
+  /**
+   * Drop all cached entries on this node.
+   */
+  public void clear() {
+    for (int i = 0; i < GENERATION_STRIPES; i++) {
+      generations.incrementAndGet(i);
+    }
+    messageCache.invalidateAll();
+  }
+
+  public long getHitCount() {
+    return messageCache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return messageCache.stats().missCount();
+  }
+
+  public long getSize() {
+    return messageCache.size();
+  }
+
+  private void changed(String messageId) {
+    generations.incrementAndGet(stripe(messageId));
+  }
+
+  private static int stripe(String messageId) {
+    return (messageId.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+  }
+
+  static Set<MessageEntity.MessageState> except(MessageEntity.MessageState state) {
+    return EnumSet.complementOf(EnumSet.of(state));
+  }
+
+  private static MessageEntity copy(MessageEntity row) {
+    MessageEntity copy = new MessageEntity();
+    copy.setId(row.getId());
+    copy.setMessageId(row.getMessageId());
+    copy.setDeviceId(row.getDeviceId());
+    copy.setAppId(row.getAppId());
+    copy.setFrom(row.getFrom());
+    copy.setTo(row.getTo());
+    copy.setState(row.getState());
+    copy.setType(row.getType());
+    copy.setSourceMessageId(row.getSourceMessageId());
+    copy.setQueuedAtUTC(row.getQueuedAtUTC());
+    copy.setDeliveryAckAtUTC(row.getDeliveryAckAtUTC());
+    return copy;
+  }
+
+  private static class CachedMessage {
+    private final String appId;
+    private final List<MessageEntity> rows;
+
+    private CachedMessage(String appId, List<MessageEntity> rows) {
+      this.appId = appId;
+      this.rows = rows;
+    }
+  }
+}
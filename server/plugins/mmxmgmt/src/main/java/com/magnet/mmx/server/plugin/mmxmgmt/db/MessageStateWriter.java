@@ -0,0 +1,490 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXExecutors;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue for the mmxMessage records written from the packet processing path.
+ * Inserts and state updates (RECEIVED, DELIVERED, WAKEUP_SENT) are queued and written by
+ * background writer threads using JDBC batches. A batch is flushed when it reaches the configured batch size or when
+ * the configured linger time has elapsed.
+ *
+ * Records are assigned to a writer lane using the messageId. Each lane is drained by a
+ * single thread so that all the writes for a messageId are applied in the order in which
+ * they were queued. State updates must go through the writer as well, otherwise an update can
+ * run before the queued insert of the same message and match no rows. Lane queues are bounded; when a lane is full the caller blocks for up to
+ * the configured offer timeout after which a DbInteractionException is thrown.
+ */
+public class MessageStateWriter {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MessageStateWriter.class);
+  private static final String POOL_NAME = "MessageStateWriter";
+
+  private final MessageDAO messageDAO;
+  private final boolean async;
+  private final int batchSize;
+  private final long lingerMillis;
+  private final long offerTimeoutMillis;
+  private final List<BlockingQueue<WriteOp>> lanes;
+  private final ExecutorService executor;
+  private volatile boolean running;
+
+  private final AtomicLong writtenCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
+  private MessageStateWriter() {
+    this(new MessageDAOImpl(new OpenFireDBConnectionProvider()), MMXConfiguration.getConfiguration());
+  }
+
+  MessageStateWriter(MessageDAO messageDAO, MMXConfiguration configuration) {
+    this(messageDAO,
+        configuration.getBoolean(MMXConfigKeys.MESSAGE_WRITER_ASYNC_ENABLED, MMXServerConstants.DEFAULT_MESSAGE_WRITER_ASYNC_ENABLED),
+        configuration.getInt(MMXConfigKeys.MESSAGE_WRITER_LANES, MMXServerConstants.DEFAULT_MESSAGE_WRITER_LANES),
+        configuration.getInt(MMXConfigKeys.MESSAGE_WRITER_BATCH_SIZE, MMXServerConstants.DEFAULT_MESSAGE_WRITER_BATCH_SIZE),
+        configuration.getLong(MMXConfigKeys.MESSAGE_WRITER_LINGER_MILLIS, MMXServerConstants.DEFAULT_MESSAGE_WRITER_LINGER_MILLIS),
+        configuration.getInt(MMXConfigKeys.MESSAGE_WRITER_QUEUE_CAPACITY, MMXServerConstants.DEFAULT_MESSAGE_WRITER_QUEUE_CAPACITY),
+        configuration.getLong(MMXConfigKeys.MESSAGE_WRITER_OFFER_TIMEOUT_MILLIS, MMXServerConstants.DEFAULT_MESSAGE_WRITER_OFFER_TIMEOUT_MILLIS));
+  }
+
+  public MessageStateWriter(MessageDAO messageDAO, boolean async, int laneCount, int batchSize, long lingerMillis,
+                     int queueCapacity, long offerTimeoutMillis) {
+    this.messageDAO = messageDAO;
+    this.async = async && laneCount > 0;
+    this.batchSize = Math.max(1, batchSize);
+    this.lingerMillis = Math.max(0L, lingerMillis);
+    this.offerTimeoutMillis = Math.max(0L, offerTimeoutMillis);
+    this.lanes = new ArrayList<BlockingQueue<WriteOp>>(Math.max(0, laneCount));
+    if (this.async) {
+      LOGGER.info("Creating message state writer with lanes:{} batchSize:{} lingerMillis:{} queueCapacity:{}",
+          new Object[]{laneCount, this.batchSize, this.lingerMillis, queueCapacity});
+      executor = MMXExecutors.getOrCreate(POOL_NAME, laneCount);
+      running = true;
+      for (int i = 0; i < laneCount; i++) {
+        BlockingQueue<WriteOp> queue = new LinkedBlockingQueue<WriteOp>(Math.max(1, queueCapacity));
+        lanes.add(queue);
+        executor.execute(new LaneWriter(queue));
+      }
+    } else {
+      LOGGER.info("Message state writer is using synchronous writes");
+      executor = null;
+      running = false;
+    }
+  }
+
+  /**
+   * Holder for the singleton
+   */
+  private static class WriterHolder {
+    private static final MessageStateWriter INSTANCE = new MessageStateWriter();
+  }
+
+  /**
+   * Get the singleton instance of the writer.
+   * @return
+   */
+  public static MessageStateWriter getInstance() {
+    return WriterHolder.INSTANCE;
+  }
+
+  /**
+   * Queue the insert of a message entity. The entity is copied before it is queued, hence
+   * the caller is free to reuse the entity after this method returns.
+   * @param entity
+   * @throws DbInteractionException if the record couldn't be queued or written.
+   */
+  public void persist(MessageEntity entity) throws DbInteractionException {
+    MessageEntity copy = new MessageEntity();
+    copy.setMessageId(entity.getMessageId());
+    copy.setFrom(entity.getFrom());
+    copy.setTo(entity.getTo());
+    copy.setState(entity.getState());
+    copy.setAppId(entity.getAppId());
+    copy.setDeviceId(entity.getDeviceId());
+    copy.setType(entity.getType());
+    copy.setSourceMessageId(entity.getSourceMessageId());
+    copy.setQueuedAtUTC(Long.valueOf(new Date().getTime() / 1000L));
+    submit(new WriteOp(WriteOp.Kind.INSERT, copy));
+  }
+
+  /**
+   * Queue marking the message identified by messageId and deviceId as RECEIVED.
+   * @param messageId
+   * @param receivedByDeviceId
+   * @throws DbInteractionException if the update couldn't be queued or written.
+   */
+  public void messageReceived(String messageId, String receivedByDeviceId) throws DbInteractionException {
+    MessageEntity receipt = new MessageEntity();
+    receipt.setMessageId(messageId);
+    receipt.setDeviceId(receivedByDeviceId);
+    receipt.setDeliveryAckAtUTC(Long.valueOf(new Date().getTime() / 1000L));
+    submit(new WriteOp(WriteOp.Kind.RECEIVED, receipt));
+  }
+
+  /**
+   * Queue marking the message identified by messageId and deviceId as DELIVERED.
+   * @param appId
+   * @param deviceId
+   * @param messageId
+   * @throws DbInteractionException if the update couldn't be queued or written.
+   */
+  public void messageDelivered(String appId, String deviceId, String messageId) throws DbInteractionException {
+    submit(new WriteOp(WriteOp.Kind.DELIVERED, delivery(appId, deviceId, messageId)));
+  }
+
+  /**
+   * Queue marking the messages acknowledged by a device as DELIVERED.
+   * @param appId
+   * @param deviceId
+   * @param messageIds
+   * @throws DbInteractionException if the updates couldn't be queued or written.
+   */
+  public void messagesDelivered(String appId, String deviceId, List<String> messageIds) throws DbInteractionException {
+    List<WriteOp> ops = new ArrayList<WriteOp>(messageIds.size());
+    for (String messageId : messageIds) {
+      ops.add(new WriteOp(WriteOp.Kind.DELIVERED, delivery(appId, deviceId, messageId)));
+    }
+    submitAll(ops);
+  }
+
+  /**
+   * Queue changing the state of the messages from WAKEUP_REQUIRED to WAKEUP_SENT.
+   * @param messages entities with the messageId and deviceId. These must not be modified
+   *                 after this method returns.
+   * @throws DbInteractionException if the updates couldn't be queued or written.
+   */
+  public void wakeupSent(List<MessageEntity> messages) throws DbInteractionException {
+    List<WriteOp> ops = new ArrayList<WriteOp>(messages.size());
+    for (MessageEntity message : messages) {
+      ops.add(new WriteOp(WriteOp.Kind.WAKEUP_SENT, message));
+    }
+    submitAll(ops);
+  }
+
+  /**
+   * Queue setting the state of the message identified by messageId and deviceId.
+   * @param messageId
+   * @param deviceId
+   * @param state
+   * @throws DbInteractionException if the update couldn't be queued or written.
+   */
+  public void updateMessageState(String messageId, String deviceId, MessageEntity.MessageState state)
+      throws DbInteractionException {
+    MessageEntity update = new MessageEntity();
+    update.setMessageId(messageId);
+    update.setDeviceId(deviceId);
+    update.setState(state);
+    submit(new WriteOp(WriteOp.Kind.STATE, update));
+  }
+
+  private static MessageEntity delivery(String appId, String deviceId, String messageId) {
+    MessageEntity delivery = new MessageEntity();
+    delivery.setAppId(appId);
+    delivery.setDeviceId(deviceId);
+    delivery.setMessageId(messageId);
+    return delivery;
+  }
+
+  /**
+   * Stop accepting new records, write all the queued records and stop the writer threads.
+   * Records submitted after shutdown are written synchronously.
+   * @param timeout maximum time to wait for the queued records to be written.
+   * @param unit
+   */
+  public void shutdown(long timeout, TimeUnit unit) {
+    if (!running) {
+      return;
+    }
+    LOGGER.info("shutdown : draining {} queued message records", getPendingCount());
+    running = false;
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(timeout, unit)) {
+        LOGGER.warn("shutdown : timed out waiting for message writer, {} records not written", getPendingCount());
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      LOGGER.warn("shutdown : interrupted while waiting for message writer", e);
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    MMXExecutors.remove(POOL_NAME);
+    LOGGER.info("shutdown : message writer stopped written={} failed={}", writtenCount.get(), failedCount.get());
+  }
+
+  /**
+   * Number of records queued and not yet written.
+   * @return
+   */
+  public int getPendingCount() {
+    int count = 0;
+    for (BlockingQueue<WriteOp> lane : lanes) {
+      count += lane.size();
+    }
+    return count;
+  }
+
+  public long getWrittenCount() {
+    return writtenCount.get();
+  }
+
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  private void submitAll(List<WriteOp> ops) {
+    if (ops.isEmpty()) {
+      return;
+    }
+    if (!running) {
+      writeBatch(ops, true);
+      return;
+    }
+    for (WriteOp op : ops) {
+      submit(op);
+    }
+  }
+
+  private void submit(WriteOp op) {
+    if (!running) {
+      List<WriteOp> single = new ArrayList<WriteOp>(1);
+      single.add(op);
+      writeSingly(single, true);
+      return;
+    }
+    String messageId = op.entity.getMessageId();
+    int hash = messageId != null ? messageId.hashCode() : 0;
+    BlockingQueue<WriteOp> lane = lanes.get((hash & Integer.MAX_VALUE) % lanes.size());
+    boolean queued;
+    try {
+      queued = lane.offer(op, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DbInteractionException("Interrupted while queueing message record for messageId:" + messageId, e);
+    }
+    if (!queued) {
+      LOGGER.error("submit : message write queue is full, rejecting {} for messageId={}", op.kind, messageId);
+      throw new DbInteractionException("Message write queue is full");
+    }
+    if (!running && lane.remove(op)) {
+      // the writer was shutdown while we were queueing, the lane may not be drained anymore.
+      List<WriteOp> single = new ArrayList<WriteOp>(1);
+      single.add(op);
+      writeSingly(single, true);
+    }
+  }
+
+  /**
+   * Write the batch grouping consecutive operations of the same kind into a single JDBC batch.
+   */
+  void flush(List<WriteOp> batch) {
+    int start = 0;
+    int size = batch.size();
+    for (int i = 1; i <= size; i++) {
+      if (i == size || batch.get(i).kind != batch.get(start).kind) {
+        writeBatch(batch.subList(start, i), false);
+        start = i;
+      }
+    }
+  }
+
+  private void writeBatch(List<WriteOp> ops, boolean rethrow) {
+    WriteOp.Kind kind = ops.get(0).kind;
+    if (kind == WriteOp.Kind.STATE) {
+      // no batch update for arbitrary state changes
+      writeSingly(ops, rethrow);
+      return;
+    }
+    List<MessageEntity> entities = new ArrayList<MessageEntity>(ops.size());
+    for (WriteOp op : ops) {
+      entities.add(op.entity);
+    }
+    try {
+      switch (kind) {
+        case INSERT:
+          messageDAO.persist(entities);
+          break;
+        case RECEIVED:
+          messageDAO.messagesReceived(entities);
+          break;
+        case DELIVERED:
+          writeDelivered(entities);
+          break;
+        case WAKEUP_SENT:
+          messageDAO.wakeupSent(entities);
+          break;
+      }
+      writtenCount.addAndGet(ops.size());
+    } catch (DbInteractionException e) {
+      LOGGER.warn("writeBatch : batch of {} {} records failed, retrying individually", new Object[]{ops.size(), kind, e});
+      writeSingly(ops, rethrow);
+    }
+  }
+
+  /**
+   * Mark the messages as delivered using one batch update per appId and deviceId.
+   */
+  private void writeDelivered(List<MessageEntity> deliveries) {
+    Map<String, List<String>> grouped = new LinkedHashMap<String, List<String>>();
+    for (MessageEntity delivery : deliveries) {
+      String key = delivery.getAppId() + "/" + delivery.getDeviceId();
+      List<String> messageIds = grouped.get(key);
+      if (messageIds == null) {
+        messageIds = new ArrayList<String>();
+        grouped.put(key, messageIds);
+      }
+      messageIds.add(delivery.getMessageId());
+    }
+    for (Map.Entry<String, List<String>> entry : grouped.entrySet()) {
+      List<String> messageIds = entry.getValue();
+      int slash = entry.getKey().indexOf('/');
+      String appId = entry.getKey().substring(0, slash);
+      String deviceId = entry.getKey().substring(slash + 1);
+      int count = messageDAO.messagesDelivered(appId, deviceId, messageIds);
+      if (count < messageIds.size()) {
+        LOGGER.warn("writeDelivered : only {} of {} messages updated for appId:{} deviceId:{}",
+            new Object[]{count, messageIds.size(), appId, deviceId});
+      }
+    }
+  }
+
+  private void writeSingly(List<WriteOp> ops, boolean rethrow) {
+    for (WriteOp op : ops) {
+      MessageEntity entity = op.entity;
+      try {
+        switch (op.kind) {
+          case INSERT:
+            messageDAO.persist(entity);
+            break;
+          case RECEIVED:
+            messageDAO.messageReceived(entity.getMessageId(), entity.getDeviceId());
+            break;
+          case DELIVERED:
+            if (messageDAO.messageDelivered(entity.getAppId(), entity.getDeviceId(), entity.getMessageId()) == 0) {
+              LOGGER.warn("writeSingly : no message updated for appId:{} deviceId:{} messageId:{}",
+                  new Object[]{entity.getAppId(), entity.getDeviceId(), entity.getMessageId()});
+            }
+            break;
+          case WAKEUP_SENT:
+            messageDAO.wakeupSent(entity.getMessageId(), entity.getDeviceId());
+            break;
+          case STATE:
+            messageDAO.updateMessageState(entity.getMessageId(), entity.getDeviceId(), entity.getState());
+            break;
+        }
+        writtenCount.incrementAndGet();
+      } catch (DbInteractionException e) {
+        failedCount.incrementAndGet();
+        if (rethrow) {
+          throw e;
+        }
+        LOGGER.error("writeSingly : failed to write {} for messageId={}, deviceId={}",
+            new Object[]{op.kind, entity.getMessageId(), entity.getDeviceId(), e});
+      }
+    }
+  }
+
+  /**
+   * Drains a single lane.
+   */
+  private class LaneWriter implements Runnable {
+    private final BlockingQueue<WriteOp> queue;
+
+    private LaneWriter(BlockingQueue<WriteOp> queue) {
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      List<WriteOp> batch = new ArrayList<WriteOp>(batchSize);
+      while (running || !queue.isEmpty()) {
+        try {
+          WriteOp first = queue.poll(Math.max(lingerMillis, 10L), TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+          batch.add(first);
+          queue.drainTo(batch, batchSize - batch.size());
+          long deadline = System.currentTimeMillis() + lingerMillis;
+          while (running && batch.size() < batchSize) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+              break;
+            }
+            WriteOp next = queue.poll(wait, TimeUnit.MILLISECONDS);
+            if (next == null) {
+              break;
+            }
+            batch.add(next);
+            queue.drainTo(batch, batchSize - batch.size());
+          }
+        } catch (InterruptedException e) {
+          LOGGER.warn("run : message writer interrupted with {} queued records", queue.size());
+          queue.drainTo(batch);
+          flushQuietly(batch);
+          Thread.currentThread().interrupt();
+          return;
+        }
+        flushQuietly(batch);
+      }
+    }
+
+    private void flushQuietly(List<WriteOp> batch) {
+      try {
+        flush(batch);
+      } catch (Throwable t) {
+        LOGGER.error("flushQuietly : unexpected error writing {} message records", batch.size(), t);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Queued write.
+   */
+  static final class WriteOp {
+    enum Kind {
+      INSERT,
+      RECEIVED,
+      DELIVERED,
+      WAKEUP_SENT,
+      STATE
+    }
+
+    private final Kind kind;
+    private final MessageEntity entity;
+
+    WriteOp(Kind kind, MessageEntity entity) {
+      this.kind = kind;
+      this.entity = entity;
+    }
+  }
+}
@@ -65,5 +65,13 @@ public interface PushMessageDAO {
    */
   public SearchResult<PushMessageEntity> getPushMessagesWithPagination(QueryBuilderResult query, PaginationInfo info);
 
+  /**
+   * Delete at most maxCount push message records that were sent before the supplied time.
+   * @param olderThanUTC time in number of "seconds" since epoch
+   * @param maxCount maximum number of rows deleted by this call
+   * @return count of push message records that were deleted.
+   */
+  public int purgePushMessages(long olderThanUTC, int maxCount);
+
 
 }
@@ -45,6 +45,8 @@ public class PushMessageDAOImpl implements PushMessageDAO {
 
   private static final String UPDATE_BY_ID_SQL = "UPDATE mmxPushMessage SET state = ?, dateAcknowledgedUTC = ? WHERE messageId = ? ";
 
+  private static final String DELETE_OLD_PUSH_MESSAGES = "DELETE FROM mmxPushMessage WHERE dateSentUTC < ? LIMIT ?";
+
   private ConnectionProvider provider;
 
   /**
@@ -253,4 +255,25 @@ public class PushMessageDAOImpl implements PushMessageDAO {
     results.setOffset(info.getSkipSize());
     return results;
   }
+
+  @Override
+  public int purgePushMessages(long olderThanUTC, int maxCount) {
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(DELETE_OLD_PUSH_MESSAGES);
+      pstmt.setLong(1, olderThanUTC);
+      pstmt.setInt(2, maxCount);
+      int deleteCount = pstmt.executeUpdate();
+      pstmt.close();
+      con.close();
+      return deleteCount;
+    } catch (SQLException sqle) {
+      LOGGER.warn("SQL Exception in purging the push message records", sqle);
+      throw new DbInteractionException(sqle);
+    } finally {
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
 }
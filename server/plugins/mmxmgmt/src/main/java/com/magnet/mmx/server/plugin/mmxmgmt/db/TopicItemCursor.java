@@ -0,0 +1,81 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+/**
+ * Position of a published item in the (creationDate, id) order of the ofPubsubItem rows of a node.
+ * A page of items is continued from the cursor of its last item so that every page is a range
+ * scan on the creationDate of the node, however deep into the history it is. The string form is
+ * <code>creationDate:id</code> and is opaque to the clients.
+ */
+public class TopicItemCursor {
+  private static final char SEPARATOR = ':';
+
+  private final String creationDate;
+  private final String itemId;
+
+  /**
+   * @param creationDate creationDate column value of the item
+   * @param itemId
+   */
+  public TopicItemCursor(String creationDate, String itemId) {
+    this.creationDate = creationDate;
+    this.itemId = itemId;
+  }
+
+  public String getCreationDate() {
+    return creationDate;
+  }
+
+  public String getItemId() {
+    return itemId;
+  }
+
+  /**
+   * Parse the string form of a cursor.
+   * @param cursor
+   * @return cursor or null if cursor is null or empty
+   * @throws IllegalArgumentException if the cursor is malformed or its creation date isn't a
+   * number of milliseconds
+   */
+  public static TopicItemCursor parse(String cursor) {
+    if (cursor == null || cursor.isEmpty()) {
+      return null;
+    }
+    // the creation date doesn't contain the separator but the item id can
+    int index = cursor.indexOf(SEPARATOR);
+    if (index <= 0 || index == cursor.length() - 1) {
+      throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+    String creationDate = cursor.substring(0, index);
+    try {
+      if (Long.parseLong(creationDate.trim()) < 0) {
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+    }
+    return new TopicItemCursor(creationDate, cursor.substring(index + 1));
+  }
+
+  public static TopicItemCursor from(TopicItemEntity entity) {
+    return new TopicItemCursor(entity.getCreationDate(), entity.getId());
+  }
+
+  @Override
+  public String toString() {
+    return creationDate + SEPARATOR + itemId;
+  }
+}
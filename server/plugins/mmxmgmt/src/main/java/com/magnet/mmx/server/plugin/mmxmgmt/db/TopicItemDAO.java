@@ -32,5 +32,19 @@ public interface TopicItemDAO {
   public List<TopicItemEntity> getItems(String serviceId, String nodeId, int maxItems,
                                         String since, String until, String order);
 
+  /**
+   * Get a page of items ordered by creationDate and item id.
+   * @param serviceId
+   * @param nodeId
+   * @param maxItems max number of items in the page
+   * @param since lower bound of the creationDate (inclusive) or null
+   * @param until upper bound of the creationDate (inclusive) or null
+   * @param order ASC or DESC
+   * @param after cursor of the last item of the previous page or null for the first page
+   * @return the items
+   */
+  public List<TopicItemEntity> getItems(String serviceId, String nodeId, int maxItems,
+                                        String since, String until, String order, TopicItemCursor after);
+
 
 }
@@ -206,4 +206,60 @@ public class TopicItemDAOImpl implements TopicItemDAO {
     }
     return topicItemEntityList;
   }
+
+  @Override
+  public List<TopicItemEntity> getItems(String serviceId, String nodeId, int maxItems, String since, String until,
+                                        String order, TopicItemCursor after) {
+    boolean descending = "DESC".equalsIgnoreCase(order);
+    String direction = descending ? "DESC" : "ASC";
+    StringBuilder queryBuilder = new StringBuilder("SELECT * FROM ofPubsubItem WHERE serviceID = ? AND nodeID = ? ");
+    if (since != null) {
+      queryBuilder.append("AND creationDate >= ? ");
+    }
+    if (until != null) {
+      queryBuilder.append("AND creationDate <= ? ");
+    }
+    if (after != null) {
+      String op = descending ? "<" : ">";
+      queryBuilder.append("AND (creationDate ").append(op).append(" ? OR (creationDate = ? AND id ").append(op)
+          .append(" ?)) ");
+    }
+    queryBuilder.append("ORDER BY creationDate ").append(direction).append(", id ").append(direction)
+        .append(" LIMIT ").append(Integer.toString(maxItems));
+    Connection conn = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    List<TopicItemEntity> topicItemEntityList = new ArrayList<TopicItemEntity>();
+
+    try {
+      conn = provider.getConnection();
+      pstmt = conn.prepareStatement(queryBuilder.toString());
+      int index = 1;
+      pstmt.setString(index++, serviceId);
+      pstmt.setString(index++, nodeId);
+      if (since != null) {
+        pstmt.setString(index++, since);
+      }
+      if (until != null) {
+        pstmt.setString(index++, until);
+      }
+      if (after != null) {
+        pstmt.setString(index++, after.getCreationDate());
+        pstmt.setString(index++, after.getCreationDate());
+        pstmt.setString(index++, after.getItemId());
+      }
+      LOGGER.trace("getItems : executing statement={}", pstmt);
+      rs = pstmt.executeQuery();
+      while(rs.next()) {
+        TopicItemEntity e = new TopicItemEntity.TopicItemEntityBuilder().build(rs);
+        topicItemEntityList.add(e);
+      }
+    } catch (SQLException e) {
+      LOGGER.error("getItems : caught exception serviceId={}, nodeId={}, maxItems={}, after={}",
+                    new Object[]{serviceId, nodeId, maxItems, after, e});
+    } finally {
+      CloseUtil.close(LOGGER, rs, pstmt, conn);
+    }
+    return topicItemEntityList;
+  }
 }
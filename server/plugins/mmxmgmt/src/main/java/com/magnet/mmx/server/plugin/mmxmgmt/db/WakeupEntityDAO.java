@@ -28,6 +28,12 @@ public interface WakeupEntityDAO {
    */
   public void offer (WakeupEntity entity);
 
+  /**
+   * Add a list of wake up entities to the queue using a single JDBC batch.
+   * @param entities
+   */
+  public void offer (List<WakeupEntity> entities);
+
   /**
    * Get up to maxCount entries from the Wakeup table that have n't be processed (dateSent is not set).
    * @param maxCount
@@ -43,6 +49,12 @@ public interface WakeupEntityDAO {
    */
   public void complete (WakeupEntity entity);
 
+  /**
+   * Mark the given wakeup entities as processed using a single JDBC batch.
+   * @param entities entities with dateSent set
+   */
+  public void complete (List<WakeupEntity> entities);
+
 
   /**
    * Delete all queued unprocessed wakeup records using the supplied information. This
@@ -69,5 +81,13 @@ public interface WakeupEntityDAO {
    */
   public List<WakeupEntity> retrieveOpenOrSentWakeup(String appId, DeviceEntity deviceEntity, int mutePeriod);
 
+  /**
+   * Delete at most maxCount wakeup records that were sent before the supplied time.
+   * @param olderThanUTC time in number of "seconds" since epoch
+   * @param maxCount maximum number of rows deleted by this call
+   * @return count of wakeup records that were deleted.
+   */
+  public int purgeSent(long olderThanUTC, int maxCount);
+
 
 }
@@ -50,6 +50,9 @@ public class WakeupEntityDAOImpl implements WakeupEntityDAO {
       "payload,messageId,dateCreatedUTC, appId FROM mmxWakeupQueue WHERE appId = ? AND deviceId = ? AND " +
       "(? - dateCreatedUTC < ?) ";
 
+  private static final String DELETE_SENT_WAKEUP_RECORDS = "DELETE FROM mmxWakeupQueue " +
+      "     WHERE  dateSentUTC < ? LIMIT ?";
+
 
   private ConnectionProvider provider;
 
@@ -68,14 +71,7 @@ public class WakeupEntityDAOImpl implements WakeupEntityDAO {
     try {
       con = provider.getConnection();
       pstmt = con.prepareStatement(WAKEUP_INSERT, PreparedStatement.RETURN_GENERATED_KEYS);
-      pstmt.setString(1, entity.getDeviceId());
-      pstmt.setString(2, entity.getToken());
-      pstmt.setString(3, entity.getType().name());
-      pstmt.setString(4, entity.getSenderIdentifier());
-      pstmt.setString(5, entity.getPayload());
-      pstmt.setString(6, entity.getMessageId());
-      pstmt.setLong(7, Long.valueOf((new Date().getTime())/1000L));
-      pstmt.setString(8, entity.getAppId());
+      setInsertParameters(pstmt, entity, (new Date().getTime())/1000L);
       pstmt.executeUpdate();
       pstmt.close();
       con.close();
@@ -87,6 +83,43 @@ public class WakeupEntityDAOImpl implements WakeupEntityDAO {
     }
   }
 
+  @Override
+  public void offer(List<WakeupEntity> entities) {
+    if (entities == null || entities.isEmpty()) {
+      return;
+    }
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(WAKEUP_INSERT);
+      long dateCreatedUTC = (new Date().getTime())/1000L;
+      for (WakeupEntity entity : entities) {
+        setInsertParameters(pstmt, entity, dateCreatedUTC);
+        pstmt.addBatch();
+      }
+      pstmt.executeBatch();
+      pstmt.close();
+      con.close();
+    } catch (SQLException sqle) {
+      LOGGER.warn("offer : SQL Exception in batch insert of {} wakeup records", entities.size(), sqle);
+      throw new DbInteractionException(sqle);
+    } finally {
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
+
+  private static void setInsertParameters(PreparedStatement pstmt, WakeupEntity entity, long dateCreatedUTC) throws SQLException {
+    pstmt.setString(1, entity.getDeviceId());
+    pstmt.setString(2, entity.getToken());
+    pstmt.setString(3, entity.getType().name());
+    pstmt.setString(4, entity.getSenderIdentifier());
+    pstmt.setString(5, entity.getPayload());
+    pstmt.setString(6, entity.getMessageId());
+    pstmt.setLong(7, dateCreatedUTC);
+    pstmt.setString(8, entity.getAppId());
+  }
+
   @Override
   public List<WakeupEntity> poll(int maxCount) {
     Connection con = null;
@@ -136,6 +169,35 @@ public class WakeupEntityDAOImpl implements WakeupEntityDAO {
     }
   }
 
+  @Override
+  public void complete(List<WakeupEntity> entities) {
+    if (entities == null || entities.isEmpty()) {
+      return;
+    }
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(WAKEUP_UPDATE);
+      for (WakeupEntity entity : entities) {
+        if (entity.getDateSent() == null) {
+          throw new IllegalArgumentException("Invalid date sent for wakeup id:" + entity.getId());
+        }
+        pstmt.setLong(1, entity.getDateSent());
+        pstmt.setInt(2, entity.getId());
+        pstmt.addBatch();
+      }
+      pstmt.executeBatch();
+      pstmt.close();
+      con.close();
+    } catch (SQLException sqle) {
+      LOGGER.warn("complete : SQL Exception in batch update of {} wakeup records", entities.size(), sqle);
+      throw new DbInteractionException(sqle);
+    } finally {
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
+
   @Override
   public int remove(String appId, PushType type, String token) {
     Connection con = null;
@@ -210,6 +272,26 @@ public class WakeupEntityDAOImpl implements WakeupEntityDAO {
     return returnList;
   }
 
+  @Override
+  public int purgeSent(long olderThanUTC, int maxCount) {
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    try {
+      con = provider.getConnection();
+      pstmt = con.prepareStatement(DELETE_SENT_WAKEUP_RECORDS);
+      pstmt.setLong(1, olderThanUTC);
+      pstmt.setInt(2, maxCount);
+      int deleteCount = pstmt.executeUpdate();
+      pstmt.close();
+      con.close();
+      return deleteCount;
+    } catch (SQLException sqle) {
+      LOGGER.warn("SQL Exception in purging the sent wakeup records", sqle);
+      throw new DbInteractionException(sqle);
+    } finally {
+      CloseUtil.close(LOGGER, pstmt, con);
+    }
+  }
 
   protected Date currentTime() {
     return new Date();
@@ -0,0 +1,89 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+/**
+ * A message in WAKEUP_SENT state along with the number of wakeup notifications sent for it
+ * and the time the last one was sent.
+ */
+public class WakeupSentMessage {
+  private String messageId;
+  private String deviceId;
+  private String appId;
+  private long queuedAtUTC;
+  private long lastWakeupSentUTC;
+  private int wakeupCount;
+
+  public String getMessageId() {
+    return messageId;
+  }
+
+  public void setMessageId(String messageId) {
+    this.messageId = messageId;
+  }
+
+  public String getDeviceId() {
+    return deviceId;
+  }
+
+  public void setDeviceId(String deviceId) {
+    this.deviceId = deviceId;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public void setAppId(String appId) {
+    this.appId = appId;
+  }
+
+  public long getQueuedAtUTC() {
+    return queuedAtUTC;
+  }
+
+  public void setQueuedAtUTC(long queuedAtUTC) {
+    this.queuedAtUTC = queuedAtUTC;
+  }
+
+  public long getLastWakeupSentUTC() {
+    return lastWakeupSentUTC;
+  }
+
+  public void setLastWakeupSentUTC(long lastWakeupSentUTC) {
+    this.lastWakeupSentUTC = lastWakeupSentUTC;
+  }
+
+  public int getWakeupCount() {
+    return wakeupCount;
+  }
+
+  public void setWakeupCount(int wakeupCount) {
+    this.wakeupCount = wakeupCount;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("WakeupSentMessage{");
+    sb.append("messageId='").append(messageId).append('\'');
+    sb.append(", deviceId='").append(deviceId).append('\'');
+    sb.append(", appId='").append(appId).append('\'');
+    sb.append(", queuedAtUTC=").append(queuedAtUTC);
+    sb.append(", lastWakeupSentUTC=").append(lastWakeupSentUTC);
+    sb.append(", wakeupCount=").append(wakeupCount);
+    sb.append('}');
+    return sb.toString();
+  }
+}
@@ -37,11 +37,15 @@ import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.QueryBuilderResult;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.SearchResult;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.TagDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.TopicItemCursor;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.TopicDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.TopicEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.handler.ConfigureForm.PublishModel;
 import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.PubSubPersistenceManagerExt;
+import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.RecentItemsCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.TopicIndex;
 import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.TopicQueryBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.TopicSummaryCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.search.PaginationInfo;
 import com.magnet.mmx.server.plugin.mmxmgmt.topic.TopicNode;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.DBUtil;
@@ -79,14 +83,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class MMXTopicManager {
 
@@ -278,6 +286,9 @@ public class MMXTopicManager {
     } else {
       LOGGER.trace("Deleting topic with id:" + topicId);
       gonner.delete();
+      TopicIndex.getInstance().nodeDeleted(topicId);
+      TopicSummaryCache.getInstance().invalidate(topicId);
+      RecentItemsCache.getInstance().invalidate(topicId);
       result.setSuccess(true);
       result.setNode(TopicNode.build(appId, gonner));
       result.setMessage(INVALID_TOPIC_ID);
@@ -315,6 +326,9 @@ public class MMXTopicManager {
     Node result = mPubSubModule.getNode(nodeId);
     if (result != null && !result.isCollectionNode()) {
       result.delete();
+      TopicIndex.getInstance().nodeDeleted(nodeId);
+      TopicSummaryCache.getInstance().invalidate(nodeId);
+      RecentItemsCache.getInstance().invalidate(nodeId);
       result = null;
       // TODO cleanup existing published Items for this node
     }
@@ -340,6 +354,7 @@ public class MMXTopicManager {
       }
       node.saveToDB();
       CacheFactory.doClusterTask(new RefreshNodeTask(node));
+      TopicIndex.getInstance().nodeCreated(nodeId);
       result = node;
     }
     return (CollectionNode) result;
@@ -401,6 +416,7 @@ public class MMXTopicManager {
       }
       node.saveToDB();
       CacheFactory.doClusterTask(new RefreshNodeTask(node));
+      TopicIndex.getInstance().nodeCreated(topicId);
       createdNode = node;
     }
     return createdNode;
@@ -543,6 +559,7 @@ public class MMXTopicManager {
         node.saveToDB();
         
         CacheFactory.doClusterTask(new RefreshNodeTask(node));
+        TopicIndex.getInstance().nodeCreated(nodeId);
       }
     }
     LOGGER.trace("return new collection node=" + nodeId);
@@ -635,6 +652,7 @@ public class MMXTopicManager {
       node.saveToDB();
       
       CacheFactory.doClusterTask(new RefreshNodeTask(node));
+      TopicIndex.getInstance().nodeCreated(topicId);
     }
 //    LOGGER.trace("create node="+realTopic+" success");
 
@@ -664,12 +682,16 @@ public class MMXTopicManager {
           
 //          LOGGER.trace("delete leaf node=" + node.getNodeID());
           child.delete();
+          TopicIndex.getInstance().nodeDeleted(child.getNodeID());
+          TopicSummaryCache.getInstance().invalidate(child.getNodeID());
+          RecentItemsCache.getInstance().invalidate(child.getNodeID());
           ++count;
         }
       }
     }
 //    LOGGER.trace("delete node="+node.getNodeID());
     node.delete();
+    TopicIndex.getInstance().nodeDeleted(node.getNodeID());
     ++count;
     return count;
   }
@@ -724,6 +746,8 @@ public class MMXTopicManager {
     LeafNode leafNode = (LeafNode) node;
     List<PublishedItem> pubItems = leafNode.getPublishedItems();
     leafNode.deleteItems(pubItems);
+    TopicSummaryCache.getInstance().itemsPurged(realTopic);
+    RecentItemsCache.getInstance().invalidate(realTopic);
     
     int count = (pubItems == null) ? 0 : pubItems.size();
     MMXStatus status = (new MMXStatus())
@@ -776,6 +800,8 @@ public class MMXTopicManager {
       pubItems.add(item);
     }
     leafNode.deleteItems(pubItems);
+    TopicSummaryCache.getInstance().invalidate(realTopic);
+    RecentItemsCache.getInstance().invalidate(realTopic);
     
     int count = (pubItems == null) ? 0 : pubItems.size();
     MMXStatus status = (new MMXStatus())
@@ -843,6 +869,7 @@ public class MMXTopicManager {
     // slower because it saves to DB and update the cluster.
     subscription = node.createSubscription(null, owner, subscriber, false,
         optionsForm);
+    TopicIndex.getInstance().subscribed(node.getNodeID(), owner);
     
     TopicAction.SubscribeResponse resp = new TopicAction.SubscribeResponse(
         subscription.getID(), StatusCode.SUCCESS.getCode(), 
@@ -868,6 +895,9 @@ public class MMXTopicManager {
         node.cancelSubscription(subscription);
       }
     }
+    if (count > 0) {
+      TopicIndex.getInstance().unsubscribed(node.getNodeID(), owner);
+    }
     if (count == 0) {
       throw new MMXException(StatusCode.GONE.getMessage(),
           StatusCode.GONE.getCode());
@@ -881,20 +911,26 @@ public class MMXTopicManager {
   
   public MMXStatus unsubscribeForDev(JID from, String appId, 
                   TopicAction.UnsubscribeForDevRequest rqt) throws MMXException {
-    String prefix = TopicHelper.TOPIC_DELIM + appId + TopicHelper.TOPIC_DELIM;
     int count = 0;
     JID owner = from.asBareJID();
     String devId = rqt.getDevId();
-    for (Node node : mPubSubModule.getNodes()) {
-      if (!node.getNodeID().startsWith(prefix)) {
+    TopicIndex index = TopicIndex.getInstance();
+    for (String nodeId : index.getSubscribedNodeIds(appId, owner)) {
+      Node node = mPubSubModule.getNode(nodeId);
+      if (node == null) {
         continue;
       }
+      int cancelled = 0;
       for (NodeSubscription subscription : node.getSubscriptions(owner)) {
         if (devId.equals(subscription.getJID().getResource())) {
-          ++count;
+          ++cancelled;
           node.cancelSubscription(subscription);
         }
       }
+      if (cancelled > 0) {
+        index.unsubscribed(nodeId, owner);
+        count += cancelled;
+      }
     }
     MMXStatus status = (new MMXStatus())
         .setCode(StatusCode.SUCCESS.getCode())
@@ -1082,6 +1118,9 @@ public class MMXTopicManager {
   
   public TopicAction.SummaryResponse getSummary(JID from, String appId,
           TopicAction.SummaryRequest rqt) throws MMXException {
+    if (rqt.getSince() == null && rqt.getUntil() == null) {
+      return getCachedSummary(appId, rqt);
+    }
     // Build a collection of topic ID's from the request; it contains topics
     // without any published items.
     HashSet<String> tpNoItems = new HashSet<String>(rqt.getTopicNodes().size());
@@ -1114,12 +1153,7 @@ public class MMXTopicManager {
         if (topics == null || topics.length == 0) {
           break;
         }
-        String argList = SQLHelper.generateArgList(topics.length);
-        String sql = "SELECT ofPubsubNode.maxItems,count(*),max(ofPubsubItem.creationDate),ofPubsubNode.name "+
-                     "FROM ofPubsubItem, ofPubsubNode  " +
-                     "WHERE ofPubsubItem.serviceID=? AND ofPubsubItem.nodeID = ofPubsubNode.nodeId AND ofPubsubItem.nodeID IN ("+argList+") "+dateRange+
-                     "GROUP BY ofPubsubItem.nodeID";
-        pstmt = con.prepareStatement(sql);
+        pstmt = con.prepareStatement(getSummarySql(topics.length, dateRange));
         pstmt.setString(1, mPubSubModule.getServiceID());
         SQLHelper.bindArgList(pstmt, 2, topics);
         SQLHelper.bindArgList(pstmt, 2+topics.length, dates);
@@ -1154,6 +1188,93 @@ public class MMXTopicManager {
     }
   }
   
+  /**
+   * Answer a summary request without a date range from the {@link TopicSummaryCache}. Only the
+   * topics that aren't cached are read from the database.
+   */
+  private TopicAction.SummaryResponse getCachedSummary(String appId,
+          TopicAction.SummaryRequest rqt) throws MMXException {
+    List<MMXTopicId> topicIds = rqt.getTopicNodes();
+    String[] topics = getTopics(appId, topicIds, 0, topicIds.size());
+    TopicAction.SummaryResponse resp = new TopicAction.SummaryResponse(
+        topicIds.size());
+    try {
+      Map<String, TopicSummaryCache.Summary> summaries = TopicSummaryCache
+          .getInstance().getSummaries(Arrays.asList(topics), new TopicSummaryCache.Loader() {
+            @Override
+            public Map<String, TopicSummaryCache.Summary> load(List<String> nodeIds) {
+              return loadSummaries(nodeIds);
+            }
+          });
+      for (int i = 0; i < topics.length; i++) {
+        TopicSummaryCache.Summary summary = summaries.get(topics[i]);
+        TopicSummary topicSummary = new TopicSummary(topicIds.get(i))
+            .setCount(summary.getCount());
+        if (summary.getLastPubTime() != null) {
+          topicSummary.setLastPubTime(summary.getLastPubTime());
+        }
+        resp.add(topicSummary);
+      }
+      return resp;
+    } catch (DbInteractionException e) {
+      LOGGER.error(e.getMessage(), e);
+      throw new MMXException(e.getMessage(),
+          StatusCode.SERVER_ERROR.getCode());
+    }
+  }
+
+  /**
+   * Read the item count and the last publish time of the supplied nodes.
+   * @param nodeIds
+   * @return map of node id to summary for the nodes having published items
+   */
+  private Map<String, TopicSummaryCache.Summary> loadSummaries(List<String> nodeIds) {
+    Map<String, TopicSummaryCache.Summary> result =
+        new HashMap<String, TopicSummaryCache.Summary>(nodeIds.size());
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    try {
+      con = DbConnectionManager.getConnection();
+      int start = 0;
+      int numOfTopics = nodeIds.size();
+      do {
+        // Limit to 128 topics per query because some DBMS cannot handle more
+        // than 255 arguments in the IN clause.
+        List<String> topics = nodeIds.subList(start, Math.min(start + 128, numOfTopics));
+        pstmt = con.prepareStatement(getSummarySql(topics.size(), ""));
+        pstmt.setString(1, mPubSubModule.getServiceID());
+        SQLHelper.bindArgList(pstmt, 2, topics);
+        rs = pstmt.executeQuery();
+        while (rs.next()) {
+          int maxItems = rs.getInt(1);
+          int count = rs.getInt(2);
+          Date creationDate = new Date(Long.parseLong(rs.getString(3).trim()));
+          String nodeId = rs.getString(5);
+          result.put(nodeId, new TopicSummaryCache.Summary(maxItems, count, creationDate));
+        }
+        DbConnectionManager.closeResultSet(rs);
+        DbConnectionManager.closeStatement(pstmt);
+        rs = null;
+        pstmt = null;
+        start += topics.size();
+      } while (start < numOfTopics);
+      return result;
+    } catch (SQLException e) {
+      throw new DbInteractionException(e);
+    } finally {
+      DbConnectionManager.closeConnection(rs, pstmt, con);
+    }
+  }
+
+  private static String getSummarySql(int numOfTopics, CharSequence dateRange) {
+    String argList = SQLHelper.generateArgList(numOfTopics);
+    return "SELECT ofPubsubNode.maxItems,count(*),max(ofPubsubItem.creationDate),ofPubsubNode.name,ofPubsubItem.nodeID "+
+           "FROM ofPubsubItem, ofPubsubNode  " +
+           "WHERE ofPubsubItem.serviceID=? AND ofPubsubItem.nodeID = ofPubsubNode.nodeId AND ofPubsubItem.nodeID IN ("+argList+") "+dateRange+
+           "GROUP BY ofPubsubItem.nodeID";
+  }
+
   public List<TopicInfo> searchByTags(JID from, String appId,
                       TagSearch rqt) throws MMXException {
     List<TopicEntity> entities;
@@ -1382,23 +1503,25 @@ public class MMXTopicManager {
     }
 
     // Don't query the DB directly because some items are cached in memory.
-    // Besides, it is faster looping through all cached nodes in memory than 
-    // query the ofPubsubSubscription table because # of nodes should be many
-    // less than # of subscriptions.
-    
-    String prefix = TopicHelper.makePrefix(appId);
+    // Only the nodes subscribed by the user and the descendants of the
+    // subscribed collection nodes are candidates, so use the topic index
+    // instead of looping through all cached nodes.
+    TopicIndex index = TopicIndex.getInstance();
+    TreeSet<String> candidates = new TreeSet<String>();
     
     // Find all collection nodes subscribed by the user.
     TreeMap<String, Node> colNodes = new TreeMap<String, Node>();
-    for (Node node : mPubSubModule.getNodes()) {
-      if (!node.getNodeID().startsWith(prefix)) {
-        // Skip topics that do not belong to this app.
+    for (String nodeId : index.getSubscribedNodeIds(appId, fromUser)) {
+      Node node = mPubSubModule.getNode(nodeId);
+      if (node == null) {
         continue;
       }
+      candidates.add(nodeId);
       if (node.isCollectionNode()) {
         Collection<NodeSubscription> subs = node.getSubscriptions(fromUser);
         if (subs != null && subs.size() > 0) {
           colNodes.put(node.getNodeID(), node);
+          candidates.addAll(index.getAppNodeIds(appId, nodeId));
           LOGGER.trace("Collection node=" + node.getNodeID() + " is subscribed");
         }
       }
@@ -1406,9 +1529,9 @@ public class MMXTopicManager {
     
     int numSent = 0, numSubs = 0;
     int maxItems = rqt.getMaxItems();
-    for (Node node : mPubSubModule.getNodes()) {
-      if (!node.getNodeID().startsWith(prefix)) {
-        // Skip topics that do not belong to this app.
+    for (String nodeId : candidates) {
+      Node node = mPubSubModule.getNode(nodeId);
+      if (node == null) {
         continue;
       }
       if (maxItems == 1) {
@@ -1467,8 +1590,11 @@ public class MMXTopicManager {
         }
 
 //        LOGGER.trace("Fetch published items from "+node.getNodeID()+", since="+since);
-        List<PublishedItem> items = PubSubPersistenceManagerExt.getPublishedItems(
+        List<PublishedItem> items = RecentItemsCache.getInstance().getItems(
             (LeafNode) node, maxItems, since);
+        if (items == null) {
+          items = PubSubPersistenceManagerExt.getPublishedItems((LeafNode) node, maxItems, since);
+        }
         if (items == null || items.size() == 0) {
 //          LOGGER.trace("No published items in "+node.getNodeID()+", since="+since);
           continue;
@@ -1634,12 +1760,19 @@ public class MMXTopicManager {
     Date until = null;
     boolean ascending = false;
     int maxItems = 0;
+    TopicItemCursor cursor = null;
     if (options != null) {
       subId = options.getSubId();
       since = options.getSince();
       until = options.getUntil();
       ascending = options.isAscending();
       maxItems = options.getMaxItems();
+      try {
+        cursor = TopicItemCursor.parse(options.getCursor());
+      } catch (IllegalArgumentException e) {
+        throw new MMXException(StatusCode.BAD_REQUEST.getMessage("invalid cursor"),
+            StatusCode.BAD_REQUEST.getCode());
+      }
     }
     // If not defined, default to system property ("xmpp.pubsub.fetch.max")
     if (maxItems <= 0) {
@@ -1691,18 +1824,25 @@ public class MMXTopicManager {
       }
     }
 
-    List<PublishedItem> pubItems = PubSubPersistenceManagerExt.getPublishedItems(
-        (LeafNode) node, maxItems, since, until, ascending);
-    List<MMXPublishedItem> mmxItems = new ArrayList<MMXPublishedItem>(pubItems.size());
-    for (PublishedItem pubItem : pubItems) {
-      MMXPublishedItem mmxItem = new MMXPublishedItem(pubItem.getID(), 
-          pubItem.getPublisher().toBareJID(),
-          pubItem.getCreationDate(),
-          pubItem.getPayloadXML());
-      mmxItems.add(mmxItem);
+    // The items are read newest first; the pages continue towards the older items in both orders.
+    final List<MMXPublishedItem> mmxItems = new ArrayList<MMXPublishedItem>();
+    TopicItemCursor nextCursor = PubSubPersistenceManagerExt.getPublishedItems(
+        (LeafNode) node, maxItems, since, until, cursor,
+        new PubSubPersistenceManagerExt.PublishedItemHandler() {
+          @Override
+          public void handle(String itemId, JID publisher, Date creationDate, String payloadXML) {
+            mmxItems.add(new MMXPublishedItem(itemId, publisher.toBareJID(),
+                creationDate, payloadXML));
+          }
+        });
+    if (ascending) {
+      Collections.reverse(mmxItems);
     }
     TopicAction.FetchResponse resp = new TopicAction.FetchResponse(
         rqt.getUserId(), topic, mmxItems);
+    if (nextCursor != null) {
+      resp.setNextCursor(nextCursor.toString());
+    }
     return resp;
   }
   
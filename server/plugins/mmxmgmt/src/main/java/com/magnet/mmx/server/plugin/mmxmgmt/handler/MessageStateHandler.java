@@ -25,6 +25,7 @@ import com.magnet.mmx.protocol.StatusCode;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAOImpl;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageStateCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.SearchResult;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.IQUtils;
@@ -152,10 +153,10 @@ public class MessageStateHandler extends IQHandler {
     }
     MsgsState.Response response = new MsgsState.Response();
     MessageDAO dao = getMessageDAO();
-    // TODO: it would be more efficient if the DAO can get messages with a list
-    // of message ID's.
-    for (String messageId : requestList) {
-      List<MessageEntity> messageList = dao.getMessages(appId, messageId);
+    Map<String, List<MessageEntity>> messages = MessageStateCache.getInstance().getMessages(appId, requestList, dao);
+    for (Map.Entry<String, List<MessageEntity>> messageEntry : messages.entrySet()) {
+      String messageId = messageEntry.getKey();
+      List<MessageEntity> messageList = messageEntry.getValue();
       if (messageList.size() == 0) {
         // For non-existing message ID, return UNKNOWN state.
         MessageStatusList list = new MessageStatusList(1);
@@ -17,9 +17,7 @@ package com.magnet.mmx.server.plugin.mmxmgmt.handler;
 import com.magnet.mmx.protocol.Constants;
 import com.magnet.mmx.protocol.MMXStatus;
 import com.magnet.mmx.protocol.MsgAck;
-import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAO;
-import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAOImpl;
-import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageStateWriter;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.IQUtils;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.JIDUtil;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXOfflineStorageUtil;
@@ -32,6 +30,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.IQ;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -52,18 +52,18 @@ public class MsgAckIQHandler extends IQHandler {
       Element element = packet.getChildElement();
       String payload = element.getText();
       MsgAck acknowledgement = GsonData.getGson().fromJson(payload, MsgAck.class);
-      String from = acknowledgement.getFrom();
-      String to = acknowledgement.getTo();
-      String messageId = acknowledgement.getMsgId();
-
-      MMXOfflineStorageUtil.removeMessage(to, messageId);
-
-      String appId = JIDUtil.getAppId(to);
-      String deviceId = JIDUtil.getResource(to);
-      MessageDAO messageDAO = getMessageDAO();
-      int count = messageDAO.messageDelivered(appId, deviceId, messageId);
-      if (count == 0) {
-        LOGGER.warn(String.format("No message updated for appId:%s deviceId:%s messageId:%s", appId, deviceId, messageId));
+      if (acknowledgement.getAcks() != null) {
+        processBatch(acknowledgement);
+      } else {
+        String to = acknowledgement.getTo();
+        String messageId = acknowledgement.getMsgId();
+
+        MMXOfflineStorageUtil.removeMessage(to, messageId);
+
+        String appId = JIDUtil.getAppId(to);
+        String deviceId = JIDUtil.getResource(to);
+        // queued behind the insert of the message so that the update can't miss the record
+        getMessageStateWriter().messageDelivered(appId, deviceId, messageId);
       }
     } catch (Throwable t) {
       LOGGER.warn("Throwable in handleIQ", t);
@@ -82,8 +82,31 @@ public class MsgAckIQHandler extends IQHandler {
     return result;
   }
 
-  protected MessageDAO getMessageDAO() {
-    return new MessageDAOImpl(new OpenFireDBConnectionProvider());
+  /**
+   * Mark all messages in a batched ack as delivered. The updates are queued on the message state
+   * writer and written using batch updates.
+   * @param acknowledgement
+   */
+  private void processBatch(MsgAck acknowledgement) {
+    String to = acknowledgement.getTo();
+    List<String> messageIds = new ArrayList<String>(acknowledgement.getAcks().size());
+    for (MsgAck.Item item : acknowledgement.getAcks()) {
+      if (item.getMsgId() != null) {
+        messageIds.add(item.getMsgId());
+      }
+    }
+    if (messageIds.isEmpty()) {
+      return;
+    }
+    MMXOfflineStorageUtil.removeMessages(to, messageIds);
+
+    String appId = JIDUtil.getAppId(to);
+    String deviceId = JIDUtil.getResource(to);
+    getMessageStateWriter().messagesDelivered(appId, deviceId, messageIds);
+  }
+
+  protected MessageStateWriter getMessageStateWriter() {
+    return MessageStateWriter.getInstance();
   }
 
   @Override
@@ -19,10 +19,13 @@ import com.magnet.mmx.protocol.MMXError;
 import com.magnet.mmx.protocol.StatusCode;
 import com.magnet.mmx.server.common.data.AppEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DbInteractionException;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntity;
-import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceNotFoundException;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageStateWriter;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.PushStatus;
 import com.magnet.mmx.server.plugin.mmxmgmt.event.MMXXmppRateExceededEvent;
 import com.magnet.mmx.server.plugin.mmxmgmt.message.ErrorMessageBuilder;
@@ -37,6 +40,7 @@ import org.xmpp.packet.Message;
 import org.xmpp.packet.PacketError;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 public class MMXMessageHandlingRule {
@@ -96,12 +100,12 @@ public class MMXMessageHandlingRule {
       LOGGER.trace("handle : handling incoming, unprocessed receipt message with fullJID messageId={}", input.getMessage().getID());
       DeliveryConfirmationMessage confirmation = DeliveryConfirmationMessage.build(input.getMessage());
       LOGGER.trace("handle : built from message, confirmation={}", confirmation);
-      DBUtil.getMessageDAO().messageReceived(confirmation.getMessageId(), confirmation.getConfirmingDeviceId());
+      MessageStateWriter.getInstance().messageReceived(confirmation.getMessageId(), confirmation.getConfirmingDeviceId());
       MessageEntity messageEntity = getMessageEntity(input.getMessage());
       messageEntity.setSourceMessageId(confirmation.getMessageId());
       messageEntity.setType(MessageEntity.MessageType.RECEIPT);
       messageEntity.setState(MessageEntity.MessageState.DELIVERY_ATTEMPTED);
-      DBUtil.getMessageDAO().persist(messageEntity);
+      MessageStateWriter.getInstance().persist(messageEntity);
       return;
     }
 
@@ -127,7 +131,7 @@ public class MMXMessageHandlingRule {
       if(!Strings.isNullOrEmpty(deviceId) && !Strings.isNullOrEmpty(appId)) {
         try {
           DeviceDAO deviceDao = DBUtil.getDeviceDAO();
-          deviceEntity = deviceDao.getDevice(appId, deviceId);
+          deviceEntity = DeviceEntityCache.getInstance().getDevice(appId, deviceId, deviceDao);
           if(deviceEntity == null) {
             LOGGER.trace("isValidDistributableMessage : No device found for appId={}, deviceId={}, sending error message", appId, deviceId);
             sendDeviceNotFoundErrorMsg(input.getMessage());
@@ -137,7 +141,7 @@ public class MMXMessageHandlingRule {
           LOGGER.error("isValidDistributableMessage : No device found for appId={}, deviceId={}, sending error message", appId, deviceId, e);
           sendDeviceNotFoundErrorMsg(input.getMessage());
           throw new PacketRejectedException("Invalid deviceId : " + deviceId);
-        } catch (DeviceNotFoundException e) {
+        } catch (DbInteractionException e) {
           LOGGER.error("isValidDistributableMessage : No device found for appId={}, deviceId={}, sending error message", appId, deviceId, e);
           sendDeviceNotFoundErrorMsg(input.getMessage());
           throw new PacketRejectedException("Invalid deviceId : " + deviceId);
@@ -157,7 +161,7 @@ public class MMXMessageHandlingRule {
         if (wakeupPossible) {
           messageEntity.setState(MessageEntity.MessageState.WAKEUP_REQUIRED);
           AppDAO appDAO = DBUtil.getAppDAO();
-          AppEntity appEntity = appDAO.getAppForAppKey(appId);
+          AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
           WakeupUtil.queueWakeup(appEntity, deviceEntity, messageEntity.getMessageId());
         } else {
           if (LOGGER.isDebugEnabled()) {
@@ -165,11 +169,11 @@ public class MMXMessageHandlingRule {
           }
           messageEntity.setState(MessageEntity.MessageState.PENDING);
         }
-        DBUtil.getMessageDAO().persist(messageEntity);
+        MessageStateWriter.getInstance().persist(messageEntity);
         throw new PacketRejectedException("Device offline, stopping processing for the message addressed to fullJID=" + input.getMessage().getTo());
       } else {
         messageEntity.setState(MessageEntity.MessageState.DELIVERY_ATTEMPTED);
-        DBUtil.getMessageDAO().persist(messageEntity);
+        MessageStateWriter.getInstance().persist(messageEntity);
       }
     }
   }
@@ -199,21 +203,32 @@ public class MMXMessageHandlingRule {
     MessageDistributor.DistributionContext context = new DistributionContextImpl(userId, messageEntity.getAppId(), domain, messageEntity.getMessageId());
     MessageDistributor.DistributionResult result = distributor.distribute(message, context);
     AppDAO appDAO = DBUtil.getAppDAO();
-    AppEntity appEntity = appDAO.getAppForAppKey(messageEntity.getAppId());
+    AppEntity appEntity = AppEntityCache.getInstance().getApp(messageEntity.getAppId(), appDAO);
     List<MessageDistributor.JIDDevicePair> undistributed = result.getNotDistributed();
-    for(MessageDistributor.JIDDevicePair pair : undistributed) {
-      message.setTo(pair.getJID());
-      MMXOfflineStorageUtil.storeMessage(message);
-      messageEntity.setTo(message.getTo().toString());
-      messageEntity.setDeviceId(pair.getJID().getResource());
-      boolean wokenUpPossible = canBeWokenUp(pair.getDevice());
-      if (wokenUpPossible) {
-        messageEntity.setState(MessageEntity.MessageState.WAKEUP_REQUIRED);
-        WakeupUtil.queueWakeup(appEntity, pair.getDevice(), messageEntity.getMessageId());
-      } else {
-        messageEntity.setState(MessageEntity.MessageState.PENDING);
+    if (!undistributed.isEmpty()) {
+      /*
+       * Handle the offline devices as a batch: one offline storage task, one wakeup batch
+       * and the message records handed to the writer.
+       */
+      List<Message> offlineMessages = new ArrayList<Message>(undistributed.size());
+      List<DeviceEntity> wakeupDevices = new ArrayList<DeviceEntity>(undistributed.size());
+      for (MessageDistributor.JIDDevicePair pair : undistributed) {
+        Message offline = message.createCopy();
+        offline.setTo(pair.getJID());
+        offlineMessages.add(offline);
+        messageEntity.setTo(pair.getJID().toString());
+        messageEntity.setDeviceId(pair.getJID().getResource());
+        boolean wokenUpPossible = canBeWokenUp(pair.getDevice());
+        if (wokenUpPossible) {
+          messageEntity.setState(MessageEntity.MessageState.WAKEUP_REQUIRED);
+          wakeupDevices.add(pair.getDevice());
+        } else {
+          messageEntity.setState(MessageEntity.MessageState.PENDING);
+        }
+        MessageStateWriter.getInstance().persist(messageEntity);
       }
-      DBUtil.getMessageDAO().persist(messageEntity);
+      MMXOfflineStorageUtil.storeMessages(offlineMessages);
+      WakeupUtil.queueWakeups(appEntity, wakeupDevices, messageEntity.getMessageId());
     }
 
     if (result.noDevices()) {
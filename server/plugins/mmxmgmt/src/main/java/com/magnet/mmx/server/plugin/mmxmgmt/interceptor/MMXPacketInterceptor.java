@@ -14,13 +14,24 @@
  */
 package com.magnet.mmx.server.plugin.mmxmgmt.interceptor;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.magnet.mmx.server.plugin.mmxmgmt.context.ContextDispatcherFactory;
 import com.magnet.mmx.server.plugin.mmxmgmt.context.GeoEventDispatcher;
+import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.PubSubPersistenceManagerExt;
+import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.RecentItemsCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.TopicUpdateTask;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.IQUtils;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXMessageUtil;
+import com.magnet.mmx.util.TopicHelper;
 import org.apache.commons.lang.RandomStringUtils;
+import org.dom4j.Element;
+import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.interceptor.PacketInterceptor;
 import org.jivesoftware.openfire.interceptor.PacketRejectedException;
+import org.jivesoftware.openfire.pubsub.LeafNode;
+import org.jivesoftware.openfire.pubsub.Node;
+import org.jivesoftware.openfire.pubsub.PublishedItem;
 import org.jivesoftware.openfire.session.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +39,14 @@ import org.xmpp.packet.IQ;
 import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 /**
  * MMX Packet interceptor
  * This is responsible for:
@@ -38,7 +57,25 @@ import org.xmpp.packet.Packet;
  */
 public class MMXPacketInterceptor implements PacketInterceptor {
   private static Logger LOGGER = LoggerFactory.getLogger(MMXPacketInterceptor.class);
+  private static final String PUBSUB_NAMESPACE = "http://jabber.org/protocol/pubsub";
+  /**
+   * Pubsub actions that change the nodes or the subscriptions kept by the topic index.
+   * Publish and retract only change the items and don't need a refresh.
+   */
+  private static final Set<String> INDEX_ACTIONS = new HashSet<String>(Arrays.asList(
+      "create", "delete", "subscribe", "unsubscribe", "options", "affiliations", "subscriptions"));
+  private static final int MAX_PENDING_PUBLISHES = 10000;
+  private static final int PENDING_PUBLISH_EXPIRY_SECONDS = 60;
   private final String ID = RandomStringUtils.randomAlphanumeric(10);
+  /**
+   * Number of new items of the publish requests that are being processed, keyed by
+   * {@link #getPublishKey(IQ, String)}. Items that replace an item with the same id don't change
+   * the item count of the node, and that can only be told before the request is processed.
+   */
+  private final Cache<String, Integer> pendingPublishes = CacheBuilder.newBuilder()
+      .maximumSize(MAX_PENDING_PUBLISHES)
+      .expireAfterWrite(PENDING_PUBLISH_EXPIRY_SECONDS, TimeUnit.SECONDS)
+      .build();
   private MMXMessageHandlingRule messageHandlingRule;
 
   public MMXPacketInterceptor(MMXMessageHandlingRule messageHandlingRule){
@@ -52,6 +89,9 @@ public class MMXPacketInterceptor implements PacketInterceptor {
 
     IQ geo = IQUtils.isValidGeoIQ(packet);
     if (geo != null) {
+      if (incoming && processed) {
+        GeoEventDispatcher.indexLocation(geo);
+      }
       // send it to the geoservice component
       try {
         ContextDispatcherFactory.getInstance().getDispatcher(GeoEventDispatcher.class.getName()).dispatchToExternalService(geo);
@@ -60,6 +100,14 @@ public class MMXPacketInterceptor implements PacketInterceptor {
       } catch (InstantiationException e) {
         LOGGER.error("geoevent dispatch error", e);
       }
+    }
+
+    if (incoming && packet instanceof IQ) {
+      if (processed) {
+        updateTopicIndex((IQ) packet);
+      } else {
+        countNewItems((IQ) packet);
+      }
       return;
     }
 
@@ -72,4 +120,162 @@ public class MMXPacketInterceptor implements PacketInterceptor {
 
     messageHandlingRule.handle(new MMXMsgRuleInput(mmxMessage, session, incoming, processed, MMXMessageUtil.isConfirmationMessage(mmxMessage), (mmxMessage.getTo().getResource() == null)));
   }
+
+  /**
+   * Record the number of new items of a publish request before it is processed: items without an
+   * id and items whose id isn't published to the node yet. The ids are looked up with one query per
+   * request, and only if they aren't the id of the last published item. If the lookup fails nothing
+   * is recorded and the summary of the node is invalidated after the publish.
+   * @param iq
+   */
+  private void countNewItems(IQ iq) {
+    for (Element action : getTopicActions(iq)) {
+      if (!"publish".equals(action.getName())) {
+        continue;
+      }
+      String nodeId = action.attributeValue("node");
+      Node node = XMPPServer.getInstance().getPubSubModule().getNode(nodeId);
+      if (!(node instanceof LeafNode) || !node.isPersistPublishedItems()) {
+        continue;
+      }
+      List<?> items = action.elements("item");
+      if (items.isEmpty()) {
+        // the service generates the item
+        pendingPublishes.put(getPublishKey(iq, nodeId), 1);
+        continue;
+      }
+      PublishedItem lastItem = ((LeafNode) node).getLastPublishedItem();
+      String lastItemId = lastItem != null ? lastItem.getID() : null;
+      Set<String> itemIds = new LinkedHashSet<String>();
+      int count = 0;
+      for (Object item : items) {
+        String itemId = ((Element) item).attributeValue("id");
+        if (itemId == null || itemId.isEmpty()) {
+          count++;
+        } else if (!itemId.equals(lastItemId)) {
+          itemIds.add(itemId);
+        }
+      }
+      if (!itemIds.isEmpty()) {
+        Set<String> existing = PubSubPersistenceManagerExt.getExistingItemIds((LeafNode) node, itemIds);
+        if (existing == null) {
+          continue;
+        }
+        count += itemIds.size() - existing.size();
+      }
+      pendingPublishes.put(getPublishKey(iq, nodeId), count);
+    }
+  }
+
+  /**
+   * Refresh the topic index for the nodes and subscriptions changed using the standard pubsub protocol
+   * and update the topic summaries. The updates of the request are sent to the cluster in one task.
+   * The MMX topic operations update the index themselves.
+   * @param iq
+   */
+  private void updateTopicIndex(IQ iq) {
+    TopicUpdateTask update = new TopicUpdateTask();
+    for (Element action : getTopicActions(iq)) {
+      String nodeId = action.attributeValue("node");
+      if (INDEX_ACTIONS.contains(action.getName())) {
+        LOGGER.trace("updateTopicIndex : refreshing node={}", nodeId);
+        update.refreshNode(nodeId);
+      }
+      updateTopicSummary(update, iq, action, nodeId);
+    }
+    update.broadcast();
+  }
+
+  /**
+   * Get the pubsub action elements of a set request that target a topic node.
+   * @param iq
+   * @return list of action elements
+   */
+  private List<Element> getTopicActions(IQ iq) {
+    List<Element> actions = new ArrayList<Element>();
+    if (iq.getType() != IQ.Type.set) {
+      return actions;
+    }
+    Element pubsub = iq.getChildElement();
+    if (pubsub == null || !pubsub.getNamespaceURI().startsWith(PUBSUB_NAMESPACE)) {
+      return actions;
+    }
+    for (Object child : pubsub.elements()) {
+      String nodeId = ((Element) child).attributeValue("node");
+      if (nodeId != null && !nodeId.isEmpty() && nodeId.charAt(0) == TopicHelper.TOPIC_DELIM) {
+        actions.add((Element) child);
+      }
+    }
+    return actions;
+  }
+
+  private static String getPublishKey(IQ iq, String nodeId) {
+    return iq.getFrom() + " " + iq.getID() + " " + nodeId;
+  }
+
+  /**
+   * Apply the items published, retracted or purged using the standard pubsub protocol to the
+   * topic summary cache and the recent items cache.
+   * @param update updates of the request
+   * @param iq the request
+   * @param action pubsub action element
+   * @param nodeId
+   */
+  private void updateTopicSummary(TopicUpdateTask update, IQ iq, Element action, String nodeId) {
+    String name = action.getName();
+    if ("publish".equals(name)) {
+      Node node = XMPPServer.getInstance().getPubSubModule().getNode(nodeId);
+      if (node != null && !node.isPersistPublishedItems()) {
+        // items of transient nodes are not counted by the database either
+        return;
+      }
+      String key = getPublishKey(iq, nodeId);
+      Integer count = pendingPublishes.getIfPresent(key);
+      pendingPublishes.invalidate(key);
+      PublishedItem lastItem = (node instanceof LeafNode) ? ((LeafNode) node).getLastPublishedItem() : null;
+      if (lastItem == null || count == null) {
+        // the publish was rejected, the node doesn't keep its items or the new items weren't counted
+        update.invalidateSummary(nodeId);
+        RecentItemsCache.getInstance().invalidate(nodeId);
+        return;
+      }
+      update.itemsPublished(nodeId, count, ((LeafNode) node).getMaxPublishedItems(),
+          lastItem.getCreationDate());
+      updateRecentItems(action, (LeafNode) node, lastItem);
+    } else if ("purge".equals(name)) {
+      update.itemsPurged(nodeId);
+      RecentItemsCache.getInstance().invalidate(nodeId);
+    } else if ("retract".equals(name) || "delete".equals(name)) {
+      update.invalidateSummary(nodeId);
+      RecentItemsCache.getInstance().invalidate(nodeId);
+    }
+  }
+
+  /**
+   * Add the items of a publish request to the recent items of the node. The ring of the node is
+   * dropped if any of the items can't be found.
+   * @param action publish element
+   * @param node
+   * @param lastItem last item published to the node
+   */
+  private void updateRecentItems(Element action, LeafNode node, PublishedItem lastItem) {
+    List<PublishedItem> items = new ArrayList<PublishedItem>();
+    for (Object child : action.elements("item")) {
+      String itemId = ((Element) child).attributeValue("id");
+      PublishedItem item = null;
+      if (itemId != null) {
+        item = itemId.equals(lastItem.getID()) ? lastItem : node.getPublishedItem(itemId);
+      }
+      if (item == null) {
+        LOGGER.trace("updateRecentItems : unresolved item={} in node={}", itemId, node.getNodeID());
+        RecentItemsCache.getInstance().invalidate(node.getNodeID());
+        return;
+      }
+      items.add(item);
+    }
+    if (items.isEmpty()) {
+      items.add(lastItem);
+    }
+    RecentItemsCache.getInstance().itemsPublished(node, items);
+  }
 }
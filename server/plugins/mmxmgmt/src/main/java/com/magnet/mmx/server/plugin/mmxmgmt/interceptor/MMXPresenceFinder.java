@@ -16,6 +16,9 @@ package com.magnet.mmx.server.plugin.mmxmgmt.interceptor;
 
 import org.xmpp.packet.JID;
 
+import java.util.Collection;
+import java.util.Set;
+
 /**
  * Interface that defines API for checking if presence
  */
@@ -27,4 +30,11 @@ public interface MMXPresenceFinder {
    * @return
    */
   public boolean isOnline (JID user);
+
+  /**
+   * Check the presence of a set of full JIDs in one pass.
+   * @param users full JIDs to check
+   * @return subset of the supplied JIDs that are online. Can be empty but not null.
+   */
+  public Set<JID> getOnlineJIDs(Collection<JID> users);
 }
@@ -20,7 +20,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  */
@@ -53,6 +59,50 @@ public class MMXPresenceFinderImpl implements MMXPresenceFinder {
     return activeSession;
   }
 
+  /**
+   * Looks up the sessions once per distinct node and matches the resources of the
+   * initialized sessions against the supplied JIDs.
+   */
+  @Override
+  public Set<JID> getOnlineJIDs(Collection<JID> users) {
+    long start = System.nanoTime();
+    Set<JID> online = new HashSet<JID>(users.size());
+    if (users.isEmpty()) {
+      return online;
+    }
+    Map<String, List<JID>> byNode = new HashMap<String, List<JID>>();
+    for (JID user : users) {
+      List<JID> list = byNode.get(user.getNode());
+      if (list == null) {
+        list = new ArrayList<JID>();
+        byNode.put(user.getNode(), list);
+      }
+      list.add(user);
+    }
+    SessionManager sessionManager = getSessionManager();
+    for (Map.Entry<String, List<JID>> entry : byNode.entrySet()) {
+      String node = entry.getKey();
+      Collection<ClientSession> sessions = sessionManager.getSessions(node);
+      Set<String> resources = new HashSet<String>();
+      for (ClientSession clientSession : sessions) {
+        JID clientSessionAddress = clientSession.getAddress();
+        if (clientSessionAddress.getNode().equals(node) && clientSession.isInitialized()) {
+          resources.add(clientSessionAddress.getResource());
+        }
+      }
+      for (JID user : entry.getValue()) {
+        if (resources.contains(user.getResource())) {
+          online.add(user);
+        }
+      }
+    }
+    if (LOGGER.isDebugEnabled()) {
+      long delta = System.nanoTime() - start;
+      LOGGER.debug("getOnlineJIDs : checked presence of {} JIDs, found {} online in {} micros", new Object[]{users.size(), online.size(), delta/1000});
+    }
+    return online;
+  }
+
   /**
    * Get the session manager
    * @return
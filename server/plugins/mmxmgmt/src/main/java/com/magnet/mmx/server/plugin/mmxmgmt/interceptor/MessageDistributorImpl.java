@@ -25,7 +25,10 @@ import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -41,39 +44,65 @@ public class MessageDistributorImpl implements MessageDistributor {
     String bareUserId = context.getBareUserId();
     String appKey = context.getAppId();
     String domain = context.getServerHostname();
-    List<DeviceEntity> devices = deviceDAO.getDevices(appKey, bareUserId, DeviceStatus.ACTIVE);
+    List<DeviceEntity> devices = DeviceEntityCache.getInstance().getActiveDevices(appKey, bareUserId, deviceDAO);
     LOGGER.info("distribute : Distributing messages for user={}, messageId={}, numDevices={} ", new Object[]{context.getBareUserId(), context.getMessageId(), devices.size()});
 
     List<JID> distributed = new ArrayList<JID>();
     List<JIDDevicePair> undistributed = new ArrayList<JIDDevicePair>();
     boolean noDevices = (devices.size() == 0);
+    if (noDevices) {
+      return new DistributionResultImpl(distributed, undistributed, noDevices);
+    }
+    Map<JID, DeviceEntity> deviceJIDs = new LinkedHashMap<JID, DeviceEntity>(devices.size());
     for (DeviceEntity entity : devices) {
-      String deviceId = entity.getDeviceId();
-      Message cloned = message.createCopy();
-      JID deviceSpecificJID = buildToAddress(bareUserId, appKey, domain, deviceId);
-      cloned.setTo(deviceSpecificJID);
-      MMXPresenceFinder finder = getPresenceFinder();
-      if(finder.isOnline(deviceSpecificJID)) {
-       LOGGER.trace("distribute : found online deviceSpecificJID={}", deviceSpecificJID);
-       route(cloned);
-       distributed.add(deviceSpecificJID);
+      deviceJIDs.put(buildToAddress(bareUserId, appKey, domain, entity.getDeviceId()), entity);
+    }
+    Set<JID> online = getPresenceFinder().getOnlineJIDs(deviceJIDs.keySet());
+    for (Map.Entry<JID, DeviceEntity> entry : deviceJIDs.entrySet()) {
+      JID deviceSpecificJID = entry.getKey();
+      if (online.contains(deviceSpecificJID)) {
+        LOGGER.trace("distribute : found online deviceSpecificJID={}", deviceSpecificJID);
+        distributed.add(deviceSpecificJID);
       } else {
         LOGGER.trace("distribute : not found online deviceSpecificJID={}", deviceSpecificJID);
-        JIDDevicePairImpl pair = new JIDDevicePairImpl(deviceSpecificJID, entity);
-        undistributed.add(pair);
+        undistributed.add(new JIDDevicePairImpl(deviceSpecificJID, entry.getValue()));
       }
     }
+    route(message, distributed);
     return new DistributionResultImpl(distributed, undistributed, noDevices);
   }
 
-  private void route(final Message cloned) {
+  /**
+   * Route a copy of the message to each of the supplied JIDs. The copies are made on the calling
+   * thread and routed in parallel by splitting them in up to POOL_SIZE chunks.
+   * @param message
+   * @param recipients
+   */
+  private void route(Message message, List<JID> recipients) {
+    int count = recipients.size();
+    if (count == 0) {
+      return;
+    }
+    List<Message> copies = new ArrayList<Message>(count);
+    for (JID recipient : recipients) {
+      Message cloned = message.createCopy();
+      cloned.setTo(recipient);
+      copies.add(cloned);
+    }
     ExecutorService service = MMXExecutors.getOrCreate(POOL_NAME, POOL_SIZE);
-    service.submit(new Runnable() {
-      @Override
-      public void run() {
-        getPacketRouter().route(cloned);
-      }
-    });
+    final PacketRouter router = getPacketRouter();
+    int chunkSize = (count + POOL_SIZE - 1) / POOL_SIZE;
+    for (int start = 0; start < count; start += chunkSize) {
+      final List<Message> chunk = copies.subList(start, Math.min(count, start + chunkSize));
+      service.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (Message cloned : chunk) {
+            router.route(cloned);
+          }
+        }
+      });
+    }
   }
 
   private JID buildToAddress (String userId, String appKey, String domain, String deviceId ) {
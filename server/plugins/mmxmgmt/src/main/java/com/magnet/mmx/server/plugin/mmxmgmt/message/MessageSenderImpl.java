@@ -25,6 +25,7 @@ import com.magnet.mmx.server.plugin.mmxmgmt.api.query.DeviceQuery;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.query.UserQuery;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.ConnectionProvider;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAOImpl;
@@ -334,7 +335,7 @@ public class MessageSenderImpl implements MessageSender {
       result.setValid(false, ERROR_INVALID_APPID);
       return result;
     }
-    AppEntity appEntity = appDAO.getAppForAppKey(appId);
+    AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
     if (appEntity == null) {
       ValidationResult result = new ValidationResult();
       result.setValid(false, ERROR_INVALID_APPID);
@@ -378,7 +379,7 @@ public class MessageSenderImpl implements MessageSender {
     if (request == null) {
       return ValidationResult.failure(ERROR_INVALID_SEND_MESSAGE_REQUEST, FAILURE_CODE_NULL_REQUEST);
     }
-    AppEntity appEntity = appDAO.getAppForAppKey(appId);
+    AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
     if (appEntity == null) {
       ValidationResult result = new ValidationResult();
       result.setValid(false, ERROR_INVALID_APPID);
@@ -427,7 +428,7 @@ public class MessageSenderImpl implements MessageSender {
       result.setValid(false, ERROR_INVALID_APPID);
       return result;
     }
-    AppEntity appEntity = appDAO.getAppForAppKey(appId);
+    AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
     if (appEntity == null) {
       ValidationResult result = new ValidationResult();
       result.setValid(false, ERROR_INVALID_APPID);
@@ -21,6 +21,7 @@ import java.util.List;
 public class PubSubItemResult {
   int totalCount;
   List<MMXPubSubItem> items;
+  String nextCursor;
 
   public PubSubItemResult(int totalCount, List<MMXPubSubItem> list) {
     this.totalCount = totalCount;
@@ -34,4 +35,15 @@ public class PubSubItemResult {
   public List<MMXPubSubItem> getItems() {
     return items;
   }
+
+  /**
+   * @return cursor for getting the next page of items or null if there are no more items
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  public void setNextCursor(String nextCursor) {
+    this.nextCursor = nextCursor;
+  }
 }
@@ -14,62 +14,334 @@
  */
 package com.magnet.mmx.server.plugin.mmxmgmt.monitoring;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.base.Ticker;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppConfigurationCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.openfire.cluster.ClusterNodeInfo;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
-import java.util.concurrent.ExecutionException;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Per app rate limiting for the XMPP and HTTP traffic.
+ * Every (type, appId) combination gets its own {@link TokenBucket}. Buckets are never evicted so an
+ * app always keeps its current state; rate changes are applied to the existing buckets.
+ * The rate of an app is the value from the descriptor unless the app has a positive override
+ * configured using the app configuration keys {@link MMXConfigKeys#APP_MAX_XMPP_RATE} and
+ * {@link MMXConfigKeys#APP_MAX_HTTP_RATE}.
+ * When {@link MMXConfigKeys#RATE_LIMIT_CLUSTER_SHARES_ENABLED} is set, the rates are treated as
+ * cluster wide quotas and every node enforces an equal share of them.
  */
 public class RateLimiterService {
   private static final Logger LOGGER = LoggerFactory.getLogger(RateLimiterService.class);
-  private static LoadingCache<RateLimiterDescriptor, RateLimiter> rateLimiterMap = CacheBuilder.newBuilder()
-          .maximumSize(100)
-          .build(
-                  new CacheLoader<RateLimiterDescriptor, RateLimiter>() {
-                    public RateLimiter load(RateLimiterDescriptor descriptor) {
-                      return RateLimiter.create(descriptor.getPermitsPerSecond());
-                    }
-                  });
-
-  private static RateLimiter getOrCreate(RateLimiterDescriptor descriptor) throws ExecutionException {
-    return rateLimiterMap.get(descriptor);
-  }
+  private static final String NO_APP_ID = "";
+  private static final ConcurrentHashMap<String, ConcurrentHashMap<String, AppRateLimiter>> rateLimiterMap =
+      new ConcurrentHashMap<String, ConcurrentHashMap<String, AppRateLimiter>>();
+  private static volatile int clusterShares = 1;
+  private static volatile Ticker ticker = Ticker.systemTicker();
 
   public static boolean isAllowed(RateLimiterDescriptor descriptor) {
-    if(descriptor.getPermitsPerSecond() <= 0) {
-      LOGGER.trace("isAllowed : rate limiting disabled");
-      return true;
+    AppRateLimiter limiter = getOrCreate(descriptor);
+    if (limiter.defaultRate != descriptor.getPermitsPerSecond()) {
+      limiter.defaultRate = descriptor.getPermitsPerSecond();
+      limiter.apply();
     }
-    try {
-      LOGGER.trace("isAllowed : getting ratelimiter for descriptor={}", descriptor);
-      RateLimiter r = getOrCreate(descriptor);
-      LOGGER.trace("isAllowed : retireved ratelimiter={}, rate={}", r, r.getRate());
-      return r.tryAcquire();
-    } catch (ExecutionException e) {
-      LOGGER.error("isAllowed : Caught exception getting RateLimiter for descriptor : {}", descriptor, e);
-      return false;
+    boolean allowed = limiter.bucket.tryAcquire(ticker.read());
+    if (!allowed) {
+      LOGGER.trace("isAllowed : permit rejected for descriptor={}, bucket={}", descriptor, limiter.bucket);
     }
+    return allowed;
   }
 
+  /**
+   * Update the default rate for all the apps using the supplied type.
+   * @param type
+   * @param rate
+   */
   public static void updateRates(String type, long rate) {
     LOGGER.debug("updateRates : type={}, rate={}", type, rate);
-    Iterator<RateLimiterDescriptor> iterator = rateLimiterMap.asMap().keySet().iterator();
-    while(iterator.hasNext()) {
-      RateLimiterDescriptor oldRateDesc = iterator.next();
-      if(type.equals(oldRateDesc.getType())) {
-        LOGGER.trace("updateRates : invalidated rate={}", oldRateDesc);
-        rateLimiterMap.invalidate(oldRateDesc);
-        RateLimiterDescriptor newRateDesc = new RateLimiterDescriptor(oldRateDesc.getType(), oldRateDesc.getAppId(), rate);
-        LOGGER.trace("updateRates : updating rate desc={}, rate={}", newRateDesc, rate);
-        rateLimiterMap.put(newRateDesc, RateLimiter.create(rate));
-        rateLimiterMap.refresh(newRateDesc);
+    Map<String, AppRateLimiter> limiters = rateLimiterMap.get(type);
+    if (limiters == null) {
+      return;
+    }
+    for (AppRateLimiter limiter : limiters.values()) {
+      limiter.defaultRate = rate;
+      limiter.apply();
+    }
+  }
+
+  /**
+   * Clear the cached app configuration for the supplied key and reload the app specific rate on
+   * all the cluster nodes after the app configuration has changed.
+   * @param appId
+   * @param key app configuration key
+   */
+  public static void appConfigurationChanged(String appId, String key) {
+    if (appId == null || key == null) {
+      return;
+    }
+    AppConfigurationCache.getInstance().clear(appId, key);
+    appConfigurationChangedLocal(appId, key);
+    broadcast(new AppConfigurationChangeTask(appId, key));
+  }
+
+  static void appConfigurationChangedLocal(String appId, String key) {
+    String type = getTypeForAppConfigKey(key);
+    if (type == null || appId == null) {
+      return;
+    }
+    Map<String, AppRateLimiter> limiters = rateLimiterMap.get(type);
+    AppRateLimiter limiter = limiters != null ? limiters.get(appId) : null;
+    if (limiter != null) {
+      limiter.appRate = getAppRate(type, appId);
+      limiter.apply();
+      LOGGER.debug("appConfigurationChanged : updated limiter for type={}, appId={}, bucket={}", new Object[]{type, appId, limiter.bucket});
+    }
+  }
+
+  /**
+   * Recalculate the share of the rates enforced by this node. Should be called when nodes
+   * join or leave the cluster.
+   */
+  public static void updateClusterShares() {
+    int shares = 1;
+    boolean enabled = MMXConfiguration.getConfiguration().getBoolean(MMXConfigKeys.RATE_LIMIT_CLUSTER_SHARES_ENABLED,
+        MMXServerConstants.DEFAULT_RATE_LIMIT_CLUSTER_SHARES_ENABLED);
+    if (enabled && ClusterManager.isClusteringStarted()) {
+      Collection<ClusterNodeInfo> nodes = ClusterManager.getNodesInfo();
+      if (nodes != null && !nodes.isEmpty()) {
+        shares = nodes.size();
+      }
+    }
+    if (shares != clusterShares) {
+      LOGGER.info("updateClusterShares : rate limit shares changed from={} to={}", clusterShares, shares);
+      clusterShares = shares;
+      for (Map<String, AppRateLimiter> limiters : rateLimiterMap.values()) {
+        for (AppRateLimiter limiter : limiters.values()) {
+          limiter.apply();
+        }
+      }
+    }
+  }
+
+  public static long getAllowedCount() {
+    long count = 0;
+    for (Map<String, AppRateLimiter> limiters : rateLimiterMap.values()) {
+      for (AppRateLimiter limiter : limiters.values()) {
+        count += limiter.bucket.getAllowedCount();
       }
     }
+    return count;
+  }
+
+  public static long getRejectedCount() {
+    long count = 0;
+    for (Map<String, AppRateLimiter> limiters : rateLimiterMap.values()) {
+      for (AppRateLimiter limiter : limiters.values()) {
+        count += limiter.bucket.getRejectedCount();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Get a summary of the limiters that have rejected at least one permit.
+   * @return one line per limiter
+   */
+  public static List<String> getStats() {
+    List<String> stats = new ArrayList<String>();
+    for (Map.Entry<String, ConcurrentHashMap<String, AppRateLimiter>> entry : rateLimiterMap.entrySet()) {
+      for (AppRateLimiter limiter : entry.getValue().values()) {
+        if (limiter.bucket.getRejectedCount() > 0) {
+          stats.add(entry.getKey() + " appId=" + limiter.appId + " " + limiter.bucket);
+        }
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Remove all the limiters and restore the cluster shares and the ticker. Used by the tests.
+   */
+  static void clear() {
+    rateLimiterMap.clear();
+    clusterShares = 1;
+    ticker = Ticker.systemTicker();
+  }
+
+  /**
+   * Set the time source used by the buckets. Used by the tests.
+   * @param source
+   */
+  static void setTicker(Ticker source) {
+    ticker = source;
+  }
+
+  private static void broadcast(ClusterTask task) {
+    try {
+      if (ClusterManager.isClusteringEnabled()) {
+        CacheFactory.doClusterTask(task);
+      }
+    } catch (Exception e) {
+      LOGGER.warn("broadcast : failed to send app configuration change task={} to the cluster", task, e);
+    }
+  }
+
+  private static AppRateLimiter getOrCreate(RateLimiterDescriptor descriptor) {
+    ConcurrentHashMap<String, AppRateLimiter> limiters = rateLimiterMap.get(descriptor.getType());
+    if (limiters == null) {
+      limiters = new ConcurrentHashMap<String, AppRateLimiter>();
+      ConcurrentHashMap<String, AppRateLimiter> existing = rateLimiterMap.putIfAbsent(descriptor.getType(), limiters);
+      if (existing != null) {
+        limiters = existing;
+      }
+    }
+    String appId = descriptor.getAppId() != null ? descriptor.getAppId() : NO_APP_ID;
+    AppRateLimiter limiter = limiters.get(appId);
+    if (limiter == null) {
+      long appRate = getAppRate(descriptor.getType(), appId);
+      limiter = new AppRateLimiter(appId, descriptor.getPermitsPerSecond(), appRate);
+      AppRateLimiter existing = limiters.putIfAbsent(appId, limiter);
+      if (existing != null) {
+        limiter = existing;
+      } else {
+        LOGGER.debug("getOrCreate : created limiter for descriptor={}, bucket={}", descriptor, limiter.bucket);
+      }
+    }
+    return limiter;
+  }
+
+  private static String getTypeForAppConfigKey(String key) {
+    if (MMXConfigKeys.APP_MAX_XMPP_RATE.equals(key)) {
+      return MMXServerConstants.XMPP_RATE_TYPE;
+    } else if (MMXConfigKeys.APP_MAX_HTTP_RATE.equals(key)) {
+      return MMXServerConstants.HTTP_RATE_TYPE;
+    }
+    return null;
+  }
+
+  /**
+   * Get the app specific rate.
+   * @return the configured rate or -1 if the app doesn't have a valid override
+   */
+  private static long getAppRate(String type, String appId) {
+    if (NO_APP_ID.equals(appId)) {
+      return -1L;
+    }
+    String key = MMXServerConstants.XMPP_RATE_TYPE.equals(type) ? MMXConfigKeys.APP_MAX_XMPP_RATE : MMXConfigKeys.APP_MAX_HTTP_RATE;
+    try {
+      String value = AppConfigurationCache.getInstance().getString(appId, key);
+      if (value == null || value.isEmpty()) {
+        return -1L;
+      }
+      long rate = Long.parseLong(value.trim());
+      return rate > 0 ? rate : -1L;
+    } catch (NumberFormatException e) {
+      LOGGER.warn("getAppRate : invalid rate for appId={}, key={}", appId, key);
+      return -1L;
+    } catch (RuntimeException e) {
+      LOGGER.error("getAppRate : failed to load rate for appId={}, key={}", new Object[]{appId, key, e});
+      return -1L;
+    }
+  }
+
+  private static class AppRateLimiter {
+    private final String appId;
+    private final TokenBucket bucket;
+    private volatile long defaultRate;
+    private volatile long appRate;
+
+    private AppRateLimiter(String appId, long defaultRate, long appRate) {
+      this.appId = appId;
+      this.defaultRate = defaultRate;
+      this.appRate = appRate;
+      long rate = getLocalRate();
+      this.bucket = new TokenBucket(rate, getBurst(rate), ticker.read());
+    }
+
+    private void apply() {
+      long rate = getLocalRate();
+      bucket.setRate(rate, getBurst(rate));
+    }
+
+    private long getLocalRate() {
+      long rate = appRate > 0 ? appRate : defaultRate;
+      int shares = clusterShares;
+      if (rate > 0 && shares > 1) {
+        rate = Math.max(1L, (rate + shares - 1) / shares);
+      }
+      return rate;
+    }
+
+    private static long getBurst(long rate) {
+      int burstSeconds = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.RATE_LIMIT_BURST_SECONDS,
+          MMXServerConstants.DEFAULT_RATE_LIMIT_BURST_SECONDS);
+      return Math.max(1L, rate * Math.max(1, burstSeconds));
+    }
+  }
+
+  /**
+   * Cluster task that clears the cached app configuration and reloads the app specific rate on the
+   * other cluster nodes.
+   */
+  public static class AppConfigurationChangeTask implements ClusterTask {
+    private String appId;
+    private String key;
+
+    public AppConfigurationChangeTask() {
+    }
+
+    AppConfigurationChangeTask(String appId, String key) {
+      this.appId = appId;
+      this.key = key;
+    }
+
+    @Override
+    public Object getResult() {
+      return null;
+    }
+
+    @Override
+    public void run() {
+      AppConfigurationCache.getInstance().clear(appId, key);
+      appConfigurationChangedLocal(appId, key);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      util.writeSafeUTF(out, appId);
+      util.writeSafeUTF(out, key);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      appId = util.readSafeUTF(in);
+      key = util.readSafeUTF(in);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("AppConfigurationChangeTask{");
+      sb.append("appId='").append(appId).append('\'');
+      sb.append(", key='").append(key).append('\'');
+      sb.append('}');
+      return sb.toString();
+    }
   }
 }
@@ -0,0 +1,135 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.monitoring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket implemented as a generic cell rate algorithm. The whole bucket state is
+ * a single "theoretical arrival time" which is advanced using compare and set, so acquiring
+ * a permit costs one CAS in the uncontended case.
+ * Changing the rate keeps the current state, so a rate update does not refill the bucket.
+ */
+public class TokenBucket {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1L);
+
+  /**
+   * Theoretical arrival time of the next permit in System.nanoTime() units
+   */
+  private final AtomicLong arrivalTime;
+  private final AtomicLong allowedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private volatile Limits limits;
+
+  /**
+   * Create a bucket with the supplied rate.
+   * @param permitsPerSecond rate; values <= 0 disable the limit
+   * @param burstPermits maximum number of permits that can be acquired at once after the bucket has been idle
+   */
+  public TokenBucket(long permitsPerSecond, long burstPermits) {
+    this(permitsPerSecond, burstPermits, System.nanoTime());
+  }
+
+  TokenBucket(long permitsPerSecond, long burstPermits, long nowNanos) {
+    this.limits = new Limits(permitsPerSecond, burstPermits);
+    this.arrivalTime = new AtomicLong(nowNanos);
+  }
+
+  /**
+   * Try to acquire a single permit without waiting.
+   * @return true if the permit was acquired.
+   */
+  public boolean tryAcquire() {
+    return tryAcquire(System.nanoTime());
+  }
+
+  boolean tryAcquire(long nowNanos) {
+    Limits current = limits;
+    if (current.unlimited) {
+      allowedCount.incrementAndGet();
+      return true;
+    }
+    while (true) {
+      long tat = arrivalTime.get();
+      long start = tat - nowNanos > 0 ? tat : nowNanos;
+      if (start - nowNanos > current.toleranceNanos) {
+        rejectedCount.incrementAndGet();
+        return false;
+      }
+      if (arrivalTime.compareAndSet(tat, start + current.intervalNanos)) {
+        allowedCount.incrementAndGet();
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Update the rate of this bucket.
+   * @param permitsPerSecond rate; values <= 0 disable the limit
+   * @param burstPermits maximum burst
+   */
+  public void setRate(long permitsPerSecond, long burstPermits) {
+    Limits current = limits;
+    if (current.permitsPerSecond != permitsPerSecond || current.burstPermits != burstPermits) {
+      limits = new Limits(permitsPerSecond, burstPermits);
+    }
+  }
+
+  public long getPermitsPerSecond() {
+    return limits.permitsPerSecond;
+  }
+
+  public long getBurstPermits() {
+    return limits.burstPermits;
+  }
+
+  public long getAllowedCount() {
+    return allowedCount.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return "TokenBucket{" +
+        "permitsPerSecond=" + getPermitsPerSecond() +
+        ", burstPermits=" + getBurstPermits() +
+        ", allowed=" + getAllowedCount() +
+        ", rejected=" + getRejectedCount() +
+        '}';
+  }
+
+  /**
+   * Immutable rate settings so that readers always see a consistent interval and tolerance.
+   */
+  private static final class Limits {
+    private final long permitsPerSecond;
+    private final long burstPermits;
+    private final boolean unlimited;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+
+    private Limits(long permitsPerSecond, long burstPermits) {
+      this.permitsPerSecond = permitsPerSecond;
+      this.burstPermits = Math.max(1L, burstPermits);
+      this.unlimited = permitsPerSecond <= 0;
+      this.intervalNanos = unlimited ? 0L : Math.max(1L, NANOS_PER_SECOND / permitsPerSecond);
+      this.toleranceNanos = intervalNanos * (this.burstPermits - 1);
+    }
+  }
+}
@@ -27,8 +27,10 @@ import com.magnet.mmx.server.plugin.mmxmgmt.db.DbInteractionException;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.QueryBuilderResult;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.QueryParam;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.SearchResult;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.TopicItemCursor;
 import com.magnet.mmx.server.plugin.mmxmgmt.handler.ConfigureForm;
 import com.magnet.mmx.server.plugin.mmxmgmt.search.PaginationInfo;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.SqlUtil;
 import com.magnet.mmx.util.TopicHelper;
 import org.jivesoftware.database.DbConnectionManager;
 import org.jivesoftware.openfire.XMPPServer;
@@ -47,10 +49,13 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Extra functionality to the PubSubPersistenceManager.
@@ -62,6 +67,12 @@ public class PubSubPersistenceManagerExt {
       "mmx.topic.query.max", 5000);
   private static final int MAX_ROWS_FETCH = JiveGlobals.getIntProperty(
       "xmpp.pubsub.fetch.max", 2000);
+  /**
+   * Items published within this period may still be waiting in the pending queue of the
+   * PubSubPersistenceManager, which is flushed every "xmpp.pubsub.flush.timer" seconds.
+   */
+  private static final long PENDING_ITEMS_PERIOD = 2 * 1000L * JiveGlobals.getIntProperty(
+      "xmpp.pubsub.flush.timer", 120);
   private static final String LOAD_ITEMS_PREDICATE = 
       "WHERE serviceID=? AND nodeID=? AND creationDate >= ? ORDER BY creationDate DESC";
   private static final String LOAD_ITEMS_BTWN_PREDICATE =
@@ -72,9 +83,13 @@ public class PubSubPersistenceManagerExt {
       + LOAD_ITEMS_PREDICATE;
   private static final String LOAD_ITEMS_BTWN_COUNT = "SELECT count(*) FROM ofPubsubItem "
       + LOAD_ITEMS_BTWN_PREDICATE;
-  private static final String LOAD_ITEMS_BTWN = "SELECT id,jid,creationDate,payload FROM ofPubsubItem "
-      + LOAD_ITEMS_BTWN_PREDICATE;
+  private static final String LOAD_ITEMS_PAGE = "SELECT id,jid,creationDate,payload FROM ofPubsubItem "
+      + "WHERE serviceID=? AND nodeID=? AND creationDate BETWEEN ? AND ? ORDER BY creationDate DESC, id DESC";
+  private static final String LOAD_ITEMS_PAGE_BEFORE = "SELECT id,jid,creationDate,payload FROM ofPubsubItem "
+      + "WHERE serviceID=? AND nodeID=? AND creationDate BETWEEN ? AND ? "
+      + "AND (creationDate < ? OR (creationDate = ? AND id < ?)) ORDER BY creationDate DESC, id DESC";
   private static final String GET_ITEM_COUNT = "SELECT count(*) from ofPubsubItem WHERE nodeID=? AND serviceID=?";
+  private static final String LOAD_EXISTING_ITEM_IDS = "SELECT id FROM ofPubsubItem WHERE serviceID=? AND nodeID=? AND id IN ( ";
   private static final String SEARCH_PROJECTION = 
       "nodeID,leaf,name,description,persistItems,maxItems,maxPayloadSize,publisherModel,creationDate,modificationDate,creator,subscriptionEnabled";
   private static final String SEARCH_BY_NAME = 
@@ -102,22 +117,12 @@ public class PubSubPersistenceManagerExt {
 
 //    LOGGER.trace("getPublishedItems : nodeId={}, maxRows={}, since={}", node, maxRows, since);
 
-    PubSubPersistenceManager.flushPendingItems();
+    flushPendingItems(node, null);
 
     Connection con = null;
     PreparedStatement pstmt = null;
     ResultSet rs = null;
-    int max = MAX_ROWS_FETCH;
-    int maxPublished = node.getMaxPublishedItems();
-
-    // Limit the max rows until a solution is in place with Result Set
-    // Management
-    if (maxRows != -1) {
-      max = (maxPublished == -1) ?
-          Math.min(maxRows, MAX_ROWS_FETCH) : Math.min(maxRows, maxPublished);
-    } else if (maxPublished != -1) {
-      max = Math.min(MAX_ROWS_FETCH, maxPublished);
-    }
+    int max = getMaxRows(node, maxRows);
 
     // We don't know how many items are in the db, so we will start with an
     // allocation of 500
@@ -193,65 +198,95 @@ public class PubSubPersistenceManagerExt {
     return count;
   }
 
-  public static List<PublishedItem> getPublishedItems(LeafNode node,
+  public static List<PublishedItem> getPublishedItems(final LeafNode node,
       int maxRows, Date since, Date until, boolean asc) {
+    final LinkedList<PublishedItem> results = new LinkedList<PublishedItem>();
+    final boolean descending = !asc;
+    getPublishedItems(node, maxRows, since, until, null, new PublishedItemHandler() {
+      @Override
+      public void handle(String itemId, JID publisher, Date creationDate, String payloadXML) {
+        PublishedItem item = new PublishedItem(node, publisher, itemId, creationDate);
+        if (payloadXML != null) {
+          item.setPayloadXML(payloadXML);
+        }
+        if (descending)
+          results.add(item);
+        else
+          results.addFirst(item);
+      }
+    });
 
-//    LOGGER.trace(
-//        "getPublishedItems : nodeId={}, maxRows={}, since={}, until={}", node,
-//        maxRows, since, until);
+    if (results.size() == 0)
+      return Collections.emptyList();
 
-    PubSubPersistenceManager.flushPendingItems();
+    LOGGER.trace("getPublishedItems : returning list : {}", results);
+    return results;
+  }
 
-    Connection con = null;
-    PreparedStatement pstmt = null;
-    ResultSet rs = null;
-    int max = MAX_ROWS_FETCH;
-    int maxPublished = node.getMaxPublishedItems();
+  /**
+   * Callback for the rows read by
+   * {@link #getPublishedItems(LeafNode, int, Date, Date, TopicItemCursor, PublishedItemHandler)}.
+   */
+  public interface PublishedItemHandler {
+    public void handle(String itemId, JID publisher, Date creationDate, String payloadXML);
+  }
 
-    // Limit the max rows until a solution is in place with Result Set
-    // Management
-    if (maxRows != -1) {
-      max = (maxPublished == -1) ? Math.min(maxRows, MAX_ROWS_FETCH) : Math
-          .min(maxRows, maxPublished);
-    } else if (maxPublished != -1) {
-      max = Math.min(MAX_ROWS_FETCH, maxPublished);
+  /**
+   * Read a page of the published items of a node, newest first. The next page is read by passing
+   * the returned cursor; it continues with the item published before the last item of this page
+   * without reading the rows of the pages before it. The rows are passed to the handler as they
+   * are read.
+   * @param node
+   * @param maxRows max number of items in the page; -1 for the server default
+   * @param since lower bound of the creation date (inclusive)
+   * @param until upper bound of the creation date (inclusive)
+   * @param before cursor of the last item of the previous page or null for the first page
+   * @param handler
+   * @return cursor for the next page or null if there are no more items
+   */
+  public static TopicItemCursor getPublishedItems(LeafNode node, int maxRows, Date since, Date until,
+                                                  TopicItemCursor before, PublishedItemHandler handler) {
+    Date upperBound = until;
+    if (before != null) {
+      Date cursorDate = new Date(Long.parseLong(before.getCreationDate().trim()));
+      if (cursorDate.before(upperBound)) {
+        upperBound = cursorDate;
+      }
     }
+    flushPendingItems(node, upperBound);
 
-    // We don't know how many items are in the db, so we will start with an
-    // allocation of 2000
-    LinkedList<PublishedItem> results = new LinkedList<PublishedItem>();
-    boolean descending = !asc;
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    int max = getMaxRows(node, maxRows);
+    TopicItemCursor next = null;
     try {
       con = DbConnectionManager.getConnection();
-      // Get published items of the specified node
-      pstmt = con.prepareStatement(LOAD_ITEMS_BTWN);
-      pstmt.setMaxRows(max);
+      pstmt = con.prepareStatement(before == null ? LOAD_ITEMS_PAGE : LOAD_ITEMS_PAGE_BEFORE);
+      // one more row tells if there is a next page
+      pstmt.setMaxRows(max + 1);
       pstmt.setString(1, node.getService().getServiceID());
       pstmt.setString(2, encodeNodeID(node.getNodeID()));
-      String sinceString = StringUtils.dateToMillis(since);
-      pstmt.setString(3, sinceString);
-      String untilString = StringUtils.dateToMillis(until);
-      pstmt.setString(4, untilString);
+      pstmt.setString(3, StringUtils.dateToMillis(since));
+      pstmt.setString(4, StringUtils.dateToMillis(until));
+      if (before != null) {
+        pstmt.setString(5, before.getCreationDate());
+        pstmt.setString(6, before.getCreationDate());
+        pstmt.setString(7, before.getItemId());
+      }
       rs = pstmt.executeQuery();
       int counter = 0;
-      // Rebuild loaded published items
-      while (rs.next() && (counter < max)) {
-        String itemID = rs.getString(1);
-        JID publisher = new JID(rs.getString(2));
-
-        Date creationDate = new Date(Long.parseLong(rs.getString(3).trim()));
-        // Create the item
-        PublishedItem item = new PublishedItem(node, publisher, itemID,
-            creationDate);
-        // Add the extra fields to the published item
-        if (rs.getString(4) != null) {
-          item.setPayloadXML(rs.getString(4));
+      TopicItemCursor last = null;
+      while (rs.next()) {
+        if (counter == max) {
+          next = last;
+          break;
         }
-        // Add the published item to the node
-        if (descending)
-          results.add(item);
-        else
-          results.addFirst(item);
+        String itemID = rs.getString(1);
+        String creationDate = rs.getString(3);
+        handler.handle(itemID, new JID(rs.getString(2)),
+            new Date(Long.parseLong(creationDate.trim())), rs.getString(4));
+        last = new TopicItemCursor(creationDate, itemID);
         counter++;
       }
     } catch (Exception sqle) {
@@ -259,12 +294,80 @@ public class PubSubPersistenceManagerExt {
     } finally {
       DbConnectionManager.closeConnection(rs, pstmt, con);
     }
+    return next;
+  }
 
-    if (results.size() == 0)
-      return Collections.emptyList();
+  /**
+   * Write the pending published items to the database if the items of the node up to upperBound
+   * may still be pending. Reads of the older items of a node, like the pages deep in its history,
+   * don't have to wait for the items being published by others.
+   * @param node
+   * @param upperBound upper bound of the creation date of the items to be read; null for no bound
+   */
+  static void flushPendingItems(LeafNode node, Date upperBound) {
+    long pendingSince = System.currentTimeMillis() - PENDING_ITEMS_PERIOD;
+    PublishedItem lastItem = node.getLastPublishedItem();
+    if (lastItem == null || lastItem.getCreationDate().getTime() < pendingSince) {
+      return;
+    }
+    if (upperBound != null && upperBound.getTime() < pendingSince) {
+      return;
+    }
+    PubSubPersistenceManager.flushPendingItems();
+  }
 
-    LOGGER.trace("getPublishedItems : returning list : {}", results);
-    return results;
+  /**
+   * Get the ids of the supplied items that are already published to the node, using one query
+   * instead of a {@link LeafNode#getPublishedItem(String)} lookup for every item.
+   * @param node
+   * @param itemIds
+   * @return the existing item ids or null if they couldn't be loaded
+   */
+  public static Set<String> getExistingItemIds(LeafNode node, Collection<String> itemIds) {
+    Set<String> existing = new HashSet<String>();
+    if (itemIds.isEmpty()) {
+      return existing;
+    }
+    flushPendingItems(node, null);
+
+    Connection con = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    try {
+      con = DbConnectionManager.getConnection();
+      pstmt = con.prepareStatement(LOAD_EXISTING_ITEM_IDS + SqlUtil.getQs(itemIds.size()) + " )");
+      int index = 1;
+      pstmt.setString(index++, node.getService().getServiceID());
+      pstmt.setString(index++, encodeNodeID(node.getNodeID()));
+      for (String itemId : itemIds) {
+        pstmt.setString(index++, itemId);
+      }
+      rs = pstmt.executeQuery();
+      while (rs.next()) {
+        existing.add(rs.getString(1));
+      }
+      return existing;
+    } catch (SQLException e) {
+      LOGGER.error("getExistingItemIds : failed to load the items of node={}", node.getNodeID(), e);
+      return null;
+    } finally {
+      DbConnectionManager.closeConnection(rs, pstmt, con);
+    }
+  }
+
+  static int getMaxRows(LeafNode node, int maxRows) {
+    int max = MAX_ROWS_FETCH;
+    int maxPublished = node.getMaxPublishedItems();
+
+    // Limit the max rows until a solution is in place with Result Set
+    // Management
+    if (maxRows != -1) {
+      max = (maxPublished == -1) ?
+          Math.min(maxRows, MAX_ROWS_FETCH) : Math.min(maxRows, maxPublished);
+    } else if (maxPublished != -1) {
+      max = Math.min(MAX_ROWS_FETCH, maxPublished);
+    }
+    return max;
   }
   
   public static int getPublishedItemCount(LeafNode node, Date since, Date until) {
@@ -391,18 +494,20 @@ public class PubSubPersistenceManagerExt {
     } else {
       maxRows = Math.min(maxRows, MAX_ROWS_FETCH);
     }
-    // TODO: the pagination offset is not implemented, total is not available.
+    // TODO: total is not available.
     int total = -1;
+    offset = Math.max(0, offset);
     List<TopicInfo> results = new ArrayList<TopicInfo>();
     try {
       con = DbConnectionManager.getConnection();
-      pstmt = con.prepareStatement(query);
+      pstmt = DbConnectionManager.createScrollablePreparedStatement(con, query);
       pstmt.setString(1, value);
       pstmt.setString(2, XMPPServer.getInstance().getPubSubModule().getServiceID());
       pstmt.setString(3, globalPrefix);
       pstmt.setString(4, personalPrefix);
-      pstmt.setMaxRows(maxRows);
+      DbConnectionManager.setMaxRows(pstmt, offset + maxRows);
       rs = pstmt.executeQuery();
+      DbConnectionManager.scrollResultSet(rs, offset);
       while (rs.next()) {
         String nodeId = rs.getString(INDEX_SRCH_NODEID);
         MMXTopicId topic = TopicHelper.parseNode(nodeId);
@@ -0,0 +1,405 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.pubsub;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.openfire.pubsub.LeafNode;
+import org.jivesoftware.openfire.pubsub.PublishedItem;
+import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Bounded ring buffer of the most recently published items of each persistent leaf node, used for
+ * sending the items published since the last delivery to a reconnecting user without querying the
+ * database. The ring of a node is created on the first publish seen by this cluster node and holds
+ * every item published since then until it is full; from then on it holds every item published
+ * since the creation date of the oldest item it kept. A read is only answered from the ring when
+ * the ring has all the items the database query would return. Publishes are applied on every node
+ * of the cluster; only the id and the creation date of an item are sent to the other cluster nodes,
+ * which load the item when it is first read. Retracts, purges and node deletes drop the ring of the
+ * node.
+ */
+public class RecentItemsCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(RecentItemsCache.class);
+
+  private static final Comparator<RecentItem> BY_CREATION_DATE = new Comparator<RecentItem>() {
+    @Override
+    public int compare(RecentItem o1, RecentItem o2) {
+      return o1.creationDate < o2.creationDate ? -1 : (o1.creationDate == o2.creationDate ? 0 : 1);
+    }
+  };
+
+  private final int itemsPerNode;
+  private final Cache<String, RecentItems> nodeItems;
+
+  private RecentItemsCache() {
+    MMXConfiguration configuration = MMXConfiguration.getConfiguration();
+    itemsPerNode = configuration.getInt(MMXConfigKeys.RECENT_ITEMS_PER_TOPIC,
+        MMXServerConstants.DEFAULT_RECENT_ITEMS_PER_TOPIC);
+    int maxTopics = configuration.getInt(MMXConfigKeys.RECENT_ITEMS_MAX_TOPICS,
+        MMXServerConstants.DEFAULT_RECENT_ITEMS_MAX_TOPICS);
+    LOGGER.info("Creating recent items cache with itemsPerTopic:{} maxTopics:{}", itemsPerNode, maxTopics);
+    nodeItems = CacheBuilder.newBuilder()
+        .maximumSize(maxTopics)
+        .recordStats()
+        .build();
+  }
+
+  private static class CacheHolder {
+    private static final RecentItemsCache INSTANCE = new RecentItemsCache();
+  }
+
+  public static RecentItemsCache getInstance() {
+    return CacheHolder.INSTANCE;
+  }
+
+  /**
+   * Get the newest items of a node published since a date, in the same order as
+   * {@link PubSubPersistenceManagerExt#getPublishedItems(LeafNode, int, Date)}.
+   * @param node
+   * @param maxItems max number of items; -1 for the default
+   * @param since
+   * @return the items or null if the ring of the node doesn't have all of them or an item
+   * published on another cluster node can't be loaded
+   */
+  public List<PublishedItem> getItems(LeafNode node, int maxItems, Date since) {
+    RecentItems recent = nodeItems.getIfPresent(node.getNodeID());
+    if (recent == null) {
+      return null;
+    }
+    List<RecentItem> recentItems = recent.getItems(PubSubPersistenceManagerExt.getMaxRows(node, maxItems),
+        since.getTime());
+    if (recentItems == null) {
+      return null;
+    }
+    List<PublishedItem> items = new ArrayList<PublishedItem>(recentItems.size());
+    for (RecentItem recentItem : recentItems) {
+      PublishedItem item = recentItem.load(node);
+      if (item == null) {
+        LOGGER.trace("getItems : unresolved item={} in node={}", recentItem.itemId, node.getNodeID());
+        return null;
+      }
+      items.add(item);
+    }
+    if (JiveGlobals.getBooleanProperty("xmpp.pubsub.order.descending", false)) {
+      Collections.reverse(items);
+    }
+    return items;
+  }
+
+  /**
+   * Add the items published to a node on all the cluster nodes.
+   * @param node
+   * @param items published items
+   */
+  public void itemsPublished(LeafNode node, List<PublishedItem> items) {
+    if (!node.isPersistPublishedItems() || items.isEmpty()) {
+      return;
+    }
+    List<RecentItem> recentItems = new ArrayList<RecentItem>(items.size());
+    for (PublishedItem item : items) {
+      recentItems.add(new RecentItem(item));
+    }
+    addItemsLocal(node.getNodeID(), recentItems);
+    if (ClusterManager.isClusteringEnabled()) {
+      for (PublishedItem item : items) {
+        broadcast(new ItemPublishedTask(item));
+      }
+    }
+  }
+
+  /**
+   * Drop the ring of a node on all the cluster nodes.
+   * @param nodeId
+   */
+  public void invalidate(String nodeId) {
+    invalidateLocal(nodeId);
+    broadcast(new InvalidationTask(nodeId));
+  }
+
+  /**
+   * Add an item published on another cluster node; the item is loaded when it is first read.
+   * @param nodeId
+   * @param itemId
+   * @param creationDate
+   */
+  void itemPublishedLocal(String nodeId, String itemId, long creationDate) {
+    addItemsLocal(nodeId, Collections.singletonList(new RecentItem(itemId, creationDate)));
+  }
+
+  private void addItemsLocal(String nodeId, List<RecentItem> items) {
+    RecentItems recent = nodeItems.getIfPresent(nodeId);
+    if (recent == null) {
+      RecentItems created = new RecentItems(itemsPerNode, items.get(0).creationDate);
+      recent = nodeItems.asMap().putIfAbsent(nodeId, created);
+      if (recent == null) {
+        recent = created;
+      }
+    }
+    for (RecentItem item : items) {
+      recent.add(item);
+    }
+  }
+
+  void invalidateLocal(String nodeId) {
+    LOGGER.trace("invalidateLocal : nodeId={}", nodeId);
+    nodeItems.invalidate(nodeId);
+  }
+
+  /**
+   * Drop all the rings on this node.
+   */
+  public void clear() {
+    nodeItems.invalidateAll();
+  }
+
+  public long getHitCount() {
+    return nodeItems.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return nodeItems.stats().missCount();
+  }
+
+  public long getSize() {
+    return nodeItems.size();
+  }
+
+  private void broadcast(ClusterTask task) {
+    try {
+      if (ClusterManager.isClusteringEnabled()) {
+        CacheFactory.doClusterTask(task);
+      }
+    } catch (Exception e) {
+      LOGGER.warn("broadcast : failed to send recent items task={} to the cluster", task, e);
+    }
+  }
+
+  /**
+   * Id and creation date of a recent item, and the item itself once it is loaded.
+   */
+  static class RecentItem {
+    private final String itemId;
+    private final long creationDate;
+    private volatile PublishedItem item;
+
+    RecentItem(PublishedItem item) {
+      this.itemId = item.getID();
+      this.creationDate = item.getCreationDate().getTime();
+      this.item = item;
+    }
+
+    RecentItem(String itemId, long creationDate) {
+      this.itemId = itemId;
+      this.creationDate = creationDate;
+    }
+
+    /**
+     * @return the item or null if it can't be loaded or was replaced by a newer item with the
+     * same id
+     */
+    PublishedItem load(LeafNode node) {
+      PublishedItem loaded = item;
+      if (loaded == null) {
+        loaded = node.getPublishedItem(itemId);
+        if (loaded == null || loaded.getCreationDate().getTime() != creationDate) {
+          return null;
+        }
+        item = loaded;
+      }
+      return loaded;
+    }
+  }
+
+  /**
+   * Ring of the recent items of a node in the order they were added.
+   */
+  static class RecentItems {
+    private final RecentItem[] ring;
+    private int head;
+    private int size;
+    /**
+     * All the items created at or after this time are in the ring.
+     */
+    private long completeSince;
+
+    RecentItems(int capacity, long completeSince) {
+      this.ring = new RecentItem[Math.max(1, capacity)];
+      this.completeSince = completeSince;
+    }
+
+    synchronized void add(RecentItem item) {
+      for (int i = 0; i < size; i++) {
+        if (ring[(head + i) % ring.length].itemId.equals(item.itemId)) {
+          // An item is replaced; the ring can't tell which items are older than the new one.
+          Arrays.fill(ring, null);
+          head = 0;
+          size = 0;
+          completeSince = item.creationDate;
+          break;
+        }
+      }
+      if (size == ring.length) {
+        RecentItem evicted = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        completeSince = Math.max(completeSince, evicted.creationDate + 1);
+      }
+      ring[(head + size) % ring.length] = item;
+      size++;
+    }
+
+    /**
+     * @return the newest maxItems items created at or after since, oldest first; null if the
+     * ring may not have all of them
+     */
+    synchronized List<RecentItem> getItems(int maxItems, long since) {
+      List<RecentItem> items = new ArrayList<RecentItem>(size);
+      for (int i = 0; i < size; i++) {
+        RecentItem item = ring[(head + i) % ring.length];
+        if (item.creationDate >= since) {
+          items.add(item);
+        }
+      }
+      Collections.sort(items, BY_CREATION_DATE);
+      if (items.size() >= maxItems) {
+        return new ArrayList<RecentItem>(items.subList(items.size() - maxItems, items.size()));
+      }
+      return since >= completeSince ? items : null;
+    }
+  }
+
+  /**
+   * Cluster task that adds a published item to the ring on the other cluster nodes. The payload is
+   * not sent; the nodes that read the item load it.
+   */
+  public static class ItemPublishedTask implements ClusterTask {
+    private String nodeId;
+    private String itemId;
+    private long creationDate;
+
+    /**
+     * Required for deserialization.
+     */
+    public ItemPublishedTask() {
+    }
+
+    private ItemPublishedTask(PublishedItem item) {
+      this.nodeId = item.getNodeID();
+      this.itemId = item.getID();
+      this.creationDate = item.getCreationDate().getTime();
+    }
+
+    @Override
+    public Object getResult() {
+      return null;
+    }
+
+    @Override
+    public void run() {
+      RecentItemsCache.getInstance().itemPublishedLocal(nodeId, itemId, creationDate);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      util.writeSafeUTF(out, nodeId);
+      util.writeSafeUTF(out, itemId);
+      util.writeLong(out, creationDate);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      nodeId = util.readSafeUTF(in);
+      itemId = util.readSafeUTF(in);
+      creationDate = util.readLong(in);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("ItemPublishedTask{");
+      sb.append("nodeId='").append(nodeId).append('\'');
+      sb.append(", itemId='").append(itemId).append('\'');
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Cluster task that drops the ring of a node on the other cluster nodes.
+   */
+  public static class InvalidationTask implements ClusterTask {
+    private String nodeId;
+
+    /**
+     * Required for deserialization.
+     */
+    public InvalidationTask() {
+    }
+
+    private InvalidationTask(String nodeId) {
+      this.nodeId = nodeId;
+    }
+
+    @Override
+    public Object getResult() {
+      return null;
+    }
+
+    @Override
+    public void run() {
+      RecentItemsCache.getInstance().invalidateLocal(nodeId);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      ExternalizableUtil.getInstance().writeSafeUTF(out, nodeId);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      nodeId = ExternalizableUtil.getInstance().readSafeUTF(in);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("InvalidationTask{");
+      sb.append("nodeId='").append(nodeId).append('\'');
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,496 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.pubsub;
+
+import com.magnet.mmx.util.TopicHelper;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.openfire.pubsub.Node;
+import org.jivesoftware.openfire.pubsub.NodeSubscription;
+import org.jivesoftware.openfire.pubsub.PubSubService;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In memory index of the MMX pubsub nodes so that app scoped lookups don't have to scan every
+ * node of the pubsub service. Two views are maintained:
+ * <ol>
+ *   <li>appId to the sorted ids of the topic nodes of the app</li>
+ *   <li>subscription owner (bare JID) to the ids of the nodes the owner is subscribed to</li>
+ * </ol>
+ * Only node ids are stored; callers resolve the nodes through the pubsub service and must verify
+ * the live node and subscription state. That makes a stale entry harmless: it costs an extra lookup
+ * but never produces a wrong result. The index is built from the pubsub service on first use and
+ * then maintained from the node create/delete and subscribe/unsubscribe events. Events are applied
+ * on every node of the cluster.
+ */
+public class TopicIndex {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TopicIndex.class);
+  /**
+   * Upper bound used for selecting all node ids that start with a prefix.
+   */
+  private static final char PREFIX_END = '\uffff';
+
+  private final ConcurrentHashMap<String, ConcurrentSkipListSet<String>> appNodes =
+      new ConcurrentHashMap<String, ConcurrentSkipListSet<String>>();
+  private final ConcurrentHashMap<String, Set<String>> ownerNodes =
+      new ConcurrentHashMap<String, Set<String>>();
+  private final ConcurrentHashMap<String, Set<String>> nodeOwners =
+      new ConcurrentHashMap<String, Set<String>>();
+  private volatile boolean initialized = false;
+
+  private TopicIndex() {
+  }
+
+  private static class TopicIndexHolder {
+    private static final TopicIndex INSTANCE = new TopicIndex();
+  }
+
+  public static TopicIndex getInstance() {
+    return TopicIndexHolder.INSTANCE;
+  }
+
+  /**
+   * Get the ids of all the topic nodes of an app. The app root node is not included.
+   * @param appId
+   * @return sorted read only set of node ids
+   */
+  public SortedSet<String> getAppNodeIds(String appId) {
+    ensureInitialized();
+    SortedSet<String> ids = appNodes.get(appId);
+    if (ids == null) {
+      return Collections.unmodifiableSortedSet(new TreeSet<String>());
+    }
+    return Collections.unmodifiableSortedSet(ids);
+  }
+
+  /**
+   * Get the ids of all the topic nodes of an app that start with the supplied node id.
+   * For a collection node this is the node itself followed by its descendants.
+   * @param appId
+   * @param nodeId
+   * @return sorted read only set of node ids
+   */
+  public SortedSet<String> getAppNodeIds(String appId, String nodeId) {
+    return getAppNodeIds(appId).subSet(nodeId, nodeId + PREFIX_END);
+  }
+
+  /**
+   * Get the ids of the nodes of an app the supplied owner is subscribed to.
+   * @param appId
+   * @param owner subscription owner; the resource is ignored
+   * @return sorted node ids
+   */
+  public SortedSet<String> getSubscribedNodeIds(String appId, JID owner) {
+    ensureInitialized();
+    SortedSet<String> result = new TreeSet<String>();
+    Set<String> ids = ownerNodes.get(owner.toBareJID());
+    if (ids != null) {
+      String prefix = TopicHelper.makePrefix(appId);
+      for (String id : ids) {
+        if (id.startsWith(prefix)) {
+          result.add(id);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Record a newly created node on all the cluster nodes.
+   * @param nodeId
+   */
+  public void nodeCreated(String nodeId) {
+    addNodeLocal(nodeId);
+    broadcast(new IndexUpdateTask(IndexUpdateType.NODE_CREATED, nodeId, null));
+  }
+
+  /**
+   * Remove a deleted node on all the cluster nodes.
+   * @param nodeId
+   */
+  public void nodeDeleted(String nodeId) {
+    removeNodeTreeLocal(nodeId);
+    broadcast(new IndexUpdateTask(IndexUpdateType.NODE_DELETED, nodeId, null));
+  }
+
+  /**
+   * Record a new subscription on all the cluster nodes.
+   * @param nodeId
+   * @param owner subscription owner
+   */
+  public void subscribed(String nodeId, JID owner) {
+    String bareJID = owner.toBareJID();
+    addSubscriptionLocal(nodeId, bareJID);
+    broadcast(new IndexUpdateTask(IndexUpdateType.SUBSCRIBED, nodeId, bareJID));
+  }
+
+  /**
+   * Update the index after one or more subscriptions of the owner were cancelled. The entry is only
+   * removed once the owner has no subscription left on the node.
+   * @param nodeId
+   * @param owner subscription owner
+   */
+  public void unsubscribed(String nodeId, JID owner) {
+    String bareJID = owner.toBareJID();
+    refreshSubscriptionLocal(nodeId, bareJID);
+    broadcast(new IndexUpdateTask(IndexUpdateType.UNSUBSCRIBED, nodeId, bareJID));
+  }
+
+  /**
+   * Re-read the node and its subscriptions from the pubsub service. Used for the changes made
+   * through the standard pubsub protocol where the exact change is not known.
+   * @param nodeId
+   */
+  public void refreshNode(String nodeId) {
+    refreshNodeLocal(nodeId);
+    broadcast(new IndexUpdateTask(IndexUpdateType.REFRESH, nodeId, null));
+  }
+
+  /**
+   * Rebuild the index from the nodes of the pubsub service.
+   */
+  public synchronized void rebuild() {
+    long start = System.currentTimeMillis();
+    appNodes.clear();
+    ownerNodes.clear();
+    nodeOwners.clear();
+    int count = 0;
+    for (Node node : getPubSubService().getNodes()) {
+      if (addNodeLocal(node.getNodeID())) {
+        ++count;
+        addSubscriptionsLocal(node);
+      }
+    }
+    initialized = true;
+    LOGGER.info("rebuild : indexed nodes={}, apps={}, subscription owners={}, took={} ms",
+        new Object[]{count, appNodes.size(), ownerNodes.size(), System.currentTimeMillis() - start});
+  }
+
+  public int getAppCount() {
+    return appNodes.size();
+  }
+
+  public int getNodeCount() {
+    int count = 0;
+    for (Set<String> ids : appNodes.values()) {
+      count += ids.size();
+    }
+    return count;
+  }
+
+  public int getSubscriptionOwnerCount() {
+    return ownerNodes.size();
+  }
+
+  /**
+   * Drop the index; it is rebuilt on the next use.
+   */
+  public synchronized void clear() {
+    appNodes.clear();
+    ownerNodes.clear();
+    nodeOwners.clear();
+    initialized = false;
+  }
+
+  protected PubSubService getPubSubService() {
+    return XMPPServer.getInstance().getPubSubModule();
+  }
+
+  private void ensureInitialized() {
+    if (!initialized) {
+      synchronized (this) {
+        if (!initialized) {
+          rebuild();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if the node id is an MMX topic id and was indexed.
+   */
+  boolean addNodeLocal(String nodeId) {
+    String appId = getAppId(nodeId);
+    if (appId == null) {
+      return false;
+    }
+    ConcurrentSkipListSet<String> ids = appNodes.get(appId);
+    if (ids == null) {
+      ids = new ConcurrentSkipListSet<String>();
+      ConcurrentSkipListSet<String> existing = appNodes.putIfAbsent(appId, ids);
+      if (existing != null) {
+        ids = existing;
+      }
+    }
+    ids.add(nodeId);
+    return true;
+  }
+
+  void removeNodeLocal(String nodeId) {
+    String appId = getAppId(nodeId);
+    if (appId == null) {
+      return;
+    }
+    Set<String> ids = appNodes.get(appId);
+    if (ids != null) {
+      ids.remove(nodeId);
+    }
+    Set<String> owners = nodeOwners.remove(nodeId);
+    if (owners != null) {
+      for (String owner : owners) {
+        removeFromSet(ownerNodes, owner, nodeId);
+      }
+    }
+  }
+
+  /**
+   * Remove a deleted node and the descendants that no longer exist in the pubsub service.
+   */
+  private void removeNodeTreeLocal(String nodeId) {
+    removeNodeLocal(nodeId);
+    String appId = getAppId(nodeId);
+    ConcurrentSkipListSet<String> ids = appId != null ? appNodes.get(appId) : null;
+    if (ids == null) {
+      return;
+    }
+    String childPrefix = nodeId + TopicHelper.TOPIC_DELIM;
+    PubSubService service = getPubSubService();
+    for (String id : ids.subSet(childPrefix, childPrefix + PREFIX_END)) {
+      if (service.getNode(id) == null) {
+        removeNodeLocal(id);
+      }
+    }
+  }
+
+  void addSubscriptionLocal(String nodeId, String bareJID) {
+    if (getAppId(nodeId) == null) {
+      return;
+    }
+    addToSet(ownerNodes, bareJID, nodeId);
+    addToSet(nodeOwners, nodeId, bareJID);
+  }
+
+  void removeSubscriptionLocal(String nodeId, String bareJID) {
+    removeFromSet(ownerNodes, bareJID, nodeId);
+    removeFromSet(nodeOwners, nodeId, bareJID);
+  }
+
+  private void refreshSubscriptionLocal(String nodeId, String bareJID) {
+    Node node = getPubSubService().getNode(nodeId);
+    Collection<NodeSubscription> subs = node != null ? node.getSubscriptions(new JID(bareJID)) : null;
+    if (subs == null || subs.isEmpty()) {
+      removeSubscriptionLocal(nodeId, bareJID);
+    } else {
+      addSubscriptionLocal(nodeId, bareJID);
+    }
+  }
+
+  void refreshNodeLocal(String nodeId) {
+    Node node = getPubSubService().getNode(nodeId);
+    if (node == null) {
+      removeNodeTreeLocal(nodeId);
+      return;
+    }
+    if (!addNodeLocal(nodeId)) {
+      return;
+    }
+    Set<String> owners = nodeOwners.get(nodeId);
+    if (owners != null) {
+      for (String owner : owners) {
+        Collection<NodeSubscription> subs = node.getSubscriptions(new JID(owner));
+        if (subs == null || subs.isEmpty()) {
+          removeSubscriptionLocal(nodeId, owner);
+        }
+      }
+    }
+    addSubscriptionsLocal(node);
+  }
+
+  private void addSubscriptionsLocal(Node node) {
+    Collection<NodeSubscription> subs = node.getAllSubscriptions();
+    if (subs == null) {
+      return;
+    }
+    for (NodeSubscription sub : subs) {
+      if (sub.getOwner() != null) {
+        addSubscriptionLocal(node.getNodeID(), sub.getOwner().toBareJID());
+      }
+    }
+  }
+
+  /**
+   * Get the app id of an MMX topic node id. The app root node (whose id is the app id) and
+   * nodes that are not MMX topics are not indexed.
+   * @return app id or null if the node shouldn't be indexed
+   */
+  static String getAppId(String nodeId) {
+    if (nodeId == null || nodeId.length() < 2 || nodeId.charAt(0) != TopicHelper.TOPIC_DELIM) {
+      return null;
+    }
+    return TopicHelper.getRootNodeId(nodeId);
+  }
+
+  /**
+   * Add a value to the set of a key. Adds and removes of the same set are serialized on the set
+   * so that a value is never added to a set that has already been removed from the map.
+   */
+  private static void addToSet(ConcurrentHashMap<String, Set<String>> map, String key, String value) {
+    while (true) {
+      Set<String> set = map.get(key);
+      if (set == null) {
+        set = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        Set<String> existing = map.putIfAbsent(key, set);
+        if (existing != null) {
+          set = existing;
+        }
+      }
+      synchronized (set) {
+        if (map.get(key) == set) {
+          set.add(value);
+          return;
+        }
+      }
+      // the set was removed after it was looked up, retry with a new set
+    }
+  }
+
+  private static void removeFromSet(ConcurrentHashMap<String, Set<String>> map, String key, String value) {
+    Set<String> set = map.get(key);
+    if (set != null) {
+      synchronized (set) {
+        set.remove(value);
+        if (set.isEmpty()) {
+          map.remove(key, set);
+        }
+      }
+    }
+  }
+
+  private void broadcast(ClusterTask task) {
+    try {
+      if (ClusterManager.isClusteringEnabled()) {
+        CacheFactory.doClusterTask(task);
+      }
+    } catch (Exception e) {
+      LOGGER.warn("broadcast : failed to send topic index update task={} to the cluster", task, e);
+    }
+  }
+
+  enum IndexUpdateType {
+    NODE_CREATED,
+    NODE_DELETED,
+    SUBSCRIBED,
+    UNSUBSCRIBED,
+    REFRESH
+  }
+
+  /**
+   * Cluster task that applies an index update on the other cluster nodes.
+   */
+  public static class IndexUpdateTask implements ClusterTask {
+    private IndexUpdateType type;
+    private String nodeId;
+    private String owner;
+
+    /**
+     * Required for deserialization.
+     */
+    public IndexUpdateTask() {
+    }
+
+    IndexUpdateTask(IndexUpdateType type, String nodeId, String owner) {
+      this.type = type;
+      this.nodeId = nodeId;
+      this.owner = owner;
+    }
+
+    @Override
+    public Object getResult() {
+      return null;
+    }
+
+    @Override
+    public void run() {
+      TopicIndex index = TopicIndex.getInstance();
+      if (!index.initialized) {
+        // The index is built from the current state on first use.
+        return;
+      }
+      switch (type) {
+        case NODE_CREATED:
+          index.addNodeLocal(nodeId);
+          break;
+        case NODE_DELETED:
+          index.removeNodeTreeLocal(nodeId);
+          break;
+        case SUBSCRIBED:
+          index.addSubscriptionLocal(nodeId, owner);
+          break;
+        case UNSUBSCRIBED:
+          index.refreshSubscriptionLocal(nodeId, owner);
+          break;
+        case REFRESH:
+          index.refreshNodeLocal(nodeId);
+          break;
+      }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      util.writeSafeUTF(out, type.name());
+      util.writeSafeUTF(out, nodeId);
+      util.writeBoolean(out, owner != null);
+      if (owner != null) {
+        util.writeSafeUTF(out, owner);
+      }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      type = IndexUpdateType.valueOf(util.readSafeUTF(in));
+      nodeId = util.readSafeUTF(in);
+      if (util.readBoolean(in)) {
+        owner = util.readSafeUTF(in);
+      }
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("IndexUpdateTask{");
+      sb.append("type=").append(type);
+      sb.append(", nodeId='").append(nodeId).append('\'');
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,345 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.pubsub;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In memory item count and last publish time of the topic nodes, used for answering the topic
+ * summary requests that don't have a date range. A node is loaded from the database on first use
+ * and is then kept up to date from the publish, retract and purge events; the count is capped by
+ * the max items of the node the same way the database query caps it. Events are applied on every
+ * node of the cluster. Entries are reloaded after
+ * {@link MMXConfigKeys#TOPIC_SUMMARY_CACHE_RESYNC_MINUTES} so that a missed event, like a publish
+ * that was rejected after it was counted, doesn't leave a wrong count behind.
+ */
+public class TopicSummaryCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TopicSummaryCache.class);
+
+  private final Cache<String, Summary> summaryCache;
+
+  /**
+   * Loads the summaries of the nodes that aren't cached.
+   */
+  public interface Loader {
+    /**
+     * @param nodeIds
+     * @return map of node id to its summary; nodes without any published item may be left out
+     */
+    Map<String, Summary> load(List<String> nodeIds);
+  }
+
+  private TopicSummaryCache() {
+    MMXConfiguration configuration = MMXConfiguration.getConfiguration();
+    int maxSize = configuration.getInt(MMXConfigKeys.TOPIC_SUMMARY_CACHE_MAX_SIZE,
+        MMXServerConstants.DEFAULT_TOPIC_SUMMARY_CACHE_MAX_SIZE);
+    int resyncMinutes = configuration.getInt(MMXConfigKeys.TOPIC_SUMMARY_CACHE_RESYNC_MINUTES,
+        MMXServerConstants.DEFAULT_TOPIC_SUMMARY_CACHE_RESYNC_MINUTES);
+    LOGGER.info("Creating topic summary cache with maxSize:{} resyncMinutes:{}", maxSize, resyncMinutes);
+    summaryCache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(resyncMinutes, TimeUnit.MINUTES)
+        .recordStats()
+        .build();
+  }
+
+  private static class CacheHolder {
+    private static final TopicSummaryCache INSTANCE = new TopicSummaryCache();
+  }
+
+  public static TopicSummaryCache getInstance() {
+    return CacheHolder.INSTANCE;
+  }
+
+  /**
+   * Get the summaries of the supplied nodes. Nodes that aren't cached are loaded in one call to
+   * the loader.
+   * @param nodeIds
+   * @param loader
+   * @return map of node id to a copy of its summary in the order of the supplied node ids
+   */
+  public Map<String, Summary> getSummaries(List<String> nodeIds, Loader loader) {
+    Map<String, Summary> result = new LinkedHashMap<String, Summary>(nodeIds.size());
+    List<String> missing = new ArrayList<String>();
+    for (String nodeId : nodeIds) {
+      Summary summary = summaryCache.getIfPresent(nodeId);
+      if (summary != null) {
+        result.put(nodeId, summary.copy());
+      } else {
+        result.put(nodeId, null);
+        missing.add(nodeId);
+      }
+    }
+    if (!missing.isEmpty()) {
+      LOGGER.trace("getSummaries : loading count={}", missing.size());
+      Map<String, Summary> loaded = loader.load(missing);
+      for (String nodeId : missing) {
+        Summary summary = loaded.get(nodeId);
+        if (summary == null) {
+          summary = new Summary(Summary.UNKNOWN_MAX_ITEMS, 0, null);
+        }
+        summaryCache.put(nodeId, summary);
+        result.put(nodeId, summary.copy());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Count the items published to a node on all the cluster nodes.
+   * @param nodeId
+   * @param count number of published items
+   * @param maxItems max items of the node; negative for no limit
+   * @param pubTime publish time of the last item
+   */
+  public void itemsPublished(String nodeId, int count, int maxItems, Date pubTime) {
+    itemsPublishedLocal(nodeId, count, maxItems, pubTime.getTime());
+    broadcast(new SummaryUpdateTask(SummaryUpdateType.PUBLISHED, nodeId, count, maxItems, pubTime.getTime()));
+  }
+
+  /**
+   * Drop all the items of a node on all the cluster nodes.
+   * @param nodeId
+   */
+  public void itemsPurged(String nodeId) {
+    itemsPurgedLocal(nodeId);
+    broadcast(new SummaryUpdateTask(SummaryUpdateType.PURGED, nodeId, 0, 0, 0L));
+  }
+
+  /**
+   * Drop the summary of a node on all the cluster nodes. Used when items are retracted because
+   * the new last publish time is only known to the database, and when a node is deleted.
+   * @param nodeId
+   */
+  public void invalidate(String nodeId) {
+    invalidateLocal(nodeId);
+    broadcast(new SummaryUpdateTask(SummaryUpdateType.INVALIDATED, nodeId, 0, 0, 0L));
+  }
+
+  void itemsPublishedLocal(String nodeId, int count, int maxItems, long pubTime) {
+    Summary summary = summaryCache.getIfPresent(nodeId);
+    if (summary != null) {
+      summary.published(count, maxItems, pubTime);
+    }
+  }
+
+  void itemsPurgedLocal(String nodeId) {
+    Summary summary = summaryCache.getIfPresent(nodeId);
+    if (summary != null) {
+      summary.purged();
+    }
+  }
+
+  void invalidateLocal(String nodeId) {
+    LOGGER.trace("invalidateLocal : nodeId={}", nodeId);
+    summaryCache.invalidate(nodeId);
+  }
+
+  /**
+   * Drop all cached entries on this node.
+   */
+  public void clear() {
+    summaryCache.invalidateAll();
+  }
+
+  public long getHitCount() {
+    return summaryCache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return summaryCache.stats().missCount();
+  }
+
+  public long getSize() {
+    return summaryCache.size();
+  }
+
+  private void broadcast(ClusterTask task) {
+    try {
+      if (ClusterManager.isClusteringEnabled()) {
+        CacheFactory.doClusterTask(task);
+      }
+    } catch (Exception e) {
+      LOGGER.warn("broadcast : failed to send topic summary update task={} to the cluster", task, e);
+    }
+  }
+
+  /**
+   * Item count and last publish time of a node.
+   */
+  public static class Summary {
+    static final int UNKNOWN_MAX_ITEMS = -2;
+
+    private int maxItems;
+    private int count;
+    private long lastPubTime;
+
+    /**
+     * @param maxItems max items of the node; negative for no limit
+     * @param count number of items, not capped
+     * @param lastPubTime creation date of the last item or null if the node has no items
+     */
+    public Summary(int maxItems, int count, Date lastPubTime) {
+      this.maxItems = maxItems;
+      this.count = count;
+      this.lastPubTime = lastPubTime == null ? 0L : lastPubTime.getTime();
+    }
+
+    /**
+     * @return number of items capped by the max items of the node
+     */
+    public synchronized int getCount() {
+      return maxItems < 0 ? count : Math.min(maxItems, count);
+    }
+
+    /**
+     * @return creation date of the last item or null if the node has no items
+     */
+    public synchronized Date getLastPubTime() {
+      return lastPubTime == 0L ? null : new Date(lastPubTime);
+    }
+
+    synchronized void published(int published, int nodeMaxItems, long pubTime) {
+      maxItems = nodeMaxItems;
+      count = getCount() + published;
+      if (pubTime > lastPubTime) {
+        lastPubTime = pubTime;
+      }
+    }
+
+    synchronized void purged() {
+      count = 0;
+      lastPubTime = 0L;
+    }
+
+    synchronized Summary copy() {
+      Summary copy = new Summary(maxItems, count, null);
+      copy.lastPubTime = lastPubTime;
+      return copy;
+    }
+
+    @Override
+    public synchronized String toString() {
+      final StringBuilder sb = new StringBuilder("Summary{");
+      sb.append("maxItems=").append(maxItems);
+      sb.append(", count=").append(count);
+      sb.append(", lastPubTime=").append(lastPubTime);
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+
+  enum SummaryUpdateType {
+    PUBLISHED,
+    PURGED,
+    INVALIDATED
+  }
+
+  /**
+   * Cluster task that applies a summary update on the other cluster nodes.
+   */
+  public static class SummaryUpdateTask implements ClusterTask {
+    private SummaryUpdateType type;
+    private String nodeId;
+    private int count;
+    private int maxItems;
+    private long pubTime;
+
+    /**
+     * Required for deserialization.
+     */
+    public SummaryUpdateTask() {
+    }
+
+    SummaryUpdateTask(SummaryUpdateType type, String nodeId, int count, int maxItems, long pubTime) {
+      this.type = type;
+      this.nodeId = nodeId;
+      this.count = count;
+      this.maxItems = maxItems;
+      this.pubTime = pubTime;
+    }
+
+    @Override
+    public Object getResult() {
+      return null;
+    }
+
+    @Override
+    public void run() {
+      TopicSummaryCache cache = TopicSummaryCache.getInstance();
+      switch (type) {
+        case PUBLISHED:
+          cache.itemsPublishedLocal(nodeId, count, maxItems, pubTime);
+          break;
+        case PURGED:
+          cache.itemsPurgedLocal(nodeId);
+          break;
+        case INVALIDATED:
+          cache.invalidateLocal(nodeId);
+          break;
+      }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      util.writeSafeUTF(out, type.name());
+      util.writeSafeUTF(out, nodeId);
+      util.writeInt(out, count);
+      util.writeInt(out, maxItems);
+      util.writeLong(out, pubTime);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+      ExternalizableUtil util = ExternalizableUtil.getInstance();
+      type = SummaryUpdateType.valueOf(util.readSafeUTF(in));
+      nodeId = util.readSafeUTF(in);
+      count = util.readInt(in);
+      maxItems = util.readInt(in);
+      pubTime = util.readLong(in);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("SummaryUpdateTask{");
+      sb.append("type=").append(type);
+      sb.append(", nodeId='").append(nodeId).append('\'');
+      sb.append(", count=").append(count);
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.pubsub;
+
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Topic index refreshes and topic summary updates made by one pubsub request. Each update is
+ * applied on this node as it is added, and {@link #broadcast()} then sends all of them to the
+ * other cluster nodes in a single task instead of one task per update.
+ */
+public class TopicUpdateTask implements ClusterTask {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TopicUpdateTask.class);
+
+  private List<TopicIndex.IndexUpdateTask> indexUpdates = new ArrayList<TopicIndex.IndexUpdateTask>();
+  private List<TopicSummaryCache.SummaryUpdateTask> summaryUpdates =
+      new ArrayList<TopicSummaryCache.SummaryUpdateTask>();
+
+  public TopicUpdateTask() {
+  }
+
+  /**
+   * Re-read a node and its subscriptions into the topic index.
+   * @param nodeId
+   */
+  public void refreshNode(String nodeId) {
+    TopicIndex.getInstance().refreshNodeLocal(nodeId);
+    indexUpdates.add(new TopicIndex.IndexUpdateTask(TopicIndex.IndexUpdateType.REFRESH, nodeId, null));
+  }
+
+  /**
+   * Count the items published to a node in the topic summary.
+   * @param nodeId
+   * @param count number of new items; items that replaced an existing item are not counted
+   * @param maxItems max items of the node; negative for no limit
+   * @param pubTime publish time of the last item
+   */
+  public void itemsPublished(String nodeId, int count, int maxItems, Date pubTime) {
+    addSummaryUpdate(new TopicSummaryCache.SummaryUpdateTask(TopicSummaryCache.SummaryUpdateType.PUBLISHED,
+        nodeId, count, maxItems, pubTime.getTime()));
+  }
+
+  /**
+   * Drop all the items of a node in the topic summary.
+   * @param nodeId
+   */
+  public void itemsPurged(String nodeId) {
+    addSummaryUpdate(new TopicSummaryCache.SummaryUpdateTask(TopicSummaryCache.SummaryUpdateType.PURGED,
+        nodeId, 0, 0, 0L));
+  }
+
+  /**
+   * Drop the topic summary of a node.
+   * @param nodeId
+   */
+  public void invalidateSummary(String nodeId) {
+    addSummaryUpdate(new TopicSummaryCache.SummaryUpdateTask(TopicSummaryCache.SummaryUpdateType.INVALIDATED,
+        nodeId, 0, 0, 0L));
+  }
+
+  public boolean isEmpty() {
+    return indexUpdates.isEmpty() && summaryUpdates.isEmpty();
+  }
+
+  /**
+   * Send the updates to the other cluster nodes.
+   */
+  public void broadcast() {
+    if (isEmpty()) {
+      return;
+    }
+    try {
+      if (ClusterManager.isClusteringEnabled()) {
+        CacheFactory.doClusterTask(this);
+      }
+    } catch (Exception e) {
+      LOGGER.warn("broadcast : failed to send topic update task={} to the cluster", this, e);
+    }
+  }
+
+  private void addSummaryUpdate(TopicSummaryCache.SummaryUpdateTask update) {
+    update.run();
+    summaryUpdates.add(update);
+  }
+
+  @Override
+  public Object getResult() {
+    return null;
+  }
+
+  @Override
+  public void run() {
+    for (TopicIndex.IndexUpdateTask update : indexUpdates) {
+      update.run();
+    }
+    for (TopicSummaryCache.SummaryUpdateTask update : summaryUpdates) {
+      update.run();
+    }
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    ExternalizableUtil util = ExternalizableUtil.getInstance();
+    util.writeInt(out, indexUpdates.size());
+    for (TopicIndex.IndexUpdateTask update : indexUpdates) {
+      update.writeExternal(out);
+    }
+    util.writeInt(out, summaryUpdates.size());
+    for (TopicSummaryCache.SummaryUpdateTask update : summaryUpdates) {
+      update.writeExternal(out);
+    }
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    ExternalizableUtil util = ExternalizableUtil.getInstance();
+    indexUpdates = new ArrayList<TopicIndex.IndexUpdateTask>();
+    int count = util.readInt(in);
+    for (int i = 0; i < count; i++) {
+      TopicIndex.IndexUpdateTask update = new TopicIndex.IndexUpdateTask();
+      update.readExternal(in);
+      indexUpdates.add(update);
+    }
+    summaryUpdates = new ArrayList<TopicSummaryCache.SummaryUpdateTask>();
+    count = util.readInt(in);
+    for (int i = 0; i < count; i++) {
+      TopicSummaryCache.SummaryUpdateTask update = new TopicSummaryCache.SummaryUpdateTask();
+      update.readExternal(in);
+      summaryUpdates.add(update);
+    }
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("TopicUpdateTask{");
+    sb.append("indexUpdates=").append(indexUpdates);
+    sb.append(", summaryUpdates=").append(summaryUpdates);
+    sb.append('}');
+    return sb.toString();
+  }
+}
@@ -0,0 +1,137 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.push;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a push message that is sent to its targets in the background.
+ * The counts are updated after every page of devices and can be read while the job is running.
+ */
+public class PushJob {
+
+  public enum State {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    FAILED
+  }
+
+  private final String id;
+  private final String appId;
+  private final long createdAt = System.currentTimeMillis();
+  private final AtomicInteger requested = new AtomicInteger();
+  private final AtomicInteger sent = new AtomicInteger();
+  private final AtomicInteger unsent = new AtomicInteger();
+  private final AtomicInteger pages = new AtomicInteger();
+  private volatile State state = State.QUEUED;
+  private volatile long completedAt;
+  private volatile String error;
+
+  public PushJob(String id, String appId) {
+    this.id = id;
+    this.appId = appId;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public long getCreatedAt() {
+    return createdAt;
+  }
+
+  /**
+   * @return completion time or 0 if the job hasn't completed yet
+   */
+  public long getCompletedAt() {
+    return completedAt;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public int getRequested() {
+    return requested.get();
+  }
+
+  public int getSent() {
+    return sent.get();
+  }
+
+  public int getUnsent() {
+    return unsent.get();
+  }
+
+  public int getPages() {
+    return pages.get();
+  }
+
+  public void running() {
+    state = State.RUNNING;
+  }
+
+  public void completed() {
+    completedAt = System.currentTimeMillis();
+    state = State.COMPLETED;
+  }
+
+  public void failed(String error) {
+    this.error = error;
+    completedAt = System.currentTimeMillis();
+    state = State.FAILED;
+  }
+
+  /**
+   * Add the results of a page of devices.
+   * @param requested
+   * @param sent
+   * @param unsent
+   */
+  public void addPage(int requested, int sent, int unsent) {
+    this.requested.addAndGet(requested);
+    this.sent.addAndGet(sent);
+    this.unsent.addAndGet(unsent);
+    pages.incrementAndGet();
+  }
+
+  public boolean isDone() {
+    State current = state;
+    return current == State.COMPLETED || current == State.FAILED;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("PushJob{");
+    sb.append("id='").append(id).append('\'');
+    sb.append(", appId='").append(appId).append('\'');
+    sb.append(", state=").append(state);
+    sb.append(", requested=").append(requested);
+    sb.append(", sent=").append(sent);
+    sb.append(", unsent=").append(unsent);
+    sb.append(", pages=").append(pages);
+    sb.append('}');
+    return sb.toString();
+  }
+}
@@ -0,0 +1,127 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.push;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.InstrumentedThreadPoolExecutor;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXExecutors;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the push jobs in the background. Queued and running jobs are kept until they are done;
+ * done jobs are kept around for {@link MMXConfigKeys#PUSH_JOB_RETENTION_MINUTES} so that their
+ * final counts can be polled. The jobs are tracked by the node that accepted them.
+ * The executor aborts the jobs it can't queue instead of running them on the submitting thread.
+ */
+public class PushJobManager {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PushJobManager.class);
+  private static final String EXECUTOR_NAME = "PushJobExecutor";
+  private static final int EXECUTOR_SIZE = 2;
+
+  private final ConcurrentMap<String, PushJob> activeJobs = new ConcurrentHashMap<String, PushJob>();
+  private final Cache<String, PushJob> doneJobs;
+
+  private PushJobManager() {
+    this(MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.PUSH_JOB_RETENTION_MINUTES,
+        MMXServerConstants.DEFAULT_PUSH_JOB_RETENTION_MINUTES), Ticker.systemTicker());
+  }
+
+  protected PushJobManager(int retentionMinutes, Ticker ticker) {
+    LOGGER.info("Creating push job manager with retentionMinutes:{}", retentionMinutes);
+    doneJobs = CacheBuilder.newBuilder()
+        .expireAfterWrite(retentionMinutes, TimeUnit.MINUTES)
+        .ticker(ticker)
+        .build();
+  }
+
+  private static class ManagerHolder {
+    private static final PushJobManager INSTANCE = new PushJobManager();
+  }
+
+  public static PushJobManager getInstance() {
+    return ManagerHolder.INSTANCE;
+  }
+
+  /**
+   * Register the job and run the work for it in the background.
+   * @param job
+   * @param work work that sends the push message and updates the job counts
+   * @throws RejectedExecutionException if the executor is saturated; the job is not registered
+   */
+  public void submit(final PushJob job, final Runnable work) {
+    activeJobs.put(job.getId(), job);
+    try {
+      getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          job.running();
+          try {
+            work.run();
+            job.completed();
+          } catch (Throwable t) {
+            LOGGER.warn("submit : push job={} failed", job, t);
+            job.failed(t.getMessage());
+          } finally {
+            doneJobs.put(job.getId(), job);
+            activeJobs.remove(job.getId());
+          }
+          LOGGER.info("submit : completed push job={} in {} milliseconds", job,
+              job.getCompletedAt() - job.getCreatedAt());
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LOGGER.warn("submit : rejected push job={}", job);
+      activeJobs.remove(job.getId());
+      throw e;
+    }
+  }
+
+  /**
+   * Get a job of an app.
+   * @param appId
+   * @param jobId
+   * @return the job or null if it doesn't exist, has expired or belongs to another app
+   */
+  public PushJob getJob(String appId, String jobId) {
+    PushJob job = activeJobs.get(jobId);
+    if (job == null) {
+      job = doneJobs.getIfPresent(jobId);
+    }
+    if (job == null || !job.getAppId().equals(appId)) {
+      return null;
+    }
+    return job;
+  }
+
+  public long getJobCount() {
+    return activeJobs.size() + doneJobs.size();
+  }
+
+  protected Executor getExecutor() {
+    return MMXExecutors.getOrCreate(EXECUTOR_NAME, EXECUTOR_SIZE, InstrumentedThreadPoolExecutor.RejectionPolicy.ABORT);
+  }
+}
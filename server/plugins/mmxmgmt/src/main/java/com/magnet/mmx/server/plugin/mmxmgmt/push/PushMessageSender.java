@@ -21,6 +21,7 @@ import com.magnet.mmx.protocol.PushType;
 import com.magnet.mmx.server.common.data.AppEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.ConnectionProvider;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAOImpl;
@@ -170,7 +171,7 @@ public class PushMessageSender implements PushSender {
     if (deviceId == null || deviceId.isEmpty()) {
       return ValidationResult.failedValidation(PushConstants.ERROR_INVALID_DEVID);
     }
-    AppEntity appEntity = appDAO.getAppForAppKey(appId);
+    AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
     if (appEntity == null) {
       LOGGER.info("No app found for id:" + appId);
       return ValidationResult.failedValidation(PushConstants.ERROR_INVALID_APPID);
@@ -0,0 +1,195 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.retention;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DbInteractionException;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.PushMessageDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.PushMessageDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXClusterableTask;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Processor that deletes the mmxMessage records that won't change any more (delivered, received,
+ * timed out and receipts), the sent mmxWakeupQueue records and the mmxPushMessage records once
+ * they are older than {@link MMXConfigKeys#RETENTION_MESSAGE_DAYS}. Rows are deleted in chunks of
+ * {@link MMXConfigKeys#RETENTION_CHUNK_SIZE} so that no single statement holds locks on a large
+ * part of the table, and at most {@link MMXConfigKeys#RETENTION_MAX_CHUNKS_PER_RUN} chunks are
+ * deleted per table in one run. Anything left over is picked up by the next run.
+ */
+public class MessageRetentionProcessor extends MMXClusterableTask implements Runnable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MessageRetentionProcessor.class);
+
+  static final List<MessageEntity.MessageState> PURGEABLE_STATES = Arrays.asList(
+      MessageEntity.MessageState.DELIVERED,
+      MessageEntity.MessageState.RECEIVED,
+      MessageEntity.MessageState.WAKEUP_TIMEDOUT);
+
+  private static final AtomicLong lastRunTime = new AtomicLong();
+  private static final AtomicLong lastRunMessageCount = new AtomicLong();
+  private static final AtomicLong lastRunReceiptCount = new AtomicLong();
+  private static final AtomicLong lastRunWakeupCount = new AtomicLong();
+  private static final AtomicLong lastRunPushMessageCount = new AtomicLong();
+  private static final AtomicLong totalPurgeCount = new AtomicLong();
+
+  public MessageRetentionProcessor(Lock lock) {
+    super(lock);
+  }
+
+  @Override
+  public void run() {
+    if (!canExecute()) {
+      LOGGER.trace("run : Unable to acquire clustered lock, not running");
+      return;
+    }
+    MMXConfiguration configuration = MMXConfiguration.getConfiguration();
+    if (!configuration.getBoolean(MMXConfigKeys.RETENTION_ENABLED, MMXServerConstants.DEFAULT_RETENTION_ENABLED)) {
+      LOGGER.debug("run : retention is disabled, not running");
+      return;
+    }
+    int retentionDays = configuration.getInt(MMXConfigKeys.RETENTION_MESSAGE_DAYS, MMXServerConstants.DEFAULT_RETENTION_MESSAGE_DAYS);
+    final int chunkSize = configuration.getInt(MMXConfigKeys.RETENTION_CHUNK_SIZE, MMXServerConstants.DEFAULT_RETENTION_CHUNK_SIZE);
+    int maxChunks = configuration.getInt(MMXConfigKeys.RETENTION_MAX_CHUNKS_PER_RUN, MMXServerConstants.DEFAULT_RETENTION_MAX_CHUNKS_PER_RUN);
+    if (retentionDays <= 0 || chunkSize <= 0 || maxChunks <= 0) {
+      LOGGER.warn("run : invalid retention configuration retentionDays={}, chunkSize={}, maxChunks={}, not running",
+          new Object[]{retentionDays, chunkSize, maxChunks});
+      return;
+    }
+    try {
+      long startTime = System.nanoTime();
+      final long cutoffUTC = currentTimeMillis() / 1000L - TimeUnit.DAYS.toSeconds(retentionDays);
+      final MessageDAO messageDAO = getMessageDAO();
+      final WakeupEntityDAO wakeupEntityDAO = getWakeupEntityDAO();
+      final PushMessageDAO pushMessageDAO = getPushMessageDAO();
+
+      int messageCount = purge(new ChunkPurger() {
+        @Override
+        public int purgeChunk() {
+          return messageDAO.purgeMessages(PURGEABLE_STATES, cutoffUTC, chunkSize);
+        }
+      }, chunkSize, maxChunks);
+      int receiptCount = purge(new ChunkPurger() {
+        @Override
+        public int purgeChunk() {
+          return messageDAO.purgeReceipts(cutoffUTC, chunkSize);
+        }
+      }, chunkSize, maxChunks);
+      int wakeupCount = purge(new ChunkPurger() {
+        @Override
+        public int purgeChunk() {
+          return wakeupEntityDAO.purgeSent(cutoffUTC, chunkSize);
+        }
+      }, chunkSize, maxChunks);
+      int pushMessageCount = purge(new ChunkPurger() {
+        @Override
+        public int purgeChunk() {
+          return pushMessageDAO.purgePushMessages(cutoffUTC, chunkSize);
+        }
+      }, chunkSize, maxChunks);
+
+      lastRunTime.set(currentTimeMillis());
+      lastRunMessageCount.set(messageCount);
+      lastRunReceiptCount.set(receiptCount);
+      lastRunWakeupCount.set(wakeupCount);
+      lastRunPushMessageCount.set(pushMessageCount);
+      totalPurgeCount.addAndGet(messageCount + receiptCount + wakeupCount + pushMessageCount);
+      long delta = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+      String template = "Purged [%d] messages, [%d] receipts, [%d] wakeup records and [%d] push messages older than [%d] days in [%d] milliseconds";
+      LOGGER.info(String.format(template, messageCount, receiptCount, wakeupCount, pushMessageCount, retentionDays, delta));
+    } catch (DbInteractionException e) {
+      // keep the schedule alive; the next run continues from where this one stopped
+      LOGGER.warn("run : caught exception purging messages", e);
+    }
+  }
+
+  /**
+   * Call the purger until it deletes less than a full chunk or maxChunks chunks have been deleted.
+   * @return total number of rows deleted
+   */
+  static int purge(ChunkPurger purger, int chunkSize, int maxChunks) {
+    int total = 0;
+    for (int i = 0; i < maxChunks; i++) {
+      int count = purger.purgeChunk();
+      total += count;
+      if (count < chunkSize) {
+        break;
+      }
+    }
+    return total;
+  }
+
+  public static long getLastRunTime() {
+    return lastRunTime.get();
+  }
+
+  public static long getLastRunMessageCount() {
+    return lastRunMessageCount.get();
+  }
+
+  public static long getLastRunReceiptCount() {
+    return lastRunReceiptCount.get();
+  }
+
+  public static long getLastRunWakeupCount() {
+    return lastRunWakeupCount.get();
+  }
+
+  public static long getLastRunPushMessageCount() {
+    return lastRunPushMessageCount.get();
+  }
+
+  public static long getTotalPurgeCount() {
+    return totalPurgeCount.get();
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  public MessageDAO getMessageDAO() {
+    return new MessageDAOImpl(new OpenFireDBConnectionProvider());
+  }
+
+  public WakeupEntityDAO getWakeupEntityDAO() {
+    return new WakeupEntityDAOImpl(new OpenFireDBConnectionProvider());
+  }
+
+  public PushMessageDAO getPushMessageDAO() {
+    return new PushMessageDAOImpl(new OpenFireDBConnectionProvider());
+  }
+
+  interface ChunkPurger {
+    /**
+     * Delete one chunk of rows.
+     * @return number of rows deleted
+     */
+    int purgeChunk();
+  }
+}
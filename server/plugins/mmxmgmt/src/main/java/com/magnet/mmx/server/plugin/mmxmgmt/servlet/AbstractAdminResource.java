@@ -17,6 +17,7 @@ package com.magnet.mmx.server.plugin.mmxmgmt.servlet;
 import com.magnet.mmx.server.common.data.AppEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorCode;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
@@ -55,7 +56,7 @@ public abstract class AbstractAdminResource {
       return buildBadAppIdFailure(ErrorCode.APP_OWNER_ID_MISSING);
     }
 
-    AppEntity appEntity = appDAO.getAppForAppKey(appId);
+    AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
     if (appEntity == null) {
       return buildBadAppIdFailure(ErrorCode.AUTH_BAD_APP_ID);
     }
@@ -22,8 +22,8 @@ import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorMessages;
 import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSCertificateValidator;
 import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSConnectionPool;
 import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSConnectionPoolImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSSendEngine;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppAlreadyExistsException;
-import com.magnet.mmx.server.plugin.mmxmgmt.db.AppConfigurationCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppConfigurationEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppConfigurationEntityDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.AppConfigurationEntityDAOImpl;
@@ -34,9 +34,11 @@ import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
 import com.magnet.mmx.server.plugin.mmxmgmt.gcm.GCMAPIKeyValidator;
 import com.magnet.mmx.server.plugin.mmxmgmt.handler.MMXAppManager;
 import com.magnet.mmx.server.plugin.mmxmgmt.monitoring.MaxAppLimitExceededException;
+import com.magnet.mmx.server.plugin.mmxmgmt.monitoring.RateLimiterService;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import com.magnet.mmx.server.plugin.mmxmgmt.wakeup.WakeupMuteTracker;
 import com.magnet.mmx.util.AppHelper;
 import com.magnet.mmx.util.Utils;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -367,6 +369,7 @@ public class AppResource {
       APNSConnectionPool connectionPool = APNSConnectionPoolImpl.getInstance();
       LOGGER.info("Clearing open APNS connections");
       connectionPool.remove(appId, appEntity.isApnsCertProduction());
+      APNSSendEngine.getInstance().remove(appId, appEntity.isApnsCertProduction());
       return Response.ok().status(Response.Status.OK).build();
     } catch (WebApplicationException e) {
       throw e;
@@ -414,6 +417,7 @@ public class AppResource {
       dao.clearAPNsCertificateAndPassword(appId);
       APNSConnectionPool connectionPool = APNSConnectionPoolImpl.getInstance();
       connectionPool.remove(appId, appEntity.isApnsCertProduction());
+      APNSSendEngine.getInstance().remove(appId, appEntity.isApnsCertProduction());
       return Response.ok().status(Response.Status.OK).build();
     } catch (Throwable t) {
       LOGGER.warn("Throwable when deleting APNs certificate", t);
@@ -482,7 +486,6 @@ public class AppResource {
         throw buildForBadRequest(AppErrorCode.NULL_OR_EMPTY_CONFIG_LIST.name(), ErrorMessages.ERROR_CONFIG_LIST_NULL_OR_EMPTY);
       }
       LOGGER.info("Update configs for appId:{}", appId);
-      AppConfigurationCache cache = AppConfigurationCache.getInstance();
       AppConfigurationEntityDAO configurationEntityDAO = new AppConfigurationEntityDAOImpl(new OpenFireDBConnectionProvider());
       // validate configurations
       for (AppConfig config : configs) {
@@ -503,12 +506,22 @@ public class AppResource {
             throw buildForBadRequest(AppErrorCode.INVALID_CONFIG_VALUE.name(),message);
           }
         }
+
+        if (key.equals(MMXConfigKeys.APP_MAX_XMPP_RATE) || key.equals(MMXConfigKeys.APP_MAX_HTTP_RATE)) {
+          boolean valid = validateRate(value);
+          if (!valid) {
+            String template = "Value supplied for key:%s is invalid.";
+            String message = String.format(template, key);
+            throw buildForBadRequest(AppErrorCode.INVALID_CONFIG_VALUE.name(),message);
+          }
+        }
       }
       for (AppConfig config : configs) {
         String key = config.getKey();
         String value = config.getValue();
         configurationEntityDAO.updateConfiguration(appId, key, value);
-        cache.clear(appId, key);
+        // clears the cached value and reapplies the app rate on all the cluster nodes
+        RateLimiterService.appConfigurationChanged(appId, key);
       }
       Response response = Response.status(Response.Status.OK)
           .build();
@@ -598,12 +611,28 @@ public class AppResource {
     }
   }
 
+  private boolean validateRate(String value) {
+    try {
+      Long.parseLong(value);
+      return true;
+    } catch (NumberFormatException e) {
+      LOGGER.info("Invalid rate:{}" , value);
+      return false;
+    }
+  }
+
   private boolean validateWakeupMutePeriod (String value) {
     try {
       int minutes = Integer.parseInt(value);
       if (minutes < 0) {
         return false;
       }
+      // longer mute periods can't be enforced by the mute tracker
+      if (minutes > WakeupMuteTracker.getInstance().getMaxMutePeriodMinutes()) {
+        LOGGER.info("Wakeup mute period:{} exceeds the maximum:{}", value,
+            WakeupMuteTracker.getInstance().getMaxMutePeriodMinutes());
+        return false;
+      }
       return true;
     } catch (NumberFormatException e) {
       LOGGER.info("Invalid wakeup mute period:{}" , value);
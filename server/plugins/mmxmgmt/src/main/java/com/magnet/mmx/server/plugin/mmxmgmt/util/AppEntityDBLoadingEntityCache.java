@@ -26,7 +26,10 @@ import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
 import java.util.concurrent.ExecutionException;
 
 /**
+ * @deprecated use {@link com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache}, which is bounded by
+ * size and time and is invalidated by the AppDAOImpl updates on all the cluster nodes.
  */
+@Deprecated
 public class AppEntityDBLoadingEntityCache  implements DBEntityCache<AppEntity> {
 
   private static AppEntityDBLoadingEntityCache INSTANCE;
@@ -0,0 +1,138 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel that holds items until their deadline. Time is divided into ticks and an
+ * item is put in the bucket of the tick that contains its deadline, so scheduling an item and
+ * advancing the wheel only touch the buckets of the elapsed ticks and the cost is proportional to
+ * the number of items that are due rather than the number of items held.
+ * <p>
+ * The wheel doesn't own a thread; the owner calls {@link #advance(long)} periodically. Items are
+ * never returned before their deadline and are returned at most one tick plus one advance period
+ * after it.
+ * </p>
+ * @param <T> type of the scheduled items
+ */
+public class HashedTimingWheel<T> {
+  private final long tickMillis;
+  private final long startMillis;
+  private final int mask;
+  private final List<List<Entry<T>>> buckets;
+  /**
+   * First tick that hasn't been processed by advance
+   */
+  private long currentTick;
+  private int size;
+
+  /**
+   * Constructor
+   * @param tickDuration duration of one tick
+   * @param unit unit of the tick duration
+   * @param ticksPerWheel number of buckets; rounded up to a power of two
+   * @param nowMillis current time in milliseconds
+   */
+  public HashedTimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, long nowMillis) {
+    if (tickDuration <= 0) {
+      throw new IllegalArgumentException("tickDuration must be greater than 0");
+    }
+    if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 20)) {
+      throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^20");
+    }
+    int wheelSize = 1;
+    while (wheelSize < ticksPerWheel) {
+      wheelSize <<= 1;
+    }
+    this.tickMillis = Math.max(1L, unit.toMillis(tickDuration));
+    this.startMillis = nowMillis;
+    this.mask = wheelSize - 1;
+    this.buckets = new ArrayList<List<Entry<T>>>(wheelSize);
+    for (int i = 0; i < wheelSize; i++) {
+      buckets.add(new LinkedList<Entry<T>>());
+    }
+  }
+
+  /**
+   * Schedule an item. Items whose deadline has already passed are returned by the next advance.
+   * @param item
+   * @param deadlineMillis deadline in milliseconds since epoch
+   */
+  public synchronized void schedule(T item, long deadlineMillis) {
+    long elapsed = Math.max(0L, deadlineMillis - startMillis);
+    // round up so that the item isn't returned before its deadline
+    long tick = Math.max((elapsed + tickMillis - 1) / tickMillis, currentTick);
+    buckets.get((int) (tick & mask)).add(new Entry<T>(item, tick));
+    size++;
+  }
+
+  /**
+   * Remove and return the items whose deadline is at or before nowMillis.
+   * @param nowMillis current time in milliseconds
+   * @return due items in no particular order; empty list if none are due
+   */
+  public synchronized List<T> advance(long nowMillis) {
+    long targetTick = Math.max(0L, nowMillis - startMillis) / tickMillis;
+    if (targetTick < currentTick) {
+      return new ArrayList<T>(0);
+    }
+    List<T> due = new ArrayList<T>();
+    // all the buckets are visited at most once however long it has been since the last advance
+    long ticks = Math.min(targetTick - currentTick + 1, buckets.size());
+    for (long i = 0; i < ticks && size > 0; i++) {
+      List<Entry<T>> bucket = buckets.get((int) ((currentTick + i) & mask));
+      Iterator<Entry<T>> iterator = bucket.iterator();
+      while (iterator.hasNext()) {
+        Entry<T> entry = iterator.next();
+        if (entry.tick <= targetTick) {
+          iterator.remove();
+          due.add(entry.item);
+          size--;
+        }
+      }
+    }
+    currentTick = targetTick + 1;
+    return due;
+  }
+
+  /**
+   * Remove all the items.
+   */
+  public synchronized void clear() {
+    for (List<Entry<T>> bucket : buckets) {
+      bucket.clear();
+    }
+    size = 0;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  private static class Entry<T> {
+    private final T item;
+    private final long tick;
+
+    private Entry(T item, long tick) {
+      this.item = item;
+      this.tick = tick;
+    }
+  }
+}
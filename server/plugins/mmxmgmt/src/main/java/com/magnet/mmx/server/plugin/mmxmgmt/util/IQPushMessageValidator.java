@@ -35,7 +35,7 @@ public class IQPushMessageValidator implements MMXPushMessageValidator {
     AppDAO appDAO = new AppDAOImpl(new OpenFireDBConnectionProvider());
     DeviceDAO deviceDAO = new DeviceDAOImpl(new OpenFireDBConnectionProvider());
 
-    AppEntity appEntity = appDAO.getAppForAppKey(appId);
+    AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
     if (appEntity == null) {
       LOGGER.info("validate : appId={} not found", appId);
       return getFailedResult(PushStatusCode.INVALID_APP_ID);
@@ -0,0 +1,183 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ThreadPoolExecutor that records the queue wait and execution time of every task and
+ * counts the rejected tasks.
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+  private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentedThreadPoolExecutor.class);
+
+  /**
+   * Supported rejection policies.
+   */
+  public enum RejectionPolicy {
+    /**
+     * Throw RejectedExecutionException
+     */
+    ABORT,
+    /**
+     * Run the task on the submitting thread. This throttles the submitter.
+     */
+    CALLER_RUNS,
+    /**
+     * Silently drop the task
+     */
+    DISCARD,
+    /**
+     * Drop the oldest queued task and retry
+     */
+    DISCARD_OLDEST;
+
+    public static RejectionPolicy fromString(String value, RejectionPolicy defaultValue) {
+      if (value == null || value.isEmpty()) {
+        return defaultValue;
+      }
+      try {
+        return RejectionPolicy.valueOf(value.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        LOGGER.warn("fromString : unknown rejection policy={}, using={}", value, defaultValue);
+        return defaultValue;
+      }
+    }
+  }
+
+  private final String name;
+  private final int queueCapacity;
+  private final RejectionPolicy rejectionPolicy;
+  private final LatencyHistogram waitHistogram = new LatencyHistogram();
+  private final LatencyHistogram executionHistogram = new LatencyHistogram();
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  public InstrumentedThreadPoolExecutor(String name, int coreSize, int maxSize, long keepAliveSeconds,
+                                        BlockingQueue<Runnable> queue, int queueCapacity,
+                                        ThreadFactory threadFactory, RejectionPolicy rejectionPolicy) {
+    super(coreSize, maxSize, keepAliveSeconds, TimeUnit.SECONDS, queue, threadFactory);
+    this.name = name;
+    this.queueCapacity = queueCapacity;
+    this.rejectionPolicy = rejectionPolicy;
+    setRejectedExecutionHandler(new CountingRejectionHandler(getHandler(rejectionPolicy)));
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    super.execute(new TimedRunnable(command));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getQueueSize() {
+    return getQueue().size();
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public RejectionPolicy getRejectionPolicy() {
+    return rejectionPolicy;
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  public LatencyHistogram getWaitHistogram() {
+    return waitHistogram;
+  }
+
+  public LatencyHistogram getExecutionHistogram() {
+    return executionHistogram;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s core=%d max=%d poolSize=%d active=%d queue=%d/%d completed=%d rejected=%d policy=%s wait[%s] exec[%s]",
+        name, getCorePoolSize(), getMaximumPoolSize(), getPoolSize(), getActiveCount(), getQueueSize(), queueCapacity,
+        getCompletedTaskCount(), getRejectedCount(), rejectionPolicy, waitHistogram, executionHistogram);
+  }
+
+  private static RejectedExecutionHandler getHandler(RejectionPolicy policy) {
+    switch (policy) {
+      case ABORT:
+        return new ThreadPoolExecutor.AbortPolicy();
+      case DISCARD:
+        return new ThreadPoolExecutor.DiscardPolicy();
+      case DISCARD_OLDEST:
+        return new ThreadPoolExecutor.DiscardOldestPolicy();
+      case CALLER_RUNS:
+      default:
+        return new ThreadPoolExecutor.CallerRunsPolicy();
+    }
+  }
+
+  private class CountingRejectionHandler implements RejectedExecutionHandler {
+    private final RejectedExecutionHandler delegate;
+
+    private CountingRejectionHandler(RejectedExecutionHandler delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      long count = rejectedCount.incrementAndGet();
+      if (count == 1 || count % 1000 == 0) {
+        LOGGER.warn("rejectedExecution : executor={} rejected task, policy={}, rejectedCount={}",
+            new Object[]{name, rejectionPolicy, count});
+      }
+      if (executor.isShutdown() && rejectionPolicy == RejectionPolicy.CALLER_RUNS) {
+        throw new RejectedExecutionException("Executor " + name + " has been shutdown");
+      }
+      delegate.rejectedExecution(r, executor);
+    }
+  }
+
+  /**
+   * Wrapper that records the time spent in the queue and the execution time.
+   */
+  private class TimedRunnable implements Runnable {
+    private final Runnable delegate;
+    private final long queuedAt = System.nanoTime();
+
+    private TimedRunnable(Runnable delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void run() {
+      long start = System.nanoTime();
+      waitHistogram.record(TimeUnit.NANOSECONDS.toMillis(start - queuedAt));
+      try {
+        delegate.run();
+      } finally {
+        executionHistogram.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    }
+  }
+}
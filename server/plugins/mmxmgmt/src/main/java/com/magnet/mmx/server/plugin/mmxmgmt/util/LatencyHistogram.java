@@ -0,0 +1,108 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with fixed, roughly logarithmic millisecond buckets.
+ * Recording is a couple of atomic increments so that it can be used on the task
+ * execution path. Percentiles are reported as the upper bound of the bucket that
+ * contains the requested rank.
+ */
+public class LatencyHistogram {
+  /**
+   * Upper bounds (inclusive) of the buckets in milliseconds. The last bucket has no upper bound.
+   */
+  private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalMillis = new AtomicLong();
+  private final AtomicLong maxMillis = new AtomicLong();
+
+  /**
+   * Record a latency value.
+   * @param millis latency in milliseconds
+   */
+  public void record(long millis) {
+    if (millis < 0) {
+      millis = 0;
+    }
+    buckets.incrementAndGet(bucketIndex(millis));
+    count.incrementAndGet();
+    totalMillis.addAndGet(millis);
+    long max = maxMillis.get();
+    while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+      max = maxMillis.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMaxMillis() {
+    return maxMillis.get();
+  }
+
+  public double getMeanMillis() {
+    long c = count.get();
+    return c == 0 ? 0.0 : (double) totalMillis.get() / c;
+  }
+
+  /**
+   * Get the approximate value at the supplied percentile.
+   * @param percentile value between 0 and 100
+   * @return upper bound of the bucket holding the percentile. For the last bucket the
+   * max recorded value is returned.
+   */
+  public long getPercentileMillis(double percentile) {
+    long total = 0;
+    long[] snapshot = new long[buckets.length()];
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = buckets.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank && snapshot[i] > 0) {
+        return i < BOUNDS_MILLIS.length ? Math.min(BOUNDS_MILLIS[i], maxMillis.get()) : maxMillis.get();
+      }
+    }
+    return maxMillis.get();
+  }
+
+  private static int bucketIndex(long millis) {
+    for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+      if (millis <= BOUNDS_MILLIS[i]) {
+        return i;
+      }
+    }
+    return BOUNDS_MILLIS.length;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.1fms p50=%dms p99=%dms max=%dms", getCount(), getMeanMillis(),
+        getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+  }
+}
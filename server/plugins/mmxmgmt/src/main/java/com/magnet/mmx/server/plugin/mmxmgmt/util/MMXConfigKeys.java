@@ -23,6 +23,12 @@ public interface MMXConfigKeys {
   public static final String WAKEUP_FREQUENCY_KEY = "mmx.wakeup.frequency";
   public static final String WAKEUP_MUTE_PERIOD_MINUTES = "mmx.wakeup.mute.minutes";
 
+  /**
+   * App specific overrides for the max xmpp and http rates. These are app configuration keys.
+   */
+  public static final String APP_MAX_XMPP_RATE = "mmx.app.max.xmpp.rate.per.sec";
+  public static final String APP_MAX_HTTP_RATE = "mmx.app.max.http.rate.per.sec";
+
   public static final String SMTP_HOSTNAME_KEY = "mmx.smtp.hostname";
   public static final String SMTP_PORT_KEY = "mmx.smtp.port";
   public static final String SMTP_ENABLE_TLS_KEY = "mmx.smtp.tls.enable";
@@ -83,6 +89,8 @@ public interface MMXConfigKeys {
   public static final String MAX_APP_PER_OWNER = "mmx.cluster.max.apps";
   public static final String MAX_XMPP_RATE = "mmx.instance.max.xmpp.rate.per.sec";
   public static final String MAX_HTTP_RATE = "mmx.instance.max.http.rate.per.sec";
+  public static final String RATE_LIMIT_BURST_SECONDS = "mmx.rate.limit.burst.seconds";
+  public static final String RATE_LIMIT_CLUSTER_SHARES_ENABLED = "mmx.rate.limit.cluster.shares.enabled";
   public static final String ALERT_EMAIL_SUBJECT = "mmx.alert.email.subject";
   public static final String ALERT_EMAIL_HOST="mmx.alert.email.host";
   public static final String ALERT_EMAIL_PORT="mmx.alert.email.port";
@@ -101,6 +109,13 @@ public interface MMXConfigKeys {
   public static final String APNS_POOL_MAX_IDLE_CONNECTIONS_PER_APP = "mmx.apns.pool.max.idle.count";
   public static final String APNS_POOL_IDLE_TTL_MINUTES = "mmx.apns.pool.idle.ttl.min";
 
+  /**
+   * Keys related to the APNS send engine.
+   */
+  public static final String APNS_ENGINE_CONNECTIONS_PER_APP = "mmx.apns.engine.connections.per.app";
+  public static final String APNS_ENGINE_QUEUE_CAPACITY = "mmx.apns.engine.queue.capacity";
+  public static final String APNS_ENGINE_IDLE_MINUTES = "mmx.apns.engine.idle.minutes";
+
   /**
    * Keys related to https for the rest API
    */
@@ -150,4 +165,94 @@ public interface MMXConfigKeys {
    */
   public static final String APNS_FEEDBACK_PROCESS_INITIAL_DELAY_MINUTES = "mmx.apns.feedback.initialwait.min";
   public static final String APNS_FEEDBACK_PROCESS_FREQUENCY_MINUTES = "mmx.apns.feedback.frequency.min";
+
+  /*
+   * Device cache used by the message routing path
+   */
+  public static final String DEVICE_CACHE_MAX_SIZE = "mmx.device.cache.max.size";
+  public static final String DEVICE_CACHE_TTL_MINUTES = "mmx.device.cache.ttl.minutes";
+
+  /*
+   * App cache used by the REST authentication and the message routing path
+   */
+  public static final String APP_CACHE_MAX_SIZE = "mmx.app.cache.max.size";
+  public static final String APP_CACHE_TTL_MINUTES = "mmx.app.cache.ttl.minutes";
+
+  /*
+   * Message state cache used by the message state queries
+   */
+  public static final String MESSAGE_STATE_CACHE_MAX_SIZE = "mmx.message.state.cache.max.size";
+  public static final String MESSAGE_STATE_CACHE_TTL_SECONDS = "mmx.message.state.cache.ttl.seconds";
+
+  /*
+   * Topic summary cache used by the topic summary requests
+   */
+  public static final String TOPIC_SUMMARY_CACHE_MAX_SIZE = "mmx.topic.summary.cache.max.size";
+  public static final String TOPIC_SUMMARY_CACHE_RESYNC_MINUTES = "mmx.topic.summary.cache.resync.minutes";
+
+  /*
+   * Recent items kept per topic for sending the items published since the last delivery
+   */
+  public static final String RECENT_ITEMS_PER_TOPIC = "mmx.recent.items.per.topic";
+  public static final String RECENT_ITEMS_MAX_TOPICS = "mmx.recent.items.max.topics";
+
+  /*
+   * Purging of the processed mmxMessage and mmxWakeupQueue records. Disabled unless
+   * mmx.retention.enabled is set to true.
+   */
+  public static final String RETENTION_ENABLED = "mmx.retention.enabled";
+  public static final String RETENTION_MESSAGE_DAYS = "mmx.retention.message.days";
+  public static final String RETENTION_CHUNK_SIZE = "mmx.retention.chunk.size";
+  public static final String RETENTION_MAX_CHUNKS_PER_RUN = "mmx.retention.max.chunks.per.run";
+  public static final String RETENTION_INITIAL_DELAY_MINUTES = "mmx.retention.initialwait.min";
+  public static final String RETENTION_FREQUENCY_MINUTES = "mmx.retention.frequency.min";
+
+  /*
+   * Write-behind queue for the mmxMessage records
+   */
+  public static final String MESSAGE_WRITER_ASYNC_ENABLED = "mmx.message.writer.async.enabled";
+  public static final String MESSAGE_WRITER_LANES = "mmx.message.writer.lanes";
+  public static final String MESSAGE_WRITER_BATCH_SIZE = "mmx.message.writer.batch.size";
+  public static final String MESSAGE_WRITER_LINGER_MILLIS = "mmx.message.writer.linger.millis";
+  public static final String MESSAGE_WRITER_QUEUE_CAPACITY = "mmx.message.writer.queue.capacity";
+  public static final String MESSAGE_WRITER_OFFER_TIMEOUT_MILLIS = "mmx.message.writer.offer.timeout.millis";
+
+  /*
+   * Executor registry. Per executor settings use the key
+   * mmx.executor.<name>.<setting> where setting is one of core, max, queue.capacity, rejection.
+   */
+  public static final String EXECUTOR_KEY_PREFIX = "mmx.executor.";
+  public static final String EXECUTOR_CORE_SIZE_SUFFIX = ".core";
+  public static final String EXECUTOR_MAX_SIZE_SUFFIX = ".max";
+  public static final String EXECUTOR_QUEUE_CAPACITY_SUFFIX = ".queue.capacity";
+  public static final String EXECUTOR_REJECTION_POLICY_SUFFIX = ".rejection";
+  public static final String EXECUTOR_DEFAULT_QUEUE_CAPACITY = "mmx.executor.default.queue.capacity";
+
+  /*
+   * In memory wakeup mute tracker. The lifetime is also the longest app wakeup mute period that is
+   * accepted.
+   */
+  public static final String WAKEUP_MUTE_TRACKER_MAX_SIZE = "mmx.wakeup.mute.tracker.max.size";
+  public static final String WAKEUP_MUTE_TRACKER_LIFETIME_MINUTES = "mmx.wakeup.mute.tracker.lifetime.minutes";
+
+  /*
+   * Background push jobs
+   */
+  public static final String PUSH_JOB_PAGE_SIZE = "mmx.push.job.page.size";
+  public static final String PUSH_JOB_RETENTION_MINUTES = "mmx.push.job.retention.minutes";
+
+  /*
+   * Geo event dispatch to the external geo components. The overflow policy is one of
+   * drop_oldest, drop_newest.
+   */
+  public static final String GEO_EVENT_QUEUE_CAPACITY = "mmx.geo.event.queue.capacity";
+  public static final String GEO_EVENT_BATCH_SIZE = "mmx.geo.event.batch.size";
+  public static final String GEO_EVENT_LINGER_MILLIS = "mmx.geo.event.linger.millis";
+  public static final String GEO_EVENT_OVERFLOW_POLICY = "mmx.geo.event.overflow.policy";
+
+  /*
+   * In memory index of the last known device locations
+   */
+  public static final String GEO_INDEX_TTL_MINUTES = "mmx.geo.index.ttl.minutes";
+  public static final String GEO_INDEX_MAX_RADIUS_METERS = "mmx.geo.index.max.radius.meters";
 }
@@ -15,26 +15,60 @@
 package com.magnet.mmx.server.plugin.mmxmgmt.util;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Registry of named executors. Every executor is a bounded {@link InstrumentedThreadPoolExecutor}
+ * whose sizes and rejection policy can be overridden using the properties:
+ * <pre>
+ *   mmx.executor.&lt;name&gt;.core
+ *   mmx.executor.&lt;name&gt;.max
+ *   mmx.executor.&lt;name&gt;.queue.capacity
+ *   mmx.executor.&lt;name&gt;.rejection  (abort|caller_runs|discard|discard_oldest)
+ * </pre>
+ * The size passed to {@link #getOrCreate(String, int)} is used as the default core and max size.
+ * Executors that must not run their tasks on the submitting thread can supply a different default
+ * rejection policy using {@link #getOrCreate(String, int, InstrumentedThreadPoolExecutor.RejectionPolicy)}.
  */
 public class MMXExecutors {
-  private static ConcurrentHashMap<String, ExecutorService> executorMap = new ConcurrentHashMap<String, ExecutorService>();
+  private static final Logger LOGGER = LoggerFactory.getLogger(MMXExecutors.class);
+  private static ConcurrentHashMap<String, InstrumentedThreadPoolExecutor> executorMap = new ConcurrentHashMap<String, InstrumentedThreadPoolExecutor>();
 
   public static ExecutorService getOrCreate(String name, int size) {
-    ExecutorService service = executorMap.get(name);
+    return getOrCreate(name, size, InstrumentedThreadPoolExecutor.RejectionPolicy.fromString(
+        MMXServerConstants.DEFAULT_EXECUTOR_REJECTION_POLICY, InstrumentedThreadPoolExecutor.RejectionPolicy.CALLER_RUNS));
+  }
+
+  /**
+   * Get or create an executor whose rejection policy defaults to <code>defaultPolicy</code> unless
+   * it is overridden by the configuration.
+   * @param name
+   * @param size default core and max size
+   * @param defaultPolicy
+   * @return
+   */
+  public static ExecutorService getOrCreate(String name, int size,
+                                            InstrumentedThreadPoolExecutor.RejectionPolicy defaultPolicy) {
+    InstrumentedThreadPoolExecutor service = executorMap.get(name);
     if(service == null) {
-      ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
-              .setNameFormat(name + "-%d").build();
-      service = Executors.newFixedThreadPool(size, namedThreadFactory);
-      ExecutorService service1 = executorMap.putIfAbsent(name, service);
+      service = create(name, size, defaultPolicy);
+      InstrumentedThreadPoolExecutor service1 = executorMap.putIfAbsent(name, service);
       if(service1 != null) {
+        service.shutdown();
         service = service1;
+      } else {
+        LOGGER.info("getOrCreate : created executor={}", service);
       }
     }
     return service;
@@ -43,4 +77,88 @@ public class MMXExecutors {
   public static void remove(String name) {
     executorMap.remove(name);
   }
+
+  /**
+   * Get the registered executor with the supplied name.
+   * @param name
+   * @return executor or null if there is no executor with that name.
+   */
+  public static InstrumentedThreadPoolExecutor get(String name) {
+    return executorMap.get(name);
+  }
+
+  /**
+   * Get a one line summary of every registered executor sorted by name.
+   * @return list of summaries
+   */
+  public static List<String> getStats() {
+    Map<String, InstrumentedThreadPoolExecutor> sorted = new TreeMap<String, InstrumentedThreadPoolExecutor>(executorMap);
+    List<String> stats = new ArrayList<String>(sorted.size());
+    for (InstrumentedThreadPoolExecutor executor : sorted.values()) {
+      stats.add(executor.toString());
+    }
+    return stats;
+  }
+
+  /**
+   * Shutdown all the registered executors. Queued tasks are given the supplied time
+   * to complete after which the remaining tasks are cancelled.
+   * @param timeout
+   * @param unit
+   */
+  public static void shutdownAll(long timeout, TimeUnit unit) {
+    List<InstrumentedThreadPoolExecutor> executors = new ArrayList<InstrumentedThreadPoolExecutor>(executorMap.values());
+    executorMap.clear();
+    for (InstrumentedThreadPoolExecutor executor : executors) {
+      executor.shutdown();
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (InstrumentedThreadPoolExecutor executor : executors) {
+      try {
+        long remaining = deadline - System.nanoTime();
+        if (!executor.awaitTermination(Math.max(0L, remaining), TimeUnit.NANOSECONDS)) {
+          List<Runnable> dropped = executor.shutdownNow();
+          LOGGER.warn("shutdownAll : executor={} did not terminate in time, dropped tasks={}", executor.getName(), dropped.size());
+        }
+      } catch (InterruptedException e) {
+        LOGGER.warn("shutdownAll : interrupted while waiting for executor={}", executor.getName());
+        executor.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static InstrumentedThreadPoolExecutor create(String name, int size,
+                                                       InstrumentedThreadPoolExecutor.RejectionPolicy defaultPolicy) {
+    MMXConfiguration configuration = MMXConfiguration.getConfiguration();
+    String prefix = MMXConfigKeys.EXECUTOR_KEY_PREFIX + name;
+    int core = configuration.getInt(prefix + MMXConfigKeys.EXECUTOR_CORE_SIZE_SUFFIX, size);
+    int max = configuration.getInt(prefix + MMXConfigKeys.EXECUTOR_MAX_SIZE_SUFFIX, Math.max(core, size));
+    int defaultCapacity = configuration.getInt(MMXConfigKeys.EXECUTOR_DEFAULT_QUEUE_CAPACITY,
+        MMXServerConstants.DEFAULT_EXECUTOR_QUEUE_CAPACITY);
+    int capacity = configuration.getInt(prefix + MMXConfigKeys.EXECUTOR_QUEUE_CAPACITY_SUFFIX, defaultCapacity);
+    String policy = configuration.getString(prefix + MMXConfigKeys.EXECUTOR_REJECTION_POLICY_SUFFIX, null);
+    return create(name, core, max, capacity,
+        InstrumentedThreadPoolExecutor.RejectionPolicy.fromString(policy, defaultPolicy));
+  }
+
+  static InstrumentedThreadPoolExecutor create(String name, int core, int max, int capacity,
+                                               InstrumentedThreadPoolExecutor.RejectionPolicy policy) {
+    if (core < 1) {
+      LOGGER.warn("create : invalid core size={} for executor={}, using 1", core, name);
+      core = 1;
+    }
+    if (max < core) {
+      LOGGER.warn("create : max size={} is less than core size for executor={}, using core size", max, name);
+      max = core;
+    }
+    if (capacity < 1) {
+      LOGGER.warn("create : invalid queue capacity={} for executor={}, using default", capacity, name);
+      capacity = MMXServerConstants.DEFAULT_EXECUTOR_QUEUE_CAPACITY;
+    }
+    ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
+            .setNameFormat(name + "-%d").build();
+    return new InstrumentedThreadPoolExecutor(name, core, max, MMXServerConstants.EXECUTOR_KEEP_ALIVE_SECONDS,
+        new ArrayBlockingQueue<Runnable>(capacity), capacity, namedThreadFactory, policy);
+  }
 }
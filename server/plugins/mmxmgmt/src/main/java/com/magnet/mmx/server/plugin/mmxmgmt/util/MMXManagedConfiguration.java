@@ -14,9 +14,23 @@
  */
 package com.magnet.mmx.server.plugin.mmxmgmt.util;
 
+import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSSendEngine;
+import com.magnet.mmx.server.plugin.mmxmgmt.context.ContextDispatcherFactory;
+import com.magnet.mmx.server.plugin.mmxmgmt.context.GeoEventDispatcher;
+import com.magnet.mmx.server.plugin.mmxmgmt.context.GeoLocationIndex;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntityCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageStateCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.monitoring.RateLimiterService;
+import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.RecentItemsCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.pubsub.TopicSummaryCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.retention.MessageRetentionProcessor;
+import com.magnet.mmx.server.plugin.mmxmgmt.wakeup.MessageDeadlineScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 /**
  */
 public class MMXManagedConfiguration implements MMXManagedConfigurationMBean {
@@ -367,4 +381,195 @@ public class MMXManagedConfiguration implements MMXManagedConfigurationMBean {
     LOGGER.trace("setMmxAlertEmailBccList : {}", mmxAlertEmailBccList);
     configuration.setValue(MMXConfigKeys.ALERT_EMAIL_BCC_LIST, mmxAlertEmailBccList);
   }
+
+  @Override
+  public long getDeviceCacheHitCount() {
+    return DeviceEntityCache.getInstance().getHitCount();
+  }
+
+  @Override
+  public long getDeviceCacheMissCount() {
+    return DeviceEntityCache.getInstance().getMissCount();
+  }
+
+  @Override
+  public long getDeviceCacheEvictionCount() {
+    return DeviceEntityCache.getInstance().getEvictionCount();
+  }
+
+  @Override
+  public long getDeviceCacheSize() {
+    return DeviceEntityCache.getInstance().getSize();
+  }
+
+  @Override
+  public long getAppCacheHitCount() {
+    return AppEntityCache.getInstance().getHitCount();
+  }
+
+  @Override
+  public long getAppCacheMissCount() {
+    return AppEntityCache.getInstance().getMissCount();
+  }
+
+  @Override
+  public long getAppCacheSize() {
+    return AppEntityCache.getInstance().getSize();
+  }
+
+  @Override
+  public long getMessageStateCacheHitCount() {
+    return MessageStateCache.getInstance().getHitCount();
+  }
+
+  @Override
+  public long getMessageStateCacheMissCount() {
+    return MessageStateCache.getInstance().getMissCount();
+  }
+
+  @Override
+  public long getMessageStateCacheSize() {
+    return MessageStateCache.getInstance().getSize();
+  }
+
+  @Override
+  public long getTopicSummaryCacheHitCount() {
+    return TopicSummaryCache.getInstance().getHitCount();
+  }
+
+  @Override
+  public long getTopicSummaryCacheMissCount() {
+    return TopicSummaryCache.getInstance().getMissCount();
+  }
+
+  @Override
+  public long getTopicSummaryCacheSize() {
+    return TopicSummaryCache.getInstance().getSize();
+  }
+
+  @Override
+  public long getRecentItemsCacheHitCount() {
+    return RecentItemsCache.getInstance().getHitCount();
+  }
+
+  @Override
+  public long getRecentItemsCacheMissCount() {
+    return RecentItemsCache.getInstance().getMissCount();
+  }
+
+  @Override
+  public long getRecentItemsCacheSize() {
+    return RecentItemsCache.getInstance().getSize();
+  }
+
+  @Override
+  public long getRetentionLastRunTime() {
+    return MessageRetentionProcessor.getLastRunTime();
+  }
+
+  @Override
+  public long getRetentionLastRunMessageCount() {
+    return MessageRetentionProcessor.getLastRunMessageCount();
+  }
+
+  @Override
+  public long getRetentionLastRunReceiptCount() {
+    return MessageRetentionProcessor.getLastRunReceiptCount();
+  }
+
+  @Override
+  public long getRetentionLastRunWakeupCount() {
+    return MessageRetentionProcessor.getLastRunWakeupCount();
+  }
+
+  @Override
+  public long getRetentionLastRunPushMessageCount() {
+    return MessageRetentionProcessor.getLastRunPushMessageCount();
+  }
+
+  @Override
+  public long getRetentionTotalPurgeCount() {
+    return MessageRetentionProcessor.getTotalPurgeCount();
+  }
+
+  @Override
+  public int getMessageDeadlineCount() {
+    return MessageDeadlineScheduler.getInstance().getDeadlineCount();
+  }
+
+  @Override
+  public long getMessageTimedOutCount() {
+    return MessageDeadlineScheduler.getInstance().getTimedOutCount();
+  }
+
+  @Override
+  public long getMessageRetriedCount() {
+    return MessageDeadlineScheduler.getInstance().getRetriedCount();
+  }
+
+  @Override
+  public String[] getExecutorStats() {
+    List<String> stats = MMXExecutors.getStats();
+    return stats.toArray(new String[stats.size()]);
+  }
+
+  @Override
+  public String[] getAPNSSendStats() {
+    List<String> stats = APNSSendEngine.getInstance().getStats();
+    return stats.toArray(new String[stats.size()]);
+  }
+
+  @Override
+  public long getRateLimiterAllowedCount() {
+    return RateLimiterService.getAllowedCount();
+  }
+
+  @Override
+  public long getRateLimiterRejectedCount() {
+    return RateLimiterService.getRejectedCount();
+  }
+
+  @Override
+  public String[] getRateLimiterStats() {
+    List<String> stats = RateLimiterService.getStats();
+    return stats.toArray(new String[stats.size()]);
+  }
+
+  @Override
+  public int getGeoEventQueueDepth() {
+    GeoEventDispatcher dispatcher = getGeoEventDispatcher();
+    return dispatcher == null ? 0 : dispatcher.getQueueDepth();
+  }
+
+  @Override
+  public long getGeoEventDroppedCount() {
+    GeoEventDispatcher dispatcher = getGeoEventDispatcher();
+    return dispatcher == null ? 0L : dispatcher.getDroppedCount();
+  }
+
+  @Override
+  public long getGeoEventCoalescedCount() {
+    GeoEventDispatcher dispatcher = getGeoEventDispatcher();
+    return dispatcher == null ? 0L : dispatcher.getCoalescedCount();
+  }
+
+  @Override
+  public long getGeoEventDispatchedCount() {
+    GeoEventDispatcher dispatcher = getGeoEventDispatcher();
+    return dispatcher == null ? 0L : dispatcher.getDispatchedCount();
+  }
+
+  @Override
+  public long getGeoLocationIndexSize() {
+    return GeoLocationIndex.getInstance().getSize();
+  }
+
+  private static GeoEventDispatcher getGeoEventDispatcher() {
+    try {
+      return (GeoEventDispatcher) ContextDispatcherFactory.getInstance().getDispatcher(GeoEventDispatcher.class.getName());
+    } catch (Exception e) {
+      LOGGER.warn("getGeoEventDispatcher : geo event dispatcher is not available", e);
+      return null;
+    }
+  }
 }
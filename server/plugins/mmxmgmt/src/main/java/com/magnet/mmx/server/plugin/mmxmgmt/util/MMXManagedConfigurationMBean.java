@@ -117,4 +117,113 @@ public interface MMXManagedConfigurationMBean {
   public String getMmxAlertEmailBccList();
   public void setMmxAlertEmailBccList(String mmxAlertEmailBccList);
 
+  /**
+   * Device cache statistics
+   */
+  public long getDeviceCacheHitCount();
+
+  public long getDeviceCacheMissCount();
+
+  public long getDeviceCacheEvictionCount();
+
+  public long getDeviceCacheSize();
+
+  /**
+   * App cache statistics
+   */
+  public long getAppCacheHitCount();
+
+  public long getAppCacheMissCount();
+
+  public long getAppCacheSize();
+
+  /**
+   * Message state cache statistics
+   */
+  public long getMessageStateCacheHitCount();
+
+  public long getMessageStateCacheMissCount();
+
+  public long getMessageStateCacheSize();
+
+  /**
+   * Topic summary cache statistics
+   */
+  public long getTopicSummaryCacheHitCount();
+
+  public long getTopicSummaryCacheMissCount();
+
+  public long getTopicSummaryCacheSize();
+
+  /**
+   * Recent items cache statistics
+   */
+  public long getRecentItemsCacheHitCount();
+
+  public long getRecentItemsCacheMissCount();
+
+  public long getRecentItemsCacheSize();
+
+  /**
+   * Message retention statistics. The last run counts are the rows purged by the most recent
+   * retention run on this node.
+   */
+  public long getRetentionLastRunTime();
+
+  public long getRetentionLastRunMessageCount();
+
+  public long getRetentionLastRunReceiptCount();
+
+  public long getRetentionLastRunWakeupCount();
+
+  public long getRetentionLastRunPushMessageCount();
+
+  public long getRetentionTotalPurgeCount();
+
+  /**
+   * Message deadline statistics: retry and timeout deadlines held in memory on this node and the
+   * number of messages timed out and retried since the node started.
+   */
+  public int getMessageDeadlineCount();
+
+  public long getMessageTimedOutCount();
+
+  public long getMessageRetriedCount();
+
+  /**
+   * Get the pool size, active count, queue depth, rejected count and task latency
+   * of every registered executor.
+   * @return one line per executor
+   */
+  public String[] getExecutorStats();
+
+  /**
+   * Get the queue depth, sent/failed/rejected counts and send latency of the APNS send engine
+   * followed by the state of every open APNS channel.
+   * @return one line per channel after the summary line
+   */
+  public String[] getAPNSSendStats();
+
+  public long getRateLimiterAllowedCount();
+
+  public long getRateLimiterRejectedCount();
+
+  /**
+   * Get the state of the rate limiters that have rejected permits.
+   * @return one line per limiter
+   */
+  public String[] getRateLimiterStats();
+
+  /**
+   * Geo event dispatch statistics
+   */
+  public int getGeoEventQueueDepth();
+
+  public long getGeoEventDroppedCount();
+
+  public long getGeoEventCoalescedCount();
+
+  public long getGeoEventDispatchedCount();
+
+  public long getGeoLocationIndexSize();
 }
@@ -14,6 +14,7 @@
  */
 package com.magnet.mmx.server.plugin.mmxmgmt.util;
 
+import org.jivesoftware.openfire.OfflineMessageStore;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
@@ -21,15 +22,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.Message;
 
+import java.util.List;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 /**
  */
 public class MMXOfflineStorageUtil {
   private static final Logger LOGGER = LoggerFactory.getLogger(MMXOfflineStorageUtil.class);
   private static final String MMX_CACHE = "mmxStorageCache";
-  private static Executor service = Executors.newFixedThreadPool(20);
+  private static final String POOL_NAME = "OfflineStorageExecutor";
+  private static final int POOL_SIZE = 20;
   private static Cache mmxStorageCache = null;
 
   public static void storeMessage(final Message message) {
@@ -38,7 +40,7 @@ public class MMXOfflineStorageUtil {
     String receiver = message.getTo().toFullJID();
     String messageId = message.getID();
 
-    service.execute(new Runnable() {
+    getExecutor().execute(new Runnable() {
       @Override
       public void run() {
         LOGGER.trace("storeMessage.run : addMessage from={}, to={}, messageId={}", new Object[]{message.getFrom(), message.getTo(), message.getID()});
@@ -47,8 +49,28 @@ public class MMXOfflineStorageUtil {
     });
   }
 
+  /**
+   * Store a list of messages using a single task.
+   * @param messages
+   */
+  public static void storeMessages(final List<Message> messages) {
+    if (messages.isEmpty()) {
+      return;
+    }
+    LOGGER.debug("storeMessages : count={}, messageId={}", messages.size(), messages.get(0).getID());
+    getExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        for (Message message : messages) {
+          LOGGER.trace("storeMessages.run : addMessage from={}, to={}, messageId={}", new Object[]{message.getFrom(), message.getTo(), message.getID()});
+          XMPPServer.getInstance().getOfflineMessageStore().addMessage(message);
+        }
+      }
+    });
+  }
+
   public static void removeMessage(final String username, final String messageId) {
-    service.execute(new Runnable() {
+    getExecutor().execute(new Runnable() {
       @Override
       public void run() {
         LOGGER.trace("removeMessage.run : deleteMessage : username={}, messageId={}", username, messageId);
@@ -57,6 +79,23 @@ public class MMXOfflineStorageUtil {
     });
   }
 
+  public static void removeMessages(final String username, final List<String> messageIds) {
+    getExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        LOGGER.trace("removeMessages.run : deleteMessage : username={}, count={}", username, messageIds.size());
+        OfflineMessageStore store = XMPPServer.getInstance().getOfflineMessageStore();
+        for (String messageId : messageIds) {
+          store.deleteMessage(username, messageId);
+        }
+      }
+    });
+  }
+
+  private static Executor getExecutor() {
+    return MMXExecutors.getOrCreate(POOL_NAME, POOL_SIZE);
+  }
+
   private synchronized static Cache getOrCreateCache() {
     if( mmxStorageCache == null) {
       LOGGER.trace("getOrCreateCache : created Cache : {}", MMX_CACHE);
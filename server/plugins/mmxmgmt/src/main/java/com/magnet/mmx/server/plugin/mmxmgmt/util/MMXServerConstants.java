@@ -38,12 +38,21 @@ public final class MMXServerConstants {
   public static final int DEFAULT_RETRY_COUNT = 3;
   public static final int DEFAULT_WAKEUP_FREQUENCY = 30;
   public static final int DEFAULT_WAKEUP_INITIAL_WAIT = 10;
+  /**
+   * Timing wheel used for the message retry and timeout deadlines. With 10 second ticks one
+   * revolution of the wheel is about 85 minutes.
+   */
+  public static final int DEADLINE_WHEEL_TICK_SECONDS = 10;
+  public static final int DEADLINE_WHEEL_SIZE = 512;
+  public static final int DEADLINE_BATCH_SIZE = 500;
   public static final int DEFAULT_SMTP_PORT = 587;
   public static final int DEFAULT_REST_HTTP_PORT = 5220;
   public static final int DEFAULT_MAX_APP_PER_OWNER = -1;
   public static final int DEFAULT_MAX_DEVICES_PER_APP = -1;
   public static final int DEFAULT_MAX_XMPP_RATE = -1;
   public static final int DEFAULT_MAX_HTTP_RATE = -1;
+  public static final int DEFAULT_RATE_LIMIT_BURST_SECONDS = 1;
+  public static final boolean DEFAULT_RATE_LIMIT_CLUSTER_SHARES_ENABLED = false;
 
   public static final String PUSH_CALLBACK_CONTEXT = "/mmxmgmt";
   public static final String PUSH_CALLBACK_ENDPOINT = "/v1/pushreply";
@@ -71,6 +80,14 @@ public final class MMXServerConstants {
   public static final int APNS_POOL_MAX_IDLE_CONNECTIONS_PER_APP = 1;
   public static final int APNS_POOL_IDLE_TTL_MINUTES = 10;
 
+  /**
+   * APNS send engine related default values
+   */
+  public static final int DEFAULT_APNS_ENGINE_CONNECTIONS_PER_APP = 2;
+  public static final int DEFAULT_APNS_ENGINE_QUEUE_CAPACITY = 10000;
+  public static final int DEFAULT_APNS_ENGINE_IDLE_MINUTES = 30;
+  public static final int APNS_ENGINE_SHUTDOWN_TIMEOUT_SECONDS = 10;
+
   /**
    * Default values  related to https for the rest API
    */
@@ -111,6 +128,81 @@ public final class MMXServerConstants {
   public static final int DEFAULT_APNS_FEEDBACK_PROCESS_INITIAL_DELAY_MINUTES = 10;
   public static final int DEFAULT_APNS_FEEDBACK_PROCESS_FREQUENCY_MINUTES = 6*60; //6 hrs in minutes
 
+  /**
+   * Default values related to the device cache.
+   */
+  public static final int DEFAULT_DEVICE_CACHE_MAX_SIZE = 10000;
+  public static final int DEFAULT_DEVICE_CACHE_TTL_MINUTES = 10;
+
+  /**
+   * Default values related to the app cache.
+   */
+  public static final int DEFAULT_APP_CACHE_MAX_SIZE = 1000;
+  public static final int DEFAULT_APP_CACHE_TTL_MINUTES = 10;
+
+  /**
+   * Default values related to the message state cache.
+   */
+  public static final int DEFAULT_MESSAGE_STATE_CACHE_MAX_SIZE = 10000;
+  public static final int DEFAULT_MESSAGE_STATE_CACHE_TTL_SECONDS = 30;
+
+  /**
+   * Default values related to the topic summary cache.
+   */
+  public static final int DEFAULT_TOPIC_SUMMARY_CACHE_MAX_SIZE = 50000;
+  public static final int DEFAULT_TOPIC_SUMMARY_CACHE_RESYNC_MINUTES = 10;
+
+  /**
+   * Default values related to the recent items cache.
+   */
+  public static final int DEFAULT_RECENT_ITEMS_PER_TOPIC = 10;
+  public static final int DEFAULT_RECENT_ITEMS_MAX_TOPICS = 10000;
+
+  /**
+   * Default values related to the purging of processed message records. Purging deletes data, so
+   * it is off until enabled by the operator.
+   */
+  public static final boolean DEFAULT_RETENTION_ENABLED = false;
+  public static final int DEFAULT_RETENTION_MESSAGE_DAYS = 30;
+  public static final int DEFAULT_RETENTION_CHUNK_SIZE = 1000;
+  public static final int DEFAULT_RETENTION_MAX_CHUNKS_PER_RUN = 500;
+  public static final int DEFAULT_RETENTION_INITIAL_DELAY_MINUTES = 15;
+  public static final int DEFAULT_RETENTION_FREQUENCY_MINUTES = 60;
+
+  /**
+   * Default values related to the write-behind queue for mmxMessage records.
+   */
+  public static final boolean DEFAULT_MESSAGE_WRITER_ASYNC_ENABLED = true;
+  public static final int DEFAULT_MESSAGE_WRITER_LANES = 4;
+  public static final int DEFAULT_MESSAGE_WRITER_BATCH_SIZE = 100;
+  public static final long DEFAULT_MESSAGE_WRITER_LINGER_MILLIS = 50L;
+  public static final int DEFAULT_MESSAGE_WRITER_QUEUE_CAPACITY = 10000;
+  public static final long DEFAULT_MESSAGE_WRITER_OFFER_TIMEOUT_MILLIS = 500L;
+  public static final int MESSAGE_WRITER_SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+  /**
+   * Default values related to the executor registry.
+   */
+  public static final int DEFAULT_EXECUTOR_QUEUE_CAPACITY = 10000;
+  public static final String DEFAULT_EXECUTOR_REJECTION_POLICY = "caller_runs";
+  public static final long EXECUTOR_KEEP_ALIVE_SECONDS = 60L;
+  public static final int EXECUTOR_SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+  public static final int DEFAULT_WAKEUP_MUTE_TRACKER_MAX_SIZE = 100000;
+  public static final int DEFAULT_WAKEUP_MUTE_TRACKER_LIFETIME_MINUTES = 60;
+
+  public static final int DEFAULT_PUSH_JOB_PAGE_SIZE = 1000;
+  public static final int DEFAULT_PUSH_JOB_RETENTION_MINUTES = 60;
+
+  public static final int DEFAULT_GEO_EVENT_QUEUE_CAPACITY = 50000;
+  public static final int DEFAULT_GEO_EVENT_BATCH_SIZE = 100;
+  public static final long DEFAULT_GEO_EVENT_LINGER_MILLIS = 50L;
+  public static final String DEFAULT_GEO_EVENT_OVERFLOW_POLICY = "drop_oldest";
+
+  public static final int DEFAULT_GEO_INDEX_TTL_MINUTES = 60;
+  public static final int DEFAULT_GEO_INDEX_MAX_RADIUS_METERS = 100000;
+  public static final int DEFAULT_GEO_NEARBY_LIMIT = 100;
+
   public static final String OFFSET_PARAM = "offset";
   public static final String SIZE_PARAM = "size";
   public static final String SORT_BY_PARAM = "sort_by";
@@ -35,6 +35,13 @@ public class PropertyChangeHandler {
     } else if(property.equals(MMXConfigKeys.MAX_HTTP_RATE)) {
       int rate = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.MAX_HTTP_RATE, MMXServerConstants.DEFAULT_MAX_HTTP_RATE);
       RateLimiterService.updateRates(MMXServerConstants.HTTP_RATE_TYPE, rate);
+    } else if (property.equals(MMXConfigKeys.RATE_LIMIT_BURST_SECONDS)) {
+      int xmppRate = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.MAX_XMPP_RATE, MMXServerConstants.DEFAULT_MAX_XMPP_RATE);
+      RateLimiterService.updateRates(MMXServerConstants.XMPP_RATE_TYPE, xmppRate);
+      int httpRate = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.MAX_HTTP_RATE, MMXServerConstants.DEFAULT_MAX_HTTP_RATE);
+      RateLimiterService.updateRates(MMXServerConstants.HTTP_RATE_TYPE, httpRate);
+    } else if (property.equals(MMXConfigKeys.RATE_LIMIT_CLUSTER_SHARES_ENABLED)) {
+      RateLimiterService.updateClusterShares();
     } else if (MMXConfigKeys.EXT_SERVICE_EVENT_GEO_SECRET.equals(property)) {
       // update the secret for geo component
       // TODO add proper Rest API to configure components
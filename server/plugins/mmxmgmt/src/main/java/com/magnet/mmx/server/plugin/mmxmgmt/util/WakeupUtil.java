@@ -22,9 +22,12 @@ import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushAPNSPayloadBuilder;
 import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushGCMPayloadBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.wakeup.WakeupMuteTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -33,25 +36,70 @@ public class WakeupUtil {
   private static final Logger LOGGER = LoggerFactory.getLogger(WakeupUtil.class);
 
   public static void queueWakeup(AppEntity appEntity, DeviceEntity deviceEntity, String messageId) {
-    LOGGER.trace("queueWakeup : messageId={}", messageId);
+    queueWakeups(appEntity, Collections.singletonList(deviceEntity), messageId);
+  }
+
+  /**
+   * Queue a wakeup for the message for each of the supplied devices. Devices that had a wakeup
+   * queued or sent during the mute period are skipped; the mute period is checked using the
+   * in memory {@link WakeupMuteTracker}. The wakeup records are inserted using a single batch; if
+   * the insert fails the devices are not muted.
+   * @param appEntity
+   * @param deviceEntities
+   * @param messageId
+   */
+  public static void queueWakeups(AppEntity appEntity, List<DeviceEntity> deviceEntities, String messageId) {
+    LOGGER.trace("queueWakeups : messageId={}, deviceCount={}", messageId, deviceEntities.size());
+    if (deviceEntities.isEmpty()) {
+      return;
+    }
+    WakeupMuteTracker muteTracker = WakeupMuteTracker.getInstance();
+    int mutePeriod = getMutePeriod(appEntity.getAppId());
+    List<WakeupEntity> wakeupEntities = new ArrayList<WakeupEntity>(deviceEntities.size());
+    for (DeviceEntity deviceEntity : deviceEntities) {
+      if (!muteTracker.tryAcquire(appEntity.getAppId(), deviceEntity.getDeviceId(), mutePeriod)) {
+        LOGGER.debug("Device id:{} has wakeup queued or sent during mute period : {}. Not queueing a wakeup",
+            deviceEntity.getDeviceId(), mutePeriod);
+        continue;
+      }
+      wakeupEntities.add(buildWakeupEntity(appEntity, deviceEntity, messageId));
+    }
+    if (wakeupEntities.isEmpty()) {
+      return;
+    }
     WakeupEntityDAO wakeupEntityDAO = DBUtil.getWakeupEntityDAO();
+    try {
+      if (wakeupEntities.size() == 1) {
+        wakeupEntityDAO.offer(wakeupEntities.get(0));
+      } else {
+        wakeupEntityDAO.offer(wakeupEntities);
+      }
+    } catch (RuntimeException e) {
+      // no wakeup was queued, so don't mute the devices
+      for (WakeupEntity wakeupEntity : wakeupEntities) {
+        muteTracker.release(wakeupEntity.getAppId(), wakeupEntity.getDeviceId());
+      }
+      throw e;
+    }
+  }
+
+  private static int getMutePeriod(String appId) {
     AppConfigurationCache configurationCache = AppConfigurationCache.getInstance();
-    String mutePeriodString = configurationCache.getString(appEntity.getAppId(), MMXConfigKeys.WAKEUP_MUTE_PERIOD_MINUTES);
+    String mutePeriodString = configurationCache.getString(appId, MMXConfigKeys.WAKEUP_MUTE_PERIOD_MINUTES);
     int mutePeriod = MMXServerConstants.WAKEUP_MUTE_PERIOD_MINUTES_DEFAULT;
     if (mutePeriodString == null || mutePeriodString.isEmpty()) {
       mutePeriod = MMXServerConstants.WAKEUP_MUTE_PERIOD_MINUTES_DEFAULT;
     } else {
-      mutePeriod = Integer.parseInt(mutePeriodString);
-    }
-    List<WakeupEntity> queuedDuringMute = wakeupEntityDAO.retrieveOpenOrSentWakeup(appEntity.getAppId(),
-                                            deviceEntity, mutePeriod);
-
-    if (!queuedDuringMute.isEmpty()) {
-      LOGGER.info("Device id:{} has wakeup queued or sent during mute period : {}. Not queueing a wakeup",
-          deviceEntity.getDeviceId(), mutePeriod);
-      return;
+      try {
+        mutePeriod = Integer.parseInt(mutePeriodString.trim());
+      } catch (NumberFormatException e) {
+        LOGGER.warn("getMutePeriod : invalid mute period={} for appId={}, using default", mutePeriodString, appId);
+      }
     }
+    return mutePeriod;
+  }
 
+  public static WakeupEntity buildWakeupEntity(AppEntity appEntity, DeviceEntity deviceEntity, String messageId) {
     WakeupEntity wakeupEntity = new WakeupEntity();
     wakeupEntity.setToken(deviceEntity.getClientToken());
     wakeupEntity.setDeviceId(deviceEntity.getDeviceId());
@@ -71,7 +119,6 @@ public class WakeupUtil {
     }
     wakeupEntity.setMessageId(messageId);
     wakeupEntity.setAppId(appEntity.getAppId());
-
-    wakeupEntityDAO.offer(wakeupEntity);
+    return wakeupEntity;
   }
 }
@@ -16,8 +16,7 @@ package com.magnet.mmx.server.plugin.mmxmgmt.wakeup;
 
 import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSConnection;
 import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSConnectionException;
-import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSConnectionPool;
-import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSConnectionPoolImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSSendEngine;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
 import com.magnet.mmx.util.Utils;
@@ -49,12 +48,20 @@ public class APNSWakeupNotifierImpl implements WakeupNotifier {
 
       boolean apnsCertProduction = apnsContext.isApnsCertProduction();
       String appId = apnsContext.getAppId();
-      APNSConnectionPool connectionPool = APNSConnectionPoolImpl.getInstance();
-      APNSConnection connection = connectionPool.getConnection(appId, apnsCertProduction);
       if (LOGGER.isDebugEnabled()) {
         LOGGER.debug("JSON Payload for the APNS wakeup notification:{}" , payload);
       }
       List<NotificationResult> results = new ArrayList<NotificationResult>(deviceTokens.size());
+      APNSConnection connection = APNSSendEngine.getInstance().getConnection(appId, apnsCertProduction);
+      if (connection == null) {
+        LOGGER.warn("sendNotification : no APNS connection available for appId={}", appId);
+        for (int i = 0; i < deviceTokens.size(); i++) {
+          results.add(NotificationResult.DELIVERY_FAILED_PERMANENT);
+        }
+        return results;
+      }
+      // the tokens are queued on the long lived connections of the app; delivery failures are
+      // reported asynchronously by the send engine
       for (String token : deviceTokens) {
         try {
           connection.send(token, payload);
@@ -64,8 +71,6 @@ public class APNSWakeupNotifierImpl implements WakeupNotifier {
           results.add(NotificationResult.DELIVERY_FAILED_PERMANENT);
         }
       }
-      connectionPool.returnConnection(connection);
-      //return the connection back to pool
       return results;
     } else {
       throw new IllegalArgumentException("Context has to be instance of APNSNotificationSystemContext");
@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.HttpRetryException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -35,6 +36,10 @@ public class GCMWakeupNotifierImpl implements WakeupNotifier {
 
   private static Logger LOGGER = LoggerFactory.getLogger(GCMWakeupNotifierImpl.class);
   private static final int RETRY_COUNT = 5;
+  /**
+   * Max number of registration ids that GCM accepts in a single multicast request.
+   */
+  public static final int MAX_MULTICAST_SIZE = 1000;
 
   @Override
   public List<NotificationResult> sendNotification(List<String> deviceTokens, String payload, NotificationSystemContext context) {
@@ -45,7 +50,28 @@ public class GCMWakeupNotifierImpl implements WakeupNotifier {
       }
   }
 
+  /**
+   * Send the payload to the supplied tokens. Tokens are sent using multicast requests of
+   * up to {@link #MAX_MULTICAST_SIZE} registration ids.
+   * @param deviceTokens
+   * @param payload
+   * @param senderIdentifier Google API key
+   * @return result for each token in the same order as the tokens.
+   */
   public List<NotificationResult> sendNotification(List<String> deviceTokens, String payload, String senderIdentifier) {
+    Sender sender = new Sender(senderIdentifier);
+    if (deviceTokens.size() <= MAX_MULTICAST_SIZE) {
+      return sendMulticast(sender, deviceTokens, payload, senderIdentifier);
+    }
+    List<NotificationResult> results = new ArrayList<NotificationResult>(deviceTokens.size());
+    for (int start = 0; start < deviceTokens.size(); start += MAX_MULTICAST_SIZE) {
+      List<String> chunk = deviceTokens.subList(start, Math.min(start + MAX_MULTICAST_SIZE, deviceTokens.size()));
+      results.addAll(sendMulticast(sender, chunk, payload, senderIdentifier));
+    }
+    return results;
+  }
+
+  private List<NotificationResult> sendMulticast(Sender sender, List<String> deviceTokens, String payload, String senderIdentifier) {
     String tokens = deviceTokens.toString();
 
     LOGGER.debug(String.format("Sending: %s to tokens:%s", payload, tokens));
@@ -53,7 +79,6 @@ public class GCMWakeupNotifierImpl implements WakeupNotifier {
     //Prepare a simple payload to push
     NotificationResult[] results = new NotificationResult[deviceTokens.size()];
 
-    Sender sender = new Sender(senderIdentifier);
     Message.Builder mb = new Message.Builder().
         addData("msg", payload);
 
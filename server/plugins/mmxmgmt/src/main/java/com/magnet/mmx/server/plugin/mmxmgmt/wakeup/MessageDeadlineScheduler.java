@@ -0,0 +1,389 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.wakeup;
+
+import com.magnet.mmx.server.common.data.AppEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntityCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceStatus;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.PushStatus;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupSentMessage;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.HashedTimingWheel;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.WakeupUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the retry and timeout deadlines of the messages in WAKEUP_SENT state in a
+ * {@link HashedTimingWheel} so that only the messages that are due are looked at, instead of
+ * scanning mmxMessage periodically.
+ * <ul>
+ *   <li>The deadlines are registered by the {@link WakeupProcessor} when it marks messages as
+ *   WAKEUP_SENT. The timeout deadline is the time the message was queued plus
+ *   {@link MMXConfigKeys#MESSAGE_TIMEOUT_MINUTES}. A retry deadline is registered
+ *   {@link MMXConfigKeys#RETRY_INTERVAL_MINUTES} after every wakeup until
+ *   {@link MMXConfigKeys#RETRY_COUNT} retries have been sent.</li>
+ *   <li>The wakeup processor also advances the wheel, so the deadlines are processed by the node
+ *   that holds the wakeup lock. A node that loses the lock drops its deadlines, and when a node
+ *   acquires the lock the wheel is rebuilt from the database, which covers startup and failover.</li>
+ *   <li>Due deadlines are processed in batches: timed out messages are updated using one JDBC batch
+ *   and the state of the messages to retry is checked using one query per batch.</li>
+ * </ul>
+ * Deadlines of messages that have been delivered in the meantime are dropped when they are due.
+ */
+public class MessageDeadlineScheduler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MessageDeadlineScheduler.class);
+  /**
+   * Retries are disabled unless a retry count is configured.
+   */
+  private static final int DEFAULT_RETRY_COUNT = 0;
+
+  private final HashedTimingWheel<Deadline> wheel;
+  private final ConcurrentMap<String, AtomicInteger> wakeupCounts = new ConcurrentHashMap<String, AtomicInteger>();
+  private final AtomicLong timedOutCount = new AtomicLong();
+  private final AtomicLong retriedCount = new AtomicLong();
+  private volatile boolean loaded = false;
+
+  protected MessageDeadlineScheduler() {
+    wheel = new HashedTimingWheel<Deadline>(MMXServerConstants.DEADLINE_WHEEL_TICK_SECONDS, TimeUnit.SECONDS,
+        MMXServerConstants.DEADLINE_WHEEL_SIZE, currentTimeMillis());
+  }
+
+  private static class SchedulerHolder {
+    private static final MessageDeadlineScheduler INSTANCE = new MessageDeadlineScheduler();
+  }
+
+  public static MessageDeadlineScheduler getInstance() {
+    return SchedulerHolder.INSTANCE;
+  }
+
+  /**
+   * Rebuild the wheel from the database if it hasn't been built since this node acquired the
+   * wakeup lock.
+   */
+  public void loadIfNeeded() {
+    if (loaded) {
+      return;
+    }
+    synchronized (this) {
+      if (loaded) {
+        return;
+      }
+      long startTime = System.nanoTime();
+      wheel.clear();
+      wakeupCounts.clear();
+      int timeoutSeconds = getTimeoutSeconds();
+      int retryIntervalSeconds = getRetryIntervalSeconds();
+      int retryCount = getRetryCount();
+      List<WakeupSentMessage> messages = getMessageDAO().getWakeupSentMessages();
+      for (WakeupSentMessage message : messages) {
+        int count = Math.max(1, message.getWakeupCount());
+        String key = key(message.getMessageId(), message.getDeviceId());
+        wakeupCounts.put(key, new AtomicInteger(count));
+        Deadline deadline = new Deadline(message.getAppId(), message.getMessageId(), message.getDeviceId());
+        wheel.schedule(deadline.as(Kind.TIMEOUT), TimeUnit.SECONDS.toMillis(message.getQueuedAtUTC() + timeoutSeconds));
+        if (count <= retryCount && message.getLastWakeupSentUTC() > 0) {
+          wheel.schedule(deadline.as(Kind.RETRY), TimeUnit.SECONDS.toMillis(message.getLastWakeupSentUTC() + retryIntervalSeconds));
+        }
+      }
+      loaded = true;
+      LOGGER.info("loadIfNeeded : loaded deadlines for {} messages in {} milliseconds", messages.size(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+  }
+
+  /**
+   * Register the deadlines for messages whose wakeup notification has been sent.
+   * @param sent wakeup records that were sent
+   * @param sentUTC time the wakeups were sent in number of "seconds" since epoch
+   */
+  public void wakeupSent(List<WakeupEntity> sent, long sentUTC) {
+    int timeoutSeconds = getTimeoutSeconds();
+    int retryIntervalSeconds = getRetryIntervalSeconds();
+    int retryCount = getRetryCount();
+    for (WakeupEntity entity : sent) {
+      String key = key(entity.getMessageId(), entity.getDeviceId());
+      AtomicInteger counter = wakeupCounts.get(key);
+      if (counter == null) {
+        AtomicInteger existing = wakeupCounts.putIfAbsent(key, counter = new AtomicInteger());
+        if (existing != null) {
+          counter = existing;
+        }
+      }
+      int count = counter.incrementAndGet();
+      Deadline deadline = new Deadline(entity.getAppId(), entity.getMessageId(), entity.getDeviceId());
+      if (count == 1) {
+        // the first wakeup record is created when the message is queued
+        long queuedUTC = entity.getDateCreated() != null ? entity.getDateCreated() : sentUTC;
+        wheel.schedule(deadline.as(Kind.TIMEOUT), TimeUnit.SECONDS.toMillis(queuedUTC + timeoutSeconds));
+      }
+      if (count <= retryCount) {
+        wheel.schedule(deadline.as(Kind.RETRY), TimeUnit.SECONDS.toMillis(sentUTC + retryIntervalSeconds));
+      }
+    }
+  }
+
+  /**
+   * Process the deadlines that are due. If processing fails, the deadlines that haven't been
+   * processed are scheduled again so that they are due in the next run.
+   * @param nowMillis current time in milliseconds
+   */
+  public void advance(long nowMillis) {
+    List<Deadline> due = wheel.advance(nowMillis);
+    if (due.isEmpty()) {
+      return;
+    }
+    List<Deadline> timeouts = new ArrayList<Deadline>();
+    List<Deadline> retries = new ArrayList<Deadline>();
+    for (Deadline deadline : due) {
+      if (deadline.kind == Kind.TIMEOUT) {
+        timeouts.add(deadline);
+      } else {
+        retries.add(deadline);
+      }
+    }
+    int batchSize = MMXServerConstants.DEADLINE_BATCH_SIZE;
+    int timedOut = 0;
+    int retried = 0;
+    int timeoutsDone = 0;
+    int retriesDone = 0;
+    try {
+      MessageDAO messageDAO = getMessageDAO();
+      while (timeoutsDone < timeouts.size()) {
+        int end = Math.min(timeoutsDone + batchSize, timeouts.size());
+        timedOut += timeOut(messageDAO, timeouts.subList(timeoutsDone, end));
+        timeoutsDone = end;
+      }
+      while (retriesDone < retries.size()) {
+        int end = Math.min(retriesDone + batchSize, retries.size());
+        retried += retry(messageDAO, retries.subList(retriesDone, end));
+        retriesDone = end;
+      }
+    } catch (Exception e) {
+      int requeued = requeue(timeouts.subList(timeoutsDone, timeouts.size()), nowMillis) +
+          requeue(retries.subList(retriesDone, retries.size()), nowMillis);
+      LOGGER.warn("advance : caught exception processing {} due deadlines, re-queued {} deadlines",
+          new Object[]{due.size(), requeued, e});
+    }
+    timedOutCount.addAndGet(timedOut);
+    retriedCount.addAndGet(retried);
+    String template = "Processed [%d] due deadlines: [%d] messages timed out and [%d] wakeups queued for retry";
+    LOGGER.info(String.format(template, due.size(), timedOut, retried));
+  }
+
+  /**
+   * Mark the messages in the batch as timed out.
+   * @return number of messages updated
+   */
+  private int timeOut(MessageDAO messageDAO, List<Deadline> batch) {
+    List<MessageEntity> messages = new ArrayList<MessageEntity>(batch.size());
+    for (Deadline deadline : batch) {
+      messages.add(deadline.toMessageEntity());
+    }
+    int count = messageDAO.messagesTimedOut(messages);
+    for (Deadline deadline : batch) {
+      wakeupCounts.remove(key(deadline.messageId, deadline.deviceId));
+    }
+    return count;
+  }
+
+  private int requeue(List<Deadline> deadlines, long nowMillis) {
+    for (Deadline deadline : deadlines) {
+      wheel.schedule(deadline, nowMillis);
+    }
+    return deadlines.size();
+  }
+
+  /**
+   * Queue a wakeup for the messages in the batch that are still in WAKEUP_SENT state.
+   * @return number of wakeups queued
+   */
+  private int retry(MessageDAO messageDAO, List<Deadline> batch) {
+    List<MessageEntity> candidates = new ArrayList<MessageEntity>(batch.size());
+    for (Deadline deadline : batch) {
+      candidates.add(deadline.toMessageEntity());
+    }
+    List<MessageEntity> stillSent = messageDAO.getMessagesInState(MessageEntity.MessageState.WAKEUP_SENT, candidates);
+    DeviceDAO deviceDAO = getDeviceDAO();
+    WakeupMuteTracker muteTracker = WakeupMuteTracker.getInstance();
+    List<WakeupEntity> wakeups = new ArrayList<WakeupEntity>(stillSent.size());
+    for (MessageEntity message : stillSent) {
+      DeviceEntity device = getDevice(message.getAppId(), message.getDeviceId(), deviceDAO);
+      if (device == null || device.getStatus() != DeviceStatus.ACTIVE || device.getClientToken() == null ||
+          device.getClientToken().isEmpty() || device.getPushStatus() == PushStatus.INVALID) {
+        LOGGER.debug("retry : skipping device with id={} from retry processing", message.getDeviceId());
+        continue;
+      }
+      AppEntity appEntity = AppEntityCache.getInstance().getApp(message.getAppId());
+      if (appEntity == null) {
+        continue;
+      }
+      wakeups.add(WakeupUtil.buildWakeupEntity(appEntity, device, message.getMessageId()));
+      muteTracker.record(appEntity.getAppId(), device.getDeviceId());
+    }
+    if (!wakeups.isEmpty()) {
+      getWakeupEntityDAO().offer(wakeups);
+    }
+    return wakeups.size();
+  }
+
+  private DeviceEntity getDevice(String appId, String deviceId, DeviceDAO deviceDAO) {
+    try {
+      return DeviceEntityCache.getInstance().getDevice(appId, deviceId, deviceDAO);
+    } catch (SQLException e) {
+      LOGGER.warn("getDevice : failed to load device with appId={} deviceId={}", new Object[]{appId, deviceId, e});
+      return null;
+    }
+  }
+
+  /**
+   * Called when this node doesn't hold the wakeup lock. The deadlines are processed by the node
+   * that holds the lock, so drop the ones held here; they are rebuilt from the database if this
+   * node acquires the lock again.
+   */
+  public void lockLost() {
+    if (loaded) {
+      LOGGER.info("lockLost : dropping {} deadlines", wheel.size());
+      reset();
+    }
+  }
+
+  /**
+   * Drop all the deadlines. They are rebuilt from the database the next time the wakeup
+   * lock is acquired.
+   */
+  public void reset() {
+    synchronized (this) {
+      loaded = false;
+      wheel.clear();
+      wakeupCounts.clear();
+    }
+  }
+
+  public int getDeadlineCount() {
+    return wheel.size();
+  }
+
+  public long getTimedOutCount() {
+    return timedOutCount.get();
+  }
+
+  public long getRetriedCount() {
+    return retriedCount.get();
+  }
+
+  protected int getTimeoutSeconds() {
+    return MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.MESSAGE_TIMEOUT_MINUTES,
+        MMXServerConstants.DEFAULT_TIMEOUT_MINUTES) * 60;
+  }
+
+  protected int getRetryIntervalSeconds() {
+    int retryIntervalMin = MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.RETRY_INTERVAL_MINUTES,
+        MMXServerConstants.DEFAULT_RETRY_INTERVAL_MINUTES);
+    return Math.max(retryIntervalMin, MMXServerConstants.MIN_RETRY_INTERVAL_MINUTES) * 60;
+  }
+
+  protected int getRetryCount() {
+    return MMXConfiguration.getConfiguration().getInt(MMXConfigKeys.RETRY_COUNT, DEFAULT_RETRY_COUNT);
+  }
+
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  protected MessageDAO getMessageDAO() {
+    return new MessageDAOImpl(new OpenFireDBConnectionProvider());
+  }
+
+  protected DeviceDAO getDeviceDAO() {
+    return new DeviceDAOImpl(new OpenFireDBConnectionProvider());
+  }
+
+  protected WakeupEntityDAO getWakeupEntityDAO() {
+    return new WakeupEntityDAOImpl(new OpenFireDBConnectionProvider());
+  }
+
+  private static String key(String messageId, String deviceId) {
+    return messageId + "|" + deviceId;
+  }
+
+  enum Kind {
+    RETRY,
+    TIMEOUT
+  }
+
+  static class Deadline {
+    private final Kind kind;
+    private final String appId;
+    private final String messageId;
+    private final String deviceId;
+
+    private Deadline(String appId, String messageId, String deviceId) {
+      this(null, appId, messageId, deviceId);
+    }
+
+    private Deadline(Kind kind, String appId, String messageId, String deviceId) {
+      this.kind = kind;
+      this.appId = appId;
+      this.messageId = messageId;
+      this.deviceId = deviceId;
+    }
+
+    private Deadline as(Kind kind) {
+      return new Deadline(kind, appId, messageId, deviceId);
+    }
+
+    private MessageEntity toMessageEntity() {
+      MessageEntity entity = new MessageEntity();
+      entity.setAppId(appId);
+      entity.setMessageId(messageId);
+      entity.setDeviceId(deviceId);
+      return entity;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder sb = new StringBuilder("Deadline{");
+      sb.append("kind=").append(kind);
+      sb.append(", appId='").append(appId).append('\'');
+      sb.append(", messageId='").append(messageId).append('\'');
+      sb.append(", deviceId='").append(deviceId).append('\'');
+      sb.append('}');
+      return sb.toString();
+    }
+  }
+}
@@ -24,7 +24,9 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
 /**
+ * @deprecated retries are processed by the {@link MessageDeadlineScheduler}.
  */
+@Deprecated
 public class RetryCheckExecutionManagerImpl implements RetryCheckExecutionManager {
   private static final Logger LOGGER = LoggerFactory.getLogger(RetryCheckExecutionManagerImpl.class);
   private static final String POOL_NAME ="RetryCheck";
@@ -33,7 +33,9 @@ import java.util.concurrent.locks.Lock;
  * Processor that checks for messages that we need to retry sending wakeup notifications
  * for.
  * TODO: This is no longer being used. Will be removed soon.
+ * @deprecated replaced by {@link MessageDeadlineScheduler}.
  */
+@Deprecated
 public class RetryProcessor extends MMXClusterableTask implements Runnable {
   private static final Logger LOGGER = LoggerFactory.getLogger(RetryProcessor.class.getName());
   // number of seconds between retries = 15 minutes
@@ -106,7 +108,7 @@ public class RetryProcessor extends MMXClusterableTask implements Runnable {
         //skip this device
         continue;
       }
-      AppEntity appEntity = appDAO.getAppForAppKey(appId);
+      AppEntity appEntity = AppEntityCache.getInstance().getApp(appId, appDAO);
       if (appEntity == null) {
         continue;
       }
@@ -155,5 +157,6 @@ public class RetryProcessor extends MMXClusterableTask implements Runnable {
 
     WakeupEntityDAO wakeupEntityDAO = getWakeupEntityDAO();
     wakeupEntityDAO.offer(wakeupEntity);
+    WakeupMuteTracker.getInstance().record(appEntity.getAppId(), deviceEntity.getDeviceId());
   }
 }
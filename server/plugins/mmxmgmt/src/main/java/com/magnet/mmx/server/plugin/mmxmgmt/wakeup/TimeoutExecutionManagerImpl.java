@@ -24,7 +24,9 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
 /**
+ * @deprecated timeouts are processed by the {@link MessageDeadlineScheduler}.
  */
+@Deprecated
 public class TimeoutExecutionManagerImpl implements TimeoutExecutionManager {
   private static final Logger LOGGER = LoggerFactory.getLogger(TimeoutExecutionManagerImpl.class);
   private static final String POOL_NAME = "Timeout";
@@ -28,7 +28,9 @@ import java.util.concurrent.locks.Lock;
 
 /**
  * Processor that updates messages and marks them as timed out that have timed out.
+ * @deprecated replaced by {@link MessageDeadlineScheduler}, which only looks at the messages that are due.
  */
+@Deprecated
 public class TimeoutProcessor extends MMXClusterableTask implements Runnable {
   private static Logger LOGGER = LoggerFactory.getLogger(TimeoutProcessor.class);
 
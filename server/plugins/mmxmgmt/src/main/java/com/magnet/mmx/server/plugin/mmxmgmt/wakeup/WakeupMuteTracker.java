@@ -0,0 +1,251 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.wakeup;
+
+import com.google.common.cache.CacheBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the time of the last wakeup queued or sent to a device so that the wakeup mute period
+ * can be enforced without querying the mmxWakeupQueue table.
+ * The times are kept in a bounded local cache. When clustering has started the times are also
+ * written to an Openfire cache, which is shared by all the nodes of the cluster. A local time inside
+ * the mute period is enough to mute a device, so a burst of messages for the same offline device is
+ * handled in memory after the first wakeup. Otherwise the time in the cluster cache is checked too,
+ * since another node may have queued a wakeup since.
+ * Entries are evicted after {@link MMXConfigKeys#WAKEUP_MUTE_TRACKER_LIFETIME_MINUTES}, which
+ * caps the longest mute period that can be enforced; longer mute periods are shortened to it.
+ */
+public class WakeupMuteTracker {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WakeupMuteTracker.class);
+  private static final String CACHE_NAME = "MMX Wakeup Mute";
+  private static final char KEY_SEPARATOR = '|';
+
+  private final ConcurrentMap<String, Long> localTimes;
+  private final int lifetimeMinutes;
+  private final long lifetimeMillis;
+  private final AtomicLong mutedCount = new AtomicLong();
+  private volatile Cache<String, Long> clusterTimes;
+  private volatile boolean clusterCacheUnavailable = false;
+
+  private WakeupMuteTracker() {
+    MMXConfiguration configuration = MMXConfiguration.getConfiguration();
+    int maxSize = configuration.getInt(MMXConfigKeys.WAKEUP_MUTE_TRACKER_MAX_SIZE,
+        MMXServerConstants.DEFAULT_WAKEUP_MUTE_TRACKER_MAX_SIZE);
+    lifetimeMinutes = configuration.getInt(MMXConfigKeys.WAKEUP_MUTE_TRACKER_LIFETIME_MINUTES,
+        MMXServerConstants.DEFAULT_WAKEUP_MUTE_TRACKER_LIFETIME_MINUTES);
+    LOGGER.info("Creating wakeup mute tracker with maxSize:{} lifetimeMinutes:{}", maxSize, lifetimeMinutes);
+    lifetimeMillis = TimeUnit.MINUTES.toMillis(lifetimeMinutes);
+    localTimes = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(lifetimeMinutes, TimeUnit.MINUTES)
+        .<String, Long>build()
+        .asMap();
+  }
+
+  private static class TrackerHolder {
+    private static final WakeupMuteTracker INSTANCE = new WakeupMuteTracker();
+  }
+
+  public static WakeupMuteTracker getInstance() {
+    return TrackerHolder.INSTANCE;
+  }
+
+  /**
+   * Check if a wakeup can be queued for the device and record the current time as the last wakeup
+   * time if it can.
+   * @param appId
+   * @param deviceId
+   * @param mutePeriodMinutes mute period of the app; values <= 0 disable muting and values above
+   *                          {@link #getMaxMutePeriodMinutes()} are shortened to it
+   * @return true if the wakeup should be queued, false if the device is in its mute period
+   */
+  public boolean tryAcquire(String appId, String deviceId, int mutePeriodMinutes) {
+    if (mutePeriodMinutes > lifetimeMinutes) {
+      LOGGER.warn("tryAcquire : mute period={} for appId={} exceeds the tracker lifetime, using {} minutes",
+          new Object[]{mutePeriodMinutes, appId, lifetimeMinutes});
+      mutePeriodMinutes = lifetimeMinutes;
+    }
+    return tryAcquire(appId, deviceId, TimeUnit.MINUTES.toMillis(mutePeriodMinutes), System.currentTimeMillis());
+  }
+
+  boolean tryAcquire(String appId, String deviceId, long mutePeriodMillis, long now) {
+    String key = makeKey(appId, deviceId);
+    if (mutePeriodMillis <= 0) {
+      put(key, now);
+      return true;
+    }
+    Long last = localTimes.get(key);
+    while (true) {
+      if (last != null && now - last < mutePeriodMillis) {
+        mutedCount.incrementAndGet();
+        return false;
+      }
+      // another node may have queued a wakeup after the local time
+      Long clusterTime = getClusterTime(key);
+      if (clusterTime != null && (last == null || clusterTime > last) && now - clusterTime < mutePeriodMillis) {
+        adoptClusterTime(key, last, clusterTime);
+        mutedCount.incrementAndGet();
+        return false;
+      }
+      boolean claimed = last == null ? localTimes.putIfAbsent(key, now) == null : localTimes.replace(key, last, now);
+      if (claimed) {
+        putClusterTime(key, now);
+        return true;
+      }
+      last = localTimes.get(key);
+    }
+  }
+
+  /**
+   * Forget the wakeup time recorded by a successful {@link #tryAcquire(String, String, int)}, e.g.
+   * when the wakeup couldn't be queued, so that the next message can queue one.
+   * @param appId
+   * @param deviceId
+   */
+  public void release(String appId, String deviceId) {
+    String key = makeKey(appId, deviceId);
+    localTimes.remove(key);
+    Cache<String, Long> cache = getClusterCache();
+    if (cache == null) {
+      return;
+    }
+    try {
+      cache.remove(key);
+    } catch (RuntimeException e) {
+      LOGGER.warn("release : failed to remove key={} from cache={}", new Object[]{key, CACHE_NAME, e});
+    }
+  }
+
+  /**
+   * @return the longest mute period in minutes that can be enforced.
+   */
+  public int getMaxMutePeriodMinutes() {
+    return lifetimeMinutes;
+  }
+
+  /**
+   * Record a wakeup that was queued or sent for the device.
+   * @param appId
+   * @param deviceId
+   */
+  public void record(String appId, String deviceId) {
+    put(makeKey(appId, deviceId), System.currentTimeMillis());
+  }
+
+  /**
+   * @return number of wakeups that were skipped because the device was in its mute period.
+   */
+  public long getMutedCount() {
+    return mutedCount.get();
+  }
+
+  public int getSize() {
+    return localTimes.size();
+  }
+
+  /**
+   * Forget all the locally tracked devices.
+   */
+  public void clear() {
+    localTimes.clear();
+  }
+
+  private void put(String key, long time) {
+    localTimes.put(key, time);
+    putClusterTime(key, time);
+  }
+
+  // Keep the newer time from the cluster cache locally, unless the local time changed meanwhile.
+  private void adoptClusterTime(String key, Long last, long clusterTime) {
+    if (last == null) {
+      localTimes.putIfAbsent(key, clusterTime);
+    } else {
+      localTimes.replace(key, last, clusterTime);
+    }
+  }
+
+  private Long getClusterTime(String key) {
+    Cache<String, Long> cache = getClusterCache();
+    if (cache == null) {
+      return null;
+    }
+    try {
+      Long time = cache.get(key);
+      if (time != null && System.currentTimeMillis() - time < lifetimeMillis) {
+        return time;
+      }
+    } catch (RuntimeException e) {
+      LOGGER.warn("getClusterTime : failed to read key={} from cache={}", new Object[]{key, CACHE_NAME, e});
+    }
+    return null;
+  }
+
+  private void putClusterTime(String key, long time) {
+    Cache<String, Long> cache = getClusterCache();
+    if (cache == null) {
+      return;
+    }
+    try {
+      cache.put(key, time);
+    } catch (RuntimeException e) {
+      LOGGER.warn("putClusterTime : failed to update key={} in cache={}", new Object[]{key, CACHE_NAME, e});
+    }
+  }
+
+  /**
+   * Get the Openfire cache shared by the cluster nodes.
+   * @return the cache or null if clustering hasn't started or the cache can't be created; only the
+   * local times are used then.
+   */
+  protected Cache<String, Long> getClusterCache() {
+    if (!ClusterManager.isClusteringStarted()) {
+      return null;
+    }
+    Cache<String, Long> cache = clusterTimes;
+    if (cache != null || clusterCacheUnavailable) {
+      return cache;
+    }
+    synchronized (this) {
+      if (clusterTimes == null && !clusterCacheUnavailable) {
+        try {
+          Cache<String, Long> created = CacheFactory.createCache(CACHE_NAME);
+          created.setMaxLifetime(lifetimeMillis);
+          clusterTimes = created;
+          LOGGER.trace("getClusterCache : created Cache : {}", CACHE_NAME);
+        } catch (RuntimeException e) {
+          LOGGER.warn("getClusterCache : unable to create cache={}, using local mute tracking only", CACHE_NAME, e);
+          clusterCacheUnavailable = true;
+        }
+      }
+      return clusterTimes;
+    }
+  }
+
+  private static String makeKey(String appId, String deviceId) {
+    return appId + KEY_SEPARATOR + deviceId;
+  }
+}
@@ -16,37 +16,53 @@ package com.magnet.mmx.server.plugin.mmxmgmt.wakeup;
 
 import com.magnet.mmx.protocol.PushType;
 import com.magnet.mmx.server.common.data.AppEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAOImpl;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DevicePushTokenInvalidator;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageStateWriter;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.OpenFireDBConnectionProvider;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAOImpl;
-import com.magnet.mmx.server.plugin.mmxmgmt.util.AppEntityDBLoadingEntityCache;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXClusterableTask;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
 /**
  * Wakeup processor picks items from the wakeup queue and then delivers notifications to them.
  * Items for which wakeup notification are sent are updated to have date sent set.
+ * The processor also drives the {@link MessageDeadlineScheduler}, which retries and times out
+ * the messages whose wakeup has been sent.
  */
 public class WakeupProcessor extends MMXClusterableTask implements Runnable {
   private Logger LOGGER = LoggerFactory.getLogger(WakeupProcessor.class);
   private final int WAKE_UP_CHUNK = 1000;
-  private static final int CACHE_SIZE = 100;
-  private static AppEntityDBLoadingEntityCache appCache = new AppEntityDBLoadingEntityCache(CACHE_SIZE, new AppEntityDBLoadingEntityCache.AppEntityDBLoader());
-
+  private static final String POOL_NAME = "WakeupSenderExecutor";
+  private static final int POOL_SIZE = 4;
+  /**
+   * Max number of APNS tokens written using one pooled connection by a single task.
+   */
+  private static final int APNS_BATCH_SIZE = 500;
   public WakeupProcessor(Lock lock) {
     super(lock);
   }
@@ -55,9 +71,20 @@ public class WakeupProcessor extends MMXClusterableTask implements Runnable {
   public void run() {
     if(!canExecute()) {
       LOGGER.trace("WakeupProcessor.run() : Unable to acquire clustered lock, not running");
+      getDeadlineScheduler().lockLost();
       return;
     }
     LOGGER.debug("WakeupProcessor.run() : Successfully acquired wakeupProcessor lock");
+    MessageDeadlineScheduler deadlineScheduler = getDeadlineScheduler();
+    deadlineScheduler.loadIfNeeded();
+    try {
+      processWakeups(deadlineScheduler);
+    } finally {
+      deadlineScheduler.advance(System.currentTimeMillis());
+    }
+  }
+
+  private void processWakeups(MessageDeadlineScheduler deadlineScheduler) {
     Date d = new Date();
     LOGGER.info("Processing wakeup at:" + d);
     WakeupEntityDAO dao = getWakeupEntityDAO();
@@ -70,61 +97,41 @@ public class WakeupProcessor extends MMXClusterableTask implements Runnable {
       return;
     }
     long startTime = System.nanoTime();
-    int count = 0;
     /**
      * initialize the notifiers
      */
     WakeupNotifier gcmNotifier = getGCMWakeupNotifier();
     WakeupNotifier apnsNotifier = getAPNSWakeupNotifier();
-    List<WakeupEntity> completed = new LinkedList<WakeupEntity> ();
-    List<WakeupEntity> badGoogleAPIKey = new LinkedList<WakeupEntity>();
+    List<WakeupBatch> batches = buildBatches(wakeupList, gcmNotifier, apnsNotifier);
+    List<WakeupBatch> sent = send(batches);
 
-    DeviceDAO deviceDAO = getDeviceDAO();
-    for (WakeupEntity wkEntity : wakeupList) {
-      if (wkEntity.getType() ==  PushType.GCM) {
-        String token = wkEntity.getToken();
-        if (token == null ||  wkEntity.getSenderIdentifier() == null) {
-          LOGGER.info("Skipping wakeup record:" + wkEntity.toString());
-          continue;
-        }
-        List<NotificationResult> results = gcmNotifier.sendNotification(Collections.singletonList(wkEntity.getToken()), wkEntity.getPayload(), new GCMWakeupNotifierImpl.GCMNotificationSystemContext(wkEntity.getSenderIdentifier()));
-        if (results.get(0) == NotificationResult.DELIVERY_IN_PROGRESS_ASSUME_WILL_EVENTUALLY_DELIVER) {
-          completed.add(wkEntity);
-          count++;
-        } else if (results.get(0) == NotificationResult.DELIVERY_FAILED_INVALID_TOKEN) {
-          //change PushStatus for the device to INVALID
-          String appId = wkEntity.getAppId();
-          DevicePushTokenInvalidator invalidator = new DevicePushTokenInvalidator();
-          invalidator.invalidateToken(appId, PushType.GCM, token);
-        } else if (results.get(0) == NotificationResult.DELIVERY_FAILED_INVALID_API_KEY) {
-          badGoogleAPIKey.add(wkEntity);
-        }
-      } else if (wkEntity.getType() == PushType.APNS) {
-        //handle APNS wake up notification
-        String appId = wkEntity.getAppId();
-        if (appId  != null) {
-          AppEntity appEntity = getAppEntity(appId);
-          if (wkEntity.getToken() == null) {
-            LOGGER.info("Skipping wakeup record:" + wkEntity.toString());
-            continue;
-          }
-          WakeupNotifier.NotificationSystemContext context = new APNSWakeupNotifierImpl.APNSNotificationSystemContext(appId, appEntity.isApnsCertProduction());
-          List<NotificationResult> results = apnsNotifier.sendNotification(Collections.singletonList(wkEntity.getToken()), wkEntity.getPayload(), context);
-          if (results.get(0) == NotificationResult.DELIVERY_IN_PROGRESS_ASSUME_WILL_EVENTUALLY_DELIVER) {
-            completed.add(wkEntity);
-            count++;
-          }
-        }
+    List<WakeupEntity> completed = new ArrayList<WakeupEntity>(wakeupList.size());
+    List<WakeupEntity> badGoogleAPIKey = new LinkedList<WakeupEntity>();
+    for (WakeupBatch batch : sent) {
+      completed.addAll(batch.completed);
+      badGoogleAPIKey.addAll(batch.badApiKey);
+      for (String token : batch.invalidTokens) {
+        //change PushStatus for the device to INVALID
+        DevicePushTokenInvalidator invalidator = new DevicePushTokenInvalidator();
+        invalidator.invalidateToken(batch.appId, batch.type, token);
       }
     }
     //mark the processed items with a dateSent timestamp.
     Date dateSent = new Date();
+    List<MessageEntity> wakeupSentMessages = new ArrayList<MessageEntity>(completed.size());
+    WakeupMuteTracker muteTracker = WakeupMuteTracker.getInstance();
     for (WakeupEntity entity : completed) {
       entity.setDateSent(dateSent.getTime()/1000L);
-      dao.complete(entity);
-      // update the message state to wakeup sent
-      messageDAO.wakeupSent(entity.getMessageId(), entity.getDeviceId());
+      muteTracker.record(entity.getAppId(), entity.getDeviceId());
+      MessageEntity message = new MessageEntity();
+      message.setMessageId(entity.getMessageId());
+      message.setDeviceId(entity.getDeviceId());
+      wakeupSentMessages.add(message);
     }
+    dao.complete(completed);
+    // update the message state to wakeup sent, queued behind the insert of the message
+    getMessageStateWriter().wakeupSent(wakeupSentMessages);
+    deadlineScheduler.wakeupSent(completed, dateSent.getTime()/1000L);
     /**
      * for wakeup entries that are identified as having bad api keys
      * delete the wakeup entries and change the message status to pending
@@ -137,15 +144,111 @@ public class WakeupProcessor extends MMXClusterableTask implements Runnable {
     long endTime = System.nanoTime();
     long delta = endTime - startTime;
     LOGGER.info("Completed processing wakeup chunk");
-    String template = "Processed [%d] wakeup messages in [%d] milliseconds";
-    LOGGER.info(String.format(template, count, TimeUnit.MILLISECONDS.convert(delta, TimeUnit.NANOSECONDS)));
+    String template = "Processed [%d] wakeup messages in [%d] batches in [%d] milliseconds";
+    LOGGER.info(String.format(template, completed.size(), batches.size(), TimeUnit.MILLISECONDS.convert(delta, TimeUnit.NANOSECONDS)));
   }
 
+  /**
+   * Group the wakeup records by push type, app, sender identifier/certificate and payload.
+   * Records for the same token are sent only once. Each batch holds at most the max number of
+   * tokens that can be sent in one request for its push type.
+   */
+  protected List<WakeupBatch> buildBatches(List<WakeupEntity> wakeupList, WakeupNotifier gcmNotifier, WakeupNotifier apnsNotifier) {
+    Map<String, WakeupBatch> openBatches = new HashMap<String, WakeupBatch>();
+    List<WakeupBatch> batches = new ArrayList<WakeupBatch>();
+    for (WakeupEntity wkEntity : wakeupList) {
+      String token = wkEntity.getToken();
+      WakeupBatch batch = null;
+      if (wkEntity.getType() == PushType.GCM) {
+        if (token == null || wkEntity.getSenderIdentifier() == null) {
+          LOGGER.info("Skipping wakeup record:" + wkEntity.toString());
+          continue;
+        }
+        String key = PushType.GCM + "|" + wkEntity.getAppId() + "|" + wkEntity.getSenderIdentifier() + "|" + wkEntity.getPayload();
+        batch = openBatches.get(key);
+        if (batch == null || batch.isFull(token)) {
+          batch = new WakeupBatch(PushType.GCM, wkEntity.getAppId(), wkEntity.getPayload(), GCMWakeupNotifierImpl.MAX_MULTICAST_SIZE,
+              gcmNotifier, new GCMWakeupNotifierImpl.GCMNotificationSystemContext(wkEntity.getSenderIdentifier()));
+          openBatches.put(key, batch);
+          batches.add(batch);
+        }
+      } else if (wkEntity.getType() == PushType.APNS) {
+        //handle APNS wake up notification
+        String appId = wkEntity.getAppId();
+        if (appId == null) {
+          continue;
+        }
+        if (token == null) {
+          LOGGER.info("Skipping wakeup record:" + wkEntity.toString());
+          continue;
+        }
+        AppEntity appEntity = getAppEntity(appId);
+        if (appEntity == null) {
+          LOGGER.info("Skipping wakeup record for unknown app:" + wkEntity.toString());
+          continue;
+        }
+        String key = PushType.APNS + "|" + appId + "|" + appEntity.isApnsCertProduction() + "|" + wkEntity.getPayload();
+        batch = openBatches.get(key);
+        if (batch == null || batch.isFull(token)) {
+          batch = new WakeupBatch(PushType.APNS, appId, wkEntity.getPayload(), APNS_BATCH_SIZE, apnsNotifier,
+              new APNSWakeupNotifierImpl.APNSNotificationSystemContext(appId, appEntity.isApnsCertProduction()));
+          openBatches.put(key, batch);
+          batches.add(batch);
+        }
+      }
+      if (batch != null) {
+        batch.add(wkEntity);
+      }
+    }
+    return batches;
+  }
+
+  /**
+   * Send the batches in parallel.
+   * @return batches that were sent. Records in the batches that failed with an exception
+   * remain in the queue and are retried in the next run.
+   */
+  private List<WakeupBatch> send(List<WakeupBatch> batches) {
+    List<WakeupBatch> sent = new ArrayList<WakeupBatch>(batches.size());
+    if (batches.size() == 1) {
+      try {
+        sent.add(batches.get(0).call());
+      } catch (Exception e) {
+        LOGGER.error("send : failed to send wakeup batch={}", batches.get(0), e);
+      }
+      return sent;
+    }
+    List<Future<WakeupBatch>> futures;
+    try {
+      futures = getExecutorService().invokeAll(batches);
+    } catch (InterruptedException e) {
+      LOGGER.warn("send : interrupted while sending {} wakeup batches", batches.size());
+      Thread.currentThread().interrupt();
+      return sent;
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        sent.add(futures.get(i).get());
+      } catch (ExecutionException e) {
+        LOGGER.error("send : failed to send wakeup batch={}", batches.get(i), e.getCause());
+      } catch (CancellationException e) {
+        LOGGER.error("send : wakeup batch={} was cancelled", batches.get(i));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    return sent;
+  }
 
   protected List<WakeupEntity> retrievePendingList(WakeupEntityDAO dao) {
     return dao.poll(WAKE_UP_CHUNK);
   }
 
+  protected MessageDeadlineScheduler getDeadlineScheduler() {
+    return MessageDeadlineScheduler.getInstance();
+  }
+
   protected WakeupEntityDAO getWakeupEntityDAO() {
     WakeupEntityDAO dao = new WakeupEntityDAOImpl(new OpenFireDBConnectionProvider());
     return dao;
@@ -156,6 +259,10 @@ public class WakeupProcessor extends MMXClusterableTask implements Runnable {
     return messageDAO;
   }
 
+  protected MessageStateWriter getMessageStateWriter() {
+    return MessageStateWriter.getInstance();
+  }
+
   protected DeviceDAO getDeviceDAO() {
     DeviceDAO deviceDAO = new DeviceDAOImpl(new OpenFireDBConnectionProvider());
     return deviceDAO;
@@ -170,6 +277,80 @@ public class WakeupProcessor extends MMXClusterableTask implements Runnable {
   }
 
   protected AppEntity getAppEntity (String appId ) {
-    return appCache.get(appId);
+    return AppEntityCache.getInstance().getApp(appId);
+  }
+
+  protected ExecutorService getExecutorService() {
+    return MMXExecutors.getOrCreate(POOL_NAME, POOL_SIZE);
+  }
+
+  /**
+   * Wakeup records that are sent using a single notifier call.
+   */
+  protected static class WakeupBatch implements Callable<WakeupBatch> {
+    private final PushType type;
+    private final String appId;
+    private final String payload;
+    private final int maxTokens;
+    private final WakeupNotifier notifier;
+    private final WakeupNotifier.NotificationSystemContext context;
+    private final Map<String, List<WakeupEntity>> entitiesByToken = new LinkedHashMap<String, List<WakeupEntity>>();
+    private final List<WakeupEntity> completed = new ArrayList<WakeupEntity>();
+    private final List<WakeupEntity> badApiKey = new ArrayList<WakeupEntity>();
+    private final List<String> invalidTokens = new ArrayList<String>();
+
+    protected WakeupBatch(PushType type, String appId, String payload, int maxTokens, WakeupNotifier notifier,
+                          WakeupNotifier.NotificationSystemContext context) {
+      this.type = type;
+      this.appId = appId;
+      this.payload = payload;
+      this.maxTokens = maxTokens;
+      this.notifier = notifier;
+      this.context = context;
+    }
+
+    private boolean isFull(String token) {
+      return entitiesByToken.size() >= maxTokens && !entitiesByToken.containsKey(token);
+    }
+
+    private void add(WakeupEntity entity) {
+      List<WakeupEntity> entities = entitiesByToken.get(entity.getToken());
+      if (entities == null) {
+        entities = new ArrayList<WakeupEntity>(1);
+        entitiesByToken.put(entity.getToken(), entities);
+      }
+      entities.add(entity);
+    }
+
+    public int getTokenCount() {
+      return entitiesByToken.size();
+    }
+
+    @Override
+    public WakeupBatch call() {
+      List<String> tokens = new ArrayList<String>(entitiesByToken.keySet());
+      List<NotificationResult> results = notifier.sendNotification(tokens, payload, context);
+      for (int i = 0; i < tokens.size(); i++) {
+        NotificationResult result = results != null && i < results.size() ? results.get(i) : null;
+        List<WakeupEntity> entities = entitiesByToken.get(tokens.get(i));
+        if (result == NotificationResult.DELIVERY_IN_PROGRESS_ASSUME_WILL_EVENTUALLY_DELIVER) {
+          completed.addAll(entities);
+        } else if (result == NotificationResult.DELIVERY_FAILED_INVALID_TOKEN) {
+          invalidTokens.add(tokens.get(i));
+        } else if (result == NotificationResult.DELIVERY_FAILED_INVALID_API_KEY) {
+          badApiKey.addAll(entities);
+        }
+      }
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return "WakeupBatch{" +
+          "type=" + type +
+          ", appId='" + appId + '\'' +
+          ", tokens=" + entitiesByToken.size() +
+          '}';
+    }
   }
 }
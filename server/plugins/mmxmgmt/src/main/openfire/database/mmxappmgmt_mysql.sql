@@ -1,7 +1,7 @@
 # $Revision$
 # $Date$
 
-INSERT INTO ofVersion (name, version) VALUES ('mmxappmgmt', 4);
+INSERT INTO ofVersion (name, version) VALUES ('mmxappmgmt', 7);
 
 CREATE TABLE mmxApp (
   id                INT           NOT NULL AUTO_INCREMENT PRIMARY KEY,
@@ -67,7 +67,9 @@ CREATE TABLE mmxMessage (
   PRIMARY KEY (id)
   );
 
-CREATE INDEX mmxMessage_messageId ON mmxMessage(messageId);
+CREATE INDEX mmxMessage_messageId_deviceId ON mmxMessage(messageId, deviceId);
+
+CREATE INDEX mmxMessage_state_dateQueued ON mmxMessage(state, dateQueuedUTC);
 
  CREATE TABLE mmxWakeupQueue (
     id              int(11)        NOT NULL AUTO_INCREMENT,
@@ -87,6 +89,8 @@ CREATE INDEX mmxWakeupQueue_dateCreated ON mmxWakeupQueue(dateCreatedUTC);
 
 CREATE INDEX mmxWakeupQueue_dateSent ON mmxWakeupQueue(dateSentUTC);
 
+CREATE INDEX mmxWakeupQueue_messageId_deviceId ON mmxWakeupQueue(messageId, deviceId);
+
 /* TABLE for maintaining the push messages */
  CREATE TABLE mmxPushMessage (
     messageId   varchar(50)     NOT NULL,
@@ -99,6 +103,8 @@ CREATE INDEX mmxWakeupQueue_dateSent ON mmxWakeupQueue(dateSentUTC);
     PRIMARY KEY (messageId)
  );
 
+CREATE INDEX mmxPushMessage_dateSent ON mmxPushMessage(dateSentUTC);
+
 /* Table for maintaining resource tagging data */
 
 create Table mmxTag (
@@ -120,6 +126,16 @@ create Table mmxTag (
   FOREIGN KEY (serviceID, nodeID) REFERENCES ofPubsubNode(serviceID, nodeID) ON DELETE CASCADE
 );
 
+/* Index used by the keyset pagination of the published items of a topic. ofPubsubItem is an
+   Openfire table, so the index is only created if an index of that name doesn't exist yet; an
+   Openfire upgrade that recreates the table drops it and the cursor query falls back to the
+   primary key until the index is created again. */
+SET @mmxIndexCount = (SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'ofPubsubItem' AND index_name = 'ofPubsubItem_node_creationDate');
+SET @mmxIndexDDL = IF(@mmxIndexCount = 0, 'CREATE INDEX ofPubsubItem_node_creationDate ON ofPubsubItem(serviceID, nodeID, creationDate)', 'DO 0');
+PREPARE mmxIndexStmt FROM @mmxIndexDDL;
+EXECUTE mmxIndexStmt;
+DEALLOCATE PREPARE mmxIndexStmt;
+
 /* Table for app specific configuration */
 CREATE TABLE mmxAppConfiguration (
     id          INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
@@ -0,0 +1,11 @@
+UPDATE ofVersion SET version=5 WHERE name = 'mmxappmgmt';
+
+/* Indexes used by the timeout, retry and retention processing of mmxMessage */
+CREATE INDEX mmxMessage_state_dateQueued ON mmxMessage(state, dateQueuedUTC);
+
+CREATE INDEX mmxMessage_messageId_deviceId ON mmxMessage(messageId, deviceId);
+
+CREATE INDEX mmxWakeupQueue_messageId_deviceId ON mmxWakeupQueue(messageId, deviceId);
+
+/* mmxMessage_messageId is a prefix of mmxMessage_messageId_deviceId */
+DROP INDEX mmxMessage_messageId ON mmxMessage;
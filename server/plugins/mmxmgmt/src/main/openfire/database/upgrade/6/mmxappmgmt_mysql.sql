@@ -0,0 +1,11 @@
+UPDATE ofVersion SET version=6 WHERE name = 'mmxappmgmt';
+
+/* Index used by the keyset pagination of the published items of a topic. ofPubsubItem is an
+   Openfire table, so the index is only created if an index of that name doesn't exist yet; an
+   Openfire upgrade that recreates the table drops it and the cursor query falls back to the
+   primary key until the index is created again. */
+SET @mmxIndexCount = (SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'ofPubsubItem' AND index_name = 'ofPubsubItem_node_creationDate');
+SET @mmxIndexDDL = IF(@mmxIndexCount = 0, 'CREATE INDEX ofPubsubItem_node_creationDate ON ofPubsubItem(serviceID, nodeID, creationDate)', 'DO 0');
+PREPARE mmxIndexStmt FROM @mmxIndexDDL;
+EXECUTE mmxIndexStmt;
+DEALLOCATE PREPARE mmxIndexStmt;
@@ -0,0 +1,4 @@
+UPDATE ofVersion SET version=7 WHERE name = 'mmxappmgmt';
+
+/* Index used by the retention processing of mmxPushMessage */
+CREATE INDEX mmxPushMessage_dateSent ON mmxPushMessage(dateSentUTC);
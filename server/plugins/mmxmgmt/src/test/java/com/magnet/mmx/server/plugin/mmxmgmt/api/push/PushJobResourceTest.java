@@ -0,0 +1,167 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.api.push;
+
+import com.google.common.base.Ticker;
+import com.magnet.mmx.server.common.data.AppEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorCode;
+import com.magnet.mmx.server.plugin.mmxmgmt.api.ErrorResponse;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.ConnectionProvider;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceTargetResolver;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.PushJob;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.PushJobManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the push job endpoints of {@link PushMessageFunctionResource} without a running server.
+ */
+public class PushJobResourceTest {
+  private static final String APP_ID = "pushjobapp";
+
+  private final List<Runnable> queued = new ArrayList<Runnable>();
+  private boolean reject;
+  private String authenticatedAppId;
+  private PushMessageFunctionResource resource;
+
+  @Before
+  public void setUp() {
+    authenticatedAppId = APP_ID;
+    final PushJobManager manager = new PushJobManager(1, Ticker.systemTicker()) {
+      @Override
+      protected Executor getExecutor() {
+        return new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            if (reject) {
+              throw new RejectedExecutionException("saturated");
+            }
+            queued.add(command);
+          }
+        };
+      }
+    };
+    resource = new PushMessageFunctionResource() {
+      @Override
+      protected ConnectionProvider getConnectionProvider() {
+        return null;
+      }
+
+      @Override
+      protected ErrorResponse isAuthenticated(HttpHeaders headers, AppDAO appDAO, AppEntityHolder holder) {
+        if (authenticatedAppId == null) {
+          return buildAuthFailure(ErrorCode.AUTH_MISSING);
+        }
+        AppEntity appEntity = new AppEntity();
+        appEntity.setAppId(authenticatedAppId);
+        holder.setAppEntity(appEntity);
+        return null;
+      }
+
+      @Override
+      protected PushJobManager getPushJobManager() {
+        return manager;
+      }
+
+      @Override
+      protected DeviceTargetResolver getDeviceTargetResolver() {
+        return new DeviceTargetResolver();
+      }
+    };
+  }
+
+  @Test
+  public void testSubmitAndGetJob() {
+    Response response = resource.sendPushMessageJob(null, newRequest());
+    assertEquals(Response.Status.ACCEPTED.getStatusCode(), response.getStatus());
+    SendPushJobResponse submitted = (SendPushJobResponse) response.getEntity();
+    assertNotNull(submitted.getJobId());
+    assertEquals(PushJob.State.QUEUED.name(), submitted.getState());
+    assertEquals("job must run on the executor", 1, queued.size());
+
+    Response get = resource.getPushJob(null, submitted.getJobId());
+    assertEquals(Response.Status.OK.getStatusCode(), get.getStatus());
+    assertEquals(submitted.getJobId(), ((SendPushJobResponse) get.getEntity()).getJobId());
+  }
+
+  @Test
+  public void testGetJobOfOtherApp() {
+    Response response = resource.sendPushMessageJob(null, newRequest());
+    String jobId = ((SendPushJobResponse) response.getEntity()).getJobId();
+    authenticatedAppId = "otherapp";
+    assertEquals(Response.Status.NOT_FOUND.getStatusCode(), resource.getPushJob(null, jobId).getStatus());
+  }
+
+  @Test
+  public void testGetUnknownJob() {
+    assertEquals(Response.Status.NOT_FOUND.getStatusCode(), resource.getPushJob(null, "unknown").getStatus());
+  }
+
+  @Test
+  public void testSubmitRejected() {
+    reject = true;
+    try {
+      resource.sendPushMessageJob(null, newRequest());
+      fail("Expected WebApplicationException");
+    } catch (WebApplicationException e) {
+      Response response = e.getResponse();
+      assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus());
+      assertEquals(ErrorCode.SEND_PUSH_JOB_REJECTED.getCode(), ((ErrorResponse) response.getEntity()).getCode());
+    }
+  }
+
+  @Test
+  public void testSubmitWithoutTarget() {
+    SendPushMessageRequest request = newRequest();
+    request.setTarget(null);
+    try {
+      resource.sendPushMessageJob(null, request);
+      fail("Expected WebApplicationException");
+    } catch (WebApplicationException e) {
+      assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
+    }
+  }
+
+  @Test
+  public void testUnauthenticated() {
+    authenticatedAppId = null;
+    assertEquals(Response.Status.UNAUTHORIZED.getStatusCode(),
+        resource.sendPushMessageJob(null, newRequest()).getStatus());
+    assertEquals(Response.Status.UNAUTHORIZED.getStatusCode(), resource.getPushJob(null, "unknown").getStatus());
+  }
+
+  private static SendPushMessageRequest newRequest() {
+    Target target = new Target();
+    target.setDeviceIds(Arrays.asList("device1", "device2"));
+    SendPushMessageRequest request = new SendPushMessageRequest();
+    request.setBody("hello");
+    request.setTarget(target);
+    return request;
+  }
+}
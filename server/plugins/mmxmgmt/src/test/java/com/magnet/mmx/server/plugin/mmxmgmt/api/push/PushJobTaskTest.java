@@ -0,0 +1,153 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.api.push;
+
+import com.magnet.mmx.protocol.PushType;
+import com.magnet.mmx.server.common.data.AppEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.apns.APNSPushMessageSender;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceStatus;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceTargetResolver;
+import com.magnet.mmx.server.plugin.mmxmgmt.gcm.GCMPushMessageSender;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushAPNSPayloadBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushGCMPayloadBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.PushJob;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.integration.junit4.JMockit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ */
+@RunWith(JMockit.class)
+public class PushJobTaskTest {
+  private static final String APP_ID = "pushjobapp";
+
+  private final List<Integer> apnsBatches = new ArrayList<Integer>();
+  private final List<Integer> gcmBatches = new ArrayList<Integer>();
+  private DeviceDAO deviceDAO;
+
+  @Before
+  public void setUp() {
+    // devices named ios* and android* exist and have a push token; other devices are not found
+    deviceDAO = new MockUp<DeviceDAO>() {
+      @Mock
+      public List<DeviceEntity> getDevices(String appId, List<String> deviceIds, DeviceStatus status) {
+        List<DeviceEntity> devices = new ArrayList<DeviceEntity>();
+        for (String deviceId : deviceIds) {
+          if (deviceId.startsWith("ios")) {
+            devices.add(device(deviceId, PushType.APNS));
+          } else if (deviceId.startsWith("android")) {
+            devices.add(device(deviceId, PushType.GCM));
+          }
+        }
+        return devices;
+      }
+    }.getMockInstance();
+
+    new MockUp<APNSPushMessageSender>() {
+      @Mock
+      public void $init(AppEntity appEntity, Options options) {
+      }
+
+      @Mock
+      public PushResult sendPush(List<DeviceEntity> deviceList, MMXPushAPNSPayloadBuilder builder) {
+        apnsBatches.add(deviceList.size());
+        return result(new Count(deviceList.size(), deviceList.size(), 0));
+      }
+    };
+
+    new MockUp<GCMPushMessageSender>() {
+      @Mock
+      public void $init(AppEntity appEntity, Options options) {
+      }
+
+      @Mock
+      public PushResult sendPush(List<DeviceEntity> deviceList, MMXPushGCMPayloadBuilder builder) {
+        gcmBatches.add(deviceList.size());
+        // the first android device of every batch is reported as undeliverable
+        return result(new Count(deviceList.size(), deviceList.size() - 1, 1));
+      }
+    };
+  }
+
+  @Test
+  public void testCountsOfAllPages() throws Exception {
+    Target target = new Target();
+    target.setDeviceIds(Arrays.asList("ios1", "android1", "ios2", "missing1", "android2"));
+    PushJob job = new PushJob("job1", APP_ID);
+
+    newTask(job, target, 2).run();
+
+    assertEquals(3, job.getPages());
+    assertEquals(5, job.getRequested());
+    assertEquals(2, job.getSent());
+    assertEquals("missing device and undeliverable android devices are unsent", 3, job.getUnsent());
+    assertEquals(Arrays.asList(1, 1), apnsBatches);
+    assertEquals(Arrays.asList(1, 1), gcmBatches);
+  }
+
+  @Test
+  public void testNoDevicesFound() throws Exception {
+    Target target = new Target();
+    target.setDeviceIds(Arrays.asList("missing1", "missing2", "missing3"));
+    PushJob job = new PushJob("job2", APP_ID);
+
+    newTask(job, target, 10).run();
+
+    assertEquals(1, job.getPages());
+    assertEquals(3, job.getRequested());
+    assertEquals(0, job.getSent());
+    assertEquals(3, job.getUnsent());
+    assertEquals(0, apnsBatches.size());
+    assertEquals(0, gcmBatches.size());
+  }
+
+  private PushJobTask newTask(PushJob job, Target target, int pageSize) throws Exception {
+    DeviceTargetResolver resolver = new DeviceTargetResolver() {
+      @Override
+      protected DeviceDAO getDeviceDAO() {
+        return deviceDAO;
+      }
+    };
+    AppEntity appEntity = new AppEntity();
+    appEntity.setAppId(APP_ID);
+    return new PushJobTask(job, appEntity, new Options(), resolver.page(APP_ID, target, pageSize),
+        new MMXPushAPNSPayloadBuilder(), new MMXPushGCMPayloadBuilder());
+  }
+
+  private static DeviceEntity device(String deviceId, PushType type) {
+    DeviceEntity device = new DeviceEntity();
+    device.setDeviceId(deviceId);
+    device.setTokenType(type);
+    device.setClientToken("token-" + deviceId);
+    return device;
+  }
+
+  private static PushResult result(Count count) {
+    PushResult result = new PushResult();
+    result.setCount(count);
+    return result;
+  }
+}
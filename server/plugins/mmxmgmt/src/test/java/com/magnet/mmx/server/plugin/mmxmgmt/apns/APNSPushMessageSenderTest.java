@@ -272,6 +272,28 @@ public class APNSPushMessageSenderTest {
   }
 
 
+  /**
+   * Tokens that aren't hex are reported as unsent instead of being queued.
+   */
+  @Test
+  public void testSendPushInvalidTokenHex() throws Exception {
+    String appId  = "AAABSNIBKOstQST7";
+    DeviceEntity device = new DeviceEntity();
+    device.setDeviceId("badhexdevice");
+    device.setClientToken("not-a-valid-token");
+    AppDAO appDAO = new AppDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    APNSConnection connection = new CountingAPNSConnection(appId, false);
+    APNSPushMessageSender sender = new StubAPNSPushMessageSender(appDAO.getAppForAppKey(appId), connection);
+
+    MMXPushAPNSPayloadBuilder builder = new MMXPushAPNSPayloadBuilder();
+    builder.setTitle("Unit test");
+    PushResult result = sender.sendPush(Collections.singletonList(device), builder);
+    assertEquals("Non matching sent count", 0, result.getCount().getSent());
+    assertEquals("Non matching unsent count", 1, result.getCount().getUnsent());
+    assertEquals("Non matching error code", ErrorCode.APNS_INVALID_TOKEN.getCode(), result.getUnsentList().get(0).getCode());
+    assertEquals("Token was sent", 0, ((CountingAPNSConnection) connection).count);
+  }
+
   static class StubTargetResolver extends DeviceTargetResolver {
     protected ConnectionProvider getConnectionProvider() {
       return new BasicDataSourceConnectionProvider(ds);
@@ -0,0 +1,209 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.apns;
+
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.internal.Utilities;
+import com.notnoop.exceptions.ApnsDeliveryErrorException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ */
+public class APNSSendEngineTest {
+  private static final String APP_ID = "engineapp";
+  private static final String TOKEN = "0A1B2C3D";
+
+  private StubSendEngine engine;
+  private List<String> failures;
+
+  @Before
+  public void setup() {
+    engine = new StubSendEngine();
+    failures = new ArrayList<String>();
+    engine.setListener(new APNSSendListener() {
+      @Override
+      public void sendFailed(String appId, boolean production, String deviceToken, FailureReason reason, Throwable cause) {
+        failures.add(appId + ":" + deviceToken + ":" + reason);
+      }
+    });
+    engine.start();
+  }
+
+  @After
+  public void teardown() {
+    engine.stop(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testSendUsesLongLivedConnections() {
+    APNSConnection connection = engine.getConnection(APP_ID, false);
+    assertNotNull(connection);
+    for (int i = 0; i < 10; i++) {
+      connection.send(TOKEN + String.format("%02X", i), "{}");
+    }
+    // the same channel is returned for the app and no new connections are opened
+    assertSame(connection, engine.getConnection(APP_ID, false));
+    assertEquals(2, engine.openCount.get());
+    assertEquals(10, engine.getSentCount());
+    assertEquals(10, engine.getSendLatency().getCount());
+    assertEquals(0, engine.getQueueDepth());
+    assertEquals(1, engine.getChannelCount());
+
+    engine.remove(APP_ID, false);
+    assertEquals(0, engine.getChannelCount());
+    assertFalse(connection == engine.getConnection(APP_ID, false));
+    assertEquals(4, engine.openCount.get());
+  }
+
+  @Test
+  public void testFailuresAreReported() {
+    APNSConnectionPoolImpl.APNSConnectionKey key = new APNSConnectionPoolImpl.APNSConnectionKey(APP_ID, true);
+    APNSSendEngine.EngineDelegate delegate = engine.new EngineDelegate(key);
+    byte[] token = Utilities.decodeHex(TOKEN);
+    delegate.messageSendFailed(new EnhancedApnsNotification(1, 0, token, new byte[0]),
+        new ApnsDeliveryErrorException(DeliveryError.INVALID_TOKEN));
+    delegate.messageSendFailed(new EnhancedApnsNotification(2, 0, token, new byte[0]),
+        new ApnsDeliveryErrorException(DeliveryError.PROCESSING_ERROR));
+
+    assertEquals(2, failures.size());
+    assertEquals(APP_ID + ":" + TOKEN + ":INVALID_TOKEN", failures.get(0));
+    assertEquals(APP_ID + ":" + TOKEN + ":DELIVERY_ERROR", failures.get(1));
+    assertEquals(2, engine.getFailedCount());
+  }
+
+  @Test(expected = APNSConnectionException.class)
+  public void testSendAfterStop() {
+    APNSConnection connection = engine.getConnection(APP_ID, false);
+    engine.stop(1, TimeUnit.SECONDS);
+    try {
+      connection.send(TOKEN, "{}");
+    } finally {
+      assertEquals(1, engine.getRejectedCount());
+    }
+  }
+
+  @Test
+  public void testInvalidNotificationsAreRejected() {
+    APNSConnection connection = engine.getConnection(APP_ID, false);
+    try {
+      connection.send("not-a-hex-token", "{}");
+      fail("Invalid token was queued");
+    } catch (APNSConnectionException e) {
+    }
+    try {
+      connection.send(TOKEN + "1", "{}");
+      fail("Token with an odd number of digits was queued");
+    } catch (APNSConnectionException e) {
+    }
+    StringBuilder payload = new StringBuilder();
+    for (int i = 0; i <= APNSSendEngine.MAX_PAYLOAD_BYTES; i++) {
+      payload.append('H');
+    }
+    try {
+      connection.send(TOKEN, payload.toString());
+      fail("Oversized payload was queued");
+    } catch (APNSConnectionException e) {
+    }
+    assertEquals(3, engine.getRejectedCount());
+    assertEquals(0, engine.getSentCount());
+    assertTrue(APNSSendEngine.isValidDeviceToken("0e52e31f 2d27604e"));
+  }
+
+  @Test
+  public void testInactiveTokensOfAllConnections() {
+    APNSConnection connection = engine.getConnection(APP_ID, false);
+    assertEquals(Arrays.asList("inactive1", "inactive2"), connection.getInactiveDeviceTokens());
+  }
+
+  @Test
+  public void testRemoveReportsQueuedNotifications() {
+    engine.deferred = true;
+    APNSConnection connection = engine.getConnection(APP_ID, false);
+    connection.send(TOKEN, "{}");
+    connection.send(TOKEN, "{}");
+    engine.remove(APP_ID, false);
+    engine.runDeferred();
+
+    assertEquals(0, engine.getSentCount());
+    assertEquals(2, failures.size());
+    assertEquals(APP_ID + ":" + TOKEN + ":CONNECTION_ERROR", failures.get(0));
+  }
+
+  /**
+   * A channel closed after it was handed out forwards to the current channel of the app.
+   */
+  @Test
+  public void testClosedChannelForwardsToCurrentChannel() {
+    APNSConnection stale = engine.getConnection(APP_ID, false);
+    engine.remove(APP_ID, false);
+    stale.send(TOKEN, "{}");
+    assertEquals(1, engine.getSentCount());
+    assertEquals(1, engine.getChannelCount());
+    assertTrue(failures.isEmpty());
+  }
+
+  /**
+   * Engine that uses stub connections and drains the queues on the calling thread unless the
+   * tasks are deferred.
+   */
+  private static class StubSendEngine extends APNSSendEngine {
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+    private boolean deferred = false;
+
+    @Override
+    protected APNSConnection openConnection(APNSConnectionPoolImpl.APNSConnectionKey key, EngineDelegate delegate) {
+      int count = openCount.incrementAndGet();
+      return new StubAPNSConnection(key.getAppId(), key.isProduction(), 0L, Arrays.asList("inactive" + count));
+    }
+
+    @Override
+    protected Executor getExecutor() {
+      return new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          if (deferred) {
+            tasks.add(command);
+          } else {
+            command.run();
+          }
+        }
+      };
+    }
+
+    private void runDeferred() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+}
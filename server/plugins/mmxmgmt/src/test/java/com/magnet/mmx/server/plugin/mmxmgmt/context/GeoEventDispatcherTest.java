@@ -16,6 +16,12 @@ package com.magnet.mmx.server.plugin.mmxmgmt.context;
 
 import org.junit.Test;
 import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class GeoEventDispatcherTest {
 
@@ -29,4 +35,53 @@ public class GeoEventDispatcherTest {
     }
     dispatcher.shutdown();
   }
+
+  @Test
+  public void testEventsOfADeviceAreCoalesced() {
+    GeoEventDispatcher dispatcher = new GeoEventDispatcher(10, 10, 50L, GeoEventDispatcher.OverflowPolicy.DROP_OLDEST, 0);
+    IQ first = geoIQ("device1");
+    IQ latest = geoIQ("device1");
+    IQ other = geoIQ("device2");
+    dispatcher.dispatchToExternalService(first);
+    dispatcher.dispatchToExternalService(other);
+    dispatcher.dispatchToExternalService(latest);
+    assertEquals(2, dispatcher.getQueueDepth());
+    assertEquals(1, dispatcher.getCoalescedCount());
+
+    List<IQ> batch = dispatcher.drain(10);
+    assertEquals(2, batch.size());
+    assertSame(latest, batch.get(0));
+    assertSame(other, batch.get(1));
+    assertEquals(0, dispatcher.getQueueDepth());
+  }
+
+  @Test
+  public void testOverflowPolicy() {
+    GeoEventDispatcher dropOldest = new GeoEventDispatcher(2, 10, 50L, GeoEventDispatcher.OverflowPolicy.DROP_OLDEST, 0);
+    GeoEventDispatcher dropNewest = new GeoEventDispatcher(2, 10, 50L, GeoEventDispatcher.OverflowPolicy.DROP_NEWEST, 0);
+    IQ[] events = {geoIQ("device1"), geoIQ("device2"), geoIQ("device3")};
+    for (IQ event : events) {
+      dropOldest.dispatchToExternalService(event);
+      dropNewest.dispatchToExternalService(event);
+    }
+    assertEquals(1, dropOldest.getDroppedCount());
+    assertEquals(1, dropNewest.getDroppedCount());
+
+    List<IQ> batch = dropOldest.drain(10);
+    assertEquals(2, batch.size());
+    assertSame(events[1], batch.get(0));
+    assertSame(events[2], batch.get(1));
+
+    batch = dropNewest.drain(10);
+    assertEquals(2, batch.size());
+    assertSame(events[0], batch.get(0));
+    assertSame(events[1], batch.get(1));
+  }
+
+  private static IQ geoIQ(String deviceId) {
+    IQ iq = new IQ(IQ.Type.set);
+    iq.setFrom(new JID("user%geoapp", "localhost", deviceId));
+    iq.setTo("pubsub.localhost");
+    return iq;
+  }
 }
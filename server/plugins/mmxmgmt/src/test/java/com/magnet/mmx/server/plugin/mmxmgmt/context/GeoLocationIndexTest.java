@@ -0,0 +1,151 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.context;
+
+import com.magnet.ext.geo.BoundingBoxFactory;
+import com.magnet.ext.geo.GeoPointFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class GeoLocationIndexTest {
+  private static final String APP_ID = "geoapp";
+
+  @Test
+  public void testFindNearby() {
+    GeoLocationIndex index = new GeoLocationIndex(60000L);
+    // Market St. and nearby places in San Francisco
+    index.update(APP_ID, "user1", "device1", 37.7897d, -122.4011d);
+    index.update(APP_ID, "user2", "device2", 37.7935d, -122.3954d);
+    index.update(APP_ID, "user3", "device3", 37.8080d, -122.4177d);
+    index.update("otherapp", "user4", "device4", 37.7897d, -122.4011d);
+
+    List<GeoLocationIndex.NearbyLocation> found = index.findNearby(APP_ID, 37.7900d, -122.4000d, 1000d, 10);
+    assertEquals(2, found.size());
+    assertEquals("device1", found.get(0).getLocation().getDeviceId());
+    assertEquals("device2", found.get(1).getLocation().getDeviceId());
+    assertTrue(found.get(0).getDistance() < found.get(1).getDistance());
+
+    assertEquals(1, index.findNearby(APP_ID, 37.7900d, -122.4000d, 1000d, 1).size());
+    assertEquals(3, index.findNearby(APP_ID, 37.7900d, -122.4000d, 5000d, 10).size());
+
+    // a device that moves away is no longer found near its previous location
+    index.update(APP_ID, "user1", "device1", 37.8080d, -122.4177d);
+    found = index.findNearby(APP_ID, 37.7900d, -122.4000d, 1000d, 10);
+    assertEquals(1, found.size());
+    assertEquals("device2", found.get(0).getLocation().getDeviceId());
+    assertEquals(4, index.getSize());
+  }
+
+  @Test
+  public void testFindAcrossCellBoundaries() {
+    GeoLocationIndex index = new GeoLocationIndex(60000L);
+    // the geohash cells on either side of the equator and the prime meridian share no prefix
+    index.update(APP_ID, "user1", "device1", 0.001d, 0.001d);
+    index.update(APP_ID, "user2", "device2", -0.001d, 0.001d);
+    index.update(APP_ID, "user3", "device3", 0.001d, -0.001d);
+    index.update(APP_ID, "user4", "device4", -0.001d, -0.001d);
+    assertEquals(4, index.findNearby(APP_ID, 0.0d, 0.0d, 500d, 10).size());
+
+    // and so do the cells on either side of the antimeridian
+    index.update(APP_ID, "user5", "device5", 10.0d, 179.999d);
+    index.update(APP_ID, "user6", "device6", 10.0d, -179.999d);
+    assertEquals(2, index.findNearby(APP_ID, 10.0d, 180.0d, 1000d, 10).size());
+  }
+
+  @Test
+  public void testFindInBoundingBox() {
+    GeoLocationIndex index = new GeoLocationIndex(60000L);
+    index.update(APP_ID, "user2", "device2", 37.7935d, -122.3954d);
+    index.update(APP_ID, "user1", "device1", 37.7897d, -122.4011d);
+    index.update(APP_ID, "user3", "device3", 37.8080d, -122.4177d);
+    index.update(APP_ID, "user5", "device5", 10.0d, 179.5d);
+    index.update(APP_ID, "user6", "device6", 10.0d, -179.5d);
+
+    assertEquals(Arrays.asList("device1", "device2"), index.findDeviceIds(APP_ID, BoundingBoxFactory.createBoundingBox(
+        GeoPointFactory.createGeoPoint(37.78d, -122.41d), GeoPointFactory.createGeoPoint(37.80d, -122.39d))));
+    // a box crossing the antimeridian
+    assertEquals(Arrays.asList("device5", "device6"), index.findDeviceIds(APP_ID, BoundingBoxFactory.createBoundingBox(
+        GeoPointFactory.createGeoPoint(9.0d, 179.0d), GeoPointFactory.createGeoPoint(11.0d, -179.0d))));
+    assertEquals(Arrays.asList("device1", "device2", "device3"),
+        index.findDeviceIds(APP_ID, 37.7900d, -122.4000d, 5000d));
+  }
+
+  @Test
+  public void testExpiredLocationsAreRemoved() throws Exception {
+    GeoLocationIndex index = new GeoLocationIndex(1L);
+    index.update(APP_ID, "user1", "device1", 37.7897d, -122.4011d);
+    Thread.sleep(10L);
+    assertNull(index.getLocation(APP_ID, "device1"));
+    assertEquals(0, index.findNearby(APP_ID, 37.7897d, -122.4011d, 1000d, 10).size());
+    assertEquals(1, index.removeExpired());
+    assertEquals(0, index.getSize());
+  }
+
+  @Test
+  public void testLocationsAreLoadedOnFirstUse() {
+    final AtomicInteger loads = new AtomicInteger();
+    final long now = System.currentTimeMillis();
+    GeoLocationIndex index = new GeoLocationIndex(60000L, new GeoLocationIndex.Loader() {
+      @Override
+      public List<GeoLocationIndex.Location> load(String appId, long since) {
+        loads.incrementAndGet();
+        return Arrays.asList(
+            GeoLocationIndex.createLocation(appId, "user1", "device1", 37.7897d, -122.4011d, now - 2000L),
+            GeoLocationIndex.createLocation(appId, "user2", "device2", 37.7935d, -122.3954d, now - 1000L));
+      }
+    });
+    // a location received before the load is newer than the persisted one
+    index.update(APP_ID, "user2", "device2", 40.7484d, -73.9857d);
+
+    List<GeoLocationIndex.NearbyLocation> found = index.findNearby(APP_ID, 37.7900d, -122.4000d, 1000d, 10);
+    assertEquals(1, found.size());
+    assertEquals("device1", found.get(0).getLocation().getDeviceId());
+    assertEquals(40.7484d, index.getLocation(APP_ID, "device2").getLatitude(), 0.0d);
+    assertEquals(1, loads.get());
+
+    // the persisted locations are loaded again after a clear
+    index.clear();
+    assertEquals(2, index.findNearby(APP_ID, 37.7900d, -122.4000d, 1000d, 10).size());
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testFailedLoadIsRetried() {
+    final AtomicInteger loads = new AtomicInteger();
+    GeoLocationIndex index = new GeoLocationIndex(60000L, new GeoLocationIndex.Loader() {
+      @Override
+      public List<GeoLocationIndex.Location> load(String appId, long since) {
+        if (loads.incrementAndGet() == 1) {
+          throw new RuntimeException("database is down");
+        }
+        return Collections.singletonList(
+            GeoLocationIndex.createLocation(appId, "user1", "device1", 37.7897d, -122.4011d, System.currentTimeMillis()));
+      }
+    });
+    assertNull(index.getLocation(APP_ID, "device1"));
+    assertEquals("device1", index.getLocation(APP_ID, "device1").getDeviceId());
+    assertEquals(2, loads.get());
+  }
+}
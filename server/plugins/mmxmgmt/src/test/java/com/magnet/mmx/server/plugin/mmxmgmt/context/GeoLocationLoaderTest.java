@@ -0,0 +1,124 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.context;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.db.BasicDataSourceConnectionProvider;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.UnitTestDSProvider;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.lang.RandomStringUtils;
+import org.jivesoftware.util.StringUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ */
+public class GeoLocationLoaderTest {
+  private static final String SERVICE_ID = "pubsub" + RandomStringUtils.randomAlphabetic(5);
+  private static final String APP_ID = "geoloadapp";
+  private static final long NOW = 1436567890000L;
+  private static final String GEO_PAYLOAD = "<mmx xmlns=\"com.magnet:msg:payload\"><payload ctype=\"application/json\" " +
+      "mtype=\"geoloc\">{\"accuracy\":20,\"lat\":%s,\"lng\":%s}</payload></mmx>";
+
+  private static BasicDataSource ds;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    ds = UnitTestDSProvider.getDataSource();
+  }
+
+  @AfterClass
+  public static void teardown() {
+    try {
+      ds.close();
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Before
+  public void insertItems() throws Exception {
+    insert("/" + APP_ID + "/user1/com.magnet.geoloc", "user1%" + APP_ID + "@localhost/device1", NOW - 1000L,
+        String.format(GEO_PAYLOAD, "37.7897", "-122.4011"));
+    // older than the TTL
+    insert("/" + APP_ID + "/user2/com.magnet.geoloc", "user2%" + APP_ID + "@localhost/device2", NOW - 60000L,
+        String.format(GEO_PAYLOAD, "37.7935", "-122.3954"));
+    // not a location
+    insert("/" + APP_ID + "/user3/com.magnet.geoloc", "user3%" + APP_ID + "@localhost/device3", NOW - 1000L,
+        "<mmx xmlns=\"com.magnet:msg:payload\"><payload>not json</payload></mmx>");
+    // not a geoloc node
+    insert("/" + APP_ID + "/*/news", "user1%" + APP_ID + "@localhost/device1", NOW - 1000L,
+        String.format(GEO_PAYLOAD, "40.7484", "-73.9857"));
+    // another app
+    insert("/otherapp/user4/com.magnet.geoloc", "user4%otherapp@localhost/device4", NOW - 1000L,
+        String.format(GEO_PAYLOAD, "37.7897", "-122.4011"));
+  }
+
+  @After
+  public void deleteItems() throws Exception {
+    Connection con = ds.getConnection();
+    try {
+      PreparedStatement pstmt = con.prepareStatement("DELETE FROM ofPubsubItem WHERE serviceID = ?");
+      pstmt.setString(1, SERVICE_ID);
+      pstmt.executeUpdate();
+      pstmt.close();
+    } finally {
+      con.close();
+    }
+  }
+
+  @Test
+  public void testLoad() {
+    GeoLocationLoader loader = new GeoLocationLoader(new BasicDataSourceConnectionProvider(ds), SERVICE_ID);
+    List<GeoLocationIndex.Location> locations = loader.load(APP_ID, NOW - 10000L);
+    assertEquals(1, locations.size());
+    GeoLocationIndex.Location location = locations.get(0);
+    assertEquals("user1", location.getUserId());
+    assertEquals("device1", location.getDeviceId());
+    assertEquals(37.7897d, location.getLatitude(), 0.0001d);
+    assertEquals(-122.4011d, location.getLongitude(), 0.0001d);
+    assertEquals(NOW - 1000L, location.getUpdated());
+
+    assertEquals(2, loader.load(APP_ID, 0L).size());
+  }
+
+  private static void insert(String nodeId, String jid, long creationDate, String payload) throws SQLException {
+    Connection con = ds.getConnection();
+    try {
+      PreparedStatement pstmt = con.prepareStatement(
+          "INSERT INTO ofPubsubItem (serviceID, nodeID, id, jid, creationDate, payload) VALUES (?, ?, ?, ?, ?, ?)");
+      pstmt.setString(1, SERVICE_ID);
+      pstmt.setString(2, nodeId);
+      pstmt.setString(3, RandomStringUtils.randomAlphanumeric(10));
+      pstmt.setString(4, jid);
+      pstmt.setString(5, StringUtils.dateToMillis(new Date(creationDate)));
+      pstmt.setString(6, payload);
+      pstmt.executeUpdate();
+      pstmt.close();
+    } finally {
+      con.close();
+    }
+  }
+}
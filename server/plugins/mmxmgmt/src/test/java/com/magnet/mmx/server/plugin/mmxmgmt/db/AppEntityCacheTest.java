@@ -0,0 +1,86 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+import com.magnet.mmx.server.common.data.AppEntity;
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ */
+public class AppEntityCacheTest {
+  private static final String APP_ID = "cachedapp";
+
+  private AtomicInteger loadCount;
+  private AppDAO appDAO;
+
+  @Before
+  public void setup() {
+    AppEntityCache.getInstance().clear();
+    loadCount = new AtomicInteger();
+    appDAO = new MockUp<AppDAO>() {
+      @Mock
+      public AppEntity getAppForAppKey(String appId) {
+        loadCount.incrementAndGet();
+        if (!APP_ID.equals(appId)) {
+          return null;
+        }
+        AppEntity entity = new AppEntity();
+        entity.setAppId(appId);
+        return entity;
+      }
+    }.getMockInstance();
+  }
+
+  @After
+  public void teardown() {
+    AppEntityCache.getInstance().clear();
+  }
+
+  @Test
+  public void testAppIsLoadedOnce() {
+    AppEntityCache cache = AppEntityCache.getInstance();
+    AppEntity first = cache.getApp(APP_ID, appDAO);
+    assertNotNull(first);
+    for (int i = 0; i < 10; i++) {
+      assertSame(first, cache.getApp(APP_ID, appDAO));
+    }
+    assertEquals(1, loadCount.get());
+
+    cache.invalidate(APP_ID);
+    assertNotNull(cache.getApp(APP_ID, appDAO));
+    assertEquals(2, loadCount.get());
+  }
+
+  @Test
+  public void testMissingAppIsCached() {
+    AppEntityCache cache = AppEntityCache.getInstance();
+    assertNull(cache.getApp("unknownapp", appDAO));
+    assertNull(cache.getApp("unknownapp", appDAO));
+    assertEquals(1, loadCount.get());
+    assertNull(cache.getApp(null, appDAO));
+    assertEquals(1, loadCount.get());
+  }
+}
@@ -0,0 +1,208 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+import com.google.common.base.Ticker;
+import com.magnet.mmx.protocol.DevReg;
+import com.magnet.mmx.protocol.OSType;
+import com.magnet.mmx.protocol.PushType;
+import mockit.Mock;
+import mockit.MockUp;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+import org.dbunit.operation.DatabaseOperation;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ */
+public class DeviceEntityCacheTest {
+  private static final String APP_ID = "AAABSNIBKOstQST7";
+  private static final String DEVICE_ID = "cacheddevice";
+  private static final String USER_ID = "cacheduser";
+
+  private static BasicDataSource ds;
+
+  private AtomicInteger deviceLoads;
+  private AtomicInteger userLoads;
+  private DeviceDAO deviceDAO;
+
+  @BeforeClass
+  public static void setupDatabase() throws Exception {
+    ds = UnitTestDSProvider.getDataSource();
+    FlatXmlDataSetBuilder builder = new FlatXmlDataSetBuilder();
+    builder.setColumnSensing(true);
+    IDatabaseConnection con = new DatabaseConnection(ds.getConnection());
+    {
+      InputStream xmlInput = DeviceEntityCacheTest.class.getResourceAsStream("/data/app-data-1.xml");
+      IDataSet dataSet = builder.build(xmlInput);
+      DatabaseOperation.CLEAN_INSERT.execute(con, dataSet);
+    }
+    {
+      InputStream xmlInput = DeviceEntityCacheTest.class.getResourceAsStream("/data/device-data-1.xml");
+      IDataSet dataSet = builder.build(xmlInput);
+      DatabaseOperation.CLEAN_INSERT.execute(con, dataSet);
+    }
+  }
+
+  @AfterClass
+  public static void teardownDatabase() throws SQLException {
+    DeviceEntityCache.getInstance().clear();
+    ds.close();
+  }
+
+  @Before
+  public void setup() {
+    deviceLoads = new AtomicInteger();
+    userLoads = new AtomicInteger();
+    deviceDAO = new MockUp<DeviceDAO>() {
+      @Mock
+      public DeviceEntity getDevice(String appId, String deviceId) throws DeviceNotFoundException {
+        deviceLoads.incrementAndGet();
+        if (!DEVICE_ID.equals(deviceId)) {
+          throw new DeviceNotFoundException("no device");
+        }
+        DeviceEntity entity = new DeviceEntity();
+        entity.setAppId(appId);
+        entity.setDeviceId(deviceId);
+        entity.setOwnerId(USER_ID);
+        return entity;
+      }
+
+      @Mock
+      public List<DeviceEntity> getDevices(String appId, String userId, DeviceStatus status) {
+        userLoads.incrementAndGet();
+        DeviceEntity entity = new DeviceEntity();
+        entity.setAppId(appId);
+        entity.setDeviceId(DEVICE_ID);
+        entity.setOwnerId(userId);
+        return Collections.singletonList(entity);
+      }
+    }.getMockInstance();
+  }
+
+  @Test
+  public void testHitAndMiss() throws Exception {
+    DeviceEntityCache cache = new DeviceEntityCache(100, 10, Ticker.systemTicker());
+    DeviceEntity first = cache.getDevice(APP_ID, DEVICE_ID, deviceDAO);
+    assertNotNull(first);
+    for (int i = 0; i < 5; i++) {
+      assertSame(first, cache.getDevice(APP_ID, DEVICE_ID, deviceDAO));
+    }
+    assertEquals(1, deviceLoads.get());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(5, cache.getHitCount());
+
+    // a missing device is cached as well
+    assertNull(cache.getDevice(APP_ID, "unknowndevice", deviceDAO));
+    assertNull(cache.getDevice(APP_ID, "unknowndevice", deviceDAO));
+    assertEquals(2, deviceLoads.get());
+
+    List<DeviceEntity> devices = cache.getActiveDevices(APP_ID, USER_ID, deviceDAO);
+    assertSame(devices, cache.getActiveDevices(APP_ID, USER_ID, deviceDAO));
+    assertEquals(1, userLoads.get());
+    assertEquals(3, cache.getSize());
+  }
+
+  @Test
+  public void testInvalidation() throws Exception {
+    DeviceEntityCache cache = new DeviceEntityCache(100, 10, Ticker.systemTicker());
+    cache.getDevice(APP_ID, DEVICE_ID, deviceDAO);
+    cache.getActiveDevices(APP_ID, USER_ID, deviceDAO);
+
+    // invalidating a device drops the user lists that contain it
+    cache.invalidateDeviceLocal(APP_ID, DEVICE_ID);
+    cache.getDevice(APP_ID, DEVICE_ID, deviceDAO);
+    cache.getActiveDevices(APP_ID, USER_ID, deviceDAO);
+    assertEquals(2, deviceLoads.get());
+    assertEquals(2, userLoads.get());
+
+    cache.invalidateUserLocal(APP_ID, USER_ID);
+    cache.getDevice(APP_ID, DEVICE_ID, deviceDAO);
+    cache.getActiveDevices(APP_ID, USER_ID, deviceDAO);
+    assertEquals(2, deviceLoads.get());
+    assertEquals(3, userLoads.get());
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    final AtomicLong now = new AtomicLong();
+    Ticker ticker = new Ticker() {
+      @Override
+      public long read() {
+        return now.get();
+      }
+    };
+    DeviceEntityCache cache = new DeviceEntityCache(100, 10, ticker);
+    cache.getDevice(APP_ID, DEVICE_ID, deviceDAO);
+    now.addAndGet(TimeUnit.MINUTES.toNanos(9));
+    cache.getDevice(APP_ID, DEVICE_ID, deviceDAO);
+    assertEquals(1, deviceLoads.get());
+    now.addAndGet(TimeUnit.MINUTES.toNanos(2));
+    cache.getDevice(APP_ID, DEVICE_ID, deviceDAO);
+    assertEquals(2, deviceLoads.get());
+  }
+
+  /**
+   * Updating a device through the DAO must drop the cached copy.
+   */
+  @Test
+  public void testInvalidationOnDeviceUpdate() throws Exception {
+    DeviceDAO dao = new DeviceDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    String deviceId = "cachedevice" + new Random().nextInt(100000);
+    DevReg createRequest = new DevReg();
+    createRequest.setDevId(deviceId);
+    createRequest.setDisplayName("Old name");
+    createRequest.setOsType(OSType.ANDROID.toString());
+    createRequest.setPushType(PushType.GCM.toString());
+    createRequest.setPushToken("cache token");
+    createRequest.setOsVersion("5.0");
+    dao.addDevice(USER_ID, APP_ID, createRequest);
+
+    DeviceEntityCache cache = DeviceEntityCache.getInstance();
+    assertEquals("Old name", cache.getDevice(APP_ID, deviceId, dao).getName());
+    assertEquals(1, cache.getActiveDevices(APP_ID, USER_ID, dao).size());
+
+    DevReg update = new DevReg();
+    update.setDisplayName("New name");
+    update.setPushToken("cache token");
+    dao.updateDevice(deviceId, OSType.ANDROID, APP_ID, update, USER_ID, DeviceStatus.ACTIVE);
+    assertEquals("New name", cache.getDevice(APP_ID, deviceId, dao).getName());
+    assertEquals("New name", cache.getActiveDevices(APP_ID, USER_ID, dao).get(0).getName());
+
+    dao.deactivateDevice(deviceId);
+    assertEquals(DeviceStatus.INACTIVE, cache.getDevice(APP_ID, deviceId, dao).getStatus());
+    assertEquals(0, cache.getActiveDevices(APP_ID, USER_ID, dao).size());
+  }
+}
@@ -58,6 +58,17 @@ public class DeviceQueryBuilderTest {
   }
 
 
+  @Test
+  public void testBuildDeviceIdQuery() throws Exception {
+    DeviceQuery query = new DeviceQuery();
+    query.setOsType(OSType.ANDROID);
+
+    QueryBuilderResult result = new DeviceQueryBuilder().buildDeviceIdQuery(query, "app1");
+    String expected = "SELECT DISTINCT mmxDevice.deviceId FROM mmxDevice WHERE (mmxDevice.osType=?) AND (mmxDevice.appId=?) AND (mmxDevice.status=?)";
+    assertEquals("Got non matching query", expected, result.getQuery());
+    assertEquals("Got non matching param list size", 3, result.getParamList().size());
+  }
+
   @Test
   public void testBuildQueryWithOSTypeAndDateCreated() throws Exception {
     DeviceQuery query = new DeviceQuery();
@@ -17,7 +17,10 @@ package com.magnet.mmx.server.plugin.mmxmgmt.db;
 import com.magnet.mmx.protocol.OSType;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.push.Target;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.query.DeviceQuery;
+import com.magnet.mmx.server.plugin.mmxmgmt.api.query.GeoQuery;
 import com.magnet.mmx.server.plugin.mmxmgmt.api.query.Operator;
+import com.magnet.mmx.server.plugin.mmxmgmt.context.GeoLocationIndex;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.ResolutionException;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.DBTestUtil;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.dbunit.database.DatabaseConnection;
@@ -33,9 +36,12 @@ import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 import static junit.framework.TestCase.assertNotNull;
 
 /**
@@ -181,4 +187,130 @@ public class DeviceTargetResolverTest {
     assertEquals("Non matching entity list size", 1, size);
 
   }
+
+  @Test
+  public void testPageUsingMultipleTags() throws Exception {
+    String appId = "azi6dw1weq";
+    Target target = new Target();
+    DeviceQuery query = new DeviceQuery();
+    query.setTags(new ArrayList<String>());
+    query.getTags().add("secure");
+    query.getTags().add("office");
+    target.setDeviceQuery(query);
+    DeviceTargetResolver resolver = new DeviceTargetResolver() {
+      @Override
+      protected ConnectionProvider getConnectionProvider() {
+        return new BasicDataSourceConnectionProvider(ds);
+      }
+    };
+    DeviceTargetResolver.DevicePager pager = resolver.page(appId, target, 2);
+    List<DeviceEntity> entityList = new ArrayList<DeviceEntity>();
+    int pages = 0;
+    while (pager.hasMore()) {
+      List<DeviceEntity> page = pager.nextPage();
+      assertTrue("Page is too big", page.size() <= 2);
+      entityList.addAll(page);
+      pages++;
+    }
+    assertEquals("Non matching entity list size", 3, entityList.size());
+    assertEquals("Non matching page count", 2, pages);
+    for (int i = 1; i < entityList.size(); i++) {
+      assertTrue("Pages are not ordered by id", entityList.get(i - 1).getId() < entityList.get(i).getId());
+    }
+  }
+
+  @Test
+  public void testResolveUsingGeoAndTags() throws Exception {
+    String appId = "azi6dw1weq";
+    GeoLocationIndex index = GeoLocationIndex.getInstance();
+    index.clear();
+    index.update(appId, "yoyoyoyo0", "yoyoyoyo0", 37.7897d, -122.4011d);
+    index.update(appId, "yoyoyoyo1", "yoyoyoyo1", 37.7935d, -122.3954d);
+    index.update(appId, "zingthing1", "zingthing1", 37.7880d, -122.4075d);
+    index.update(appId, "zingthing0", "zingthing0", 40.7484d, -73.9857d);
+    try {
+      Target target = new Target();
+      GeoQuery geoQuery = new GeoQuery();
+      geoQuery.setLatitude(37.7900d);
+      geoQuery.setLongitude(-122.4000d);
+      geoQuery.setRadius(2000d);
+      target.setGeoQuery(geoQuery);
+      DeviceTargetResolver resolver = new DeviceTargetResolver() {
+        @Override
+        protected ConnectionProvider getConnectionProvider() {
+          return new BasicDataSourceConnectionProvider(ds);
+        }
+      };
+      assertEquals("Non matching entity list size", 3, resolver.resolve(appId, target).size());
+
+      DeviceQuery query = new DeviceQuery();
+      query.setTags(new ArrayList<String>());
+      query.getTags().add("secure");
+      target.setDeviceQuery(query);
+      List<DeviceEntity> entityList = resolver.resolve(appId, target);
+      assertEquals("Non matching entity list size", 2, entityList.size());
+
+      GeoQuery boxQuery = new GeoQuery();
+      boxQuery.setSouth(37.78d);
+      boxQuery.setWest(-122.41d);
+      boxQuery.setNorth(37.80d);
+      boxQuery.setEast(-122.405d);
+      target.setGeoQuery(boxQuery);
+      entityList = resolver.resolve(appId, target);
+      assertEquals("Non matching entity list size", 1, entityList.size());
+      assertEquals("zingthing1", entityList.get(0).getDeviceId());
+    } finally {
+      index.clear();
+    }
+  }
+
+  @Test
+  public void testInvalidGeoQueriesAreRejected() {
+    DeviceTargetResolver resolver = new DeviceTargetResolver();
+    GeoQuery[] invalid = {
+        circle(91.0d, 0.0d, 100.0d),
+        circle(0.0d, -180.5d, 100.0d),
+        circle(0.0d, 0.0d, 0.0d),
+        circle(0.0d, 0.0d, Double.NaN),
+        circle(0.0d, 0.0d, 100000000.0d),
+        box(-91.0d, 0.0d, 10.0d, 10.0d),
+        box(0.0d, 0.0d, 10.0d, 181.0d),
+        box(10.0d, 0.0d, 0.0d, 10.0d),
+        new GeoQuery()
+    };
+    for (GeoQuery geoQuery : invalid) {
+      Target target = new Target();
+      target.setGeoQuery(geoQuery);
+      try {
+        resolver.resolveGeoTarget("geoapp", target);
+        fail("Expected ResolutionException");
+      } catch (ResolutionException e) {
+      }
+    }
+  }
+
+  private static GeoQuery circle(double latitude, double longitude, double radius) {
+    GeoQuery geoQuery = new GeoQuery();
+    geoQuery.setLatitude(latitude);
+    geoQuery.setLongitude(longitude);
+    geoQuery.setRadius(radius);
+    return geoQuery;
+  }
+
+  private static GeoQuery box(double south, double west, double north, double east) {
+    GeoQuery geoQuery = new GeoQuery();
+    geoQuery.setSouth(south);
+    geoQuery.setWest(west);
+    geoQuery.setNorth(north);
+    geoQuery.setEast(east);
+    return geoQuery;
+  }
+
+  @Test
+  public void testIntersectSortedDeviceIds() {
+    List<String> result = DeviceTargetResolver.intersect(Arrays.asList("a", "b", "b", "d", "f"),
+        Arrays.asList("b", "c", "d", "e"));
+    assertEquals(Arrays.asList("b", "d"), result);
+    assertTrue(DeviceTargetResolver.intersect(Arrays.asList("a"), new ArrayList<String>()).isEmpty());
+  }
 }
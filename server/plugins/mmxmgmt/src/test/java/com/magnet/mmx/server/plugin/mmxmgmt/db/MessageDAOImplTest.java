@@ -15,7 +15,10 @@
 package com.magnet.mmx.server.plugin.mmxmgmt.db;
 
 import com.magnet.mmx.server.plugin.mmxmgmt.util.JIDUtil;
+import mockit.Mock;
+import mockit.MockUp;
 import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.dbcp2.DelegatingStatement;
 import org.dbunit.database.DatabaseConfig;
 import org.dbunit.database.DatabaseConnection;
 import org.dbunit.dataset.IDataSet;
@@ -37,16 +40,21 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -180,6 +188,39 @@ public class MessageDAOImplTest {
     assertEquals("Non matching message count", 1, count);
   }
 
+  @Test
+  public void testMessagesDelivered() {
+    String appId = "i26u1lmv7uc";
+    String deviceId = "computer-3";
+    List<String> messageIds = Arrays.asList("rD7QNrvgSzi0BAxCwk7m_Q-3", "JXd6AV4oR1WMUbYQygArcw-5", "unknownMessageId");
+    MessageDAO dao = new MessageDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    int count = dao.messagesDelivered(appId, deviceId, messageIds);
+    assertEquals("Non matching message count", 2, count);
+    MessageEntity entity = dao.get("JXd6AV4oR1WMUbYQygArcw-5", deviceId);
+    assertEquals("Not expected message state", MessageEntity.MessageState.DELIVERED, entity.getState());
+  }
+
+  /**
+   * Drivers may report a successful batch update without the row count.
+   */
+  @Test
+  public void testMessagesDeliveredWithoutRowCounts() {
+    MockUp<DelegatingStatement> mockUp = new MockUp<DelegatingStatement>() {
+      @Mock
+      public int[] executeBatch() {
+        return new int[] {Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO, 0};
+      }
+    };
+    try {
+      List<String> messageIds = Arrays.asList("rD7QNrvgSzi0BAxCwk7m_Q-3", "JXd6AV4oR1WMUbYQygArcw-5", "unknownMessageId");
+      MessageDAO dao = new MessageDAOImpl(new BasicDataSourceConnectionProvider(ds));
+      int count = dao.messagesDelivered("i26u1lmv7uc", "computer-3", messageIds);
+      assertEquals("Non matching message count", 2, count);
+    } finally {
+      mockUp.tearDown();
+    }
+  }
+
   @Test
   public void testMessageWakeupSent() {
     String messageId = "c126eb1ebb61126042f252b25c593c0b";
@@ -205,6 +246,91 @@ public class MessageDAOImplTest {
     assertEquals("Not expected message state", MessageEntity.MessageState.DELIVERED, state);
   }
 
+  @Test
+  public void testPersistBatch() {
+    MessageDAO dao = new MessageDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    String prefix = Long.toHexString(System.nanoTime());
+    List<MessageEntity> entities = new ArrayList<MessageEntity>();
+    for (int i = 0; i < 3; i++) {
+      entities.add(newMessage(prefix + "-" + i, "device2", MessageEntity.MessageState.DELIVERY_ATTEMPTED));
+    }
+    dao.persist(entities);
+    for (MessageEntity entity : entities) {
+      MessageEntity persisted = dao.get(entity.getMessageId(), "device2");
+      assertNotNull("Message not persisted:" + entity.getMessageId(), persisted);
+      assertEquals("Not expected message state", MessageEntity.MessageState.DELIVERY_ATTEMPTED, persisted.getState());
+      assertEquals("Not expected appId", "PrivateApp1", persisted.getAppId());
+    }
+  }
+
+  @Test
+  public void testMessagesReceivedBatch() {
+    MessageDAO dao = new MessageDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    String prefix = Long.toHexString(System.nanoTime());
+    List<MessageEntity> entities = new ArrayList<MessageEntity>();
+    List<MessageEntity> receipts = new ArrayList<MessageEntity>();
+    for (int i = 0; i < 3; i++) {
+      entities.add(newMessage(prefix + "-" + i, "device2", MessageEntity.MessageState.DELIVERY_ATTEMPTED));
+      MessageEntity receipt = new MessageEntity();
+      receipt.setMessageId(prefix + "-" + i);
+      receipt.setDeviceId("device2");
+      receipts.add(receipt);
+    }
+    dao.persist(entities);
+    dao.messagesReceived(receipts);
+    for (MessageEntity receipt : receipts) {
+      MessageEntity received = dao.get(receipt.getMessageId(), "device2");
+      assertEquals("Not expected message state", MessageEntity.MessageState.RECEIVED, received.getState());
+      assertNotNull("Ack time not set", received.getDeliveryAckAtUTC());
+    }
+  }
+
+  /**
+   * State updates queued on the writer must be applied after the queued insert of the same message.
+   */
+  @Test
+  public void testWriterAppliesStateUpdatesAfterInsert() {
+    MessageDAO dao = new MessageDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    MessageStateWriter writer = new MessageStateWriter(dao, true, 2, 50, 50L, 1000, 1000L);
+    String prefix = Long.toHexString(System.nanoTime());
+    List<String> delivered = new ArrayList<String>();
+    List<MessageEntity> wakeups = new ArrayList<MessageEntity>();
+    for (int i = 0; i < 4; i++) {
+      String messageId = prefix + "-d" + i;
+      writer.persist(newMessage(messageId, "device2", MessageEntity.MessageState.DELIVERY_ATTEMPTED));
+      delivered.add(messageId);
+    }
+    for (int i = 0; i < 4; i++) {
+      MessageEntity wakeup = newMessage(prefix + "-w" + i, "device2", MessageEntity.MessageState.WAKEUP_REQUIRED);
+      writer.persist(wakeup);
+      wakeups.add(wakeup);
+    }
+    writer.messagesDelivered("PrivateApp1", "device2", delivered);
+    writer.wakeupSent(wakeups);
+    writer.shutdown(10, TimeUnit.SECONDS);
+
+    assertEquals(0, writer.getFailedCount());
+    for (String messageId : delivered) {
+      assertEquals("Not expected message state", MessageEntity.MessageState.DELIVERED, dao.get(messageId, "device2").getState());
+    }
+    for (MessageEntity wakeup : wakeups) {
+      assertEquals("Not expected message state", MessageEntity.MessageState.WAKEUP_SENT,
+          dao.get(wakeup.getMessageId(), "device2").getState());
+    }
+  }
+
+  private static MessageEntity newMessage(String messageId, String deviceId, MessageEntity.MessageState state) {
+    String appkey = "PrivateApp1";
+    MessageEntity me = new MessageEntity();
+    me.setMessageId(messageId);
+    me.setAppId(appkey);
+    me.setFrom(new JID("login3" + JIDUtil.APP_ID_DELIMITER + appkey, "localhost", "device1").toString());
+    me.setTo(new JID("otheruser" + JIDUtil.APP_ID_DELIMITER + appkey, "localhost", deviceId).toString());
+    me.setDeviceId(deviceId);
+    me.setState(state);
+    return me;
+  }
+
 
 
   public static class CustomTimestampDataType extends AbstractDataType {
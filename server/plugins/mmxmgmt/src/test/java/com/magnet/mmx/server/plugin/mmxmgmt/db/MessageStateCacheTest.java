@@ -0,0 +1,167 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class MessageStateCacheTest {
+  private static final String APP_ID = "stateapp";
+  private static final String MESSAGE_ID = "message1";
+  private static final String DEVICE_ID = "device1";
+
+  private AtomicInteger loadCount;
+  private AtomicInteger loadedIdCount;
+  private MessageDAO messageDAO;
+
+  @Before
+  public void setup() {
+    MessageStateCache.getInstance().clear();
+    loadCount = new AtomicInteger();
+    loadedIdCount = new AtomicInteger();
+    messageDAO = new MockUp<MessageDAO>() {
+      @Mock
+      public Map<String, List<MessageEntity>> getMessages(String appId, List<String> messageIds) {
+        loadCount.incrementAndGet();
+        loadedIdCount.addAndGet(messageIds.size());
+        Map<String, List<MessageEntity>> rval = new HashMap<String, List<MessageEntity>>();
+        if (messageIds.contains(MESSAGE_ID)) {
+          MessageEntity entity = new MessageEntity();
+          entity.setAppId(appId);
+          entity.setMessageId(MESSAGE_ID);
+          entity.setDeviceId(DEVICE_ID);
+          entity.setState(MessageEntity.MessageState.WAKEUP_REQUIRED);
+          List<MessageEntity> rows = new ArrayList<MessageEntity>();
+          rows.add(entity);
+          rval.put(MESSAGE_ID, rows);
+        }
+        return rval;
+      }
+    }.getMockInstance();
+  }
+
+  @After
+  public void teardown() {
+    MessageStateCache.getInstance().clear();
+  }
+
+  @Test
+  public void testMessagesAreLoadedOnce() {
+    MessageStateCache cache = MessageStateCache.getInstance();
+    List<String> ids = Arrays.asList(MESSAGE_ID, "unknownmessage");
+    for (int i = 0; i < 10; i++) {
+      Map<String, List<MessageEntity>> messages = cache.getMessages(APP_ID, ids, messageDAO);
+      assertEquals(ids, new ArrayList<String>(messages.keySet()));
+      assertEquals(1, messages.get(MESSAGE_ID).size());
+      assertTrue(messages.get("unknownmessage").isEmpty());
+    }
+    assertEquals(1, loadCount.get());
+    assertEquals(2, loadedIdCount.get());
+
+    cache.getMessages(APP_ID, Arrays.asList(MESSAGE_ID, "message2"), messageDAO);
+    assertEquals(2, loadCount.get());
+    assertEquals(3, loadedIdCount.get());
+
+    cache.invalidate(MESSAGE_ID);
+    cache.getMessages(APP_ID, Arrays.asList(MESSAGE_ID), messageDAO);
+    assertEquals(3, loadCount.get());
+  }
+
+  @Test
+  public void testStateIsUpdatedInPlace() {
+    MessageStateCache cache = MessageStateCache.getInstance();
+    List<String> ids = Arrays.asList(MESSAGE_ID);
+    cache.getMessages(APP_ID, ids, messageDAO);
+
+    cache.updateState(MESSAGE_ID, DEVICE_ID, MessageEntity.MessageState.WAKEUP_SENT,
+        MessageStateCache.except(MessageEntity.MessageState.RECEIVED));
+    assertEquals(MessageEntity.MessageState.WAKEUP_SENT,
+        cache.getMessages(APP_ID, ids, messageDAO).get(MESSAGE_ID).get(0).getState());
+
+    cache.updateState(MESSAGE_ID, DEVICE_ID, MessageEntity.MessageState.RECEIVED, null);
+    cache.updateState(MESSAGE_ID, DEVICE_ID, MessageEntity.MessageState.DELIVERED,
+        MessageStateCache.except(MessageEntity.MessageState.RECEIVED));
+    assertEquals(MessageEntity.MessageState.RECEIVED,
+        cache.getMessages(APP_ID, ids, messageDAO).get(MESSAGE_ID).get(0).getState());
+    assertEquals(1, loadCount.get());
+  }
+
+  /**
+   * A load that races the insert of the message must not cache the empty result it read.
+   */
+  @Test
+  public void testLoadRacingInsertIsNotCached() {
+    final MessageStateCache cache = MessageStateCache.getInstance();
+    final AtomicInteger loads = new AtomicInteger();
+    MessageDAO racingDAO = new MockUp<MessageDAO>() {
+      @Mock
+      public Map<String, List<MessageEntity>> getMessages(String appId, List<String> messageIds) {
+        if (loads.incrementAndGet() == 1) {
+          // the writer inserts the message after the load read the table
+          cache.invalidate(MESSAGE_ID);
+          return new HashMap<String, List<MessageEntity>>();
+        }
+        return messageDAO.getMessages(appId, messageIds);
+      }
+    }.getMockInstance();
+    List<String> ids = Arrays.asList(MESSAGE_ID);
+
+    assertTrue(cache.getMessages(APP_ID, ids, racingDAO).get(MESSAGE_ID).isEmpty());
+    assertEquals(1, cache.getMessages(APP_ID, ids, racingDAO).get(MESSAGE_ID).size());
+    assertEquals(2, loads.get());
+    cache.getMessages(APP_ID, ids, racingDAO);
+    assertEquals(2, loads.get());
+  }
+
+  /**
+   * A load that races a state change must not cache the state it read before the change.
+   */
+  @Test
+  public void testLoadRacingStateChangeIsNotCached() {
+    final MessageStateCache cache = MessageStateCache.getInstance();
+    MessageDAO racingDAO = new MockUp<MessageDAO>() {
+      @Mock
+      public Map<String, List<MessageEntity>> getMessages(String appId, List<String> messageIds) {
+        Map<String, List<MessageEntity>> rows = messageDAO.getMessages(appId, messageIds);
+        if (loadCount.get() == 1) {
+          cache.updateState(MESSAGE_ID, DEVICE_ID, MessageEntity.MessageState.DELIVERED, null);
+        }
+        return rows;
+      }
+    }.getMockInstance();
+    List<String> ids = Arrays.asList(MESSAGE_ID);
+
+    cache.getMessages(APP_ID, ids, racingDAO);
+    cache.getMessages(APP_ID, ids, racingDAO);
+    assertEquals("stale load must not be cached", 2, loadCount.get());
+    cache.getMessages(APP_ID, ids, racingDAO);
+    assertEquals(2, loadCount.get());
+  }
+}
@@ -0,0 +1,178 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class MessageStateWriterTest {
+
+  private List<String> writes;
+  private int batchCalls;
+  private boolean failBatches;
+
+  @Before
+  public void setup() {
+    writes = Collections.synchronizedList(new ArrayList<String>());
+    batchCalls = 0;
+    failBatches = false;
+  }
+
+  private MessageDAO getMessageDAO() {
+    return new MockUp<MessageDAO>() {
+      @Mock
+      public void persist(MessageEntity entity) {
+        writes.add("INSERT:" + entity.getMessageId() + ":" + entity.getDeviceId());
+      }
+
+      @Mock
+      public void persist(List<MessageEntity> entities) {
+        batchCalls++;
+        if (failBatches) {
+          throw new DbInteractionException("batch failed");
+        }
+        for (MessageEntity entity : entities) {
+          writes.add("INSERT:" + entity.getMessageId() + ":" + entity.getDeviceId());
+        }
+      }
+
+      @Mock
+      public void messageReceived(String messageId, String deviceId) {
+        writes.add("RECEIVED:" + messageId + ":" + deviceId);
+      }
+
+      @Mock
+      public void messagesReceived(List<MessageEntity> receipts) {
+        batchCalls++;
+        if (failBatches) {
+          throw new DbInteractionException("batch failed");
+        }
+        for (MessageEntity receipt : receipts) {
+          writes.add("RECEIVED:" + receipt.getMessageId() + ":" + receipt.getDeviceId());
+        }
+      }
+
+      @Mock
+      public int messagesDelivered(String appId, String deviceId, List<String> messageIds) {
+        batchCalls++;
+        for (String messageId : messageIds) {
+          writes.add("DELIVERED:" + messageId + ":" + deviceId);
+        }
+        return messageIds.size();
+      }
+
+      @Mock
+      public void wakeupSent(List<MessageEntity> messages) {
+        batchCalls++;
+        for (MessageEntity message : messages) {
+          writes.add("WAKEUP_SENT:" + message.getMessageId() + ":" + message.getDeviceId());
+        }
+      }
+    }.getMockInstance();
+  }
+
+  private static MessageEntity entity(String messageId, String deviceId) {
+    MessageEntity entity = new MessageEntity();
+    entity.setMessageId(messageId);
+    entity.setDeviceId(deviceId);
+    entity.setAppId("app1");
+    entity.setState(MessageEntity.MessageState.DELIVERY_ATTEMPTED);
+    return entity;
+  }
+
+  @Test
+  public void testQueuedWritesAreDrainedInOrderOnShutdown() {
+    MessageStateWriter writer = new MessageStateWriter(getMessageDAO(), true, 2, 50, 20L, 1000, 100L);
+    MessageEntity entity = entity("m1", "d1");
+    writer.persist(entity);
+    // reusing the entity must not change the queued record
+    entity.setDeviceId("d2");
+    writer.persist(entity);
+    writer.messageReceived("m1", "d1");
+    writer.shutdown(10, TimeUnit.SECONDS);
+
+    assertEquals(0, writer.getPendingCount());
+    assertEquals(3, writer.getWrittenCount());
+    List<String> expected = new ArrayList<String>();
+    expected.add("INSERT:m1:d1");
+    expected.add("INSERT:m1:d2");
+    expected.add("RECEIVED:m1:d1");
+    assertEquals(expected, writes);
+  }
+
+  @Test
+  public void testWritesAreBatched() {
+    MessageStateWriter writer = new MessageStateWriter(getMessageDAO(), true, 1, 100, 200L, 1000, 100L);
+    for (int i = 0; i < 100; i++) {
+      writer.persist(entity("m" + i, "d1"));
+    }
+    writer.shutdown(10, TimeUnit.SECONDS);
+    assertEquals(100, writes.size());
+    assertTrue("Expected writes to be batched, batch calls:" + batchCalls, batchCalls < 100);
+  }
+
+  @Test
+  public void testFailedBatchIsRetriedIndividually() {
+    failBatches = true;
+    MessageStateWriter writer = new MessageStateWriter(getMessageDAO(), true, 1, 10, 20L, 1000, 100L);
+    writer.persist(entity("m1", "d1"));
+    writer.persist(entity("m2", "d1"));
+    writer.shutdown(10, TimeUnit.SECONDS);
+    assertEquals(2, writes.size());
+    assertEquals(0, writer.getFailedCount());
+  }
+
+  @Test
+  public void testStateUpdatesFollowInsert() {
+    MessageStateWriter writer = new MessageStateWriter(getMessageDAO(), true, 1, 50, 20L, 1000, 100L);
+    writer.persist(entity("m1", "d1"));
+    writer.persist(entity("m2", "d1"));
+    writer.messagesDelivered("app1", "d1", Arrays.asList("m1", "m2"));
+    writer.wakeupSent(Collections.singletonList(entity("m2", "d1")));
+    writer.shutdown(10, TimeUnit.SECONDS);
+
+    List<String> expected = new ArrayList<String>();
+    expected.add("INSERT:m1:d1");
+    expected.add("INSERT:m2:d1");
+    expected.add("DELIVERED:m1:d1");
+    expected.add("DELIVERED:m2:d1");
+    expected.add("WAKEUP_SENT:m2:d1");
+    assertEquals(expected, writes);
+  }
+
+  @Test
+  public void testSynchronousWrites() {
+    MessageStateWriter writer = new MessageStateWriter(getMessageDAO(), false, 2, 10, 20L, 1000, 100L);
+    writer.persist(entity("m1", "d1"));
+    assertEquals(1, writes.size());
+    assertEquals(0, batchCalls);
+    writer.messagesDelivered("app1", "d1", Arrays.asList("m1", "m2"));
+    assertEquals(3, writes.size());
+    assertEquals(1, batchCalls);
+  }
+}
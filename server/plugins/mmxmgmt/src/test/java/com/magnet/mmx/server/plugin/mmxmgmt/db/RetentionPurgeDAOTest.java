@@ -0,0 +1,141 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.db;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+import org.dbunit.operation.DatabaseOperation;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the chunked DELETE ... LIMIT statements used by the message retention processing.
+ * Rows dated before {@link #CUTOFF} are old; the others must never be purged.
+ */
+public class RetentionPurgeDAOTest {
+  private static final long CUTOFF = 1000L;
+  private static final List<MessageEntity.MessageState> PURGEABLE_STATES = Arrays.asList(
+      MessageEntity.MessageState.DELIVERED,
+      MessageEntity.MessageState.RECEIVED,
+      MessageEntity.MessageState.WAKEUP_TIMEDOUT);
+
+  private static BasicDataSource ds;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    ds = UnitTestDSProvider.getDataSource();
+  }
+
+  @AfterClass
+  public static void teardown() {
+    try {
+      ds.close();
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Before
+  public void loadData() throws Exception {
+    FlatXmlDataSetBuilder builder = new FlatXmlDataSetBuilder();
+    builder.setColumnSensing(true);
+    Connection setup = ds.getConnection();
+    try {
+      IDatabaseConnection con = new DatabaseConnection(setup);
+      InputStream xmlInput = RetentionPurgeDAOTest.class.getResourceAsStream("/data/retention-data-1.xml");
+      IDataSet dataSet = builder.build(xmlInput);
+      DatabaseOperation.CLEAN_INSERT.execute(con, dataSet);
+    } finally {
+      setup.close();
+    }
+  }
+
+  @Test
+  public void testPurgeMessages() throws Exception {
+    MessageDAO dao = new MessageDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    assertEquals(4, dao.purgeMessages(PURGEABLE_STATES, CUTOFF, 4));
+    assertEquals(2, dao.purgeMessages(PURGEABLE_STATES, CUTOFF, 4));
+    assertEquals(0, dao.purgeMessages(PURGEABLE_STATES, CUTOFF, 4));
+
+    assertEquals(0, count("SELECT count(*) FROM mmxMessage WHERE messageId LIKE 'old-delivered-%' OR messageId LIKE 'old-received-%'"));
+    assertEquals("other states must not be purged", 1, count("SELECT count(*) FROM mmxMessage WHERE messageId = 'old-wakeupsent-0'"));
+    assertEquals("receipts must not be purged", 3, count("SELECT count(*) FROM mmxMessage WHERE messageId LIKE 'old-receipt-%'"));
+    assertEquals("new messages must not be purged", 1, count("SELECT count(*) FROM mmxMessage WHERE messageId = 'new-delivered-0'"));
+  }
+
+  @Test
+  public void testPurgeReceipts() throws Exception {
+    MessageDAO dao = new MessageDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    assertEquals(2, dao.purgeReceipts(CUTOFF, 2));
+    assertEquals(1, dao.purgeReceipts(CUTOFF, 2));
+    assertEquals(0, dao.purgeReceipts(CUTOFF, 2));
+
+    assertEquals(0, count("SELECT count(*) FROM mmxMessage WHERE messageId LIKE 'old-receipt-%'"));
+    assertEquals("regular messages must not be purged", 1, count("SELECT count(*) FROM mmxMessage WHERE messageId = 'old-attempted-0'"));
+  }
+
+  @Test
+  public void testPurgeSentWakeups() throws Exception {
+    WakeupEntityDAO dao = new WakeupEntityDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    assertEquals(2, dao.purgeSent(CUTOFF, 2));
+    assertEquals(1, dao.purgeSent(CUTOFF, 2));
+    assertEquals(0, dao.purgeSent(CUTOFF, 2));
+
+    assertEquals(0, count("SELECT count(*) FROM mmxWakeupQueue WHERE messageId LIKE 'old-sent-%'"));
+    assertEquals("unsent wakeups must not be purged", 1, count("SELECT count(*) FROM mmxWakeupQueue WHERE messageId = 'old-unsent-0'"));
+    assertEquals("new wakeups must not be purged", 1, count("SELECT count(*) FROM mmxWakeupQueue WHERE messageId = 'new-sent-0'"));
+  }
+
+  @Test
+  public void testPurgePushMessages() throws Exception {
+    PushMessageDAO dao = new PushMessageDAOImpl(new BasicDataSourceConnectionProvider(ds));
+    assertEquals(2, dao.purgePushMessages(CUTOFF, 2));
+    assertEquals(1, dao.purgePushMessages(CUTOFF, 2));
+    assertEquals(0, dao.purgePushMessages(CUTOFF, 2));
+
+    assertEquals(0, count("SELECT count(*) FROM mmxPushMessage WHERE messageId LIKE 'old-push-%'"));
+    assertEquals("new push messages must not be purged", 1, count("SELECT count(*) FROM mmxPushMessage WHERE messageId = 'new-push-0'"));
+  }
+
+  private static int count(String sql) throws SQLException {
+    Connection con = ds.getConnection();
+    try {
+      PreparedStatement pstmt = con.prepareStatement(sql);
+      ResultSet rs = pstmt.executeQuery();
+      rs.next();
+      int count = rs.getInt(1);
+      rs.close();
+      pstmt.close();
+      return count;
+    } finally {
+      con.close();
+    }
+  }
+}
@@ -38,6 +38,7 @@ import java.util.Properties;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  */
@@ -274,6 +275,55 @@ public class TopicItemDAOImplTest {
     }
   }
 
+  @Test
+  public void testPagesWithCursor() {
+    TopicItemDAO topicItemDAO = DBTestUtil.getTopicItemDAO();
+    {
+      TopicItemCursor cursor = null;
+      for (int page = 0; page < 4; page++) {
+        List<TopicItemEntity> topicItemList = topicItemDAO.getItems(SERVICE_ID, NODE_ID, 3, null, null,
+                MMXServerConstants.SORT_ORDER_DESCENDING, cursor);
+        assertEquals(page < 3 ? 3 : 1, topicItemList.size());
+        for (int j = 0; j < topicItemList.size(); j++) {
+          TopicItemEntity entity = topicItemList.get(j);
+          assertEquals(entity.getPayload(), String.format("%03d", 10 - (page * 3 + j)));
+        }
+        cursor = TopicItemCursor.parse(TopicItemCursor.from(topicItemList.get(topicItemList.size() - 1)).toString());
+      }
+    }
+
+    {
+      TopicItemCursor cursor = null;
+      for (int page = 0; page < 2; page++) {
+        List<TopicItemEntity> topicItemList = topicItemDAO.getItems(SERVICE_ID, NODE_ID, 5, null, null,
+                MMXServerConstants.SORT_ORDER_ASCENDING, cursor);
+        assertEquals(5, topicItemList.size());
+        for (int j = 0; j < topicItemList.size(); j++) {
+          TopicItemEntity entity = topicItemList.get(j);
+          assertEquals(entity.getPayload(), String.format("%03d", page * 5 + j + 1));
+        }
+        cursor = TopicItemCursor.from(topicItemList.get(topicItemList.size() - 1));
+      }
+      assertEquals(0, topicItemDAO.getItems(SERVICE_ID, NODE_ID, 5, null, null,
+              MMXServerConstants.SORT_ORDER_ASCENDING, cursor).size());
+    }
+  }
+
+  @Test
+  public void testInvalidCursors() {
+    String[] invalid = {":item1", "000001436567890:", "item1", "abc:item1", "-000000000000010:item1"};
+    for (String cursor : invalid) {
+      try {
+        TopicItemCursor.parse(cursor);
+        fail("Expected IllegalArgumentException for cursor=" + cursor);
+      } catch (IllegalArgumentException e) {
+      }
+    }
+    TopicItemCursor cursor = TopicItemCursor.parse("000001436567890:item:1");
+    assertEquals("000001436567890", cursor.getCreationDate());
+    assertEquals("item:1", cursor.getItemId());
+  }
+
 
   @Test
   public void test() {
@@ -0,0 +1,154 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.handler;
+
+import com.magnet.mmx.protocol.Constants;
+import com.magnet.mmx.protocol.MMXStatus;
+import com.magnet.mmx.protocol.MsgAck;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageStateWriter;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXOfflineStorageUtil;
+import com.magnet.mmx.util.GsonData;
+import mockit.Mock;
+import mockit.MockUp;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ */
+public class MsgAckIQHandlerTest {
+  private static final String RECEIVER = "rcvr%i26u1lmv7uc@localhost/computer-3";
+  private static final String SENDER = "sender%i26u1lmv7uc@localhost/computer-1";
+
+  private List<String> removed;
+  private List<String> writes;
+  private int batchCalls;
+  private MockUp<MMXOfflineStorageUtil> storageMockUp;
+  private MessageStateWriter writer;
+
+  @Before
+  public void setup() {
+    removed = new ArrayList<String>();
+    writes = new ArrayList<String>();
+    batchCalls = 0;
+    storageMockUp = new MockUp<MMXOfflineStorageUtil>() {
+      @Mock
+      public void removeMessage(String username, String messageId) {
+        removed.add(username + ":" + messageId);
+      }
+
+      @Mock
+      public void removeMessages(String username, List<String> messageIds) {
+        for (String messageId : messageIds) {
+          removed.add(username + ":" + messageId);
+        }
+      }
+    };
+    MessageDAO dao = new MockUp<MessageDAO>() {
+      @Mock
+      public int messageDelivered(String appId, String deviceId, String messageId) {
+        writes.add(appId + ":" + deviceId + ":" + messageId);
+        return 1;
+      }
+
+      @Mock
+      public int messagesDelivered(String appId, String deviceId, List<String> messageIds) {
+        batchCalls++;
+        for (String messageId : messageIds) {
+          writes.add(appId + ":" + deviceId + ":" + messageId);
+        }
+        return messageIds.size();
+      }
+    }.getMockInstance();
+    writer = new MessageStateWriter(dao, false, 0, 100, 0L, 100, 0L);
+  }
+
+  @After
+  public void teardown() {
+    storageMockUp.tearDown();
+  }
+
+  @Test
+  public void testSingleAck() throws Exception {
+    IQ result = getHandler().handleIQ(buildAckIQ(new MsgAck(SENDER, RECEIVER, "msg1")));
+
+    assertEquals(IQ.Type.result, result.getType());
+    assertEquals(MsgAckIQHandler.MsgAckOperationStatusCode.DELIVERY_ACK_PROCESSED.getCode(),
+        getStatus(result).getCode());
+    assertEquals(Arrays.asList(RECEIVER + ":msg1"), removed);
+    assertEquals(Arrays.asList("i26u1lmv7uc:computer-3:msg1"), writes);
+    assertEquals(0, batchCalls);
+  }
+
+  @Test
+  public void testBatchedAck() throws Exception {
+    List<MsgAck.Item> items = new ArrayList<MsgAck.Item>();
+    items.add(new MsgAck.Item(SENDER, "msg1"));
+    items.add(new MsgAck.Item(SENDER, null));
+    items.add(new MsgAck.Item(SENDER, "msg2"));
+    IQ result = getHandler().handleIQ(buildAckIQ(new MsgAck(RECEIVER, items)));
+
+    assertEquals(IQ.Type.result, result.getType());
+    assertEquals(MsgAckIQHandler.MsgAckOperationStatusCode.DELIVERY_ACK_PROCESSED.getCode(),
+        getStatus(result).getCode());
+    assertEquals(Arrays.asList(RECEIVER + ":msg1", RECEIVER + ":msg2"), removed);
+    assertEquals(Arrays.asList("i26u1lmv7uc:computer-3:msg1", "i26u1lmv7uc:computer-3:msg2"), writes);
+    assertEquals("Expected one batch update", 1, batchCalls);
+  }
+
+  @Test
+  public void testEmptyBatchedAck() throws Exception {
+    IQ result = getHandler().handleIQ(buildAckIQ(new MsgAck(RECEIVER, new ArrayList<MsgAck.Item>())));
+
+    assertEquals(IQ.Type.result, result.getType());
+    assertEquals(0, removed.size());
+    assertEquals(0, writes.size());
+  }
+
+  private MsgAckIQHandler getHandler() {
+    return new MsgAckIQHandler("test msgack handler") {
+      @Override
+      protected MessageStateWriter getMessageStateWriter() {
+        return writer;
+      }
+    };
+  }
+
+  private static IQ buildAckIQ(MsgAck ack) {
+    DocumentFactory factory = new DocumentFactory();
+    Element element = factory.createElement(Constants.MMX, Constants.MMX_NS_MSG_ACK);
+    element.addAttribute(Constants.MMX_ATTR_COMMAND, Constants.MessageCommand.ack.toString());
+    element.setText(ack.toJson());
+
+    IQ iq = new IQ();
+    iq.setChildElement(element);
+    iq.setType(IQ.Type.set);
+    return iq;
+  }
+
+  private static MMXStatus getStatus(IQ result) {
+    return GsonData.getGson().fromJson(result.getChildElement().getText(), MMXStatus.class);
+  }
+}
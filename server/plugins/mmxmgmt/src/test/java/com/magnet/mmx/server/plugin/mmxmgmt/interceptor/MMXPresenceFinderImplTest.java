@@ -0,0 +1,142 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.interceptor;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.jivesoftware.openfire.SessionManager;
+import org.jivesoftware.openfire.session.ClientSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exercises the session lookup of MMXPresenceFinderImpl against a mocked SessionManager.
+ */
+public class MMXPresenceFinderImplTest {
+  private static final String DOMAIN = "localhost";
+
+  private Map<String, List<ClientSession>> sessions;
+  private int lookupCount;
+
+  @Before
+  public void setup() {
+    sessions = new HashMap<String, List<ClientSession>>();
+    lookupCount = 0;
+    addSession("user1%app1", "device1", true);
+    addSession("user1%app1", "device2", true);
+    addSession("user1%app1", "device3", false);
+    addSession("user2%app1", "device4", true);
+  }
+
+  private void addSession(String node, String resource, final boolean initialized) {
+    final JID address = new JID(node, DOMAIN, resource);
+    ClientSession session = new MockUp<ClientSession>() {
+      @Mock
+      public JID getAddress() {
+        return address;
+      }
+
+      @Mock
+      public boolean isInitialized() {
+        return initialized;
+      }
+    }.getMockInstance();
+    List<ClientSession> list = sessions.get(node);
+    if (list == null) {
+      list = new ArrayList<ClientSession>();
+      sessions.put(node, list);
+    }
+    list.add(session);
+  }
+
+  private MMXPresenceFinderImpl getFinder() {
+    new MockUp<SessionManager>() {
+      @Mock
+      public void $init() {
+      }
+
+      @Mock
+      public Collection<ClientSession> getSessions(String username) {
+        lookupCount++;
+        List<ClientSession> list = sessions.get(username);
+        return list != null ? list : Collections.<ClientSession>emptyList();
+      }
+    };
+    final SessionManager sessionManager = new SessionManager();
+    return new MMXPresenceFinderImpl() {
+      @Override
+      protected SessionManager getSessionManager() {
+        return sessionManager;
+      }
+    };
+  }
+
+  @Test
+  public void testGetOnlineJIDs() {
+    MMXPresenceFinderImpl finder = getFinder();
+    JID online1 = new JID("user1%app1", DOMAIN, "device1");
+    JID online2 = new JID("user1%app1", DOMAIN, "device2");
+    JID notInitialized = new JID("user1%app1", DOMAIN, "device3");
+    JID unknownDevice = new JID("user1%app1", DOMAIN, "device9");
+    JID online3 = new JID("user2%app1", DOMAIN, "device4");
+    JID noSessions = new JID("user3%app1", DOMAIN, "device5");
+    List<JID> users = new ArrayList<JID>();
+    Collections.addAll(users, online1, online2, notInitialized, unknownDevice, online3, noSessions);
+
+    Set<JID> online = finder.getOnlineJIDs(users);
+
+    assertEquals("Non matching online count", 3, online.size());
+    assertTrue(online.contains(online1));
+    assertTrue(online.contains(online2));
+    assertTrue(online.contains(online3));
+    assertFalse("Uninitialized session reported as online", online.contains(notInitialized));
+    // the sessions are looked up once per distinct user
+    assertEquals("Non matching session lookup count", 3, lookupCount);
+  }
+
+  @Test
+  public void testGetOnlineJIDsMatchesIsOnline() {
+    MMXPresenceFinderImpl finder = getFinder();
+    List<JID> users = new ArrayList<JID>();
+    for (int i = 1; i <= 5; i++) {
+      users.add(new JID("user1%app1", DOMAIN, "device" + i));
+      users.add(new JID("user2%app1", DOMAIN, "device" + i));
+    }
+    Set<JID> online = finder.getOnlineJIDs(users);
+    for (JID user : users) {
+      assertEquals("Non matching presence for:" + user, finder.isOnline(user), online.contains(user));
+    }
+  }
+
+  @Test
+  public void testGetOnlineJIDsWithNoUsers() {
+    MMXPresenceFinderImpl finder = getFinder();
+    assertTrue(finder.getOnlineJIDs(Collections.<JID>emptyList()).isEmpty());
+    assertEquals(0, lookupCount);
+  }
+}
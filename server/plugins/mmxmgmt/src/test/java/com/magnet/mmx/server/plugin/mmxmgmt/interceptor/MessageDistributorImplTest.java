@@ -36,7 +36,10 @@ import org.xmpp.packet.Presence;
 
 import java.io.InputStream;
 import java.sql.Connection;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
@@ -210,5 +213,10 @@ public class MessageDistributorImplTest {
     public boolean isOnline(JID user) {
       return true;
     }
+
+    @Override
+    public Set<JID> getOnlineJIDs(Collection<JID> users) {
+      return new HashSet<JID>(users);
+    }
   }
 }
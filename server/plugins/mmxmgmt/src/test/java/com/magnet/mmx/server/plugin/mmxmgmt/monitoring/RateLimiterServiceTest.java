@@ -14,7 +14,15 @@
  */
 package com.magnet.mmx.server.plugin.mmxmgmt.monitoring;
 
+import com.google.common.base.Ticker;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppConfigurationCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
 import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,6 +34,11 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  */
@@ -39,6 +52,25 @@ public class RateLimiterServiceTest {
   final AtomicInteger pushSuccess = new AtomicInteger(0);
   final AtomicInteger pushFailure = new AtomicInteger(0);
 
+  final AtomicLong nowNanos = new AtomicLong(0L);
+
+  @Before
+  public void setup() {
+    RateLimiterService.clear();
+    nowNanos.set(TimeUnit.HOURS.toNanos(1L));
+    RateLimiterService.setTicker(new Ticker() {
+      @Override
+      public long read() {
+        return nowNanos.get();
+      }
+    });
+  }
+
+  @After
+  public void teardown() {
+    RateLimiterService.clear();
+  }
+
   public void testMessageRatesBurst() throws Exception {
     resetCounters();
     String appId = "test";
@@ -171,6 +203,83 @@ public class RateLimiterServiceTest {
     LOGGER.trace("testMessageRates : calculatePushFailure={}, expectedPushFailure={}", getPushFailure(), expFailPercent);
   }
 
+  @Test
+  public void testAppRateOverride() throws Exception {
+    new MockUp<AppConfigurationCache>() {
+      @Mock
+      public String getString(String appId, String key) {
+        if ("limitedApp".equals(appId) && MMXConfigKeys.APP_MAX_XMPP_RATE.equals(key)) {
+          return "5";
+        }
+        return null;
+      }
+    };
+    RateLimiterDescriptor limited = new RateLimiterDescriptor(MMXServerConstants.XMPP_RATE_TYPE, "limitedApp", 1000);
+    RateLimiterDescriptor unlimited = new RateLimiterDescriptor(MMXServerConstants.XMPP_RATE_TYPE, "otherApp", -1);
+    int allowed = 0;
+    for (int i = 0; i < 50; i++) {
+      if (RateLimiterService.isAllowed(limited)) {
+        allowed++;
+      }
+      RateLimiterService.isAllowed(unlimited);
+    }
+    // the app override of 5/sec is used instead of the default rate
+    assertEquals(5, allowed);
+    assertEquals(55, RateLimiterService.getAllowedCount());
+    assertEquals(45, RateLimiterService.getRejectedCount());
+
+    // a default rate update doesn't refill the bucket of the app
+    RateLimiterService.updateRates(MMXServerConstants.XMPP_RATE_TYPE, 2000);
+    assertFalse(RateLimiterService.isAllowed(limited));
+
+    // one permit is released every 200 milliseconds
+    nowNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(200L));
+    assertTrue(RateLimiterService.isAllowed(limited));
+    assertFalse(RateLimiterService.isAllowed(limited));
+  }
+
+  @Test
+  public void testAppConfigurationChangeTask() throws Exception {
+    final String[] rate = {"5"};
+    final List<String> cleared = new ArrayList<String>();
+    new MockUp<AppConfigurationCache>() {
+      @Mock
+      public String getString(String appId, String key) {
+        if ("limitedApp".equals(appId) && MMXConfigKeys.APP_MAX_XMPP_RATE.equals(key)) {
+          return rate[0];
+        }
+        return null;
+      }
+
+      @Mock
+      public void clear(String appId, String key) {
+        cleared.add(appId + ":" + key);
+      }
+    };
+    RateLimiterDescriptor limited = new RateLimiterDescriptor(MMXServerConstants.XMPP_RATE_TYPE, "limitedApp", 1000);
+    assertEquals(5, countAllowed(limited, 50));
+
+    // the override was changed on another node
+    rate[0] = "20";
+    new RateLimiterService.AppConfigurationChangeTask("limitedApp", MMXConfigKeys.APP_MAX_XMPP_RATE).run();
+    assertEquals(1, cleared.size());
+    assertEquals("limitedApp:" + MMXConfigKeys.APP_MAX_XMPP_RATE, cleared.get(0));
+
+    // the bucket refills at the new rate of 20/sec
+    nowNanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+    assertEquals(20, countAllowed(limited, 50));
+  }
+
+  private static int countAllowed(RateLimiterDescriptor descriptor, int attempts) {
+    int allowed = 0;
+    for (int i = 0; i < attempts; i++) {
+      if (RateLimiterService.isAllowed(descriptor)) {
+        allowed++;
+      }
+    }
+    return allowed;
+  }
+
   private class StopTestTask implements Runnable {
     private final List<ScheduledFuture<?>> futuresList;
 
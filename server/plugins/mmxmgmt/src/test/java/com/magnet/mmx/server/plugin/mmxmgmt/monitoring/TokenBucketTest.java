@@ -0,0 +1,81 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.monitoring;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class TokenBucketTest {
+  private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1L);
+
+  @Test
+  public void testBurstThenSteadyRate() {
+    long now = 0L;
+    TokenBucket bucket = new TokenBucket(10, 10, now);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(bucket.tryAcquire(now));
+    }
+    assertFalse(bucket.tryAcquire(now));
+    // one permit every 100 ms
+    assertFalse(bucket.tryAcquire(now + 50 * MILLI));
+    assertTrue(bucket.tryAcquire(now + 100 * MILLI));
+    assertFalse(bucket.tryAcquire(now + 100 * MILLI));
+    assertEquals(11, bucket.getAllowedCount());
+    assertEquals(3, bucket.getRejectedCount());
+  }
+
+  @Test
+  public void testIdleBucketDoesNotExceedBurst() {
+    long now = 0L;
+    TokenBucket bucket = new TokenBucket(100, 5, now);
+    now += TimeUnit.MINUTES.toNanos(1L);
+    int allowed = 0;
+    for (int i = 0; i < 20; i++) {
+      if (bucket.tryAcquire(now)) {
+        allowed++;
+      }
+    }
+    assertEquals(5, allowed);
+  }
+
+  @Test
+  public void testRateChangeKeepsState() {
+    long now = 0L;
+    TokenBucket bucket = new TokenBucket(2, 2, now);
+    assertTrue(bucket.tryAcquire(now));
+    assertTrue(bucket.tryAcquire(now));
+    assertFalse(bucket.tryAcquire(now));
+    bucket.setRate(1000, 1);
+    // the bucket is still drained until the previously scheduled permits have elapsed
+    assertFalse(bucket.tryAcquire(now + 500 * MILLI));
+    assertTrue(bucket.tryAcquire(now + 1000 * MILLI));
+  }
+
+  @Test
+  public void testDisabledLimit() {
+    TokenBucket bucket = new TokenBucket(-1, 1, 0L);
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(bucket.tryAcquire(0L));
+    }
+    assertEquals(0, bucket.getRejectedCount());
+  }
+}
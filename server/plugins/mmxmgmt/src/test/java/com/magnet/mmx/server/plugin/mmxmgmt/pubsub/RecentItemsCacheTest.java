@@ -0,0 +1,177 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.pubsub;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.jivesoftware.openfire.pubsub.CollectionNode;
+import org.jivesoftware.openfire.pubsub.LeafNode;
+import org.jivesoftware.openfire.pubsub.Node;
+import org.jivesoftware.openfire.pubsub.PubSubService;
+import org.jivesoftware.openfire.pubsub.PublishedItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ */
+public class RecentItemsCacheTest {
+  private static final String NODE_ID = "/recentapp/*/news";
+  private static final JID PUBLISHER = new JID("publisher%recentapp@localhost");
+
+  private LeafNode node;
+  private Map<String, PublishedItem> storedItems;
+  private AtomicInteger loadCount;
+
+  @Before
+  public void setup() {
+    RecentItemsCache.getInstance().clear();
+    storedItems = new HashMap<String, PublishedItem>();
+    loadCount = new AtomicInteger();
+    final PubSubService service = new MockUp<PubSubService>() {
+      @Mock
+      public String getServiceID() {
+        return "pubsub";
+      }
+    }.getMockInstance();
+    new MockUp<Node>() {
+      @Mock
+      void $init(PubSubService service, CollectionNode parent, String nodeID, JID creator) {
+      }
+
+      @Mock
+      public String getNodeID() {
+        return NODE_ID;
+      }
+
+      @Mock
+      public PubSubService getService() {
+        return service;
+      }
+
+      @Mock
+      public boolean isPersistPublishedItems() {
+        return true;
+      }
+    };
+    new MockUp<LeafNode>() {
+      @Mock
+      void $init(PubSubService service, CollectionNode parent, String nodeID, JID creator) {
+      }
+
+      @Mock
+      public int getMaxPublishedItems() {
+        return -1;
+      }
+
+      @Mock
+      public PublishedItem getPublishedItem(String itemID) {
+        loadCount.incrementAndGet();
+        return storedItems.get(itemID);
+      }
+    };
+    node = new LeafNode(service, null, NODE_ID, PUBLISHER);
+  }
+
+  @After
+  public void teardown() {
+    RecentItemsCache.getInstance().clear();
+  }
+
+  @Test
+  public void testItemsSinceCreationAreServed() {
+    RecentItemsCache cache = RecentItemsCache.getInstance();
+    assertNull(cache.getItems(node, 10, new Date(0L)));
+    publish(1, 3);
+
+    List<PublishedItem> items = cache.getItems(node, 10, new Date(1500L));
+    assertEquals(2, items.size());
+    assertEquals("item2", items.get(0).getID());
+    assertEquals("item3", items.get(1).getID());
+
+    // older items may be in the database only, unless enough newer items are in the ring
+    assertNull(cache.getItems(node, 10, new Date(500L)));
+    items = cache.getItems(node, 2, new Date(500L));
+    assertEquals(2, items.size());
+    assertEquals("item2", items.get(0).getID());
+
+    cache.invalidate(NODE_ID);
+    assertNull(cache.getItems(node, 1, new Date(1500L)));
+  }
+
+  @Test
+  public void testEvictedItemsAreNotServed() {
+    RecentItemsCache cache = RecentItemsCache.getInstance();
+    int capacity = 10;
+    publish(1, capacity + 2);
+
+    List<PublishedItem> items = cache.getItems(node, 20, new Date(2500L));
+    assertEquals(capacity, items.size());
+    assertEquals("item3", items.get(0).getID());
+    assertEquals("item" + (capacity + 2), items.get(capacity - 1).getID());
+    assertNull(cache.getItems(node, 20, new Date(2000L)));
+  }
+
+  @Test
+  public void testItemsPublishedOnOtherNodesAreLoadedOnRead() {
+    RecentItemsCache cache = RecentItemsCache.getInstance();
+    publish(1, 1);
+    for (int i = 2; i <= 3; i++) {
+      cache.itemPublishedLocal(NODE_ID, "item" + i, i * 1000L);
+    }
+    // item3 isn't in the database yet
+    storedItems.put("item2", new PublishedItem(node, PUBLISHER, "item2", new Date(2000L)));
+    assertNull(cache.getItems(node, 10, new Date(1000L)));
+
+    storedItems.put("item3", new PublishedItem(node, PUBLISHER, "item3", new Date(3000L)));
+    List<PublishedItem> items = cache.getItems(node, 10, new Date(1000L));
+    assertEquals(3, items.size());
+    assertEquals("item1", items.get(0).getID());
+    assertEquals("item3", items.get(2).getID());
+    int loads = loadCount.get();
+
+    // loaded items are kept
+    assertEquals(3, cache.getItems(node, 10, new Date(1000L)).size());
+    assertEquals(loads, loadCount.get());
+  }
+
+  @Test
+  public void testReplacedItemIsNotServed() {
+    RecentItemsCache cache = RecentItemsCache.getInstance();
+    cache.itemPublishedLocal(NODE_ID, "item1", 1000L);
+    // the stored item was replaced by a newer publish that wasn't seen yet
+    storedItems.put("item1", new PublishedItem(node, PUBLISHER, "item1", new Date(5000L)));
+    assertNull(cache.getItems(node, 10, new Date(1000L)));
+  }
+
+  private void publish(int first, int last) {
+    List<PublishedItem> items = new ArrayList<PublishedItem>();
+    for (int i = first; i <= last; i++) {
+      items.add(new PublishedItem(node, PUBLISHER, "item" + i, new Date(i * 1000L)));
+    }
+    RecentItemsCache.getInstance().itemsPublished(node, items);
+  }
+}
@@ -0,0 +1,175 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.pubsub;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.jivesoftware.openfire.pubsub.Node;
+import org.jivesoftware.openfire.pubsub.PubSubService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class TopicIndexTest {
+
+  @Before
+  public void setup() {
+    final PubSubService service = new MockUp<PubSubService>() {
+      @Mock
+      public Collection<Node> getNodes() {
+        return new ArrayList<Node>();
+      }
+
+      @Mock
+      public Node getNode(String nodeId) {
+        return null;
+      }
+    }.getMockInstance();
+    new MockUp<TopicIndex>() {
+      @Mock
+      PubSubService getPubSubService() {
+        return service;
+      }
+    };
+    TopicIndex.getInstance().rebuild();
+  }
+
+  @After
+  public void teardown() {
+    TopicIndex.getInstance().clear();
+  }
+
+  @Test
+  public void testAppNodes() {
+    TopicIndex index = TopicIndex.getInstance();
+    index.nodeCreated("/app1/*/sports");
+    index.nodeCreated("/app1/*/sports/soccer");
+    index.nodeCreated("/app1/*/sportsnews");
+    index.nodeCreated("/app2/*/sports");
+    // the app root node is not indexed
+    index.nodeCreated("app1");
+
+    assertEquals(2, index.getAppCount());
+    assertEquals(Arrays.asList("/app1/*/sports", "/app1/*/sports/soccer", "/app1/*/sportsnews"),
+        new ArrayList<String>(index.getAppNodeIds("app1")));
+    SortedSet<String> sports = index.getAppNodeIds("app1", "/app1/*/sports/");
+    assertEquals(1, sports.size());
+    assertEquals("/app1/*/sports/soccer", sports.first());
+    assertTrue(index.getAppNodeIds("app3").isEmpty());
+
+    // the descendants that were deleted with the collection are removed too
+    index.nodeDeleted("/app1/*/sports");
+    assertEquals(Arrays.asList("/app1/*/sportsnews"), new ArrayList<String>(index.getAppNodeIds("app1")));
+  }
+
+  @Test
+  public void testSubscriptions() {
+    TopicIndex index = TopicIndex.getInstance();
+    JID user1 = new JID("user1%app1", "localhost", "device1");
+    JID user2 = new JID("user2%app1", "localhost", null);
+    index.nodeCreated("/app1/*/a");
+    index.nodeCreated("/app1/*/b");
+    index.nodeCreated("/app2/*/a");
+    index.subscribed("/app1/*/a", user1);
+    index.subscribed("/app1/*/b", user1.asBareJID());
+    index.subscribed("/app2/*/a", user1);
+    index.subscribed("/app1/*/b", user2);
+
+    assertEquals(Arrays.asList("/app1/*/a", "/app1/*/b"),
+        new ArrayList<String>(index.getSubscribedNodeIds("app1", user1)));
+    assertEquals(Arrays.asList("/app2/*/a"),
+        new ArrayList<String>(index.getSubscribedNodeIds("app2", user1)));
+    assertEquals(2, index.getSubscriptionOwnerCount());
+
+    // the node no longer exists so the subscription is gone
+    index.unsubscribed("/app1/*/a", user1);
+    assertEquals(Arrays.asList("/app1/*/b"),
+        new ArrayList<String>(index.getSubscribedNodeIds("app1", user1)));
+
+    index.nodeDeleted("/app1/*/b");
+    assertTrue(index.getSubscribedNodeIds("app1", user1).isEmpty());
+    assertTrue(index.getSubscribedNodeIds("app1", user2).isEmpty());
+    assertEquals(1, index.getSubscriptionOwnerCount());
+  }
+
+  /**
+   * Concurrent subscribe and unsubscribe of the same owner must not lose a subscription to a set
+   * that was removed from the index.
+   */
+  @Test
+  public void testConcurrentSubscriptionUpdates() throws Exception {
+    final TopicIndex index = TopicIndex.getInstance();
+    final String owner = "user1%app1@localhost";
+    final JID ownerJID = new JID(owner);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger lost = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final String nodeId = "/app1/*/topic" + t;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < 20000; i++) {
+            index.addSubscriptionLocal(nodeId, owner);
+            // only this thread removes the subscription so it must be visible now
+            if (!index.getSubscribedNodeIds("app1", ownerJID).contains(nodeId)) {
+              lost.incrementAndGet();
+            }
+            index.removeSubscriptionLocal(nodeId, owner);
+          }
+          index.addSubscriptionLocal(nodeId, owner);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals("Subscriptions added to a removed set", 0, lost.get());
+    assertEquals(Arrays.asList("/app1/*/topic0", "/app1/*/topic1", "/app1/*/topic2", "/app1/*/topic3"),
+        new ArrayList<String>(index.getSubscribedNodeIds("app1", ownerJID)));
+  }
+
+  @Test
+  public void testGetAppId() {
+    assertEquals("app1", TopicIndex.getAppId("/app1/*/topic"));
+    assertEquals("app1", TopicIndex.getAppId("/app1/user1/topic"));
+    assertNull(TopicIndex.getAppId("app1"));
+    assertNull(TopicIndex.getAppId(""));
+    assertNull(TopicIndex.getAppId(null));
+  }
+}
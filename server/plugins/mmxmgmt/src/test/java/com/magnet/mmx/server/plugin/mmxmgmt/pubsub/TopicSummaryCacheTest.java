@@ -0,0 +1,130 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.pubsub;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class TopicSummaryCacheTest {
+  private static final String NODE_ID = "/summaryapp/*/news";
+  private static final String EMPTY_NODE_ID = "/summaryapp/*/empty";
+
+  private AtomicInteger loadedIdCount;
+  private TopicSummaryCache.Loader loader;
+
+  @Before
+  public void setup() {
+    TopicSummaryCache.getInstance().clear();
+    loadedIdCount = new AtomicInteger();
+    loader = new TopicSummaryCache.Loader() {
+      @Override
+      public Map<String, TopicSummaryCache.Summary> load(List<String> nodeIds) {
+        loadedIdCount.addAndGet(nodeIds.size());
+        Map<String, TopicSummaryCache.Summary> result = new HashMap<String, TopicSummaryCache.Summary>();
+        if (nodeIds.contains(NODE_ID)) {
+          result.put(NODE_ID, new TopicSummaryCache.Summary(5, 4, new Date(1000L)));
+        }
+        return result;
+      }
+    };
+  }
+
+  @After
+  public void teardown() {
+    TopicSummaryCache.getInstance().clear();
+  }
+
+  @Test
+  public void testSummariesAreLoadedOnce() {
+    TopicSummaryCache cache = TopicSummaryCache.getInstance();
+    List<String> nodeIds = Arrays.asList(NODE_ID, EMPTY_NODE_ID);
+    for (int i = 0; i < 10; i++) {
+      Map<String, TopicSummaryCache.Summary> summaries = cache.getSummaries(nodeIds, loader);
+      assertEquals(4, summaries.get(NODE_ID).getCount());
+      assertEquals(new Date(1000L), summaries.get(NODE_ID).getLastPubTime());
+      assertEquals(0, summaries.get(EMPTY_NODE_ID).getCount());
+      assertNull(summaries.get(EMPTY_NODE_ID).getLastPubTime());
+    }
+    assertEquals(2, loadedIdCount.get());
+
+    cache.invalidate(NODE_ID);
+    cache.getSummaries(nodeIds, loader);
+    assertEquals(3, loadedIdCount.get());
+  }
+
+  @Test
+  public void testSummaryIsMaintained() {
+    TopicSummaryCache cache = TopicSummaryCache.getInstance();
+    List<String> nodeIds = Arrays.asList(NODE_ID, EMPTY_NODE_ID);
+    cache.getSummaries(nodeIds, loader);
+
+    cache.itemsPublished(NODE_ID, 3, 5, new Date(2000L));
+    cache.itemsPublished(EMPTY_NODE_ID, 2, -1, new Date(3000L));
+    Map<String, TopicSummaryCache.Summary> summaries = cache.getSummaries(nodeIds, loader);
+    // capped by the max items of the node
+    assertEquals(5, summaries.get(NODE_ID).getCount());
+    assertEquals(new Date(2000L), summaries.get(NODE_ID).getLastPubTime());
+    assertEquals(2, summaries.get(EMPTY_NODE_ID).getCount());
+    assertEquals(new Date(3000L), summaries.get(EMPTY_NODE_ID).getLastPubTime());
+
+    cache.itemsPurged(NODE_ID);
+    summaries = cache.getSummaries(nodeIds, loader);
+    assertEquals(0, summaries.get(NODE_ID).getCount());
+    assertNull(summaries.get(NODE_ID).getLastPubTime());
+    assertEquals(2, loadedIdCount.get());
+  }
+
+  @Test
+  public void testTopicUpdateTaskAppliesSummaryUpdates() {
+    TopicSummaryCache cache = TopicSummaryCache.getInstance();
+    List<String> nodeIds = Arrays.asList(NODE_ID, EMPTY_NODE_ID);
+    cache.getSummaries(nodeIds, loader);
+
+    TopicUpdateTask update = new TopicUpdateTask();
+    assertTrue(update.isEmpty());
+    // items that replaced existing items only move the publish time
+    update.itemsPublished(NODE_ID, 0, 5, new Date(2000L));
+    update.itemsPublished(EMPTY_NODE_ID, 1, -1, new Date(3000L));
+    assertFalse(update.isEmpty());
+    Map<String, TopicSummaryCache.Summary> summaries = cache.getSummaries(nodeIds, loader);
+    assertEquals(4, summaries.get(NODE_ID).getCount());
+    assertEquals(new Date(2000L), summaries.get(NODE_ID).getLastPubTime());
+    assertEquals(1, summaries.get(EMPTY_NODE_ID).getCount());
+
+    update = new TopicUpdateTask();
+    update.itemsPurged(NODE_ID);
+    update.invalidateSummary(EMPTY_NODE_ID);
+    summaries = cache.getSummaries(nodeIds, loader);
+    assertEquals(0, summaries.get(NODE_ID).getCount());
+    assertEquals(0, summaries.get(EMPTY_NODE_ID).getCount());
+    // only the invalidated node is reloaded
+    assertEquals(3, loadedIdCount.get());
+  }
+}
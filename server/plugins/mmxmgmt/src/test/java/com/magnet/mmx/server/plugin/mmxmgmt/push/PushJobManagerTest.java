@@ -0,0 +1,149 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.push;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ */
+public class PushJobManagerTest {
+  private static final String APP_ID = "pushjobapp";
+
+  private final AtomicLong nowNanos = new AtomicLong();
+  private final List<Runnable> queued = new ArrayList<Runnable>();
+  private boolean reject;
+  private PushJobManager manager;
+
+  @Before
+  public void setUp() {
+    Ticker ticker = new Ticker() {
+      @Override
+      public long read() {
+        return nowNanos.get();
+      }
+    };
+    manager = new PushJobManager(1, ticker) {
+      @Override
+      protected Executor getExecutor() {
+        return new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            if (reject) {
+              throw new RejectedExecutionException("saturated");
+            }
+            queued.add(command);
+          }
+        };
+      }
+    };
+  }
+
+  @Test
+  public void testActiveJobIsNotExpired() {
+    final PushJob job = new PushJob("job1", APP_ID);
+    manager.submit(job, new Runnable() {
+      @Override
+      public void run() {
+        advanceMinutes(5);
+        assertSame(job, manager.getJob(APP_ID, "job1"));
+      }
+    });
+    advanceMinutes(5);
+    assertSame("queued job must not expire", job, manager.getJob(APP_ID, "job1"));
+    assertEquals(PushJob.State.QUEUED, job.getState());
+
+    queued.get(0).run();
+    assertEquals(PushJob.State.COMPLETED, job.getState());
+    assertSame(job, manager.getJob(APP_ID, "job1"));
+    assertEquals(1, manager.getJobCount());
+  }
+
+  @Test
+  public void testDoneJobExpires() {
+    PushJob job = new PushJob("job2", APP_ID);
+    manager.submit(job, new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+    queued.get(0).run();
+    assertNotNull(manager.getJob(APP_ID, "job2"));
+    advanceMinutes(2);
+    assertNull("done job must expire after the retention", manager.getJob(APP_ID, "job2"));
+  }
+
+  @Test
+  public void testFailedJob() {
+    PushJob job = new PushJob("job3", APP_ID);
+    manager.submit(job, new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("push failed");
+      }
+    });
+    queued.get(0).run();
+    assertEquals(PushJob.State.FAILED, job.getState());
+    assertEquals("push failed", job.getError());
+    assertSame(job, manager.getJob(APP_ID, "job3"));
+  }
+
+  @Test
+  public void testRejectedJobIsRemoved() {
+    reject = true;
+    PushJob job = new PushJob("job4", APP_ID);
+    try {
+      manager.submit(job, new Runnable() {
+        @Override
+        public void run() {
+        }
+      });
+      fail("Expected RejectedExecutionException");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertNull(manager.getJob(APP_ID, "job4"));
+    assertEquals(0, manager.getJobCount());
+  }
+
+  @Test
+  public void testJobOfOtherApp() {
+    manager.submit(new PushJob("job5", APP_ID), new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+    assertNull(manager.getJob("otherapp", "job5"));
+    assertNotNull(manager.getJob(APP_ID, "job5"));
+  }
+
+  private void advanceMinutes(int minutes) {
+    nowNanos.addAndGet(TimeUnit.MINUTES.toNanos(minutes));
+  }
+}
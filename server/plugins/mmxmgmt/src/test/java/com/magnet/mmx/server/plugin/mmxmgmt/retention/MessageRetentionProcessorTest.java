@@ -0,0 +1,196 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.retention;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.PushMessageDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfigKeys;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ */
+public class MessageRetentionProcessorTest {
+  private static final long NOW = 1440000000000L;
+
+  @Test
+  public void testPurgeStopsOnPartialChunk() {
+    final int[] chunks = {100, 100, 37, 100};
+    final int[] calls = {0};
+    int total = MessageRetentionProcessor.purge(new MessageRetentionProcessor.ChunkPurger() {
+      @Override
+      public int purgeChunk() {
+        return chunks[calls[0]++];
+      }
+    }, 100, 10);
+    assertEquals(237, total);
+    assertEquals(3, calls[0]);
+  }
+
+  @Test
+  public void testPurgeStopsAtMaxChunks() {
+    final int[] calls = {0};
+    int total = MessageRetentionProcessor.purge(new MessageRetentionProcessor.ChunkPurger() {
+      @Override
+      public int purgeChunk() {
+        calls[0]++;
+        return 50;
+      }
+    }, 50, 4);
+    assertEquals(200, total);
+    assertEquals(4, calls[0]);
+  }
+
+  @Test
+  public void testRunPurgesAllTables() {
+    new MockUp<MMXConfiguration>() {
+      @Mock
+      public int getInt(String key, int defaultValue) {
+        if (MMXConfigKeys.RETENTION_CHUNK_SIZE.equals(key)) {
+          return 10;
+        }
+        if (MMXConfigKeys.RETENTION_MESSAGE_DAYS.equals(key)) {
+          return 7;
+        }
+        return defaultValue;
+      }
+
+      @Mock
+      public boolean getBoolean(String key, boolean defaultValue) {
+        if (MMXConfigKeys.RETENTION_ENABLED.equals(key)) {
+          return true;
+        }
+        return defaultValue;
+      }
+    };
+    final long expectedCutoff = NOW / 1000L - TimeUnit.DAYS.toSeconds(7);
+    final List<Long> cutoffs = new ArrayList<Long>();
+    final MessageDAO messageDAO = new MockUp<MessageDAO>() {
+      int remaining = 25;
+
+      @Mock
+      public int purgeMessages(List<MessageEntity.MessageState> states, long olderThanUTC, int maxCount) {
+        assertTrue(states.contains(MessageEntity.MessageState.DELIVERED));
+        assertTrue(!states.contains(MessageEntity.MessageState.WAKEUP_SENT));
+        cutoffs.add(olderThanUTC);
+        int count = Math.min(remaining, maxCount);
+        remaining -= count;
+        return count;
+      }
+
+      @Mock
+      public int purgeReceipts(long olderThanUTC, int maxCount) {
+        cutoffs.add(olderThanUTC);
+        return 3;
+      }
+    }.getMockInstance();
+    final WakeupEntityDAO wakeupEntityDAO = new MockUp<WakeupEntityDAO>() {
+      @Mock
+      public int purgeSent(long olderThanUTC, int maxCount) {
+        cutoffs.add(olderThanUTC);
+        return 0;
+      }
+    }.getMockInstance();
+    final PushMessageDAO pushMessageDAO = new MockUp<PushMessageDAO>() {
+      @Mock
+      public int purgePushMessages(long olderThanUTC, int maxCount) {
+        cutoffs.add(olderThanUTC);
+        return 4;
+      }
+    }.getMockInstance();
+
+    long totalBefore = MessageRetentionProcessor.getTotalPurgeCount();
+    MessageRetentionProcessor processor = new MessageRetentionProcessor(null) {
+      @Override
+      protected boolean canExecute() {
+        return true;
+      }
+
+      @Override
+      protected long currentTimeMillis() {
+        return NOW;
+      }
+
+      @Override
+      public MessageDAO getMessageDAO() {
+        return messageDAO;
+      }
+
+      @Override
+      public WakeupEntityDAO getWakeupEntityDAO() {
+        return wakeupEntityDAO;
+      }
+
+      @Override
+      public PushMessageDAO getPushMessageDAO() {
+        return pushMessageDAO;
+      }
+    };
+    processor.run();
+
+    assertEquals(25, MessageRetentionProcessor.getLastRunMessageCount());
+    assertEquals(3, MessageRetentionProcessor.getLastRunReceiptCount());
+    assertEquals(0, MessageRetentionProcessor.getLastRunWakeupCount());
+    assertEquals(4, MessageRetentionProcessor.getLastRunPushMessageCount());
+    assertEquals(totalBefore + 32, MessageRetentionProcessor.getTotalPurgeCount());
+    assertEquals(6, cutoffs.size());
+    for (Long cutoff : cutoffs) {
+      assertEquals(expectedCutoff, cutoff.longValue());
+    }
+  }
+
+  @Test
+  public void testRunIsDisabledByDefault() {
+    new MockUp<MMXConfiguration>() {
+      @Mock
+      public boolean getBoolean(String key, boolean defaultValue) {
+        return defaultValue;
+      }
+    };
+    final MessageDAO messageDAO = new MockUp<MessageDAO>() {
+      @Mock
+      public int purgeMessages(List<MessageEntity.MessageState> states, long olderThanUTC, int maxCount) {
+        fail("Retention must be enabled explicitly");
+        return 0;
+      }
+    }.getMockInstance();
+    long totalBefore = MessageRetentionProcessor.getTotalPurgeCount();
+    MessageRetentionProcessor processor = new MessageRetentionProcessor(null) {
+      @Override
+      protected boolean canExecute() {
+        return true;
+      }
+
+      @Override
+      public MessageDAO getMessageDAO() {
+        return messageDAO;
+      }
+    };
+    processor.run();
+    assertEquals(totalBefore, MessageRetentionProcessor.getTotalPurgeCount());
+  }
+}
@@ -0,0 +1,71 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.util;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class HashedTimingWheelTest {
+  private static final long START = 1440000000000L;
+
+  @Test
+  public void testItemsAreNotReturnedBeforeDeadline() {
+    HashedTimingWheel<String> wheel = new HashedTimingWheel<String>(10, TimeUnit.SECONDS, 8, START);
+    wheel.schedule("a", START + 25000L);
+    wheel.schedule("b", START + 5000L);
+    assertEquals(2, wheel.size());
+
+    assertTrue(wheel.advance(START + 4000L).isEmpty());
+    assertEquals(Collections.singletonList("b"), wheel.advance(START + 10000L));
+    assertTrue(wheel.advance(START + 24000L).isEmpty());
+    assertEquals(Collections.singletonList("a"), wheel.advance(START + 30000L));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testDeadlinesBeyondOneRevolution() {
+    // 8 ticks of one second per revolution
+    HashedTimingWheel<String> wheel = new HashedTimingWheel<String>(1, TimeUnit.SECONDS, 8, START);
+    wheel.schedule("near", START + 3000L);
+    wheel.schedule("far", START + 11000L);
+    wheel.schedule("farther", START + 19000L);
+
+    assertEquals(Collections.singletonList("near"), wheel.advance(START + 3000L));
+    assertTrue(wheel.advance(START + 10000L).isEmpty());
+    assertEquals(Collections.singletonList("far"), wheel.advance(START + 11000L));
+    // skipping more than a revolution returns everything that is due
+    assertEquals(Collections.singletonList("farther"), wheel.advance(START + 60000L));
+  }
+
+  @Test
+  public void testPastDeadlinesAreDueOnNextAdvance() {
+    HashedTimingWheel<String> wheel = new HashedTimingWheel<String>(1, TimeUnit.SECONDS, 16, START);
+    wheel.advance(START + 5000L);
+    wheel.schedule("late", START + 1000L);
+    wheel.schedule("before start", START - 1000L);
+    List<String> due = wheel.advance(START + 6000L);
+    assertEquals(2, due.size());
+    assertTrue(due.contains("late"));
+    assertTrue(due.contains("before start"));
+  }
+}
@@ -0,0 +1,131 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ */
+public class InstrumentedThreadPoolExecutorTest {
+
+  @Test
+  public void testLatencyIsRecorded() throws Exception {
+    InstrumentedThreadPoolExecutor executor = MMXExecutors.create("test-latency", 2, 2, 10,
+        InstrumentedThreadPoolExecutor.RejectionPolicy.ABORT);
+    final CountDownLatch latch = new CountDownLatch(4);
+    for (int i = 0; i < 4; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(20L);
+          } catch (InterruptedException e) {
+          }
+          latch.countDown();
+        }
+      });
+    }
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(4, executor.getExecutionHistogram().getCount());
+    assertEquals(4, executor.getWaitHistogram().getCount());
+    assertTrue(executor.getExecutionHistogram().getPercentileMillis(50) >= 10);
+    assertTrue(executor.getExecutionHistogram().getMaxMillis() >= 20);
+  }
+
+  @Test
+  public void testBoundedQueueRejects() throws Exception {
+    InstrumentedThreadPoolExecutor executor = MMXExecutors.create("test-abort", 1, 1, 1,
+        InstrumentedThreadPoolExecutor.RejectionPolicy.ABORT);
+    final CountDownLatch block = new CountDownLatch(1);
+    Runnable blocking = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          block.await();
+        } catch (InterruptedException e) {
+        }
+      }
+    };
+    executor.execute(blocking);
+    executor.execute(blocking);
+    try {
+      executor.execute(blocking);
+      fail("Expected the task to be rejected");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(1, executor.getRejectedCount());
+    assertEquals(1, executor.getQueueSize());
+    block.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCallerRunsWhenSaturated() throws Exception {
+    InstrumentedThreadPoolExecutor executor = MMXExecutors.create("test-callerruns", 1, 1, 1,
+        InstrumentedThreadPoolExecutor.RejectionPolicy.CALLER_RUNS);
+    final CountDownLatch block = new CountDownLatch(1);
+    final AtomicInteger callerRuns = new AtomicInteger();
+    final Thread caller = Thread.currentThread();
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        if (Thread.currentThread() == caller) {
+          callerRuns.incrementAndGet();
+          return;
+        }
+        try {
+          block.await();
+        } catch (InterruptedException e) {
+        }
+      }
+    };
+    executor.execute(task);
+    executor.execute(task);
+    executor.execute(task);
+    assertEquals(1, callerRuns.get());
+    assertEquals(1, executor.getRejectedCount());
+    block.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testHistogramPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(1);
+    }
+    histogram.record(3000);
+    assertEquals(100, histogram.getCount());
+    assertEquals(1, histogram.getPercentileMillis(50));
+    assertEquals(1, histogram.getPercentileMillis(99));
+    assertEquals(3000, histogram.getPercentileMillis(100));
+    assertEquals(3000, histogram.getMaxMillis());
+  }
+}
@@ -0,0 +1,125 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.util;
+
+import com.magnet.mmx.protocol.PushType;
+import com.magnet.mmx.server.common.data.AppEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppConfigurationCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DbInteractionException;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.wakeup.WakeupMuteTracker;
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ */
+public class WakeupUtilTest {
+  private List<WakeupEntity> offered;
+  private boolean failOffer;
+  private List<MockUp<?>> mockUps;
+
+  @Before
+  public void setup() {
+    WakeupMuteTracker.getInstance().clear();
+    offered = new ArrayList<WakeupEntity>();
+    failOffer = false;
+    final WakeupEntityDAO dao = new MockUp<WakeupEntityDAO>() {
+      @Mock
+      public void offer(WakeupEntity entity) {
+        offer(Arrays.asList(entity));
+      }
+
+      @Mock
+      public void offer(List<WakeupEntity> entities) {
+        if (failOffer) {
+          throw new DbInteractionException("insert failed");
+        }
+        offered.addAll(entities);
+      }
+    }.getMockInstance();
+    mockUps = new ArrayList<MockUp<?>>();
+    mockUps.add(new MockUp<DBUtil>() {
+      @Mock
+      public WakeupEntityDAO getWakeupEntityDAO() {
+        return dao;
+      }
+    });
+    mockUps.add(new MockUp<AppConfigurationCache>() {
+      @Mock
+      public void $init() {
+      }
+
+      @Mock
+      public String getString(String appId, String key) {
+        return "30";
+      }
+    });
+  }
+
+  @After
+  public void teardown() {
+    for (MockUp<?> mockUp : mockUps) {
+      mockUp.tearDown();
+    }
+    WakeupMuteTracker.getInstance().clear();
+  }
+
+  @Test
+  public void testFailedOfferDoesNotMute() {
+    AppEntity app = new AppEntity();
+    app.setAppId("app1");
+    List<DeviceEntity> devices = Arrays.asList(newDevice("device1"), newDevice("device2"));
+
+    failOffer = true;
+    try {
+      WakeupUtil.queueWakeups(app, devices, "msg1");
+      fail("Expected the insert failure");
+    } catch (DbInteractionException e) {
+      // expected
+    }
+    assertTrue(offered.isEmpty());
+
+    failOffer = false;
+    WakeupUtil.queueWakeups(app, devices, "msg2");
+    assertEquals(2, offered.size());
+
+    // the queued wakeups mute the devices
+    WakeupUtil.queueWakeups(app, devices, "msg3");
+    assertEquals(2, offered.size());
+    assertFalse(WakeupMuteTracker.getInstance().tryAcquire("app1", "device1", 30));
+  }
+
+  private static DeviceEntity newDevice(String deviceId) {
+    DeviceEntity device = new DeviceEntity();
+    device.setDeviceId(deviceId);
+    device.setClientToken("token-" + deviceId);
+    device.setTokenType(PushType.GCM);
+    return device;
+  }
+}
@@ -0,0 +1,227 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.wakeup;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupSentMessage;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXServerConstants;
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ */
+public class MessageDeadlineSchedulerTest {
+  private static final long NOW_UTC = 1440000000L;
+  private static final int TIMEOUT_SECONDS = 3600;
+  private static final int RETRY_SECONDS = 600;
+
+  private List<MessageEntity> timedOut;
+  private List<MessageEntity> stateChecked;
+  private List<WakeupSentMessage> stored;
+  private RuntimeException timeoutFailure;
+  private MessageDAO messageDAO;
+  private MessageDeadlineScheduler scheduler;
+
+  @Before
+  public void setup() {
+    timedOut = new ArrayList<MessageEntity>();
+    stateChecked = new ArrayList<MessageEntity>();
+    stored = new ArrayList<WakeupSentMessage>();
+    messageDAO = new MockUp<MessageDAO>() {
+      @Mock
+      public int messagesTimedOut(List<MessageEntity> messages) {
+        if (timeoutFailure != null) {
+          throw timeoutFailure;
+        }
+        timedOut.addAll(messages);
+        return messages.size();
+      }
+
+      @Mock
+      public List<WakeupSentMessage> getWakeupSentMessages() {
+        return stored;
+      }
+
+      @Mock
+      public List<MessageEntity> getMessagesInState(MessageEntity.MessageState state, List<MessageEntity> messages) {
+        stateChecked.addAll(messages);
+        // none of the messages are still in WAKEUP_SENT state
+        return Collections.emptyList();
+      }
+    }.getMockInstance();
+    scheduler = new MessageDeadlineScheduler() {
+      @Override
+      protected MessageDAO getMessageDAO() {
+        return messageDAO;
+      }
+
+      @Override
+      protected long currentTimeMillis() {
+        return NOW_UTC * 1000L;
+      }
+
+      @Override
+      protected int getTimeoutSeconds() {
+        return TIMEOUT_SECONDS;
+      }
+
+      @Override
+      protected int getRetryIntervalSeconds() {
+        return RETRY_SECONDS;
+      }
+
+      @Override
+      protected int getRetryCount() {
+        return 1;
+      }
+    };
+  }
+
+  @Test
+  public void testWakeupSentRegistersRetryAndTimeout() {
+    scheduler.loadIfNeeded();
+    WakeupEntity wakeup = new WakeupEntity();
+    wakeup.setAppId("app1");
+    wakeup.setMessageId("m1");
+    wakeup.setDeviceId("d1");
+    wakeup.setDateCreated(NOW_UTC - 60);
+    scheduler.wakeupSent(Arrays.asList(wakeup), NOW_UTC);
+    assertEquals(2, scheduler.getDeadlineCount());
+
+    scheduler.advance((NOW_UTC + RETRY_SECONDS - 10) * 1000L);
+    assertEquals(0, stateChecked.size());
+
+    scheduler.advance((NOW_UTC + RETRY_SECONDS + 10) * 1000L);
+    assertEquals(1, stateChecked.size());
+    assertEquals("m1", stateChecked.get(0).getMessageId());
+    assertEquals(0, timedOut.size());
+
+    scheduler.advance((NOW_UTC - 60 + TIMEOUT_SECONDS + 10) * 1000L);
+    assertEquals(1, timedOut.size());
+    assertEquals("d1", timedOut.get(0).getDeviceId());
+    assertEquals(0, scheduler.getDeadlineCount());
+    assertEquals(1, scheduler.getTimedOutCount());
+  }
+
+  @Test
+  public void testLoadRebuildsDeadlinesFromDatabase() {
+    WakeupSentMessage retried = new WakeupSentMessage();
+    retried.setAppId("app1");
+    retried.setMessageId("m1");
+    retried.setDeviceId("d1");
+    retried.setQueuedAtUTC(NOW_UTC - TIMEOUT_SECONDS - 1);
+    retried.setLastWakeupSentUTC(NOW_UTC - 100);
+    retried.setWakeupCount(2);
+    WakeupSentMessage fresh = new WakeupSentMessage();
+    fresh.setAppId("app1");
+    fresh.setMessageId("m2");
+    fresh.setDeviceId("d1");
+    fresh.setQueuedAtUTC(NOW_UTC - 100);
+    fresh.setLastWakeupSentUTC(NOW_UTC - 100);
+    fresh.setWakeupCount(1);
+    stored.add(retried);
+    stored.add(fresh);
+
+    scheduler.loadIfNeeded();
+    // m1 has used up its retries and has a timeout; m2 has a retry and a timeout
+    assertEquals(3, scheduler.getDeadlineCount());
+
+    scheduler.advance(NOW_UTC * 1000L + 1);
+    assertEquals(1, timedOut.size());
+    assertEquals("m1", timedOut.get(0).getMessageId());
+
+    // loading again is a no-op until the scheduler is reset
+    scheduler.loadIfNeeded();
+    assertEquals(2, scheduler.getDeadlineCount());
+    scheduler.reset();
+    assertEquals(0, scheduler.getDeadlineCount());
+  }
+
+  @Test
+  public void testDueDeadlinesRequeuedOnException() {
+    scheduler.loadIfNeeded();
+    scheduler.wakeupSent(Arrays.asList(wakeup("m1")), NOW_UTC);
+    timeoutFailure = new IllegalStateException("connection reset");
+
+    long afterTimeout = (NOW_UTC - 60 + TIMEOUT_SECONDS + 10) * 1000L;
+    scheduler.advance(afterTimeout);
+    assertEquals(0, timedOut.size());
+    assertEquals(0, stateChecked.size());
+    assertEquals("timeout and retry must be re-queued", 2, scheduler.getDeadlineCount());
+    assertEquals(0, scheduler.getTimedOutCount());
+
+    timeoutFailure = null;
+    scheduler.advance(afterTimeout + TimeUnit.SECONDS.toMillis(MMXServerConstants.DEADLINE_WHEEL_TICK_SECONDS));
+    assertEquals(1, timedOut.size());
+    assertEquals("m1", timedOut.get(0).getMessageId());
+    assertEquals(1, stateChecked.size());
+    assertEquals(0, scheduler.getDeadlineCount());
+    assertEquals(1, scheduler.getTimedOutCount());
+  }
+
+  @Test
+  public void testLockLostDropsDeadlines() {
+    WakeupSentMessage message = new WakeupSentMessage();
+    message.setAppId("app1");
+    message.setMessageId("m2");
+    message.setDeviceId("d1");
+    message.setQueuedAtUTC(NOW_UTC - 100);
+    message.setWakeupCount(1);
+    stored.add(message);
+
+    scheduler.loadIfNeeded();
+    scheduler.wakeupSent(Arrays.asList(wakeup("m1")), NOW_UTC);
+    assertEquals(3, scheduler.getDeadlineCount());
+
+    WakeupProcessor processor = new WakeupProcessor(null) {
+      @Override
+      protected boolean canExecute() {
+        return false;
+      }
+
+      @Override
+      protected MessageDeadlineScheduler getDeadlineScheduler() {
+        return scheduler;
+      }
+    };
+    processor.run();
+    assertEquals(0, scheduler.getDeadlineCount());
+
+    // the deadlines are rebuilt from the database when the lock is acquired again
+    scheduler.loadIfNeeded();
+    assertEquals(1, scheduler.getDeadlineCount());
+  }
+
+  private static WakeupEntity wakeup(String messageId) {
+    WakeupEntity wakeup = new WakeupEntity();
+    wakeup.setAppId("app1");
+    wakeup.setMessageId(messageId);
+    wakeup.setDeviceId("d1");
+    wakeup.setDateCreated(NOW_UTC - 60);
+    return wakeup;
+  }
+}
@@ -0,0 +1,151 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.server.plugin.mmxmgmt.wakeup;
+
+import mockit.Mock;
+import mockit.MockUp;
+import org.jivesoftware.util.cache.Cache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ */
+public class WakeupMuteTrackerTest {
+  private static final long MUTE_PERIOD = TimeUnit.MINUTES.toMillis(30);
+
+  @Before
+  public void setup() {
+    WakeupMuteTracker.getInstance().clear();
+  }
+
+  @After
+  public void teardown() {
+    WakeupMuteTracker.getInstance().clear();
+  }
+
+  @Test
+  public void testBurstProducesOneWakeup() {
+    WakeupMuteTracker tracker = WakeupMuteTracker.getInstance();
+    long now = System.currentTimeMillis();
+    long mutedBefore = tracker.getMutedCount();
+    int acquired = 0;
+    for (int i = 0; i < 100; i++) {
+      if (tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now + i)) {
+        acquired++;
+      }
+    }
+    assertEquals(1, acquired);
+    assertEquals(99, tracker.getMutedCount() - mutedBefore);
+    // other devices and apps are not muted
+    assertTrue(tracker.tryAcquire("app1", "device2", MUTE_PERIOD, now));
+    assertTrue(tracker.tryAcquire("app2", "device1", MUTE_PERIOD, now));
+  }
+
+  @Test
+  public void testMutePeriodExpires() {
+    WakeupMuteTracker tracker = WakeupMuteTracker.getInstance();
+    long now = System.currentTimeMillis();
+    assertTrue(tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now));
+    assertFalse(tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now + MUTE_PERIOD - 1));
+    assertTrue(tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now + MUTE_PERIOD));
+    assertFalse(tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now + MUTE_PERIOD + 1));
+  }
+
+  @Test
+  public void testZeroMutePeriod() {
+    WakeupMuteTracker tracker = WakeupMuteTracker.getInstance();
+    long now = System.currentTimeMillis();
+    assertTrue(tracker.tryAcquire("app1", "device1", 0L, now));
+    assertTrue(tracker.tryAcquire("app1", "device1", 0L, now));
+    // the wakeups are still recorded for apps that enable the mute period later
+    assertFalse(tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now + 1));
+  }
+
+  @Test
+  public void testRecordedWakeupMutes() {
+    WakeupMuteTracker tracker = WakeupMuteTracker.getInstance();
+    tracker.record("app1", "device1");
+    assertFalse(tracker.tryAcquire("app1", "device1", 30));
+  }
+
+  @Test
+  public void testNewerClusterTimeMutes() {
+    final Map<String, Long> clusterTimes = new HashMap<String, Long>();
+    final Cache<String, Long> cache = new MockUp<Cache<String, Long>>() {
+      @Mock
+      public Long get(Object key) {
+        return clusterTimes.get(key);
+      }
+
+      @Mock
+      public Long put(String key, Long value) {
+        return clusterTimes.put(key, value);
+      }
+
+      @Mock
+      public Long remove(Object key) {
+        return clusterTimes.remove(key);
+      }
+    }.getMockInstance();
+    MockUp<WakeupMuteTracker> mockUp = new MockUp<WakeupMuteTracker>() {
+      @Mock
+      public Cache<String, Long> getClusterCache() {
+        return cache;
+      }
+    };
+    try {
+      WakeupMuteTracker tracker = WakeupMuteTracker.getInstance();
+      long now = System.currentTimeMillis() - MUTE_PERIOD;
+      assertTrue(tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now));
+      // another node queued a wakeup after the local mute period expired
+      clusterTimes.put("app1|device1", now + MUTE_PERIOD + 10);
+      assertFalse(tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now + MUTE_PERIOD + 20));
+      assertFalse(tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now + 2 * MUTE_PERIOD));
+      assertTrue(tracker.tryAcquire("app1", "device1", MUTE_PERIOD, now + 2 * MUTE_PERIOD + 10));
+      assertEquals(Long.valueOf(now + 2 * MUTE_PERIOD + 10), clusterTimes.get("app1|device1"));
+
+      tracker.release("app1", "device1");
+      assertFalse(clusterTimes.containsKey("app1|device1"));
+    } finally {
+      mockUp.tearDown();
+    }
+  }
+
+  @Test
+  public void testReleaseUnmutes() {
+    WakeupMuteTracker tracker = WakeupMuteTracker.getInstance();
+    assertTrue(tracker.tryAcquire("app1", "device1", 30));
+    assertFalse(tracker.tryAcquire("app1", "device1", 30));
+    tracker.release("app1", "device1");
+    assertTrue(tracker.tryAcquire("app1", "device1", 30));
+  }
+
+  @Test
+  public void testMutePeriodIsCappedByLifetime() {
+    WakeupMuteTracker tracker = WakeupMuteTracker.getInstance();
+    int maxMinutes = tracker.getMaxMutePeriodMinutes();
+    assertTrue(tracker.tryAcquire("app1", "device1", maxMinutes + 60));
+    assertFalse(tracker.tryAcquire("app1", "device1", maxMinutes + 60));
+  }
+}
@@ -19,6 +19,7 @@ import com.magnet.mmx.server.plugin.mmxmgmt.db.BasicDataSourceConnectionProvider
 import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAOImplTest;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageDAOImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageStateWriter;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntity;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAO;
 import com.magnet.mmx.server.plugin.mmxmgmt.db.WakeupEntityDAOImpl;
@@ -38,6 +39,7 @@ import java.sql.SQLException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -103,9 +105,12 @@ public class WakeupProcessorTest {
     processor.run();
     WakeupNotifier notifier = processor.getGCMWakeupNotifier();
 
-    int callCount =  ((StubWakeupNotifier) notifier).callCount;
+    int callCount =  ((StubWakeupNotifier) notifier).callCount.get();
+    int tokenCount =  ((StubWakeupNotifier) notifier).tokenCount.get();
 
-    assertEquals("Non matching call count", 4, callCount);
+    // all the GCM wakeups use the same api key and are sent using one multicast request
+    assertEquals("Non matching call count", 1, callCount);
+    assertEquals("Non matching token count", 4, tokenCount);
 
     WakeupEntityDAO dao = processor.getWakeupEntityDAO();
 
@@ -136,6 +141,11 @@ public class WakeupProcessorTest {
       return messageDAO;
     }
 
+    @Override
+    protected MessageStateWriter getMessageStateWriter() {
+      return new MessageStateWriter(getMessageDAO(), false, 0, 1, 0L, 1, 0L);
+    }
+
     @Override
     protected WakeupNotifier getGCMWakeupNotifier() {
       return notifier;
@@ -152,10 +162,28 @@ public class WakeupProcessorTest {
       appEntity.setAppId(appId);
       return appEntity;
     }
+
+    @Override
+    protected MessageDeadlineScheduler getDeadlineScheduler() {
+      return deadlineScheduler;
+    }
+
+    private final MessageDeadlineScheduler deadlineScheduler = new MessageDeadlineScheduler() {
+      @Override
+      protected MessageDAO getMessageDAO() {
+        return StubWakeupProcessor.this.getMessageDAO();
+      }
+
+      @Override
+      protected WakeupEntityDAO getWakeupEntityDAO() {
+        return dao;
+      }
+    };
   }
 
   public static class StubWakeupNotifier implements WakeupNotifier {
-    private int callCount = 0;
+    private AtomicInteger callCount = new AtomicInteger();
+    private AtomicInteger tokenCount = new AtomicInteger();
     @Override
     public List<NotificationResult> sendNotification(List<String> deviceTokens, String payload, NotificationSystemContext context) {
       String senderIdentifier = null;
@@ -166,15 +194,16 @@ public class WakeupProcessorTest {
       assertTrue("device tokens is empty", !deviceTokens.isEmpty());
       assertTrue("payload is not null", (payload != null && !payload.isEmpty()));
       assertNotNull("senderIdentifier is null", senderIdentifier);
+      tokenCount.addAndGet(deviceTokens.size());
 
-      List<NotificationResult> rv = Collections.singletonList(NotificationResult.DELIVERY_IN_PROGRESS_ASSUME_WILL_EVENTUALLY_DELIVER);
-      callCount ++;
+      List<NotificationResult> rv = Collections.nCopies(deviceTokens.size(), NotificationResult.DELIVERY_IN_PROGRESS_ASSUME_WILL_EVENTUALLY_DELIVER);
+      callCount.incrementAndGet();
       return rv;
     }
   }
 
   public static class StubAPNSWakeupNotifier implements WakeupNotifier {
-    private int callCount = 0;
+    private AtomicInteger callCount = new AtomicInteger();
     @Override
     public List<NotificationResult> sendNotification(List<String> deviceTokens, String payload, NotificationSystemContext context) {
       String senderIdentifier = null;
@@ -184,8 +213,8 @@ public class WakeupProcessorTest {
       assertTrue("payload is not null", (payload != null && !payload.isEmpty()));
       assertTrue("context is not APNS", correctContext);
 
-      List<NotificationResult> rv = Collections.singletonList(NotificationResult.DELIVERY_IN_PROGRESS_ASSUME_WILL_EVENTUALLY_DELIVER);
-      callCount ++;
+      List<NotificationResult> rv = Collections.nCopies(deviceTokens.size(), NotificationResult.DELIVERY_IN_PROGRESS_ASSUME_WILL_EVENTUALLY_DELIVER);
+      callCount.incrementAndGet();
       return rv;
     }
   }
@@ -0,0 +1,75 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.jmh;
+
+import mockit.MockUp;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of the benchmark jar. Accepts the standard JMH command line and always adds the
+ * GC profiler so that the allocation rate per operation is reported with every result. The forked
+ * JVMs are started with the JMockit agent used by {@link ServerStubs}.
+ */
+public class BenchmarkMain {
+
+  public static void main(String[] args) throws RunnerException {
+    CommandLineOptions commandLine;
+    try {
+      commandLine = new CommandLineOptions(args);
+    } catch (CommandLineOptionException e) {
+      System.err.println("Error parsing command line: " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+    OptionsBuilder builder = new OptionsBuilder();
+    builder.parent(commandLine).addProfiler(GCProfiler.class);
+    String agent = getJMockitAgent();
+    if (agent != null) {
+      List<String> jvmArgs = new ArrayList<String>();
+      if (commandLine.getJvmArgsAppend().hasValue()) {
+        jvmArgs.addAll(commandLine.getJvmArgsAppend().get());
+      }
+      jvmArgs.add("-javaagent:" + agent);
+      builder.jvmArgsAppend(jvmArgs.toArray(new String[jvmArgs.size()]));
+    }
+    Options options = builder.build();
+    new Runner(options).run();
+  }
+
+  /**
+   * Get the jar holding the JMockit classes. This is the benchmark jar itself when running from the
+   * shaded jar, its manifest declares the agent.
+   * @return path of the jar or null if the classes weren't loaded from a jar
+   */
+  private static String getJMockitAgent() {
+    try {
+      File location = new File(MockUp.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      return location.isFile() ? location.getAbsolutePath() : null;
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.jmh;
+
+import com.magnet.mmx.protocol.DevReg;
+import com.magnet.mmx.protocol.MsgAck;
+import com.magnet.mmx.protocol.OSType;
+import com.magnet.mmx.protocol.PushType;
+import com.magnet.mmx.util.GsonData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the JSON serialization of the protocol classes exchanged in the IQ payloads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonDataBenchmark {
+
+  private MsgAck msgAck;
+  private String msgAckJson;
+  private DevReg devReg;
+  private String devRegJson;
+
+  @Setup
+  public void setup() {
+    msgAck = new MsgAck("sender%" + ServerStubs.APP_ID + "@" + ServerStubs.DOMAIN + "/device0",
+        "receiver%" + ServerStubs.APP_ID + "@" + ServerStubs.DOMAIN + "/device1", "messageId");
+    msgAckJson = msgAck.toJson();
+    devReg = new DevReg();
+    devReg.setApiKey("apiKey");
+    devReg.setDevId("device0")
+        .setDisplayName("Benchmark device")
+        .setOsType(OSType.ANDROID.name())
+        .setOsVersion("5.1")
+        .setPushType(PushType.GCM.name())
+        .setPushToken("APA91bHun4MxP5egoKMwt2KZFBaFUH-1RYqx")
+        .setTags(Arrays.asList("tag1", "tag2"));
+    devRegJson = devReg.toJson();
+  }
+
+  @Benchmark
+  public String msgAckToJson() {
+    return GsonData.getGson().toJson(msgAck);
+  }
+
+  @Benchmark
+  public MsgAck msgAckFromJson() {
+    return GsonData.getGson().fromJson(msgAckJson, MsgAck.class);
+  }
+
+  @Benchmark
+  public String devRegToJson() {
+    return GsonData.getGson().toJson(devReg);
+  }
+
+  @Benchmark
+  public DevReg devRegFromJson() {
+    return DevReg.fromJson(devRegJson);
+  }
+}
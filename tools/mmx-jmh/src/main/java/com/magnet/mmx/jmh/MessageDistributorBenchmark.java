@@ -0,0 +1,66 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.jmh;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.DistributionContextImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MessageDistributor;
+import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MessageDistributorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmpp.packet.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of distributing a message to all the online devices of a user, including the message
+ * copies handed to the router.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageDistributorBenchmark {
+
+  @Param({"1", "5", "20"})
+  public int devicesPerUser;
+
+  private MessageDistributor distributor;
+  private MessageDistributor.DistributionContext context;
+  private Message message;
+
+  @Setup
+  public void setup() {
+    ServerStubs.install(devicesPerUser);
+    distributor = new MessageDistributorImpl();
+    message = ServerStubs.buildMessage("distributedMessage", null);
+    context = new DistributionContextImpl("receiver", ServerStubs.APP_ID, ServerStubs.DOMAIN, message.getID());
+  }
+
+  @Benchmark
+  public MessageDistributor.DistributionResult distribute() {
+    return distributor.distribute(message, context);
+  }
+}
@@ -0,0 +1,90 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.jmh;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MMXMessageHandlingRule;
+import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MMXMsgRuleInput;
+import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MMXPacketInterceptor;
+import org.jivesoftware.openfire.interceptor.PacketRejectedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmpp.packet.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per message cost of the packet interceptor and the message handling rule. A message addressed
+ * to a bare JID goes through distribution to all the devices of the user; a message addressed to
+ * a full JID goes through the rate limiter, device lookup and presence check. The database and
+ * presence are stubbed by {@link ServerStubs}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageHandlingBenchmark {
+
+  @Param({"1", "5"})
+  public int devicesPerUser;
+
+  private MMXMessageHandlingRule rule;
+  private MMXPacketInterceptor interceptor;
+  private Message bareJIDMessage;
+  private Message fullJIDMessage;
+
+  @Setup
+  public void setup() {
+    ServerStubs.install(devicesPerUser);
+    rule = new MMXMessageHandlingRule();
+    interceptor = new MMXPacketInterceptor(rule);
+    bareJIDMessage = ServerStubs.buildMessage("bareJIDMessage", null);
+    fullJIDMessage = ServerStubs.buildMessage("fullJIDMessage", "device0");
+  }
+
+  @Benchmark
+  public Object interceptBareJID() {
+    try {
+      interceptor.interceptPacket(bareJIDMessage, null, true, false);
+    } catch (PacketRejectedException e) {
+      // processing of a message to a bare JID always ends with a rejection
+      return e;
+    }
+    return null;
+  }
+
+  @Benchmark
+  public Object interceptFullJID() throws PacketRejectedException {
+    interceptor.interceptPacket(fullJIDMessage, null, true, false);
+    return fullJIDMessage;
+  }
+
+  @Benchmark
+  public Object handleFullJID() throws PacketRejectedException {
+    MMXMsgRuleInput input = new MMXMsgRuleInput(fullJIDMessage, null, true, false, false, false);
+    rule.handle(input);
+    return input;
+  }
+}
@@ -0,0 +1,59 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.jmh;
+
+import com.magnet.mmx.server.plugin.mmxmgmt.message.MessageIdGenerator;
+import com.magnet.mmx.server.plugin.mmxmgmt.message.MessageIdGeneratorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of generating the id of a message and of a published item.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageIdGeneratorBenchmark {
+
+  private MessageIdGenerator generator;
+
+  @Setup
+  public void setup() {
+    generator = new MessageIdGeneratorImpl();
+  }
+
+  @Benchmark
+  public String generate() {
+    return generator.generate("sender%" + ServerStubs.APP_ID, ServerStubs.APP_ID, "device0");
+  }
+
+  @Benchmark
+  public String generateItemIdentifier() {
+    return generator.generateItemIdentifier("/" + ServerStubs.APP_ID + "/*/news");
+  }
+}
@@ -0,0 +1,92 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.jmh;
+
+import com.magnet.mmx.protocol.Constants;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushAPNSPayloadBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushGCMPayloadBuilder;
+import com.magnet.mmx.server.plugin.mmxmgmt.push.MMXPushHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the APNS and GCM payloads of a push message and of a wakeup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushPayloadBenchmark {
+
+  private MMXPushHeader header;
+  private Map<String, String> custom;
+
+  @Setup
+  public void setup() {
+    header = new MMXPushHeader(Constants.MMX, Constants.MMX_ACTION_CODE_PUSH);
+    custom = new HashMap<String, String>();
+    custom.put("key1", "value1");
+    custom.put("key2", "value2");
+  }
+
+  @Benchmark
+  public String apnsPayload() {
+    return new MMXPushAPNSPayloadBuilder()
+        .setTitle("Benchmark")
+        .setBody("Hello world, this is a benchmark push message")
+        .setBadge(Integer.valueOf(1))
+        .setSound("default")
+        .setCustomDictionary(custom)
+        .setId("pushMessageId")
+        .setType(header)
+        .build();
+  }
+
+  @Benchmark
+  public String gcmPayload() {
+    return new MMXPushGCMPayloadBuilder()
+        .setTitle("Benchmark")
+        .setBody("Hello world, this is a benchmark push message")
+        .setSound("default")
+        .setCustomDictionary(custom)
+        .setId("pushMessageId")
+        .setType(header)
+        .build();
+  }
+
+  @Benchmark
+  public String apnsWakeupPayload() {
+    return MMXPushAPNSPayloadBuilder.wakeupPayload();
+  }
+
+  @Benchmark
+  public String gcmWakeupPayload() {
+    return MMXPushGCMPayloadBuilder.wakeupPayload();
+  }
+}
@@ -0,0 +1,243 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.jmh;
+
+import com.magnet.mmx.protocol.OSType;
+import com.magnet.mmx.server.common.data.AppEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppConfigurationCache;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.AppDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceDAO;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.DeviceStatus;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageEntity;
+import com.magnet.mmx.server.plugin.mmxmgmt.db.MessageStateWriter;
+import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MMXPresenceFinder;
+import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MMXPresenceFinderImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.interceptor.MessageDistributorImpl;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.DBUtil;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXConfiguration;
+import com.magnet.mmx.server.plugin.mmxmgmt.util.MMXOfflineStorageUtil;
+import mockit.Mock;
+import mockit.MockUp;
+import org.jivesoftware.openfire.PacketRouter;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replaces the database, presence, routing and configuration dependencies of the message path
+ * with in-memory stubs so that the benchmarks measure only the code of the plugin. Every user has
+ * the same devices and all the devices are online.
+ */
+public class ServerStubs {
+  public static final String APP_ID = "AAABSNIBKOstQST7";
+  public static final String DOMAIN = "mmx.magnet.com";
+
+  private static final AtomicLong routedCount = new AtomicLong();
+  private static final AtomicLong persistedCount = new AtomicLong();
+
+  /**
+   * Install the stubs.
+   * @param devicesPerUser number of active devices returned for each user
+   */
+  public static void install(final int devicesPerUser) {
+    new MockUp<MMXConfiguration>() {
+      @Mock
+      public String getString(String key, String defaultValue) {
+        return defaultValue;
+      }
+
+      @Mock
+      public int getInt(String key, int defaultValue) {
+        return defaultValue;
+      }
+
+      @Mock
+      public long getLong(String key, long defaultValue) {
+        return defaultValue;
+      }
+
+      @Mock
+      public boolean getBoolean(String key, boolean defaultValue) {
+        return defaultValue;
+      }
+    };
+
+    new MockUp<AppConfigurationCache>() {
+      @Mock
+      public String getString(String appId, String key) {
+        return null;
+      }
+    };
+
+    final DeviceDAO deviceDAO = new MockUp<DeviceDAO>() {
+      @Mock
+      public List<DeviceEntity> getDevices(String appId, String userId, DeviceStatus status) {
+        List<DeviceEntity> devices = new ArrayList<DeviceEntity>(devicesPerUser);
+        for (int i = 0; i < devicesPerUser; i++) {
+          devices.add(getDeviceEntity(appId, userId, "device" + i));
+        }
+        return devices;
+      }
+
+      @Mock
+      public DeviceEntity getDevice(String appId, String deviceId) {
+        return getDeviceEntity(appId, "user", deviceId);
+      }
+    }.getMockInstance();
+
+    final AppDAO appDAO = new MockUp<AppDAO>() {
+      @Mock
+      public AppEntity getAppForAppKey(String appId) {
+        AppEntity entity = new AppEntity();
+        entity.setAppId(appId);
+        entity.setName("benchmark");
+        return entity;
+      }
+    }.getMockInstance();
+
+    new MockUp<DBUtil>() {
+      @Mock
+      public DeviceDAO getDeviceDAO() {
+        return deviceDAO;
+      }
+
+      @Mock
+      public AppDAO getAppDAO() {
+        return appDAO;
+      }
+    };
+
+    new MockUp<MMXPresenceFinderImpl>() {
+      @Mock
+      public boolean isOnline(JID user) {
+        return true;
+      }
+
+      @Mock
+      public Set<JID> getOnlineJIDs(Collection<JID> users) {
+        return new HashSet<JID>(users);
+      }
+    };
+
+    final PacketRouter router = new CountingPacketRouter();
+    new MockUp<MessageDistributorImpl>() {
+      @Mock
+      PacketRouter getPacketRouter() {
+        return router;
+      }
+
+      @Mock
+      DeviceDAO getDeviceDAO() {
+        return deviceDAO;
+      }
+
+      @Mock
+      MMXPresenceFinder getPresenceFinder() {
+        return new MMXPresenceFinderImpl();
+      }
+    };
+
+    new MockUp<MessageStateWriter>() {
+      @Mock
+      public void persist(MessageEntity entity) {
+        persistedCount.incrementAndGet();
+      }
+
+      @Mock
+      public void messageReceived(String messageId, String receivedByDeviceId) {
+        persistedCount.incrementAndGet();
+      }
+    };
+
+    new MockUp<MMXOfflineStorageUtil>() {
+      @Mock
+      public void storeMessage(Message message) {
+      }
+
+      @Mock
+      public void storeMessages(List<Message> messages) {
+      }
+    };
+  }
+
+  /**
+   * Build a chat message from one user of the benchmark app to another.
+   * @param id message id
+   * @param toResource resource of the recipient or null for the bare JID
+   * @return message
+   */
+  public static Message buildMessage(String id, String toResource) {
+    Message message = new Message();
+    message.setID(id);
+    message.setType(Message.Type.chat);
+    message.setFrom(new JID("sender%" + APP_ID, DOMAIN, "device0"));
+    message.setTo(new JID("receiver%" + APP_ID, DOMAIN, toResource));
+    message.setBody("Hello world, this is a benchmark message body");
+    return message;
+  }
+
+  public static long getRoutedCount() {
+    return routedCount.get();
+  }
+
+  public static long getPersistedCount() {
+    return persistedCount.get();
+  }
+
+  private static DeviceEntity getDeviceEntity(String appId, String userId, String deviceId) {
+    DeviceEntity entity = new DeviceEntity();
+    entity.setAppId(appId);
+    entity.setOwnerId(userId);
+    entity.setDeviceId(deviceId);
+    entity.setOsType(OSType.ANDROID);
+    entity.setStatus(DeviceStatus.ACTIVE);
+    return entity;
+  }
+
+  /**
+   * Packet router that only counts the routed packets.
+   */
+  private static class CountingPacketRouter implements PacketRouter {
+    @Override
+    public void route(Packet packet) {
+      routedCount.incrementAndGet();
+    }
+
+    @Override
+    public void route(IQ packet) {
+      routedCount.incrementAndGet();
+    }
+
+    @Override
+    public void route(Message packet) {
+      routedCount.incrementAndGet();
+    }
+
+    @Override
+    public void route(Presence packet) {
+      routedCount.incrementAndGet();
+    }
+  }
+}
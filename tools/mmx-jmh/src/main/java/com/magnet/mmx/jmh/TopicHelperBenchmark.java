@@ -0,0 +1,70 @@
+/*   Copyright (c) 2015 Magnet Systems, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.magnet.mmx.jmh;
+
+import com.magnet.mmx.util.TopicHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building and parsing the pubsub node ids of user and global topics.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicHelperBenchmark {
+
+  private String globalTopic;
+  private String userTopic;
+
+  @Setup
+  public void setup() {
+    globalTopic = TopicHelper.makeTopic(ServerStubs.APP_ID, null, "news/sports");
+    userTopic = TopicHelper.makeTopic(ServerStubs.APP_ID, "receiver", "inbox");
+  }
+
+  @Benchmark
+  public String makeGlobalTopic() {
+    return TopicHelper.makeTopic(ServerStubs.APP_ID, null, "news/sports");
+  }
+
+  @Benchmark
+  public String makeUserTopic() {
+    return TopicHelper.makeTopic(ServerStubs.APP_ID, "Receiver", "inbox");
+  }
+
+  @Benchmark
+  public Object parseGlobalTopic() {
+    return TopicHelper.parseTopic(globalTopic);
+  }
+
+  @Benchmark
+  public Object parseUserTopic() {
+    return TopicHelper.parseTopic(userTopic);
+  }
+}
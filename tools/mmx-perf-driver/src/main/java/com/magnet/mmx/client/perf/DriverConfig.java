@@ -20,7 +20,7 @@ import com.magnet.mmx.client.common.Log;
 
 abstract class DriverConfig {
   public String appName = "PerfDrvApp";
-  public String host = "54.183.139.43";
+  public String host = "localhost";
   public String userPrefix = "u-";
   public int logLevel = Log.DEBUG;
   public int numClients = 1;        // # clients plus one driver.
@@ -31,6 +31,10 @@ abstract class DriverConfig {
   public long maxWaitTime = 500;    // in msec
   public long duration = 60 * 1000;        // in msec
   public boolean registerApp = false;
+  public int rate = 0;              // sends/sec per client, 0 for closed-loop
+  public String outputFormat = "text";  // text, csv or json
+  public String outputFile;         // latency report file, null for stdout
+  public long maxP99 = 0;           // in msec, 0 for no limit
 
   public abstract int parseExtraOption(String[] args, int index);
   public abstract void reportExtraConfig(StringBuilder sb);
@@ -43,6 +47,7 @@ abstract class DriverConfig {
       .append(Utils.pad("# Clients:", 15)).append(numClients).append('\n')
       .append(Utils.pad("Size:", 15)).append(minSize).append(',').append(maxSize).append('\n')
       .append(Utils.pad("Wait:", 15)).append(minWaitTime).append(',').append(maxWaitTime).append("ms").append('\n')
+      .append(Utils.pad("Mode:", 15)).append(isOpenLoop() ? "open-loop "+rate+"/s" : "closed-loop").append('\n')
       .append(Utils.pad("Duration:", 15)).append(duration/1000).append('s').append('\n');
     reportExtraConfig(sb);
     return sb;
@@ -51,10 +56,12 @@ abstract class DriverConfig {
   public void printUsage() {
     System.out.println("[-h host] [-r] -n AppName [-l s|v|d|i|w|e]"+
         "[-c #clients] [-u userPrefix] [-s minSize] [-S maxSize] "+
-        "[-w minWait] [-W maxWait] [-d duration] [-f refresh] [-?]");
+        "[-w minWait] [-W maxWait] [-d duration] [-f refresh] [-R rate] "+
+        "[-o text|csv|json] [-O file] [-G maxP99] [-?]");
     printExtraUsage();
     System.out.println("size has M|m|K|k, wait/duration/refresh has w|d|h|m|s|M");
-    System.out.println("-t for receipt enable probability");
+    System.out.println("-R for open-loop sends per second per client (ignores -w/-W)");
+    System.out.println("-o/-O for the latency report format and file, -G for the p99 limit in msec");
     printExtraHint();
   }
   
@@ -96,6 +103,18 @@ abstract class DriverConfig {
       } else if (opt.equals("-d")) {
         String arg = args[++i];
         duration = parseTime(arg);
+      } else if (opt.equals("-R")) {
+        String arg = args[++i];
+        rate = parseInt(arg);
+      } else if (opt.equals("-o")) {
+        String arg = args[++i];
+        outputFormat = parseFormat(arg);
+      } else if (opt.equals("-O")) {
+        String arg = args[++i];
+        outputFile = arg;
+      } else if (opt.equals("-G")) {
+        String arg = args[++i];
+        maxP99 = parseTime(arg);
       } else if (opt.equals("-l")) {
         String arg = args[++i];
         logLevel = parseLogLevel(arg);
@@ -105,6 +124,29 @@ abstract class DriverConfig {
     }
   }
 
+  public boolean isOpenLoop() {
+    return rate > 0;
+  }
+
+  // The interval between two scheduled sends in nanoseconds for open-loop.
+  public long getSendInterval() {
+    return 1000000000L / rate;
+  }
+
+  // The expected interval between two sends in nanoseconds for the
+  // coordinated omission correction of the send times, 0 for closed-loop
+  // where the next send always waits for the previous one.
+  public long getExpectedInterval() {
+    return isOpenLoop() ? getSendInterval() : 0;
+  }
+
+  public static String parseFormat(String arg) {
+    if (arg.equals("text") || arg.equals("csv") || arg.equals("json")) {
+      return arg;
+    }
+    throw new IllegalArgumentException("Invalid format (text|csv|json): "+arg);
+  }
+
   public static int parseSize(String arg) {
     int unit = 1;
     char c = arg.charAt(arg.length()-1);
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2014-2015 Magnet Systems, Inc.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You
+ * may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.magnet.mmx.client.perf;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.magnet.mmx.client.common.MMXPayload;
+
+/**
+ * End-to-end latency histograms of a driver run.  The senders stamp each
+ * payload with its scheduled send time (System.nanoTime(); the senders and the
+ * receivers run in the same driver process.)  In the open-loop mode the
+ * schedule is fixed by the rate, so a stalled send still counts from the time
+ * it should have been sent.  In the closed-loop mode the scheduled time is the
+ * actual send time.  The receive and receipt latencies are never corrected.
+ *
+ * The senders also record how long each send takes.  In the open-loop mode a
+ * send that takes longer than the send interval holds up the sends scheduled
+ * after it, so the send histogram is corrected for coordinated omission using
+ * the send interval as the expected interval.
+ *
+ * Latencies are recorded in microseconds and reported in milliseconds per
+ * refresh interval and for the whole run as text, CSV or JSON (one object per
+ * line.)
+ */
+class LatencyStats {
+  final static String META_SCHEDULED = "perf-sched";
+  final static String RECEIVE = "receive";
+  final static String RECEIPT = "receipt";
+  final static String SEND = "send";
+  private final static long MAX_LATENCY = TimeUnit.MINUTES.toMicros(10);
+
+  private final String mFormat;
+  private final PrintStream mOut;
+  private final long mStartTime = System.nanoTime();
+  private final Recorder mRcvRecorder = new Recorder(MAX_LATENCY, 3);
+  private final Recorder mRcptRecorder = new Recorder(MAX_LATENCY, 3);
+  private final Recorder mSendRecorder = new Recorder(MAX_LATENCY, 3);
+  private final Histogram mRcvTotal = new Histogram(MAX_LATENCY, 3);
+  private final Histogram mRcptTotal = new Histogram(MAX_LATENCY, 3);
+  private final Histogram mSendTotal = new Histogram(MAX_LATENCY, 3);
+  private Histogram mRcvInterval;
+  private Histogram mRcptInterval;
+  private Histogram mSendInterval;
+  private boolean mHeaderDone;
+
+  public LatencyStats(DriverConfig config) throws FileNotFoundException {
+    mFormat = config.outputFormat;
+    mOut = (config.outputFile == null) ? System.out :
+      new PrintStream(new FileOutputStream(config.outputFile), true);
+  }
+
+  // Stamp the payload with its scheduled send time.
+  public static MMXPayload schedule(MMXPayload payload, long schedTime) {
+    return payload.setMetaData(META_SCHEDULED, String.valueOf(schedTime));
+  }
+
+  // Get the scheduled send time of a received payload, or -1 if not stamped.
+  public static long getScheduled(MMXPayload payload) {
+    String value = payload.getMetaData(META_SCHEDULED, null);
+    if (value == null) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * Record the latency from the scheduled send time to now.
+   * @param name {@link #RECEIVE} or {@link #RECEIPT}
+   * @param schedTime The scheduled send time in nanoseconds.
+   */
+  public void record(String name, long schedTime) {
+    if (schedTime < 0) {
+      return;
+    }
+    Recorder recorder = RECEIPT.equals(name) ? mRcptRecorder : mRcvRecorder;
+    recorder.recordValue(elapsed(schedTime));
+  }
+
+  /**
+   * Record the time taken by a send from its start to now.
+   * @param startTime The time the send started in nanoseconds.
+   * @param expectedInterval The send interval in nanoseconds for the open-loop
+   *        correction, or 0 for closed-loop.
+   */
+  public void recordSend(long startTime, long expectedInterval) {
+    long elapsed = elapsed(startTime);
+    if (expectedInterval > 0) {
+      mSendRecorder.recordValueWithExpectedInterval(elapsed,
+          Math.max(1L, TimeUnit.NANOSECONDS.toMicros(expectedInterval)));
+    } else {
+      mSendRecorder.recordValue(elapsed);
+    }
+  }
+
+  private static long elapsed(long startTime) {
+    return Math.max(0L, Math.min(MAX_LATENCY,
+        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime)));
+  }
+
+  // Report the latencies since the last interval report.
+  public synchronized void reportInterval() {
+    mRcvInterval = mRcvRecorder.getIntervalHistogram(mRcvInterval);
+    mRcptInterval = mRcptRecorder.getIntervalHistogram(mRcptInterval);
+    mSendInterval = mSendRecorder.getIntervalHistogram(mSendInterval);
+    mRcvTotal.add(mRcvInterval);
+    mRcptTotal.add(mRcptInterval);
+    mSendTotal.add(mSendInterval);
+    report("interval", RECEIVE, mRcvInterval);
+    report("interval", RECEIPT, mRcptInterval);
+    report("interval", SEND, mSendInterval);
+  }
+
+  // Report the latencies of the whole run.
+  public synchronized void reportTotal() {
+    reportInterval();
+    report("total", RECEIVE, mRcvTotal);
+    report("total", RECEIPT, mRcptTotal);
+    report("total", SEND, mSendTotal);
+    if (mOut != System.out) {
+      mOut.close();
+    }
+  }
+
+  /**
+   * Check the 99th percentile of the receive latency of the whole run.
+   * @param maxP99 The limit in milliseconds, or 0 for no limit.
+   * @return false if the limit is exceeded.
+   */
+  public synchronized boolean checkP99(long maxP99) {
+    if (maxP99 <= 0) {
+      return true;
+    }
+    double p99 = toMillis(mRcvTotal.getValueAtPercentile(99.0));
+    if (p99 > maxP99) {
+      System.err.println("p99 latency "+p99+"ms exceeds the limit of "+maxP99+"ms");
+      return false;
+    }
+    return true;
+  }
+
+  private void report(String period, String name, Histogram histogram) {
+    if (histogram.getTotalCount() == 0) {
+      return;
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - mStartTime);
+    StringBuilder sb = new StringBuilder(128);
+    if ("csv".equals(mFormat)) {
+      if (!mHeaderDone) {
+        mOut.println("elapsed,period,latency,count,p50,p99,p99.9,max");
+        mHeaderDone = true;
+      }
+      sb.append(elapsed).append(',').append(period).append(',').append(name)
+        .append(',').append(histogram.getTotalCount())
+        .append(',').append(format(histogram.getValueAtPercentile(50.0)))
+        .append(',').append(format(histogram.getValueAtPercentile(99.0)))
+        .append(',').append(format(histogram.getValueAtPercentile(99.9)))
+        .append(',').append(format(histogram.getMaxValue()));
+    } else if ("json".equals(mFormat)) {
+      sb.append("{\"elapsed\":").append(elapsed)
+        .append(",\"period\":\"").append(period)
+        .append("\",\"latency\":\"").append(name)
+        .append("\",\"count\":").append(histogram.getTotalCount())
+        .append(",\"p50\":").append(format(histogram.getValueAtPercentile(50.0)))
+        .append(",\"p99\":").append(format(histogram.getValueAtPercentile(99.0)))
+        .append(",\"p99.9\":").append(format(histogram.getValueAtPercentile(99.9)))
+        .append(",\"max\":").append(format(histogram.getMaxValue()))
+        .append('}');
+    } else {
+      sb.append(Utils.pad(elapsed+"s "+period+" "+name, 24)).append(" count=")
+        .append(histogram.getTotalCount());
+      sb.append(" p50=").append(format(histogram.getValueAtPercentile(50.0)))
+        .append(" p99=").append(format(histogram.getValueAtPercentile(99.0)))
+        .append(" p99.9=").append(format(histogram.getValueAtPercentile(99.9)))
+        .append(" max=").append(format(histogram.getMaxValue())).append("ms");
+    }
+    mOut.println(sb);
+  }
+
+  private static double toMillis(long micros) {
+    return micros / 1000.0;
+  }
+
+  private static String format(long micros) {
+    return String.format(Locale.US, "%.3f", toMillis(micros));
+  }
+}
@@ -16,12 +16,15 @@
  */
 package com.magnet.mmx.client.perf;
 
+import java.io.FileNotFoundException;
 import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import com.magnet.mmx.client.MMXClient;
 import com.magnet.mmx.client.MMXContext;
@@ -57,6 +60,7 @@ public class MessagePerfDriver {
   private ArrayList<MsgClient> mConClients;
   private ArrayList<MsgClient> mDiscClients;
   private MMXSettings mSettings;
+  private LatencyStats mLatency;
   private Random mRand = new Random();
   private Options OPTIONS_RCPT_ENABLED = new Options().enableReceipt(true);
 
@@ -183,6 +187,8 @@ public class MessagePerfDriver {
     private MMXid mClientId;
     private MMXClient mClient;
     private String mUserId;
+    // Scheduled send time of the messages waiting for a receipt.
+    private ConcurrentHashMap<String, Long> mRcptPending = new ConcurrentHashMap<String, Long>();
     
     public MsgClient(String userId, String devId, MessagePerfDriver driver,
                        EventListener<MsgClient> listener) {
@@ -279,17 +285,36 @@ public class MessagePerfDriver {
       mAbort = false;
       try {
         mMsgMgr = mClient.getMessageManager();
-        long endTime = System.currentTimeMillis() + mDriver.getConfig().duration;
+        DriverConfig config = mDriver.getConfig();
+        long endTime = System.currentTimeMillis() + config.duration;
+        long schedTime = System.nanoTime();
         while (!mAbort && System.currentTimeMillis() < endTime) {
-          Thread.sleep(mWaitTime);
+          if (config.isOpenLoop()) {
+            // Fixed schedule: a late send is not skipped and its latency
+            // counts from the time it was scheduled.
+            schedTime += config.getSendInterval();
+            long delay = schedTime - System.nanoTime();
+            if (delay > 0) {
+              TimeUnit.NANOSECONDS.sleep(delay);
+            }
+          } else {
+            Thread.sleep(mWaitTime);
+            schedTime = System.nanoTime();
+          }
           MMXid to = mDriver.getRandomRecipient();
           if (to == null) {
             // No connected clients (including self) available.
             break;
           }
-          MMXPayload payload = new MMXPayload(mText);
+          MMXPayload payload = LatencyStats.schedule(new MMXPayload(mText), schedTime);
           Options options = mDriver.getRandomReceipt();
-          mMsgMgr.sendPayload(new MMXid[] { to }, payload, options);
+          String msgId = mClient.genMessageId();
+          if (options != null) {
+            mRcptPending.put(msgId, schedTime);
+          }
+          long sendStart = System.nanoTime();
+          mMsgMgr.sendPayload(msgId, new MMXid[] { to }, payload, options);
+          mDriver.recordSend(sendStart);
         }
         mDone = true;
         if (!mAbort) {
@@ -315,6 +340,8 @@ public class MessagePerfDriver {
         mDelayMsg++;
       }
       mRcvTotal += message.getPayload().getDataSize();
+      mDriver.recordLatency(LatencyStats.RECEIVE,
+          LatencyStats.getScheduled(message.getPayload()));
       
       if (receiptId != null) {
         try {
@@ -349,6 +376,10 @@ public class MessagePerfDriver {
         return;
       
       mMsgDelivered++;
+      Long schedTime = mRcptPending.remove(msgId);
+      if (schedTime != null) {
+        mDriver.recordLatency(LatencyStats.RECEIPT, schedTime);
+      }
     }
 
     @Override
@@ -410,7 +441,8 @@ public class MessagePerfDriver {
     }
   }
 
-  public MessagePerfDriver(MessageDriverConfig config) throws MMXException {
+  public MessagePerfDriver(MessageDriverConfig config) throws MMXException,
+                                                    FileNotFoundException {
     Log.setLoggable(TAG, config.logLevel);
     MMXContext appContext = new MMXContext(".", "0.9", "instance-1");
     if (config.registerApp) {
@@ -425,6 +457,7 @@ public class MessagePerfDriver {
     }
     mThread = Thread.currentThread();
     mConfig = config;
+    mLatency = new LatencyStats(config);
   }
 
   public void getTotalsReport(StringBuilder sb, List<MsgClient> clients) {
@@ -454,6 +487,14 @@ public class MessagePerfDriver {
     return mSettings;
   }
 
+  void recordLatency(String name, long schedTime) {
+    mLatency.record(name, schedTime);
+  }
+
+  void recordSend(long startTime) {
+    mLatency.recordSend(startTime, mConfig.getExpectedInterval());
+  }
+
   // Register a new application with bogus APNS Certificate and GCM Project ID.
   // Assume that the service name is "mmx".
   public MMXSettings registerApp(MMXContext context, String host, 
@@ -593,6 +634,7 @@ public class MessagePerfDriver {
         // One client is done.
       }
       report();
+      mLatency.reportInterval();
     }
     return this;
   }
@@ -623,6 +665,17 @@ public class MessagePerfDriver {
     System.out.println(sb);
     return this;
   }
+
+  // Generate the latency report of the whole run.
+  public MessagePerfDriver reportLatency() {
+    mLatency.reportTotal();
+    return this;
+  }
+
+  // Check the p99 receive latency against the configured limit.
+  public boolean isLatencyOk() {
+    return mLatency.checkP99(mConfig.maxP99);
+  }
   
   // Close down all clients.
   public MessagePerfDriver shutdown(long delay) {
@@ -694,16 +747,21 @@ public class MessagePerfDriver {
     MessageDriverConfig config = new MessageDriverConfig();
     config.parseOptions(args);
     try {
-      new MessagePerfDriver(config)
+      MessagePerfDriver driver = new MessagePerfDriver(config)
           .init()
           .waitForConnected()
           .start()
           .waitForDone()
           .shutdown(5000L)
           .reportConfig()
-          .report();
+          .report()
+          .reportLatency();
+      if (!driver.isLatencyOk()) {
+        System.exit(1);
+      }
     } catch (Throwable e) {
       e.printStackTrace();
+      System.exit(1);
     }
   }
 }
@@ -16,12 +16,14 @@
  */
 package com.magnet.mmx.client.perf;
 
+import java.io.FileNotFoundException;
 import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import com.magnet.mmx.client.MMXClient;
 import com.magnet.mmx.client.MMXContext;
@@ -64,6 +66,7 @@ public class TopicPerfDriver {
   private ArrayList<TopicSubscriber> mConClients;
   private ArrayList<TopicSubscriber> mDiscClients;
   private MMXSettings mSettings;
+  private LatencyStats mLatency;
   private Random mRand = new Random();
   
   private EventListener<TopicPublisher> mPubListener = new EventListener<TopicPublisher>() {
@@ -267,11 +270,25 @@ public class TopicPerfDriver {
       mAbort = false;
       try {
         mPubSubMgr = mClient.getPubSubManager();
-        long endTime = System.currentTimeMillis() + mDriver.getConfig().duration;
+        DriverConfig config = mDriver.getConfig();
+        long endTime = System.currentTimeMillis() + config.duration;
+        long schedTime = System.nanoTime();
         while (!mAbort && System.currentTimeMillis() < endTime) {
-          Thread.sleep(mWaitTime);
+          if (config.isOpenLoop()) {
+            // Fixed schedule: a late round is not skipped and its latency
+            // counts from the time it was scheduled.
+            schedTime += config.getSendInterval();
+            long delay = schedTime - System.nanoTime();
+            if (delay > 0) {
+              TimeUnit.NANOSECONDS.sleep(delay);
+            }
+          } else {
+            Thread.sleep(mWaitTime);
+            schedTime = System.nanoTime();
+          }
+          long sendStart = System.nanoTime();
           for (MMXTopic topic : mDriver.mTopics) {
-            MMXPayload payload = new MMXPayload(mText);
+            MMXPayload payload = LatencyStats.schedule(new MMXPayload(mText), schedTime);
             try {
               String itemId = mPubSubMgr.publish(topic, payload);
               mItemsPub++;
@@ -281,6 +298,7 @@ public class TopicPerfDriver {
               System.err.println("Publishing item failed: "+e.getMessage());
             }
           }
+          mDriver.recordSend(sendStart);
         }
         mDone = true;
         if (!mAbort) {
@@ -535,6 +553,8 @@ public class TopicPerfDriver {
         mItemsDelay++;
       }
       mRcvTotal += message.getPayload().getDataSize();
+      mDriver.recordLatency(LatencyStats.RECEIVE,
+          LatencyStats.getScheduled(message.getPayload()));
     }
 
     @Override
@@ -574,7 +594,8 @@ public class TopicPerfDriver {
     }
   }
 
-  public TopicPerfDriver(TopicDriverConfig config) throws MMXException {
+  public TopicPerfDriver(TopicDriverConfig config) throws MMXException,
+                                                FileNotFoundException {
     Log.setLoggable(TAG, config.logLevel);
     MMXContext appContext = new MMXContext(".", "0.9", "instance-1");
     if (config.registerApp) {
@@ -589,6 +610,7 @@ public class TopicPerfDriver {
     }
     mThread = Thread.currentThread();
     mConfig = config;
+    mLatency = new LatencyStats(config);
     mTopics = new ArrayList<MMXTopic>();
     for (int i = 0; i < mConfig.numTopics; i++) {
       mTopics.add(new MMXGlobalTopic("t-"+i));
@@ -784,6 +806,7 @@ public class TopicPerfDriver {
         // The publisher is done.
       }
       report();
+      mLatency.reportInterval();
     }
     return this;
   }
@@ -816,6 +839,25 @@ public class TopicPerfDriver {
     System.out.println(sb);
     return this;
   }
+
+  // Generate the latency report of the whole run.
+  public TopicPerfDriver reportLatency() {
+    mLatency.reportTotal();
+    return this;
+  }
+
+  // Check the p99 receive latency against the configured limit.
+  public boolean isLatencyOk() {
+    return mLatency.checkP99(mConfig.maxP99);
+  }
+
+  void recordLatency(String name, long schedTime) {
+    mLatency.record(name, schedTime);
+  }
+
+  void recordSend(long startTime) {
+    mLatency.recordSend(startTime, mConfig.getExpectedInterval());
+  }
   
   // Close down all clients.
   public TopicPerfDriver shutdown(long delay) {
@@ -867,16 +909,21 @@ public class TopicPerfDriver {
     TopicDriverConfig config = new TopicDriverConfig();
     config.parseOptions(args);
     try {
-      new TopicPerfDriver(config)
+      TopicPerfDriver driver = new TopicPerfDriver(config)
           .init()
           .waitForConnected()
           .start()
           .waitForDone()
           .shutdown(5000L)
           .reportConfig()
-          .report();
+          .report()
+          .reportLatency();
+      if (!driver.isLatencyOk()) {
+        System.exit(1);
+      }
     } catch (Throwable e) {
       e.printStackTrace();
+      System.exit(1);
     }
   }
 }
@@ -0,0 +1,22 @@
+#!/bin/bash
+#
+# Release gate against a local server: register a new application, run 10
+# clients in open-loop at 20 messages/second each for 5 minutes with 1kB
+# messages and receipts, write the per-interval latency percentiles as CSV and
+# fail if the p99 end-to-end latency exceeds the limit (default 200ms.)
+#
+# Usage: run-local.sh appName [maxP99] [csvFile]
+#        e.g. run-local.sh GateApp1 200M latency.csv
+#
+
+if [ $# -eq 0 ]; then
+  echo "Usage: run-local.sh appName [maxP99] [csvFile]"
+  exit 1
+fi
+
+APP=$1
+MAXP99=${2:-200M}
+CSV=${3:-latency-$APP.csv}
+
+`dirname $0`/run-perf.sh -h localhost -n $APP -r -c 10 -R 20 -s 1k -S 1k -e 100 \
+  -d 5m -f 10s -l w -o csv -O $CSV -G $MAXP99
@@ -10,6 +10,7 @@
 # Usage: run-perf.sh [-h host] -n appName [-r] [-c #clients] [-l loglevel] [-d time]
 #                    [-s minSize] [-S maxSize] [-w minTime] [-W maxTime] [-e 0..100]
 #                    [-t #topics] [-u userPrefix] [-f time]
+#                    [-R rate] [-o text|csv|json] [-O file] [-G time]
 #        where -n with a unique app name
 #              -r to register a new app
 #              -c number of concurrent clients
@@ -19,6 +20,9 @@
 #              -s|-S the min/max payload size in bytes
 #              -e percentage of clients to request for delivery receipts
 #              -f refresh interval
+#              -R open-loop sends per second per client instead of -w|-W
+#              -o|-O latency percentiles format and output file
+#              -G fail if the p99 latency exceeds the time
 #              log level as s|v|d|i|w|e
 #              size payload size with M|m|K|k (e.g. 400K for 400 * 1024 bytes)
 #              time with trailing modifier w|d|h|m|s|M (1w for week, 4h for 4 hours)
@@ -28,6 +32,7 @@
 if [ $# -eq 0 ]; then
   echo "Usage: run-perf.sh [-r] -n app [-c clients][-t topics][-w time][-W time]"
   echo "                   [-d time][-s size][-S size][-u prefix][-f time][-l log][-e %rcpt]"
+  echo "                   [-R rate][-o text|csv|json][-O file][-G time]"
 
   exit 1
 fi